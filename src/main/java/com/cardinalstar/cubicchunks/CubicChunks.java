@@ -28,7 +28,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import net.minecraft.command.CommandException;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ChatComponentTranslation;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.storage.ISaveHandler;
@@ -42,14 +44,18 @@ import com.cardinalstar.cubicchunks.api.world.storage.ICubicStorage;
 import com.cardinalstar.cubicchunks.api.world.storage.StorageFormatFactory;
 import com.cardinalstar.cubicchunks.api.worldtype.VanillaCubicWorldType;
 import com.cardinalstar.cubicchunks.async.TaskPool;
+import com.cardinalstar.cubicchunks.command.CommandCubicChunks;
+import com.cardinalstar.cubicchunks.command.CommandPregen;
 import com.cardinalstar.cubicchunks.event.handlers.ClientEventHandler;
 import com.cardinalstar.cubicchunks.event.handlers.CommonEventHandler;
+import com.cardinalstar.cubicchunks.network.CubeFormatNegotiation;
 import com.cardinalstar.cubicchunks.network.NetworkChannel;
 import com.cardinalstar.cubicchunks.server.ICubicChunksServer;
 import com.cardinalstar.cubicchunks.server.chunkio.RegionCubeStorage;
 import com.cardinalstar.cubicchunks.util.CompatHandler;
 import com.cardinalstar.cubicchunks.util.Mods;
 import com.cardinalstar.cubicchunks.util.SideUtils;
+import com.cardinalstar.cubicchunks.world.savedata.WorldFormatSavedData;
 import com.cardinalstar.cubicchunks.world.worldgen.WorldGenerators;
 import com.cardinalstar.cubicchunks.worldgen.WorldgenHangWatchdog;
 import com.falsepattern.chunk.api.DataRegistry;
@@ -64,9 +70,12 @@ import cpw.mods.fml.common.event.FMLInitializationEvent;
 import cpw.mods.fml.common.event.FMLPostInitializationEvent;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerAboutToStartEvent;
+import cpw.mods.fml.common.event.FMLServerStartedEvent;
+import cpw.mods.fml.common.event.FMLServerStartingEvent;
 import cpw.mods.fml.common.network.NetworkCheckHandler;
 import cpw.mods.fml.common.network.NetworkRegistry;
 import cpw.mods.fml.common.network.internal.NetworkModHolder;
+import cpw.mods.fml.common.registry.GameRegistry.UniqueIdentifier;
 import cpw.mods.fml.common.versioning.ArtifactVersion;
 import cpw.mods.fml.common.versioning.DefaultArtifactVersion;
 import cpw.mods.fml.common.versioning.InvalidVersionSpecificationException;
@@ -179,6 +188,7 @@ public class CubicChunks {
                 .register(clientEventHandler);
         });
         NetworkChannel.init();
+        CubeFormatNegotiation.init();
     }
 
     @Mod.EventHandler
@@ -201,8 +211,34 @@ public class CubicChunks {
         });
     }
 
+    @Mod.EventHandler
+    public void onServerStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new CommandCubicChunks());
+    }
+
+    @Mod.EventHandler
+    public void onServerStarted(FMLServerStartedEvent event) {
+        String pregen = CubicChunksConfig.pregenOnStart.trim();
+
+        if (pregen.isEmpty()) return;
+
+        try {
+            new CommandPregen().startIfNew(MinecraftServer.getServer(), pregen.split("\\s+"));
+        } catch (CommandException e) {
+            LOGGER.error(
+                "Invalid pregenOnStart config option \"{}\": {}",
+                pregen,
+                new ChatComponentTranslation(e.getMessage(), e.getErrorOjbects()).getUnformattedText());
+        }
+    }
+
     public static void registerAnvil3dStorageFormatProvider() {
-        StorageFormatFactory.REGISTRY.register(StorageFormatFactory.DEFAULT, new DefaultStorageFormatFactory());
+        StorageFormatFactory.REGISTRY.register(
+            StorageFormatFactory.DEFAULT,
+            new DefaultStorageFormatFactory(StorageFormatFactory.DEFAULT, "anvil3d", false));
+        StorageFormatFactory.REGISTRY.register(
+            StorageFormatFactory.ANVIL3D_BINARY,
+            new DefaultStorageFormatFactory(StorageFormatFactory.ANVIL3D_BINARY, "anvil3d_binary", true));
     }
 
     @NetworkCheckHandler
@@ -281,9 +317,12 @@ public class CubicChunks {
 
     private static class DefaultStorageFormatFactory extends StorageFormatFactory {
 
-        public DefaultStorageFormatFactory() {
-            setRegistryName(StorageFormatFactory.DEFAULT);
-            setUnlocalizedName("cubicchunks.gui.storagefmt.anvil3d");
+        private final boolean binaryCubes;
+
+        public DefaultStorageFormatFactory(UniqueIdentifier id, String name, boolean binaryCubes) {
+            this.binaryCubes = binaryCubes;
+            setRegistryName(id);
+            setUnlocalizedName("cubicchunks.gui.storagefmt." + name);
         }
 
         @Override
@@ -301,7 +340,11 @@ public class CubicChunks {
 
         @Override
         public ICubicStorage provideStorage(World world, Path path) throws IOException {
-            return new RegionCubeStorage(path);
+            return new RegionCubeStorage(
+                path,
+                binaryCubes,
+                WorldFormatSavedData.get(world)
+                    .getCompression());
         }
     }
 }
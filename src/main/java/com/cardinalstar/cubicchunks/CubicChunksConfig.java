@@ -103,9 +103,18 @@ public class CubicChunksConfig {
 
     @Config.LangKey("cubicchunks.config.storage_format")
     @Config.Comment("The storage format. Note: this will be used for all newly created worlds. Existing worlds will continue to use the format they were created with.\n"
-        + "If empty, the storage format for new worlds will be determined automatically.")
+        + "If empty, the storage format for new worlds will be determined automatically.\n"
+        + "Built-in formats: cubicchunks:anvil3d (GZIP'd NBT), cubicchunks:anvil3d_binary (compact binary cubes)")
     public static String storageFormat = "";
 
+    @Config.LangKey("cubicchunks.config.storage_compression")
+    @Config.Comment("The compression used for cube and column data. Like the storage format, this is only used for newly created worlds.\n"
+        + "none: no compression, fastest but uses the most disk space\n"
+        + "deflate_fast: fast deflate, decompresses much faster than gzip\n"
+        + "deflate_dict: deflate with a dictionary trained from the world's first saved cubes, best ratio for small cubes\n"
+        + "gzip: the format used by older versions")
+    public static String storageCompression = "deflate_fast";
+
     @Config.LangKey("cubicchunks.config.spawn_generate_distance_horizontal")
     @Config.Comment("Horizontal distance for initially generated spawn area")
     public static int spawnGenerateDistanceXZ = 12;
@@ -122,6 +131,19 @@ public class CubicChunksConfig {
     @Config.Comment("Vertical distance for spawn chunks kept loaded in memory")
     public static int spawnLoadDistanceY = 8;
 
+    @Config.LangKey("cubicchunks.config.pregen_on_start")
+    @Config.Comment("A pregeneration to start when the server starts, with the same arguments as /cubicchunks pregen: "
+        + "<dimension> <radius> <minY..maxY | height>. It's only started once, it isn't restarted after it finished or "
+        + "was stopped. Empty to disable.")
+    public static String pregenOnStart = "";
+
+    @Config.LangKey("cubicchunks.config.pregen_cubes_in_flight")
+    @Config.Comment("The maximum number of cubes a pregeneration waits on at once. Higher values keep more worker "
+        + "threads busy reading saved cubes but use more memory. Generating, populating and lighting the cubes "
+        + "happens on the server thread.")
+    @Config.RangeInt(min = 16)
+    public static int pregenCubesInFlight = 1024;
+
     @Config.LangKey("cubicchunks.config.default_min_height")
     @Config.Comment("World min height. Values that are not an integer multiple of 16 may cause unintended behavior")
     @Config.RangeInt(min = CubicChunks.MIN_SUPPORTED_BLOCK_Y, max = 0)
@@ -164,6 +186,88 @@ public class CubicChunksConfig {
         public int backgroundThreads = ManagementFactory.getOperatingSystemMXBean()
             .getAvailableProcessors() / 2;
 
+        @Config.LangKey("cubicchunks.config.optimizations.write_ahead_journal")
+        @Config.Comment("Append every save batch to a journal and sync only the journal, instead of syncing each region "
+            + "file the batch touches. Region files are synced when the journal reaches 64 MiB or is 5 minutes old. "
+            + "Only used with shadow paging IO.")
+        @Config.RequiresWorldRestart
+        public boolean writeAheadJournal = false;
+
+        @Config.LangKey("cubicchunks.config.optimizations.region_compaction")
+        @Config.Comment("Rewrite region files that have collected a lot of unused space in the background, once they "
+            + "haven't been used for a minute. Only used with shadow paging IO.")
+        public boolean regionCompaction = false;
+
+        @Config.LangKey("cubicchunks.config.optimizations.region_compaction_min_wasted_percent")
+        @Config.Comment("How much of a region file has to be unused before it's compacted, in percent.")
+        @Config.RangeInt(min = 1, max = 99)
+        public int regionCompactionMinWastedPercent = 50;
+
+        @Config.LangKey("cubicchunks.config.optimizations.region_presence_index")
+        @Config.Comment("Keep a bitmap of the cubes and columns each region file contains beside it, so that checking for "
+            + "cubes that were never saved doesn't open or create region files.")
+        @Config.RequiresWorldRestart
+        public boolean regionPresenceIndex = true;
+
+        @Config.LangKey("cubicchunks.config.optimizations.compact_cube_packets")
+        @Config.Comment("Send cubes to clients that support it with block palettes and compact light data instead of raw "
+            + "arrays. Uniform cubes (ie all stone with full light) shrink from about 10 KB to a few bytes.")
+        public boolean compactCubePackets = true;
+
+        @Config.LangKey("cubicchunks.config.optimizations.deflate_cube_packets")
+        @Config.Comment("Additionally deflate compact cube packets. Costs CPU time on the server thread, saves bandwidth.")
+        public boolean deflateCubePackets = true;
+
+        @Config.LangKey("cubicchunks.config.optimizations.max_deflate_bytes_per_tick")
+        @Config.Comment("The most cube data deflated per tick, over all players, in bytes. Cube packets sent after this "
+            + "are sent without deflating them, so that joining players don't cost a lot of server thread time.")
+        @Config.RangeInt(min = 0)
+        public int maxDeflateBytesPerTick = 512 * 1024;
+
+        @Config.LangKey("cubicchunks.config.optimizations.max_cube_send_bytes_per_tick")
+        @Config.Comment("The most cube data sent to a single player per tick, in bytes. Below this, the limit adapts to "
+            + "how fast the player's connection drains.")
+        @Config.RangeInt(min = 16384)
+        public int maxCubeSendBytesPerTick = 1024 * 1024;
+
+        @Config.LangKey("cubicchunks.config.optimizations.parallel_lighting")
+        @Config.Comment("Split large batches of light updates (ie after explosions or while flying into new terrain) into "
+            + "regions that are lit on the background threads. Blocks are asked for their light value and opacity "
+            + "through a view of the cubes within 32 blocks instead of the world itself, which may confuse blocks "
+            + "from some mods. Updates in columns up to 4 cubes apart are always lit by the same thread, so this only "
+            + "helps when the updates are spread over distant areas, not for a single explosion.")
+        public boolean parallelLighting = false;
+
+        @Config.LangKey("cubicchunks.config.optimizations.verify_parallel_lighting")
+        @Config.Comment("Debugging aid: undo every parallel light pass, repeat it on the server thread and log every "
+            + "light value that differs. Very slow.")
+        public boolean verifyParallelLighting = false;
+
+        @Config.LangKey("cubicchunks.config.optimizations.background_first_light")
+        @Config.Comment("Compute the initial light of populated cubes on the background threads before they're requested. "
+            + "Cubes that changed by the time they're requested are lit on the server thread as before.")
+        public boolean backgroundFirstLight = false;
+
+        @Config.LangKey("cubicchunks.config.optimizations.autosave_micros_per_tick")
+        @Config.Comment("How long autosaves may spend saving cubes each tick, in microseconds. Autosaves are spread over "
+            + "as many ticks as needed instead of saving everything at once. 0 saves everything in the autosave tick. "
+            + "Unloading a world and /save-all always save everything at once.")
+        @Config.RangeInt(min = 0)
+        public int autosaveMicrosPerTick = 2000;
+
+        @Config.LangKey("cubicchunks.config.optimizations.autosave_bytes_per_tick")
+        @Config.Comment("Roughly how much cube and column data autosaves may hand to the storage each tick, in bytes.")
+        @Config.RangeInt(min = 16384)
+        public int autosaveBytesPerTick = 4 * 1024 * 1024;
+
+        @Config.LangKey("cubicchunks.config.optimizations.interpolate_worldgen_noise")
+        @Config.Comment("Sample smooth worldgen noise (ie the cave noise) on a coarse grid and interpolate between the "
+            + "points instead of sampling every block. Terrain generated with it differs slightly from terrain "
+            + "generated without it, so caves won't line up where new cubes meet existing ones. Only enable this for "
+            + "new worlds.")
+        @Config.RequiresWorldRestart
+        public boolean interpolateWorldgenNoise = false;
+
     }
 
     static {
@@ -35,6 +35,10 @@ import cpw.mods.fml.common.registry.GameRegistry.UniqueIdentifier;
 public abstract class StorageFormatFactory extends AbstractRegistryEntry<StorageFormatFactory> {
 
     public static final UniqueIdentifier DEFAULT = new UniqueIdentifier("cubicchunks:anvil3d");
+    /**
+     * Same region layout as {@link #DEFAULT}, but cubes are stored in a compact binary encoding instead of GZIP'd NBT.
+     */
+    public static final UniqueIdentifier ANVIL3D_BINARY = new UniqueIdentifier("cubicchunks:anvil3d_binary");
     public static final Registry<StorageFormatFactory> REGISTRY = new Registry<>();
 
     public abstract Path getWorldSaveDirectory(ISaveHandler saveHandler, WorldServer worldServer);
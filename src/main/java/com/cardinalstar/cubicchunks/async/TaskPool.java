@@ -1,12 +1,15 @@
 package com.cardinalstar.cubicchunks.async;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 import org.jetbrains.annotations.Nullable;
@@ -15,6 +18,17 @@ import com.cardinalstar.cubicchunks.CubicChunks;
 import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.google.common.util.concurrent.AbstractFuture;
 
+/**
+ * Background task scheduler.
+ * <p>
+ * Every worker has its own queue per {@link Priority} lane. Tasks submitted from a worker go to that worker's queue,
+ * tasks submitted from any other thread are spread over the workers round-robin. Idle workers steal from the other
+ * workers' queues, always draining the most important lane first.
+ * <p>
+ * Tasks are batched per executor and lane: a task is added to the executor's newest batch in its lane for as long as
+ * the batch hasn't started running and {@link ITaskExecutor#canMerge} allows it, regardless of what was submitted in
+ * between.
+ */
 @SuppressWarnings({ "unused", "UnusedReturnValue" })
 public class TaskPool {
 
@@ -28,55 +42,180 @@ public class TaskPool {
         return thread;
     };
 
-    private static final Object QUEUE_LOCK = new Object();
-    private static final ArrayDeque<TaskContainer<?, ?>> TASK_QUEUE = new ArrayDeque<>(1024);
+    /**
+     * Scheduling lanes, in the order workers drain them.
+     */
+    public enum Priority {
+        /** Loads a player is waiting for. */
+        URGENT,
+        /** Speculative work, ie preloads and noise precalculation. */
+        BACKGROUND,
+        /** Saves. Nobody waits on them, but they keep their data cached until they're done. */
+        SAVE;
+
+        private static final Priority[] VALUES = values();
+    }
+
+    /** Every n-th batch a worker takes is picked from the least important lane first, so that no lane starves. */
+    private static final int STARVATION_INTERVAL = 8;
+
+    /** The batch each executor is currently adding tasks to, per lane. */
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentHashMap<ITaskExecutor<?, ?>, TaskContainer<?, ?>>[] OPEN_BATCHES = new ConcurrentHashMap[Priority.VALUES.length];
+
+    static {
+        for (int i = 0; i < OPEN_BATCHES.length; i++) {
+            OPEN_BATCHES[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /** One permit per queued batch. */
+    private static final Semaphore QUEUED = new Semaphore(0);
+    private static final AtomicInteger NEXT_WORKER = new AtomicInteger();
+
+    /** How long a worker waits before looking for its batch again, see {@link WorkerThread#run}. */
+    private static final long TAKE_RETRY_NANOS = 50_000;
 
-    private static final List<Thread> THREADS = new ArrayList<>();
+    private static volatile WorkerThread[] workers = new WorkerThread[0];
 
-    public static void init() {
-        THREADS.clear();
+    /**
+     * Starts the workers. If the pool was already running, the old workers finish the batch they're running and are
+     * replaced, and their queued batches are handed to the new workers.
+     */
+    public static synchronized void init() {
+        WorkerThread[] old = TaskPool.workers;
+
+        for (WorkerThread worker : old) {
+            worker.cancelled.set(true);
+        }
 
-        int count = CubicChunksConfig.optimizations.backgroundThreads;
+        // wake up each old worker once. An old worker exits after taking any permit, so this leaves one permit per
+        // queued batch, no matter which permits they took. They aren't interrupted: that would close any file channel
+        // they're in the middle of reading.
+        QUEUED.release(old.length);
+
+        for (WorkerThread worker : old) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the old workers to stop", e);
+            }
+        }
+
+        int count = Math.max(1, CubicChunksConfig.optimizations.backgroundThreads);
+
+        WorkerThread[] workers = new WorkerThread[count];
 
         for (int i = 0; i < count; i++) {
-            Thread worker = new WorkerThread();
-            THREADS.add(worker);
+            workers[i] = new WorkerThread(i);
+        }
+
+        // publish the new workers first, so that nothing is queued on the old ones after they were emptied
+        TaskPool.workers = workers;
+
+        // batches queued on the old workers would never run otherwise
+        for (WorkerThread worker : old) {
+            for (int lane = 0; lane < worker.lanes.length; lane++) {
+                TaskContainer<?, ?> container;
+
+                while ((container = worker.lanes[lane].pollFirst()) != null) {
+                    workers[0].lanes[lane].addLast(container);
+                }
+            }
+        }
+
+        for (WorkerThread worker : workers) {
             worker.start();
         }
     }
 
+    /**
+     * @return whether the calling thread is one of the pool's workers
+     */
+    public static boolean isWorkerThread() {
+        return Thread.currentThread() instanceof WorkerThread;
+    }
+
     private static class WorkerThread extends Thread {
 
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
-        public WorkerThread() {
+        private final int index;
+        @SuppressWarnings("unchecked")
+        private final ConcurrentLinkedDeque<TaskContainer<?, ?>>[] lanes = new ConcurrentLinkedDeque[Priority.VALUES.length];
+
+        private int picks;
+
+        public WorkerThread(int index) {
             super(String.format("CC BG Thread %d", THREAD_COUNTER.incrementAndGet()));
 
+            this.index = index;
+
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ConcurrentLinkedDeque<>();
+            }
+
             setDaemon(true);
         }
 
         @Override
         public void run() {
-            while (!cancelled.get()) {
-                TaskContainer<?, ?> task;
+            while (true) {
+                try {
+                    QUEUED.acquire();
+                } catch (InterruptedException e) {
+                    continue;
+                }
 
-                synchronized (QUEUE_LOCK) {
-                    if (TASK_QUEUE.isEmpty()) {
-                        try {
-                            QUEUE_LOCK.wait();
-                        } catch (InterruptedException e) {
-                            continue;
-                        }
-                    }
+                // see init, the permit we took is left for the new workers
+                if (cancelled.get()) return;
 
-                    task = TASK_QUEUE.poll();
-                }
+                // every permit belongs to a queued batch and batches are only taken by permit holders, so there
+                // always is a batch for us, even if another worker got to the one we were woken up for. Should that
+                // ever not hold, wait for it instead of spinning on a core the server thread may need.
+                TaskContainer<?, ?> task;
 
-                if (task == null) continue;
+                while ((task = take()) == null) {
+                    LockSupport.parkNanos(TAKE_RETRY_NANOS);
+                }
 
                 task.run();
             }
         }
+
+        @Nullable
+        private TaskContainer<?, ?> take() {
+            boolean reverse = ++picks % STARVATION_INTERVAL == 0;
+
+            for (int i = 0; i < lanes.length; i++) {
+                int lane = reverse ? lanes.length - 1 - i : i;
+
+                TaskContainer<?, ?> task = lanes[lane].pollFirst();
+                if (task != null) return task;
+
+                task = steal(lane);
+                if (task != null) return task;
+            }
+
+            return null;
+        }
+
+        @Nullable
+        private TaskContainer<?, ?> steal(int lane) {
+            WorkerThread[] workers = TaskPool.workers;
+
+            for (int i = 1; i < workers.length; i++) {
+                WorkerThread victim = workers[(index + i) % workers.length];
+
+                // steal the oldest batch: the newest one is most likely still collecting tasks
+                TaskContainer<?, ?> task = victim.lanes[lane].pollFirst();
+                if (task != null) return task;
+            }
+
+            return null;
+        }
     }
 
     public static final ITaskExecutor<Runnable, Void> RUNNABLE_EXECUTOR = tasks -> {
@@ -97,42 +236,54 @@ public class TaskPool {
 
     public static <TTask, TResult> Future<TResult> submit(ITaskExecutor<TTask, TResult> executor, TTask task,
         @Nullable Consumer<TResult> callback) {
+        return submit(executor, task, Priority.BACKGROUND, callback);
+    }
+
+    public static <TTask, TResult> Future<TResult> submit(ITaskExecutor<TTask, TResult> executor, TTask task,
+        Priority priority, @Nullable Consumer<TResult> callback) {
         TaskFuture<TTask, TResult> future = new TaskFuture<>(task, callback);
 
-        synchronized (QUEUE_LOCK) {
-            if (!TASK_QUEUE.isEmpty()) {
-                TaskContainer<?, ?> end = TASK_QUEUE.peekLast();
+        ConcurrentHashMap<ITaskExecutor<?, ?>, TaskContainer<?, ?>> open = OPEN_BATCHES[priority.ordinal()];
 
-                if (end.executor == executor) {
-                    @SuppressWarnings("unchecked")
-                    TaskContainer<TTask, TResult> end2 = (TaskContainer<TTask, TResult>) end;
+        while (true) {
+            @SuppressWarnings("unchecked")
+            TaskContainer<TTask, TResult> batch = (TaskContainer<TTask, TResult>) open.get(executor);
 
-                    // noinspection unchecked
-                    if (end2.executor.canMerge((List<ITaskFuture<TTask, TResult>>) (List<?>) end2.tasks, task)) {
-                        end2.tasks.add(future);
-                        QUEUE_LOCK.notify();
-                        return future;
-                    }
-                }
-            }
+            if (batch != null && batch.tryAdd(future)) return future;
 
-            TaskContainer<TTask, TResult> container = new TaskContainer<>(executor);
+            TaskContainer<TTask, TResult> container = new TaskContainer<>(executor, priority);
             container.tasks.add(future);
 
-            TASK_QUEUE.addLast(container);
-            QUEUE_LOCK.notify();
+            boolean published = batch == null ? open.putIfAbsent(executor, container) == null
+                : open.replace(executor, batch, container);
+
+            // someone else opened a new batch in the meantime, try to join that one instead
+            if (!published) continue;
+
+            enqueue(container);
             return future;
         }
     }
 
-    public static void flush() {
-        while (true) {
-            synchronized (QUEUE_LOCK) {
-                if (TASK_QUEUE.isEmpty()) return;
-            }
+    private static void enqueue(TaskContainer<?, ?> container) {
+        WorkerThread[] workers = TaskPool.workers;
 
-            Thread.yield();
+        if (workers.length == 0) {
+            OPEN_BATCHES[container.priority.ordinal()].remove(container.executor, container);
+            throw new IllegalStateException("Tasks can't be submitted before TaskPool.init()");
         }
+
+        WorkerThread target;
+
+        if (Thread.currentThread() instanceof WorkerThread worker && worker.index < workers.length
+            && workers[worker.index] == worker) {
+            target = worker;
+        } else {
+            target = workers[Math.floorMod(NEXT_WORKER.getAndIncrement(), workers.length)];
+        }
+
+        target.lanes[container.priority.ordinal()].addLast(container);
+        QUEUED.release();
     }
 
     public interface ITaskExecutor<TTask, TResult> {
@@ -172,8 +323,12 @@ public class TaskPool {
 
         @Override
         public void finish(TResult value) {
-            set(value);
-            if (callback != null) callback.accept(value);
+            // the callback runs first, so that its effects are visible to anyone who sees the future as done
+            try {
+                if (callback != null) callback.accept(value);
+            } finally {
+                set(value);
+            }
         }
 
         @Override
@@ -185,14 +340,36 @@ public class TaskPool {
     private static class TaskContainer<TTask, TResult> implements Runnable {
 
         private final ITaskExecutor<TTask, TResult> executor;
+        private final Priority priority;
         private final List<TaskFuture<TTask, TResult>> tasks = new ArrayList<>(1);
 
-        public TaskContainer(ITaskExecutor<TTask, TResult> executor) {
+        /** Set once the batch started running, after which no more tasks can be added. */
+        private boolean sealed;
+
+        public TaskContainer(ITaskExecutor<TTask, TResult> executor, Priority priority) {
             this.executor = executor;
+            this.priority = priority;
+        }
+
+        public synchronized boolean tryAdd(TaskFuture<TTask, TResult> future) {
+            if (sealed) return false;
+
+            // noinspection unchecked
+            if (!executor.canMerge((List<ITaskFuture<TTask, TResult>>) (List<?>) tasks, future.task)) return false;
+
+            tasks.add(future);
+            return true;
+        }
+
+        public synchronized void seal() {
+            sealed = true;
         }
 
         @Override
         public void run() {
+            seal();
+            OPEN_BATCHES[priority.ordinal()].remove(executor, this);
+
             try {
                 tasks.removeIf(TaskFuture::isCancelled);
 
@@ -0,0 +1,33 @@
+package com.cardinalstar.cubicchunks.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.command.ICommandSender;
+
+public class CommandCubicChunks extends SubCommandBase {
+
+    public CommandCubicChunks() {
+        super(PermissionLevel.ALL);
+
+        addSubcommand(new CommandPregen());
+        addSubcommand(new CommandSave());
+    }
+
+    @Override
+    public String getCommandName() {
+        return "cubicchunks";
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender) {
+        return "cubicchunks.command.usage.cubicchunks";
+    }
+
+    @Override
+    public List<String> getCommandAliases() {
+        List<String> aliases = new ArrayList<>();
+        aliases.add("cubic");
+        return aliases;
+    }
+}
@@ -0,0 +1,184 @@
+package com.cardinalstar.cubicchunks.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatComponentTranslation;
+import net.minecraft.util.ChunkCoordinates;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import com.cardinalstar.cubicchunks.server.WorldPregenerator;
+import com.cardinalstar.cubicchunks.util.Coords;
+import com.cardinalstar.cubicchunks.world.ICubicWorld;
+import com.cardinalstar.cubicchunks.world.savedata.PregenSavedData;
+
+/**
+ * {@code /cubicchunks pregen <dimension> <radius> <minY..maxY | height>}, which pregenerates the area around the
+ * dimension's spawn point. The radius is in blocks, and a single height means that many blocks above and below spawn.
+ */
+public class CommandPregen extends CubicCommandBase {
+
+    /** The world border, in blocks. Keeps the radius and height from overflowing. */
+    private static final int MAX_DISTANCE = 30_000_000;
+
+    public CommandPregen() {
+        super(PermissionLevel.OP);
+    }
+
+    @Override
+    public String getCommandName() {
+        return "pregen";
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender) {
+        return "cubicchunks.command.usage.pregen";
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args) {
+        if (args.length == 1 && args[0].equals("status")) {
+            if (WorldPregenerator.getRunning()
+                .isEmpty()) {
+                sender.addChatMessage(new ChatComponentTranslation("cubicchunks.command.pregen.none"));
+            }
+
+            for (WorldPregenerator pregenerator : WorldPregenerator.getRunning()) {
+                sender.addChatMessage(new ChatComponentText(pregenerator.getStatus()));
+            }
+        } else if (args.length == 2 && args[0].equals("stop")) {
+            WorldServer world = getWorld(sender, args[1]);
+
+            if (WorldPregenerator.stop(world)) {
+                sender.addChatMessage(
+                    new ChatComponentTranslation(
+                        "cubicchunks.command.pregen.stopped",
+                        world.provider.getDimensionName()));
+            } else {
+                sender.addChatMessage(
+                    new ChatComponentTranslation(
+                        "cubicchunks.command.pregen.not_running",
+                        world.provider.getDimensionName()));
+            }
+        } else if (args.length == 3) {
+            start(sender, args, false);
+        } else {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+    }
+
+    /**
+     * Starts the pregeneration given by the arguments, unless the dimension already has (or had) a pregeneration of
+     * that area. Used for {@link com.cardinalstar.cubicchunks.CubicChunksConfig#pregenOnStart}, so that restarting
+     * the server doesn't restart the pregeneration.
+     */
+    public void startIfNew(ICommandSender sender, String[] args) {
+        if (args.length != 3) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+
+        start(sender, args, true);
+    }
+
+    private void start(ICommandSender sender, String[] args, boolean onlyIfNew) {
+        WorldServer world = getWorld(sender, args[0]);
+        ChunkCoordinates spawn = world.getSpawnPoint();
+
+        int radius = (parseIntBounded(sender, args[1], 0, MAX_DISTANCE) + 15) >> 4;
+
+        int minBlockY, maxBlockY;
+        int separator = args[2].indexOf("..");
+
+        if (separator >= 0) {
+            minBlockY = parseInt(sender, args[2].substring(0, separator));
+            maxBlockY = parseInt(sender, args[2].substring(separator + 2));
+        } else {
+            int height = parseIntBounded(sender, args[2], 0, MAX_DISTANCE);
+            minBlockY = spawn.posY - height;
+            maxBlockY = spawn.posY + height;
+        }
+
+        ICubicWorld cubicWorld = (ICubicWorld) world;
+
+        int minY = Math.max(Coords.blockToCube(minBlockY), Coords.blockToCube(cubicWorld.getMinHeight()));
+        int maxY = Math.min(Coords.blockToCube(maxBlockY), Coords.blockToCube(cubicWorld.getMaxHeight() - 1));
+
+        if (minY > maxY) {
+            throw new CommandException("cubicchunks.command.pregen.empty_range", args[2]);
+        }
+
+        int centerX = Coords.blockToCube(spawn.posX);
+        int centerZ = Coords.blockToCube(spawn.posZ);
+
+        PregenSavedData data = PregenSavedData.get(world);
+
+        // a run of this area that was stopped, even before it completed a tile, counts as well
+        if (onlyIfNew && data.started && data.isArea(centerX, centerZ, radius, minY, maxY)) {
+            return;
+        }
+
+        WorldPregenerator.start(world, centerX, centerZ, radius, minY, maxY);
+
+        sender.addChatMessage(
+            new ChatComponentTranslation(
+                "cubicchunks.command.pregen.started",
+                world.provider.getDimensionName(),
+                radius * 2 + 1,
+                radius * 2 + 1,
+                Coords.cubeToMinBlock(minY),
+                Coords.cubeToMaxBlock(maxY)));
+    }
+
+    private static WorldServer getWorld(ICommandSender sender, String dimension) {
+        int id = parseInt(sender, dimension);
+
+        if (!DimensionManager.isDimensionRegistered(id)) {
+            throw new CommandException("cubicchunks.command.pregen.no_dimension", dimension);
+        }
+
+        WorldServer world = DimensionManager.getWorld(id);
+
+        if (world == null) {
+            DimensionManager.initDimension(id);
+            world = DimensionManager.getWorld(id);
+        }
+
+        if (world == null) {
+            throw new CommandException("cubicchunks.command.pregen.no_dimension", dimension);
+        }
+
+        return world;
+    }
+
+    @Override
+    public List<String> addTabCompletionOptions(ICommandSender sender, String[] args) {
+        if (args.length == 1) {
+            List<String> options = new ArrayList<>();
+            options.add("status");
+            options.add("stop");
+
+            for (Integer id : DimensionManager.getIDs()) {
+                options.add(id.toString());
+            }
+
+            return getListOfStringsFromIterableMatchingLastWord(args, options);
+        }
+
+        if (args.length == 2 && args[0].equals("stop")) {
+            List<String> options = new ArrayList<>();
+
+            for (WorldPregenerator pregenerator : WorldPregenerator.getRunning()) {
+                options.add(Integer.toString(pregenerator.getWorld().provider.dimensionId));
+            }
+
+            return getListOfStringsFromIterableMatchingLastWord(args, options);
+        }
+
+        return null;
+    }
+}
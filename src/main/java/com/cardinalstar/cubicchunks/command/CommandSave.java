@@ -0,0 +1,71 @@
+package com.cardinalstar.cubicchunks.command;
+
+import java.util.List;
+
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.util.ChatComponentTranslation;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import com.cardinalstar.cubicchunks.server.chunkio.ICubeLoader;
+import com.cardinalstar.cubicchunks.world.ICubicWorld;
+import com.cardinalstar.cubicchunks.world.cube.ICubeProviderInternal;
+
+/**
+ * {@code /cubicchunks save status}, which shows how far along each dimension's incremental autosave is.
+ */
+public class CommandSave extends CubicCommandBase {
+
+    public CommandSave() {
+        super(PermissionLevel.OP);
+    }
+
+    @Override
+    public String getCommandName() {
+        return "save";
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender) {
+        return "cubicchunks.command.usage.save";
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args) {
+        if (args.length != 1 || !args[0].equals("status")) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            if (!(((ICubicWorld) world).getCubeCache() instanceof ICubeProviderInternal.Server provider)) continue;
+
+            ICubeLoader loader = provider.getCubeLoader();
+            int backlog = loader.getSaveBacklog();
+
+            if (backlog == 0) {
+                sender.addChatMessage(
+                    new ChatComponentTranslation(
+                        "cubicchunks.command.save.idle",
+                        world.provider.getDimensionName(),
+                        loader.getSaveRoundSize()));
+            } else {
+                sender.addChatMessage(
+                    new ChatComponentTranslation(
+                        "cubicchunks.command.save.saving",
+                        world.provider.getDimensionName(),
+                        backlog,
+                        loader.getSaveRoundSize()));
+            }
+        }
+    }
+
+    @Override
+    public List<String> addTabCompletionOptions(ICommandSender sender, String[] args) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "status");
+        }
+
+        return null;
+    }
+}
@@ -27,7 +27,7 @@ public abstract class CubicCommandBase extends CommandBase {
     @Override
     public boolean canCommandSenderUseCommand(ICommandSender sender) {
         if (sender instanceof EntityPlayer) {
-            return canCommandSenderUseCommand(sender);
+            return sender.canCommandSenderUseCommand(getRequiredPermissionLevel(), getCommandName());
         } else {
             return super.canCommandSenderUseCommand(sender);
         }
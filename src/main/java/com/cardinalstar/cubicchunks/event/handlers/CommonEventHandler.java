@@ -34,6 +34,7 @@ import net.minecraftforge.event.world.WorldEvent;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
+import com.cardinalstar.cubicchunks.server.WorldPregenerator;
 import com.cardinalstar.cubicchunks.server.chunkio.ICubeLoader;
 import com.cardinalstar.cubicchunks.util.ReflectionUtil;
 import com.cardinalstar.cubicchunks.world.ICubicWorld;
@@ -54,6 +55,7 @@ public class CommonEventHandler {
         // Forge (at least version 11.14.3.1521) doesn't call this event for client world.
         if (evt.phase == TickEvent.Phase.END && evt.side == Side.SERVER) {
             ((ICubicWorldInternal) world).tickCubicWorld();
+            WorldPregenerator.tick(world);
         }
     }
 
@@ -87,12 +89,23 @@ public class CommonEventHandler {
                 .getClass());
     }
 
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event) {
+        if (event.world.isRemote) {
+            return;
+        }
+
+        WorldPregenerator.resume((WorldServer) event.world);
+    }
+
     @SubscribeEvent
     public void onWorldUnload(WorldEvent.Unload event) {
         if (event.world.isRemote) {
             return;
         }
 
+        WorldPregenerator.onWorldUnloaded((WorldServer) event.world);
+
         ICubicWorld world = (ICubicWorld) event.world;
 
         ICubeLoader loader = ((ICubeProviderInternal.Server) world.getCubeCache()).getCubeLoader();
@@ -0,0 +1,125 @@
+package com.cardinalstar.cubicchunks.lighting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.world.World;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.api.ICube;
+import com.cardinalstar.cubicchunks.async.TaskPool;
+import com.cardinalstar.cubicchunks.async.TaskPool.ITaskExecutor;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+import com.github.bsideup.jabel.Desugar;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+/**
+ * Lights populated cubes on the background threads before they're requested, see {@link FirstLightSnapshot}.
+ * <p>
+ * Population finishes cubes in batches, and they usually aren't lit until a later request reaches them. The cubes
+ * populated during a tick are collected and submitted at the end of it. When one of them is lit, its job is used if it
+ * finished and nothing changed since, otherwise the cube is lit on the server thread like before.
+ */
+final class FirstLightJobs {
+
+    /** Jobs nobody took in this many ticks are dropped, the cube most likely went out of range. */
+    private static final int JOB_TICKS = 20 * 30;
+    private static final int MAX_JOBS = 1024;
+
+    private static final ITaskExecutor<FirstLightSnapshot, FirstLightSnapshot> EXECUTOR = tasks -> {
+        for (var future : tasks) {
+            FirstLightSnapshot snapshot = future.getTask();
+
+            try {
+                snapshot.compute();
+
+                future.finish(snapshot);
+            } catch (Throwable t) {
+                future.fail(t);
+            }
+        }
+    };
+
+    private final World world;
+
+    /** Cubes populated since the last submit. */
+    private final List<ICube> populated = new ArrayList<>();
+    private final Reference2ObjectOpenHashMap<ICube, Job> jobs = new Reference2ObjectOpenHashMap<>();
+
+    FirstLightJobs(World world) {
+        this.world = world;
+    }
+
+    void onCubePopulated(ICube cube) {
+        populated.add(cube);
+    }
+
+    void submitJobs() {
+        long now = world.getTotalWorldTime();
+
+        if (!jobs.isEmpty()) {
+            jobs.values()
+                .removeIf(job -> {
+                    if (job.expires >= now) return false;
+
+                    job.future.cancel(false);
+                    return true;
+                });
+        }
+
+        for (ICube cube : populated) {
+            if (jobs.size() >= MAX_JOBS) break;
+
+            // lit already, or empty: empty cubes have nothing to copy the light into
+            if (cube.isInitialLightingDone() || !cube.isCubeLoaded()
+                || ((Cube) cube).getStorage() == null
+                || jobs.containsKey(cube)) {
+                continue;
+            }
+
+            // the cube is usually requested within a tick or two, a job that hasn't finished by then is wasted
+            Future<FirstLightSnapshot> future = TaskPool
+                .submit(EXECUTOR, new FirstLightSnapshot((Cube) cube), TaskPool.Priority.URGENT, null);
+
+            jobs.put(cube, new Job(future, now + JOB_TICKS));
+        }
+
+        populated.clear();
+    }
+
+    /**
+     * Takes the light computed for this cube, if there is a finished job that's still valid.
+     */
+    @Nullable
+    FirstLightSnapshot take(ICube cube) {
+        Job job = jobs.remove(cube);
+
+        if (job == null) return null;
+
+        // lighting it here is cheaper than waiting for the queue to reach it
+        if (!job.future.isDone()) {
+            job.future.cancel(false);
+            return null;
+        }
+
+        FirstLightSnapshot snapshot;
+
+        try {
+            snapshot = job.future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            CubicChunks.LOGGER
+                .error("First light job for cube {},{},{} failed", cube.getX(), cube.getY(), cube.getZ(), e);
+            return null;
+        }
+
+        return snapshot.isStillValid() ? snapshot : null;
+    }
+
+    @Desugar
+    private record Job(Future<FirstLightSnapshot> future, long expires) {}
+}
@@ -94,24 +94,6 @@ public class FirstLightProcessor {
             return;
         }
 
-        // Cache min/max Y, generating them may be expensive
-        int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
-        int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
-
-        int minBlockX = cubeToMinBlock(cube.getX());
-        int maxBlockX = cubeToMaxBlock(cube.getX());
-
-        int minBlockZ = cubeToMinBlock(cube.getZ());
-        int maxBlockZ = cubeToMaxBlock(cube.getZ());
-
-        // the lowest minHeight and the highest maxHeight values
-        // used to make the cube iteration the outer loop, so light propagator can do mass light updates
-        int minMinHeight = Integer.MAX_VALUE;
-        int maxMaxHeight = Integer.MIN_VALUE;
-
-        // Determine the block columns that require updating. If there is nothing to update, store contradicting data so
-        // we can skip the column later.
-
         IColumnInternal column = cube.getColumn();
         for (int localX = 0; localX < Cube.SIZE; ++localX) {
             for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
@@ -162,7 +144,54 @@ public class FirstLightProcessor {
                         }
                     }
                 }
+            }
+        }
+
+        diffuseSkylightBelow(lm, cube);
+    }
 
+    /**
+     * Copies the light computed on a background thread into the cube, then diffuses skylight into the cubes below like
+     * {@link #diffuseSkylight(ICube)}.
+     *
+     * @param snapshot a finished, still valid snapshot of the cube
+     */
+    void applyPrecomputedLight(FirstLightSnapshot snapshot) {
+        ICube cube = snapshot.getCube();
+        ILightingManager lm = ((ICubicWorldInternal) cube.getWorld()).getLightingManager();
+
+        snapshot.apply(lm);
+
+        if (cube.getWorld().provider.hasNoSky) {
+            return;
+        }
+
+        diffuseSkylightBelow(lm, cube);
+    }
+
+    /**
+     * Diffuses skylight in the cubes below the given cube, in the block columns where the cube occludes the sky.
+     */
+    private void diffuseSkylightBelow(ILightingManager lm, ICube cube) {
+        // Cache min/max Y, generating them may be expensive
+        int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+        int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
+
+        int minBlockX = cubeToMinBlock(cube.getX());
+        int maxBlockX = cubeToMaxBlock(cube.getX());
+
+        int minBlockZ = cubeToMinBlock(cube.getZ());
+        int maxBlockZ = cubeToMaxBlock(cube.getZ());
+
+        // the lowest minHeight and the highest maxHeight values
+        // used to make the cube iteration the outer loop, so light propagator can do mass light updates
+        int minMinHeight = Integer.MAX_VALUE;
+        int maxMaxHeight = Integer.MIN_VALUE;
+
+        // Determine the block columns that require updating. If there is nothing to update, store contradicting data so
+        // we can skip the column later.
+        for (int localX = 0; localX < Cube.SIZE; ++localX) {
+            for (int localZ = 0; localZ < Cube.SIZE; ++localZ) {
                 Pair<Integer, Integer> minMax = getMinMaxLightUpdateY(cube, localX, localZ);
                 int min = minMax == null ? Integer.MAX_VALUE : minMax.getLeft();
                 int max = minMax == null ? Integer.MIN_VALUE : minMax.getRight();
@@ -173,6 +202,8 @@ public class FirstLightProcessor {
             }
         }
 
+        IColumnInternal column = cube.getColumn();
+
         // Iterate over all affected cubes.
         Iterable<? extends ICube> cubes = column
             .getLoadedCubes(blockToCube(maxMaxHeight), blockToCube(/* minMinHeight */Integer.MIN_VALUE));
@@ -0,0 +1,364 @@
+package com.cardinalstar.cubicchunks.lighting;
+
+import static com.cardinalstar.cubicchunks.util.Coords.cubeToMinBlock;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.cardinalstar.cubicchunks.world.core.IColumnInternal;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+import com.cardinalstar.cubicchunks.world.cube.ICubeProvider;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * The first light of a populated cube, computed on a background thread.
+ * <p>
+ * Everything the light inside the cube depends on is copied on the server thread: the light value and opacity of every
+ * block, the column's heightmap and the light of the blocks touching the cube's faces. The inside of the cube is then
+ * lit as if the light outside of it was fixed, which is what the light engine ends up with too. Whatever changes this
+ * causes outside of the cube is left to the light engine, by checking the blocks around the cube once the light is
+ * copied in.
+ * <p>
+ * If the cube or anything around it changed by the time the cube is lit, the result is thrown away (see
+ * {@link #isStillValid()}).
+ */
+final class FirstLightSnapshot {
+
+    private static final int MAX_LIGHT = 15;
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int FACE_BLOCKS = Cube.SIZE * Cube.SIZE;
+
+    private static final EnumFacing[] FACES = EnumFacing.values();
+
+    private final Cube cube;
+    private final ExtendedBlockStorage storage;
+    private final boolean hasSky;
+
+    // copies of the block data, to tell whether the cube changed since
+    private final byte[] blockLSB;
+    @Nullable
+    private final byte[] blockMSB;
+    private final byte[] metadata;
+
+    /** The column's top blocks, by x | z << 4. */
+    private final int[] heights = new int[FACE_BLOCKS];
+    /** One value per block, indexed like {@link #index}. */
+    private final byte[] opacity = new byte[BLOCKS];
+    private final byte[] luminosity = new byte[BLOCKS];
+    /** The light of the blocks touching each face, by face. Null when the neighbour isn't loaded. */
+    private final byte[][] neighborSkyLight = new byte[FACES.length][];
+    private final byte[][] neighborBlockLight = new byte[FACES.length][];
+
+    /** The computed light, as nibble array data. */
+    private byte[] skyLight;
+    private byte[] blockLight;
+
+    /**
+     * Copies everything the light depends on. Called on the server thread.
+     *
+     * @param cube a cube with block storage
+     */
+    FirstLightSnapshot(Cube cube) {
+        this.cube = cube;
+        this.storage = cube.getStorage();
+        this.hasSky = !cube.getWorld().provider.hasNoSky;
+
+        this.blockLSB = storage.getBlockLSBArray()
+            .clone();
+        this.blockMSB = storage.getBlockMSBArray() == null ? null
+            : storage.getBlockMSBArray().data.clone();
+        this.metadata = storage.getMetadataArray().data.clone();
+
+        readHeights(heights);
+
+        World world = cube.getWorld();
+        int minX = cubeToMinBlock(cube.getX());
+        int minY = cubeToMinBlock(cube.getY());
+        int minZ = cubeToMinBlock(cube.getZ());
+
+        for (int i = 0; i < BLOCKS; i++) {
+            int x = minX + (i & 15);
+            int y = minY + (i >> 8);
+            int z = minZ + ((i >> 4) & 15);
+
+            Block block = storage.getBlockByExtId(i & 15, i >> 8, (i >> 4) & 15);
+
+            opacity[i] = (byte) MathHelper.clamp_int(block.getLightOpacity(world, x, y, z), 1, MAX_LIGHT);
+            luminosity[i] = (byte) MathHelper.clamp_int(block.getLightValue(world, x, y, z), 0, MAX_LIGHT);
+        }
+
+        for (int face = 0; face < FACES.length; face++) {
+            Cube neighbor = getNeighbor(FACES[face]);
+
+            if (neighbor != null) {
+                neighborSkyLight[face] = readFaceLight(neighbor, FACES[face], EnumSkyBlock.Sky);
+                neighborBlockLight[face] = readFaceLight(neighbor, FACES[face], EnumSkyBlock.Block);
+            }
+        }
+    }
+
+    Cube getCube() {
+        return cube;
+    }
+
+    /**
+     * Lights the cube. Called on a background thread, only reads the copies.
+     */
+    void compute() {
+        byte[] light = new byte[BLOCKS];
+
+        if (hasSky) {
+            int minY = cubeToMinBlock(cube.getY());
+
+            for (int i = 0; i < BLOCKS; i++) {
+                // blocks that can see the sky are lit by it
+                light[i] = (byte) (minY + (i >> 8) > heights[i & 255] ? MAX_LIGHT : 0);
+            }
+
+            lightFromFaces(light, neighborSkyLight);
+            propagate(light, opacity);
+            skyLight = pack(light);
+        }
+
+        System.arraycopy(luminosity, 0, light, 0, BLOCKS);
+
+        lightFromFaces(light, neighborBlockLight);
+        propagate(light, opacity);
+        blockLight = pack(light);
+    }
+
+    private void lightFromFaces(byte[] light, byte[][] neighborLight) {
+        for (int face = 0; face < FACES.length; face++) {
+            byte[] faceLight = neighborLight[face];
+
+            if (faceLight == null) continue;
+
+            for (int i = 0; i < FACE_BLOCKS; i++) {
+                int index = facePosition(FACES[face], i);
+
+                light[index] = (byte) Math.max(light[index], faceLight[i] - opacity[index]);
+            }
+        }
+    }
+
+    /**
+     * @return true if the cube, its heightmap and the light around it are the same as when the snapshot was taken.
+     *         Called on the server thread.
+     */
+    boolean isStillValid() {
+        if (cube.getStorage() != storage || cube.isInitialLightingDone()) return false;
+
+        if (!Arrays.equals(blockLSB, storage.getBlockLSBArray())) return false;
+        if (!Arrays.equals(metadata, storage.getMetadataArray().data)) return false;
+
+        NibbleArray msb = storage.getBlockMSBArray();
+
+        if (msb == null ? blockMSB != null : !Arrays.equals(blockMSB, msb.data)) return false;
+
+        int[] currentHeights = new int[FACE_BLOCKS];
+        readHeights(currentHeights);
+
+        if (!Arrays.equals(heights, currentHeights)) return false;
+
+        for (int face = 0; face < FACES.length; face++) {
+            Cube neighbor = getNeighbor(FACES[face]);
+
+            if (neighbor == null) {
+                if (neighborBlockLight[face] != null) return false;
+                continue;
+            }
+
+            if (neighborBlockLight[face] == null) return false;
+
+            if (!Arrays.equals(neighborSkyLight[face], readFaceLight(neighbor, FACES[face], EnumSkyBlock.Sky))) {
+                return false;
+            }
+            if (!Arrays.equals(neighborBlockLight[face], readFaceLight(neighbor, FACES[face], EnumSkyBlock.Block))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the light into the cube, and schedules checks for the blocks around it so that the light engine spreads
+     * the new light out of the cube. Called on the server thread, after {@link #isStillValid()}.
+     */
+    void apply(ILightingManager lightingManager) {
+        if (hasSky) {
+            System.arraycopy(skyLight, 0, storage.getSkylightArray().data, 0, skyLight.length);
+        }
+
+        System.arraycopy(blockLight, 0, storage.getBlocklightArray().data, 0, blockLight.length);
+
+        cube.markDirty();
+
+        int minX = cubeToMinBlock(cube.getX());
+        int minY = cubeToMinBlock(cube.getY());
+        int minZ = cubeToMinBlock(cube.getZ());
+
+        for (int face = 0; face < FACES.length; face++) {
+            EnumFacing facing = FACES[face];
+
+            // checking the blocks outside spreads the light into the neighbour. Next to unloaded neighbours the blocks
+            // inside are checked instead, which makes the light engine flag the face to be checked once it loads.
+            int offsetX = 0, offsetY = 0, offsetZ = 0;
+
+            if (neighborBlockLight[face] != null) {
+                offsetX = facing.getFrontOffsetX();
+                offsetY = facing.getFrontOffsetY();
+                offsetZ = facing.getFrontOffsetZ();
+            }
+
+            for (int i = 0; i < FACE_BLOCKS; i++) {
+                int index = facePosition(facing, i);
+                int x = minX + (index & 15) + offsetX;
+                int y = minY + (index >> 8) + offsetY;
+                int z = minZ + ((index >> 4) & 15) + offsetZ;
+
+                if (hasSky) {
+                    lightingManager.checkLightFor(EnumSkyBlock.Sky, x, y, z);
+                }
+
+                lightingManager.checkLightFor(EnumSkyBlock.Block, x, y, z);
+            }
+        }
+    }
+
+    private void readHeights(int[] out) {
+        IColumnInternal column = (IColumnInternal) cube.getColumn();
+
+        for (int i = 0; i < FACE_BLOCKS; i++) {
+            out[i] = column.getTopYWithStaging(i & 15, i >> 4);
+        }
+    }
+
+    @Nullable
+    private Cube getNeighbor(EnumFacing face) {
+        return (Cube) ((ICubeProvider) cube.getWorld()
+            .getChunkProvider()).getLoadedCube(
+                cube.getX() + face.getFrontOffsetX(),
+                cube.getY() + face.getFrontOffsetY(),
+                cube.getZ() + face.getFrontOffsetZ());
+    }
+
+    /**
+     * Reads the light of the blocks in the neighbour that touch the given face of the cube, in the order of
+     * {@link #facePosition}.
+     */
+    private byte[] readFaceLight(Cube neighbor, EnumFacing face, EnumSkyBlock type) {
+        byte[] light = new byte[FACE_BLOCKS];
+
+        int minX = cubeToMinBlock(cube.getX()) + face.getFrontOffsetX();
+        int minY = cubeToMinBlock(cube.getY()) + face.getFrontOffsetY();
+        int minZ = cubeToMinBlock(cube.getZ()) + face.getFrontOffsetZ();
+
+        for (int i = 0; i < FACE_BLOCKS; i++) {
+            int index = facePosition(face, i);
+
+            light[i] = (byte) neighbor
+                .getCachedLightFor(type, minX + (index & 15), minY + (index >> 8), minZ + ((index >> 4) & 15));
+        }
+
+        return light;
+    }
+
+    static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+    /**
+     * @return the index of the {@code i}th of the blocks on the given face of the cube
+     */
+    static int facePosition(EnumFacing face, int i) {
+        int a = i & 15;
+        int b = i >> 4;
+
+        if (face.getFrontOffsetX() != 0) {
+            return index(face.getFrontOffsetX() < 0 ? 0 : 15, b, a);
+        } else if (face.getFrontOffsetY() != 0) {
+            return index(a, face.getFrontOffsetY() < 0 ? 0 : 15, b);
+        } else {
+            return index(a, b, face.getFrontOffsetZ() < 0 ? 0 : 15);
+        }
+    }
+
+    /**
+     * Spreads light inside a cube, the same way the light engine does: a block's light is the brightest of its own
+     * light and its neighbours' light minus its opacity. Light only ever gets brighter, so the starting values have to
+     * be the blocks' own light.
+     *
+     * @param light   the light of each block, one value per byte. Updated in place.
+     * @param opacity the opacity of each block, at least 1
+     */
+    static void propagate(byte[] light, byte[] opacity) {
+        IntArrayList[] queues = new IntArrayList[MAX_LIGHT + 1];
+
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new IntArrayList();
+        }
+
+        for (int i = 0; i < BLOCKS; i++) {
+            if (light[i] > 1) {
+                queues[light[i]].add(i);
+            }
+        }
+
+        // brightest first, so that every block is only spread from once it has its final value
+        for (int level = MAX_LIGHT; level > 1; level--) {
+            IntArrayList queue = queues[level];
+
+            for (int q = 0; q < queue.size(); q++) {
+                int index = queue.getInt(q);
+
+                // it got brighter after it was queued
+                if (light[index] != level) continue;
+
+                int x = index & 15;
+                int y = index >> 8;
+                int z = (index >> 4) & 15;
+
+                if (x > 0) spread(light, opacity, queues, level, index - 1);
+                if (x < 15) spread(light, opacity, queues, level, index + 1);
+                if (z > 0) spread(light, opacity, queues, level, index - 16);
+                if (z < 15) spread(light, opacity, queues, level, index + 16);
+                if (y > 0) spread(light, opacity, queues, level, index - 256);
+                if (y < 15) spread(light, opacity, queues, level, index + 256);
+            }
+        }
+    }
+
+    private static void spread(byte[] light, byte[] opacity, IntArrayList[] queues, int level, int index) {
+        int newLight = level - opacity[index];
+
+        if (newLight > light[index]) {
+            light[index] = (byte) newLight;
+
+            if (newLight > 1) {
+                queues[newLight].add(index);
+            }
+        }
+    }
+
+    private static byte[] pack(byte[] light) {
+        byte[] data = new byte[BLOCKS / 2];
+
+        // two values per byte, the low nibble first
+        for (int i = 0; i < BLOCKS; i += 2) {
+            data[i >> 1] = (byte) (light[i] | light[i + 1] << 4);
+        }
+
+        return data;
+    }
+}
@@ -84,5 +84,15 @@ public interface ILightingManager {
 
     void onTrackCubeSurface(ICube cube);
 
+    /**
+     * Called on the server when population finished a cube that isn't lit yet.
+     */
+    default void onCubePopulated(ICube cube) {}
+
+    /**
+     * Called on the server thread once per tick, after the cubes requested this tick were loaded.
+     */
+    default void submitFirstLightJobs() {}
+
     void doFirstLight(ICube cube);
 }
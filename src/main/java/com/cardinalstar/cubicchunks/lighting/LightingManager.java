@@ -56,14 +56,18 @@ public class LightingManager implements ILightingManager {
     private final PhosphorLightEngine lightEngine;
     @Nullable
     private final FirstLightProcessor firstLightProcessor;
+    @Nullable
+    private final FirstLightJobs firstLightJobs;
 
     public LightingManager(World world) {
         this.world = world;
         this.lightEngine = new PhosphorLightEngine(world);
         if (!world.isRemote) {
             this.firstLightProcessor = new FirstLightProcessor();
+            this.firstLightJobs = new FirstLightJobs(world);
         } else {
             this.firstLightProcessor = null;
+            this.firstLightJobs = null;
         }
     }
 
@@ -125,7 +129,8 @@ public class LightingManager implements ILightingManager {
 
     @Override
     public void writeToNbt(ICube cube, NBTTagCompound lightingInfo) {
-        int[] lastHeightmap = cube.getColumn().heightMap;
+        // the column outlives the cube, and the tag is written on the save workers
+        int[] lastHeightmap = cube.getColumn().heightMap.clone();
         lightingInfo.setIntArray("LastHeightMap", lastHeightmap);
         LightingHooks.writeNeighborLightChecksToNBT(cube, lightingInfo);
     }
@@ -200,13 +205,36 @@ public class LightingManager implements ILightingManager {
         }
     }
 
+    @Override
+    public void onCubePopulated(ICube cube) {
+        if (CubicChunksConfig.disableLighting || !CubicChunksConfig.optimizations.backgroundFirstLight) {
+            return;
+        }
+        assert firstLightJobs != null;
+        firstLightJobs.onCubePopulated(cube);
+    }
+
+    @Override
+    public void submitFirstLightJobs() {
+        if (firstLightJobs != null) {
+            firstLightJobs.submitJobs();
+        }
+    }
+
     @Override
     public void doFirstLight(ICube cube) {
         if (CubicChunksConfig.disableLighting) {
             return;
         }
-        assert firstLightProcessor != null;
-        firstLightProcessor.diffuseSkylight(cube);
+        assert firstLightProcessor != null && firstLightJobs != null;
+
+        FirstLightSnapshot snapshot = firstLightJobs.take(cube);
+
+        if (snapshot != null) {
+            firstLightProcessor.applyPrecomputedLight(snapshot);
+        } else {
+            firstLightProcessor.diffuseSkylight(cube);
+        }
     }
 
     /**
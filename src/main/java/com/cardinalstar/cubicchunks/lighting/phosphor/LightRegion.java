@@ -0,0 +1,237 @@
+package com.cardinalstar.cubicchunks.lighting.phosphor;
+
+import static com.cardinalstar.cubicchunks.util.Coords.blockToCube;
+import static com.cardinalstar.cubicchunks.util.Coords.blockToLocal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.BiomeGenBase;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.util.ForgeDirection;
+
+import com.cardinalstar.cubicchunks.util.Coords;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+
+import cpw.mods.fml.relauncher.Side;
+import cpw.mods.fml.relauncher.SideOnly;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/**
+ * The light updates of one group of columns in a parallel light pass, along with every cube processing them can
+ * touch (see {@link LightUpdatePartitioner}).
+ * <p>
+ * The cubes are looked up on the server thread before the pass starts, since the cube provider isn't thread safe. The
+ * region is also the {@link IBlockAccess} blocks are asked for their light values and opacity with, so that they don't
+ * read through the world either.
+ */
+final class LightRegion implements IBlockAccess {
+
+    private final World world;
+    private final PhosphorLightEngine engine;
+    private final EnumSkyBlock lightType;
+
+    /** Every cube within reach of the updates, null for the ones that aren't loaded. */
+    private final Long2ObjectOpenHashMap<Cube> cubes = new Long2ObjectOpenHashMap<>();
+    /** The cubes the updates are in. */
+    private final LongOpenHashSet updatedCubes = new LongOpenHashSet();
+    /** The queued updates, as x, y, z triples in queue order. */
+    final IntArrayList updates = new IntArrayList();
+    /** Render updates, as x, y, z triples. Passed on to the world on the server thread once the pass is done. */
+    final IntArrayList renderUpdates = new IntArrayList();
+
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    @Nullable
+    volatile Throwable failure;
+
+    LightRegion(World world, PhosphorLightEngine engine, EnumSkyBlock lightType) {
+        this.world = world;
+        this.engine = engine;
+        this.lightType = lightType;
+    }
+
+    /**
+     * Adds a queued update, and looks up the cubes it can reach. Called on the server thread.
+     */
+    void addUpdate(int x, int y, int z) {
+        updates.add(x);
+        updates.add(y);
+        updates.add(z);
+
+        int cubeX = blockToCube(x);
+        int cubeY = blockToCube(y);
+        int cubeZ = blockToCube(z);
+
+        if (updatedCubes.add(Coords.key(cubeX, cubeY, cubeZ))) {
+            addCubesAround(cubeX, cubeY, cubeZ);
+        }
+    }
+
+    private void addCubesAround(int cubeX, int cubeY, int cubeZ) {
+        int reach = LightUpdatePartitioner.REACH;
+
+        for (int dx = -reach; dx <= reach; dx++) {
+            for (int dy = -reach; dy <= reach; dy++) {
+                for (int dz = -reach; dz <= reach; dz++) {
+                    long key = Coords.key(cubeX + dx, cubeY + dy, cubeZ + dz);
+
+                    if (!cubes.containsKey(key)) {
+                        cubes.put(
+                            key,
+                            (Cube) PhosphorLightEngine.getLoadedCube(world, cubeX + dx, cubeY + dy, cubeZ + dz));
+                    }
+                }
+            }
+        }
+    }
+
+    Iterable<Cube> getCubes() {
+        return cubes.values();
+    }
+
+    /**
+     * @return true if the caller should process this region, false if someone else already is
+     */
+    boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    void process() {
+        try {
+            engine.processRegion(this, lightType);
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            done.countDown();
+        }
+    }
+
+    void awaitDone() throws InterruptedException {
+        done.await();
+    }
+
+    @Nullable
+    Cube getCube(int blockX, int blockY, int blockZ) {
+        long key = Coords.key(blockToCube(blockX), blockToCube(blockY), blockToCube(blockZ));
+
+        Cube cube = cubes.get(key);
+
+        if (cube == null && !cubes.containsKey(key)) {
+            throw new IllegalStateException(
+                "Light update reached " + blockX + ", " + blockY + ", " + blockZ + " outside of its region");
+        }
+
+        return cube;
+    }
+
+    /**
+     * Same as {@link Cube#setLightFor}, without going through the column: the column looks its cubes up through the
+     * cube provider.
+     */
+    void setLight(Cube cube, EnumSkyBlock lightType, int x, int y, int z, int light) {
+        cube.markDirty();
+
+        ExtendedBlockStorage storage = cube.getStorage();
+
+        // the column writes to an empty dummy storage, which discards the value
+        if (storage == null) return;
+
+        if (lightType == EnumSkyBlock.Sky) {
+            if (!world.provider.hasNoSky) {
+                storage.setExtSkylightValue(blockToLocal(x), blockToLocal(y), blockToLocal(z), light);
+            }
+        } else {
+            storage.setExtBlocklightValue(blockToLocal(x), blockToLocal(y), blockToLocal(z), light);
+        }
+    }
+
+    void markForRenderUpdate(int x, int y, int z) {
+        renderUpdates.add(x);
+        renderUpdates.add(y);
+        renderUpdates.add(z);
+    }
+
+    @Nullable
+    private Cube getCubeOrNull(int x, int y, int z) {
+        return cubes.get(Coords.key(blockToCube(x), blockToCube(y), blockToCube(z)));
+    }
+
+    @Override
+    public Block getBlock(int x, int y, int z) {
+        Cube cube = getCubeOrNull(x, y, z);
+
+        return cube == null ? Blocks.air : cube.getBlock(x, y, z);
+    }
+
+    @Override
+    public int getBlockMetadata(int x, int y, int z) {
+        Cube cube = getCubeOrNull(x, y, z);
+
+        return cube == null ? 0 : cube.getBlockMetadata(x, y, z);
+    }
+
+    @Override
+    public TileEntity getTileEntity(int x, int y, int z) {
+        Cube cube = getCubeOrNull(x, y, z);
+
+        // never creates missing tile entities, unlike the world
+        return cube == null ? null
+            : cube.getTileEntityMap()
+                .get(new ChunkPosition(blockToLocal(x), y, blockToLocal(z)));
+    }
+
+    @Override
+    public int isBlockProvidingPowerTo(int x, int y, int z, int side) {
+        return getBlock(x, y, z).isProvidingStrongPower(this, x, y, z, side);
+    }
+
+    @Override
+    public boolean isAirBlock(int x, int y, int z) {
+        return getBlock(x, y, z).isAir(this, x, y, z);
+    }
+
+    @Override
+    public boolean isSideSolid(int x, int y, int z, ForgeDirection side, boolean _default) {
+        if (getCubeOrNull(x, y, z) == null) return _default;
+
+        return getBlock(x, y, z).isSideSolid(this, x, y, z, side);
+    }
+
+    // regions are only processed on the server, these are only here to satisfy the interface on the client
+
+    @Override
+    @SideOnly(Side.CLIENT)
+    public int getLightBrightnessForSkyBlocks(int x, int y, int z, int minLight) {
+        return world.getLightBrightnessForSkyBlocks(x, y, z, minLight);
+    }
+
+    @Override
+    @SideOnly(Side.CLIENT)
+    public BiomeGenBase getBiomeGenForCoords(int x, int z) {
+        return world.getBiomeGenForCoords(x, z);
+    }
+
+    @Override
+    @SideOnly(Side.CLIENT)
+    public int getHeight() {
+        return world.getHeight();
+    }
+
+    @Override
+    @SideOnly(Side.CLIENT)
+    public boolean extendedLevelsInChunkCache() {
+        return world.extendedLevelsInChunkCache();
+    }
+}
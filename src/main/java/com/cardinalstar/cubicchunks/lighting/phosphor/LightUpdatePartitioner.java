@@ -0,0 +1,163 @@
+package com.cardinalstar.cubicchunks.lighting.phosphor;
+
+import java.util.Arrays;
+
+import net.minecraft.world.ChunkCoordIntPair;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Groups the columns light updates are queued in, so that updates in different groups can be processed independently.
+ * <p>
+ * Light levels drop by at least one per block, so a darkening spreads at most 14 blocks from where it started, and
+ * the brightenings that follow at most 14 blocks further. Including the neighbours that are read, processing an update
+ * only touches the cubes within {@link #REACH} cubes of the cube it's in. Columns that are more than twice that apart
+ * never touch the same cube, or the same column.
+ * <p>
+ * Groups are never split: there is no pass that reconciles the light at the border between parts of a group that were
+ * processed separately.
+ */
+final class LightUpdatePartitioner {
+
+    /** How many cubes around an updated cube processing the update may read or write. */
+    static final int REACH = 2;
+
+    private final Long2IntOpenHashMap columnIndices = new Long2IntOpenHashMap();
+    private final IntArrayList columnX = new IntArrayList();
+    private final IntArrayList columnZ = new IntArrayList();
+    /** Union-find parents, by column index. */
+    private final IntArrayList parents = new IntArrayList();
+
+    LightUpdatePartitioner() {
+        columnIndices.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return the index of the column, to look its group up with once every column was added
+     */
+    int addColumn(int cubeX, int cubeZ) {
+        long key = ChunkCoordIntPair.chunkXZ2Int(cubeX, cubeZ);
+
+        int index = columnIndices.get(key);
+
+        if (index == -1) {
+            index = parents.size();
+            columnIndices.put(key, index);
+            columnX.add(cubeX);
+            columnZ.add(cubeZ);
+            parents.add(index);
+        }
+
+        return index;
+    }
+
+    int getColumnCount() {
+        return parents.size();
+    }
+
+    /**
+     * Merges every two columns that are close enough to touch the same cube.
+     *
+     * @return the group of each column, by column index. Groups are numbered from 0 in the order their first column
+     *         was added.
+     */
+    int[] partition() {
+        int distance = REACH * 2;
+
+        for (int i = 0, count = parents.size(); i < count; i++) {
+            int x = columnX.getInt(i);
+            int z = columnZ.getInt(i);
+
+            for (int dx = -distance; dx <= distance; dx++) {
+                for (int dz = -distance; dz <= distance; dz++) {
+                    int other = columnIndices.get(ChunkCoordIntPair.chunkXZ2Int(x + dx, z + dz));
+
+                    if (other > i) {
+                        union(i, other);
+                    }
+                }
+            }
+        }
+
+        int[] groups = new int[parents.size()];
+        int[] groupOfRoot = new int[parents.size()];
+        int groupCount = 0;
+
+        Arrays.fill(groupOfRoot, -1);
+
+        for (int i = 0; i < groups.length; i++) {
+            int root = find(i);
+
+            if (groupOfRoot[root] == -1) {
+                groupOfRoot[root] = groupCount++;
+            }
+
+            groups[i] = groupOfRoot[root];
+        }
+
+        return groups;
+    }
+
+    /**
+     * Spreads groups over bins so that every bin gets about as many updates, biggest groups first.
+     *
+     * @param groupSizes how many updates each group has
+     * @return the bin of each group
+     */
+    static int[] balance(int[] groupSizes, int binCount) {
+        int[] order = new int[groupSizes.length];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        IntArrays.quickSort(order, (a, b) -> Integer.compare(groupSizes[b], groupSizes[a]));
+
+        int[] bins = new int[groupSizes.length];
+        long[] binSizes = new long[binCount];
+
+        for (int group : order) {
+            int smallest = 0;
+
+            for (int bin = 1; bin < binCount; bin++) {
+                if (binSizes[bin] < binSizes[smallest]) {
+                    smallest = bin;
+                }
+            }
+
+            bins[group] = smallest;
+            binSizes[smallest] += groupSizes[group];
+        }
+
+        return bins;
+    }
+
+    private int find(int index) {
+        int root = index;
+
+        while (parents.getInt(root) != root) {
+            root = parents.getInt(root);
+        }
+
+        // path compression
+        while (parents.getInt(index) != root) {
+            int next = parents.getInt(index);
+            parents.set(index, root);
+            index = next;
+        }
+
+        return root;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+
+        if (rootA != rootB) {
+            // keep the lowest index as the root, so that groups are numbered by their first column
+            parents.set(Math.max(rootA, rootB), Math.min(rootA, rootB));
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.cardinalstar.cubicchunks.lighting.phosphor;
+
+import static com.cardinalstar.cubicchunks.util.Coords.blockToCube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
+import com.cardinalstar.cubicchunks.async.TaskPool;
+import com.cardinalstar.cubicchunks.async.TaskPool.ITaskExecutor;
+import com.cardinalstar.cubicchunks.async.TaskPool.ITaskFuture;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+/**
+ * Processes large batches of light updates on the background threads.
+ * <p>
+ * The queued updates are split into regions of columns that are far enough apart to never touch the same cube (see
+ * {@link LightUpdatePartitioner}), and each region is processed by its own {@link PhosphorLightEngine}. Regions are
+ * independent and each one processes its updates in queue order, so the light values are exactly the same as if the
+ * server thread had processed everything. The server thread processes regions too instead of just waiting.
+ * <p>
+ * There is no border pass between groups: updates that are close enough to interact always end up in the same group,
+ * which is processed by one thread. A batch that is mostly one connected area (ie a single explosion) isn't split up at
+ * all, only batches spread over distant areas (ie several players, or terrain loading around a player) are.
+ * <p>
+ * With {@link CubicChunksConfig.Optimizations#verifyParallelLighting}, every parallel pass is undone and repeated on
+ * the server thread, and any light value that differs is logged.
+ */
+final class ParallelLightProcessor {
+
+    /** Below this many queued updates, splitting them up costs more than it saves. */
+    private static final int MIN_UPDATES = 256;
+    private static final int MAX_LOGGED_MISMATCHES = 8;
+
+    private static final ITaskExecutor<LightRegion, Void> REGION_EXECUTOR = new ITaskExecutor<>() {
+
+        @Override
+        public void execute(List<ITaskFuture<LightRegion, Void>> tasks) {
+            for (var future : tasks) {
+                LightRegion region = future.getTask();
+
+                // the server thread may have gotten to it first
+                processUnclaimed(region);
+
+                future.finish(null);
+            }
+        }
+
+        @Override
+        public boolean canMerge(List<ITaskFuture<LightRegion, Void>> tasks, LightRegion region) {
+            // one region per batch, so that the regions are spread over every worker
+            return false;
+        }
+    };
+
+    private final World world;
+    private final PhosphorLightEngine owner;
+
+    /** Engines for the regions, reused between passes. */
+    private final List<PhosphorLightEngine> engines = new ArrayList<>();
+
+    /** Set once a region failed, after which every update is processed on the server thread. */
+    private boolean failed;
+
+    ParallelLightProcessor(World world, PhosphorLightEngine owner) {
+        this.world = world;
+        this.owner = owner;
+    }
+
+    /**
+     * Processes the queued updates of the given type, if they're worth splitting up.
+     *
+     * @return false if nothing was done, and the updates should be processed on this thread instead
+     */
+    boolean process(EnumSkyBlock lightType, PooledLightUpdateQueue queue) {
+        if (failed || queue.size() < MIN_UPDATES) return false;
+
+        List<LightRegion> regions = partition(lightType, queue);
+
+        if (regions.size() < 2) return false;
+
+        boolean verify = CubicChunksConfig.optimizations.verifyParallelLighting;
+
+        LightSnapshot before = verify ? new LightSnapshot(regions, lightType) : null;
+
+        run(regions, lightType, !verify);
+
+        if (before == null) {
+            // the updates were copied into the regions
+            queue.iterator()
+                .finish();
+            return true;
+        }
+
+        LightSnapshot parallel = new LightSnapshot(regions, lightType);
+
+        before.restore();
+
+        owner.processLightUpdatesForTypeInner(lightType, queue);
+
+        parallel.logDifferences(new LightSnapshot(regions, lightType));
+
+        return true;
+    }
+
+    private List<LightRegion> partition(EnumSkyBlock lightType, PooledLightUpdateQueue queue) {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+        IntArrayList columns = new IntArrayList(queue.size());
+
+        // the queue is only iterated, not consumed, in case it ends up being processed on this thread after all
+        PooledLightUpdateQueue.LightUpdateQueueIterator it = queue.iterator();
+
+        while (it.hasNext()) {
+            columns.add(partitioner.addColumn(blockToCube(it.x()), blockToCube(it.z())));
+            it.next();
+        }
+
+        int[] groups = partitioner.partition();
+
+        int groupCount = 0;
+
+        for (int group : groups) {
+            groupCount = Math.max(groupCount, group + 1);
+        }
+
+        List<LightRegion> regions = new ArrayList<>();
+
+        if (groupCount < 2) return regions;
+
+        int[] groupUpdates = new int[groupCount];
+        int largestGroup = 0;
+
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            largestGroup = Math.max(largestGroup, ++groupUpdates[groups[columns.getInt(i)]]);
+        }
+
+        // a group can't be split, so the pass takes at least as long as its largest group does on one thread. If
+        // that's most of the updates (ie a single explosion), the server thread would mostly be waiting for it.
+        if (largestGroup * 2 > columns.size()) return regions;
+
+        // groups are independent, so several of them can share a region. More regions than threads only add overhead.
+        int threads = Math.max(1, CubicChunksConfig.optimizations.backgroundThreads) + 1;
+        int regionCount = Math.min(groupCount, threads * 2);
+        int[] regionOfGroup = LightUpdatePartitioner.balance(groupUpdates, regionCount);
+
+        for (int i = 0; i < regionCount; i++) {
+            if (engines.size() == i) {
+                engines.add(new PhosphorLightEngine(world, true));
+            }
+
+            regions.add(new LightRegion(world, engines.get(i), lightType));
+        }
+
+        it = queue.iterator();
+
+        for (int i = 0; it.hasNext(); i++) {
+            regions.get(regionOfGroup[groups[columns.getInt(i)]])
+                .addUpdate(it.x(), it.y(), it.z());
+            it.next();
+        }
+
+        return regions;
+    }
+
+    private void run(List<LightRegion> regions, EnumSkyBlock lightType, boolean requeueFailures) {
+        for (int i = 1; i < regions.size(); i++) {
+            TaskPool.submit(REGION_EXECUTOR, regions.get(i), TaskPool.Priority.URGENT, null);
+        }
+
+        // the first region wasn't submitted. Workers take the oldest batches first, so continue from the newest one.
+        processUnclaimed(regions.get(0));
+
+        for (int i = regions.size() - 1; i > 0; i--) {
+            processUnclaimed(regions.get(i));
+        }
+
+        boolean interrupted = false;
+
+        for (LightRegion region : regions) {
+            // the workers are writing to the world, so there's no way around waiting for them
+            while (true) {
+                try {
+                    region.awaitDone();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread()
+                .interrupt();
+        }
+
+        for (LightRegion region : regions) {
+            int[] renderUpdates = region.renderUpdates.elements();
+
+            for (int i = 0, size = region.renderUpdates.size(); i < size; i += 3) {
+                world.func_147479_m(renderUpdates[i], renderUpdates[i + 1], renderUpdates[i + 2]);
+            }
+
+            if (region.failure == null) continue;
+
+            if (!failed) {
+                CubicChunks.LOGGER.error(
+                    "Parallel light update failed, processing light updates on the server thread from now on",
+                    region.failure);
+                failed = true;
+            }
+
+            if (requeueFailures) {
+                // the region may have been left half done, checking its updates again fixes what it can
+                int[] updates = region.updates.elements();
+
+                for (int i = 0, size = region.updates.size(); i < size; i += 3) {
+                    owner.requeueLightUpdate(lightType, updates[i], updates[i + 1], updates[i + 2]);
+                }
+            }
+        }
+    }
+
+    private static void processUnclaimed(LightRegion region) {
+        if (region.claim()) {
+            region.process();
+        }
+    }
+
+    /**
+     * Copies of the light values of every loaded cube in the regions, for one light type.
+     */
+    private static final class LightSnapshot {
+
+        private final EnumSkyBlock lightType;
+        private final Reference2ObjectOpenHashMap<Cube, byte[]> light = new Reference2ObjectOpenHashMap<>();
+
+        LightSnapshot(List<LightRegion> regions, EnumSkyBlock lightType) {
+            this.lightType = lightType;
+
+            for (LightRegion region : regions) {
+                for (Cube cube : region.getCubes()) {
+                    NibbleArray array = getArray(cube, lightType);
+
+                    if (array != null) {
+                        light.put(cube, array.data.clone());
+                    }
+                }
+            }
+        }
+
+        private static NibbleArray getArray(Cube cube, EnumSkyBlock lightType) {
+            if (cube == null) return null;
+
+            ExtendedBlockStorage storage = cube.getStorage();
+
+            if (storage == null) return null;
+
+            return lightType == EnumSkyBlock.Sky ? storage.getSkylightArray() : storage.getBlocklightArray();
+        }
+
+        void restore() {
+            for (Map.Entry<Cube, byte[]> entry : light.entrySet()) {
+                NibbleArray array = getArray(entry.getKey(), lightType);
+
+                if (array != null) {
+                    System.arraycopy(entry.getValue(), 0, array.data, 0, array.data.length);
+                }
+            }
+        }
+
+        /**
+         * Logs every light value that differs from the expected snapshot.
+         */
+        void logDifferences(LightSnapshot expected) {
+            int mismatches = 0;
+
+            for (Map.Entry<Cube, byte[]> entry : expected.light.entrySet()) {
+                Cube cube = entry.getKey();
+                byte[] expectedData = entry.getValue();
+                byte[] actualData = light.get(cube);
+
+                if (actualData == null) continue;
+
+                for (int i = 0; i < expectedData.length; i++) {
+                    if (expectedData[i] == actualData[i]) continue;
+
+                    // two values per byte, the low nibble first. Indices are y << 8 | z << 4 | x.
+                    for (int nibble = 0; nibble < 2; nibble++) {
+                        int shift = nibble * 4;
+                        int expectedLight = (expectedData[i] >> shift) & 15;
+                        int actualLight = (actualData[i] >> shift) & 15;
+
+                        if (expectedLight == actualLight) continue;
+
+                        if (mismatches++ < MAX_LOGGED_MISMATCHES) {
+                            int index = i << 1 | nibble;
+
+                            CubicChunks.LOGGER.warn(
+                                "Parallel {} light at {}, {}, {} is {}, expected {}",
+                                lightType,
+                                cube.getX() * 16 + (index & 15),
+                                cube.getY() * 16 + (index >> 8),
+                                cube.getZ() * 16 + ((index >> 4) & 15),
+                                actualLight,
+                                expectedLight);
+                        }
+                    }
+                }
+            }
+
+            if (mismatches > 0) {
+                CubicChunks.LOGGER.warn(
+                    "Parallel {} light pass differed from the serial one in {} positions",
+                    lightType,
+                    mismatches);
+            }
+        }
+    }
+}
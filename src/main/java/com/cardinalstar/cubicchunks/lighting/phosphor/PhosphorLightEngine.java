@@ -27,18 +27,22 @@ import static com.cardinalstar.cubicchunks.util.Coords.blockToLocal;
 
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.block.Block;
 import net.minecraft.client.Minecraft;
 import net.minecraft.profiler.Profiler;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import org.joml.Vector3i;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.api.ICube;
 import com.cardinalstar.cubicchunks.util.DirectionUtils;
 import com.cardinalstar.cubicchunks.world.core.IColumnInternal;
@@ -105,9 +109,26 @@ public class PhosphorLightEngine {
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    /** Splits large batches of updates over the background threads, only created for the world's own engine. */
+    @Nullable
+    private final ParallelLightProcessor parallelProcessor;
+    /** The region this engine is processing, if it's one of the engines of a {@link ParallelLightProcessor}. */
+    @Nullable
+    private LightRegion region;
+
     public PhosphorLightEngine(final World world) {
+        this(world, false);
+    }
+
+    /**
+     * @param regionEngine whether this engine processes regions for a {@link ParallelLightProcessor}, in which case
+     *                     it never touches the world directly
+     */
+    PhosphorLightEngine(final World world, final boolean regionEngine) {
         this.world = world;
-        this.profiler = world.theProfiler;
+        // the world's profiler isn't thread safe, this one is never enabled
+        this.profiler = regionEngine ? new Profiler() : world.theProfiler;
+        this.parallelProcessor = regionEngine || world.isRemote ? null : new ParallelLightProcessor(world, this);
 
         PooledLightUpdateQueue.Pool pool = new PooledLightUpdateQueue.Pool();
 
@@ -166,6 +187,13 @@ public class PhosphorLightEngine {
         }
     }
 
+    /**
+     * Queues an update without processing anything, for updates that couldn't be processed by a parallel pass.
+     */
+    void requeueLightUpdate(final EnumSkyBlock lightType, final int x, final int y, final int z) {
+        this.queuedLightUpdates[lightType.ordinal()].add(x, y, z, 0);
+    }
+
     public boolean hasLightUpdates() {
         return !this.queuedLightUpdates[0].isEmpty() || !this.queuedLightUpdates[1].isEmpty();
     }
@@ -202,7 +230,10 @@ public class PhosphorLightEngine {
         this.acquireLock();
 
         try {
-            this.processLightUpdatesForTypeInner(lightType, queue);
+            if (this.parallelProcessor == null || !CubicChunksConfig.optimizations.parallelLighting
+                || !this.parallelProcessor.process(lightType, queue)) {
+                this.processLightUpdatesForTypeInner(lightType, queue);
+            }
         } finally {
             this.updating = false;
             this.releaseLock();
@@ -253,7 +284,38 @@ public class PhosphorLightEngine {
         this.lock.unlock();
     }
 
-    private void processLightUpdatesForTypeInner(final EnumSkyBlock lightType, final PooledLightUpdateQueue queue) {
+    /**
+     * Processes the updates of a region of a parallel pass. Called on a background thread, or on the server thread
+     * while the background threads process the other regions.
+     */
+    void processRegion(final LightRegion region, final EnumSkyBlock lightType) {
+        final PooledLightUpdateQueue queue = this.queuedLightUpdates[lightType.ordinal()];
+        final int[] updates = region.updates.elements();
+
+        for (int i = 0, size = region.updates.size(); i < size; i += 3) {
+            queue.add(updates[i], updates[i + 1], updates[i + 2], 0);
+        }
+
+        this.region = region;
+
+        try {
+            this.processLightUpdatesForTypeInner(lightType, queue);
+        } finally {
+            this.region = null;
+            this.updating = false;
+            this.curCube = null;
+
+            for (NeighborInfo info : this.neighborInfos) {
+                info.cube = null;
+                info.section = null;
+            }
+        }
+    }
+
+    /**
+     * Processes the given queue on this thread.
+     */
+    void processLightUpdatesForTypeInner(final EnumSkyBlock lightType, final PooledLightUpdateQueue queue) {
         // avoid nested calls
         if (this.updating) {
             throw new IllegalStateException("Already processing updates!");
@@ -430,7 +492,7 @@ public class PhosphorLightEngine {
 
                 if (oldLight == curLight) { // only process this if nothing else has happened at this position since
                                             // scheduling
-                    this.world.func_147479_m(this.curPosX, this.curPosY, this.curPosZ); // TODO WATCH THIS
+                    this.markForRenderUpdate(this.curPosX, this.curPosY, this.curPosZ);
 
                     if (curLight > 1) {
                         this.spreadLightFromCursor(curLight, lightType);
@@ -632,7 +694,7 @@ public class PhosphorLightEngine {
         final int posZ, final int newLight, final ICube cube, final EnumSkyBlock lightType) {
         this.queuedBrightenings[newLight].add(posX, posY, posZ, newLight);
 
-        cube.setLightFor(lightType, x, y, z, newLight);
+        this.setLight(cube, lightType, x, y, z, newLight);
     }
 
     /**
@@ -642,7 +704,24 @@ public class PhosphorLightEngine {
         final int oldLight, final ICube cube, final EnumSkyBlock lightType) {
         this.queuedDarkenings[oldLight].add(posX, posY, posZ, 0);
 
-        cube.setLightFor(lightType, x, y, z, 0);
+        this.setLight(cube, lightType, x, y, z, 0);
+    }
+
+    private void setLight(final ICube cube, final EnumSkyBlock lightType, final int x, final int y, final int z,
+        final int light) {
+        if (this.region != null) {
+            this.region.setLight((Cube) cube, lightType, x, y, z, light);
+        } else {
+            cube.setLightFor(lightType, x, y, z, light);
+        }
+    }
+
+    private void markForRenderUpdate(final int x, final int y, final int z) {
+        if (this.region != null) {
+            this.region.markForRenderUpdate(x, y, z);
+        } else {
+            this.world.func_147479_m(x, y, z); // TODO WATCH THIS
+        }
     }
 
     private static int ITEMS_PROCESSED = 0, CHUNKS_FETCHED = 0;
@@ -704,17 +783,30 @@ public class PhosphorLightEngine {
             }
         }
 
-        return MathHelper
-            .clamp_int(state.getLightValue(this.world, this.curPosX, this.curPosY, this.curPosZ), 0, MAX_LIGHT);
+        return MathHelper.clamp_int(
+            state.getLightValue(this.getBlockAccess(), this.curPosX, this.curPosY, this.curPosZ),
+            0,
+            MAX_LIGHT);
     }
 
     private int getPosOpacity(final int x, final int y, final int z, final Block block) {
-        return MathHelper.clamp_int(block.getLightOpacity(this.world, x, y, z), 1, MAX_LIGHT);
+        return MathHelper.clamp_int(block.getLightOpacity(this.getBlockAccess(), x, y, z), 1, MAX_LIGHT);
+    }
+
+    private IBlockAccess getBlockAccess() {
+        return this.region != null ? this.region : this.world;
     }
 
     private ICube getCube(final int x, final int y, final int z) {
-        return ((ICubeProvider) this.world.getChunkProvider())
-            .getLoadedCube(blockToCube(x), blockToCube(y), blockToCube(z));
+        if (this.region != null) {
+            return this.region.getCube(x, y, z);
+        }
+
+        return getLoadedCube(this.world, blockToCube(x), blockToCube(y), blockToCube(z));
+    }
+
+    static ICube getLoadedCube(final World world, final int cubeX, final int cubeY, final int cubeZ) {
+        return ((ICubeProvider) world.getChunkProvider()).getLoadedCube(cubeX, cubeY, cubeZ);
     }
 
     private static class NeighborInfo {
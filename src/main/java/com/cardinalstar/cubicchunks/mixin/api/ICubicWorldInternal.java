@@ -37,7 +37,8 @@ import com.cardinalstar.cubicchunks.client.CubeProviderClient;
 import com.cardinalstar.cubicchunks.lighting.ILightingManager;
 import com.cardinalstar.cubicchunks.server.CubeProviderServer;
 import com.cardinalstar.cubicchunks.server.SpawnCubes;
-import com.cardinalstar.cubicchunks.util.world.CubeSplitTicks;
+import com.cardinalstar.cubicchunks.util.world.CubeTickScheduler;
+import com.cardinalstar.cubicchunks.world.EntityCategoryCounts;
 import com.cardinalstar.cubicchunks.world.ICubicWorld;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
 import com.cardinalstar.cubicchunks.world.cube.ICubeProvider;
@@ -112,7 +113,9 @@ public interface ICubicWorldInternal extends ICubicWorld {
 
         XZMap<IColumn> getForcedColumns();
 
-        CubeSplitTicks getScheduledTicks();
+        CubeTickScheduler getScheduledTicks();
+
+        EntityCategoryCounts getEntityCategoryCounts();
 
         SpawnCubes getSpawnArea();
 
@@ -13,6 +13,7 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.cardinalstar.cubicchunks.api.IntRange;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
+import com.cardinalstar.cubicchunks.network.CubeFormatNegotiation;
 import com.cardinalstar.cubicchunks.network.ICubicJoinGamePacket;
 import com.llamalad7.mixinextras.expression.Definition;
 import com.llamalad7.mixinextras.expression.Expression;
@@ -40,6 +41,8 @@ public class MixinNetHandlerPlayClient {
                     cubicJoinGamePacket.cubicChunks$getMaxGenerationHeight()));
             // Update stale ViewFrustum/RenderChunk-related state, as it was previously set for non-CC world
             Minecraft.getMinecraft().renderGlobal.setWorldAndLoadRenderers(clientWorldController);
+
+            CubeFormatNegotiation.announce();
         }
     }
 }
@@ -38,6 +38,7 @@ import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.util.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.MinecraftForge;
@@ -67,6 +68,7 @@ import com.cardinalstar.cubicchunks.api.IColumn;
 import com.cardinalstar.cubicchunks.api.ICube;
 import com.cardinalstar.cubicchunks.api.IHeightMap;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
+import com.cardinalstar.cubicchunks.server.CubicPlayerManager;
 import com.cardinalstar.cubicchunks.util.Coords;
 import com.cardinalstar.cubicchunks.util.Mods;
 import com.cardinalstar.cubicchunks.world.api.IMinMaxHeight;
@@ -560,6 +562,11 @@ public abstract class MixinChunk_Cubes {
         ICube cube = ((IColumn) this).getCube(blockToCube(y));
         cube.markDirty();
 
+        if (block.getTickRandomly() && worldObj instanceof WorldServer worldServer
+            && worldServer.getPlayerManager() instanceof CubicPlayerManager playerManager) {
+            playerManager.onRandomTickingBlockPlaced(cube);
+        }
+
         if (cube.isSurfaceTracked()) {
             opacityIndex.onOpacityChange(blockToLocal(x), y, blockToLocal(z), block.getLightOpacity());
             getWorldObj().getLightingManager()
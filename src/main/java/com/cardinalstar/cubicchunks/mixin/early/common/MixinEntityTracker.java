@@ -20,6 +20,7 @@
  */
 package com.cardinalstar.cubicchunks.mixin.early.common;
 
+import java.util.List;
 import java.util.Set;
 
 import net.minecraft.entity.Entity;
@@ -28,6 +29,7 @@ import net.minecraft.entity.EntityTracker;
 import net.minecraft.entity.EntityTrackerEntry;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.play.server.S1BPacketEntityAttach;
+import net.minecraft.util.IntHashMap;
 import net.minecraft.world.WorldServer;
 
 import org.spongepowered.asm.mixin.Mixin;
@@ -47,6 +49,8 @@ public class MixinEntityTracker implements ICubicEntityTracker {
 
     @Shadow
     private Set<EntityTrackerEntry> trackedEntities;
+    @Shadow
+    private IntHashMap trackedEntityIDs;
     @Unique
     private int maxVertTrackingDistanceThreshold;
 
@@ -72,12 +76,15 @@ public class MixinEntityTracker implements ICubicEntityTracker {
     // SPacketSetPassengers
     @Override
     public void sendLeashedEntitiesInCube(EntityPlayerMP player, ICube cubeIn) {
-        for (EntityTrackerEntry entitytrackerentry : this.trackedEntities) {
-            Entity entity = entitytrackerentry.myEntity;
-            if (entity != player && entity.chunkCoordX == cubeIn.getX()
-                && entity.chunkCoordZ == cubeIn.getZ()
-                && entity.chunkCoordY == cubeIn.getY()) {
+        // the cube's entity list is already indexed by cube, look the entries up by id instead of checking all of them
+        List<Entity> entities = cubeIn.getEntitySet();
+
+        for (int i = 0, size = entities.size(); i < size; i++) {
+            Entity entity = entities.get(i);
+            EntityTrackerEntry entitytrackerentry = (EntityTrackerEntry) this.trackedEntityIDs
+                .lookup(entity.getEntityId());
 
+            if (entitytrackerentry != null && entitytrackerentry.myEntity == entity && entity != player) {
                 entitytrackerentry.tryStartWachingThis(player);
                 // noinspection ConstantConditions
                 if (entity instanceof EntityLiving && ((EntityLiving) entity).getLeashedToEntity() != null) {
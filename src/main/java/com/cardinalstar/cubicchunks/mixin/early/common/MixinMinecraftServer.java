@@ -40,6 +40,9 @@ public class MixinMinecraftServer implements ICubicChunksServer {
     @Unique
     private int cubicChunks$buildMinimum;
 
+    @Unique
+    private boolean cubicChunks$autosaving;
+
     @Inject(method = "initialWorldChunkLoad", at = @At("HEAD"), cancellable = true)
     private void onInitialSpawnLoad(CallbackInfo ci) {
         World world = DimensionManager.getWorld(0);
@@ -49,6 +52,23 @@ public class MixinMinecraftServer implements ICubicChunksServer {
         ci.cancel();
     }
 
+    @Inject(
+        method = "tick",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/server/MinecraftServer;saveAllWorlds(Z)V"))
+    private void onAutosaveStart(CallbackInfo ci) {
+        cubicChunks$autosaving = true;
+    }
+
+    @Inject(
+        method = "tick",
+        at = @At(
+            value = "INVOKE",
+            target = "Lnet/minecraft/server/MinecraftServer;saveAllWorlds(Z)V",
+            shift = At.Shift.AFTER))
+    private void onAutosaveEnd(CallbackInfo ci) {
+        cubicChunks$autosaving = false;
+    }
+
     @Override
     public void setBuildMinimum(int minBuildHeight) {
         cubicChunks$buildMinimum = minBuildHeight;
@@ -58,4 +78,9 @@ public class MixinMinecraftServer implements ICubicChunksServer {
     public int getBuildMinimum() {
         return cubicChunks$buildMinimum;
     }
+
+    @Override
+    public boolean isAutosaving() {
+        return cubicChunks$autosaving;
+    }
 }
@@ -24,8 +24,11 @@ import static com.cardinalstar.cubicchunks.util.Coords.cubeToMinBlock;
 import static com.cardinalstar.cubicchunks.util.ReflectionUtil.cast;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -33,11 +36,15 @@ import java.util.TreeSet;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.crash.CrashReport;
+import net.minecraft.crash.CrashReportCategory;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityTracker;
 import net.minecraft.entity.effect.EntityLightningBolt;
 import net.minecraft.init.Blocks;
 import net.minecraft.server.management.PlayerManager;
+import net.minecraft.util.ReportedException;
 import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.SpawnerAnimals;
@@ -75,15 +82,14 @@ import com.cardinalstar.cubicchunks.server.CubeProviderServer;
 import com.cardinalstar.cubicchunks.server.CubicPlayerManager;
 import com.cardinalstar.cubicchunks.server.SpawnCubes;
 import com.cardinalstar.cubicchunks.util.CubePos;
-import com.cardinalstar.cubicchunks.util.world.CubeSplitTicks;
+import com.cardinalstar.cubicchunks.util.world.CubeTickScheduler;
 import com.cardinalstar.cubicchunks.world.CubeSpawnerAnimals;
+import com.cardinalstar.cubicchunks.world.EntityCategoryCounts;
 import com.cardinalstar.cubicchunks.world.ICubicWorldProvider;
 import com.cardinalstar.cubicchunks.world.ISpawnerAnimals;
 import com.cardinalstar.cubicchunks.world.chunkloader.CubicChunkManager;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
 import com.cardinalstar.cubicchunks.world.savedata.WorldFormatSavedData;
-import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
-import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
 
 /**
  * Implementation of {@link ICubicWorldServer} interface.
@@ -128,15 +134,19 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 
     @Shadow
     public ChunkProviderServer theChunkProviderServer;
+    @Shadow
+    private List<NextTickListEntry> pendingTickListEntriesThisTick;
+    @Unique
+    private CubeTickScheduler cubeTicks;
     @Unique
-    private CubeSplitTicks cubeTicks;
+    private final EntityCategoryCounts entityCategoryCounts = new EntityCategoryCounts();
 
     @Override
     public void initCubicWorldServer() {
         this.forcedChunksCubes = new HashMap<>();
         this.forcedCubes = new XYZMap<>();
         this.forcedColumns = new XZMap<>();
-        cubeTicks = new CubeSplitTicks();
+        cubeTicks = new CubeTickScheduler();
     }
 
     @Redirect(
@@ -180,20 +190,94 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         }
     }
 
-    @WrapOperation(
+    // Scheduled block updates are kept in cubeTicks instead of vanilla's hash set and tree set, which stay empty.
+
+    @Redirect(
+        method = { "scheduleBlockUpdateWithPriority", "func_147446_b" },
+        at = @At(value = "INVOKE", target = "Ljava/util/Set;contains(Ljava/lang/Object;)Z", remap = false))
+    private boolean redirectContains(Set<NextTickListEntry> instance, Object o) {
+        return cubeTicks.contains((NextTickListEntry) o);
+    }
+
+    @Redirect(
+        method = { "scheduleBlockUpdateWithPriority", "func_147446_b" },
+        at = @At(value = "INVOKE", target = "Ljava/util/Set;add(Ljava/lang/Object;)Z", remap = false))
+    private boolean redirectAdd(Set<NextTickListEntry> instance, Object o) {
+        return cubeTicks.add((NextTickListEntry) o, this.worldInfo.getWorldTotalTime());
+    }
+
+    @Redirect(
         method = { "scheduleBlockUpdateWithPriority", "func_147446_b" },
         at = @At(value = "INVOKE", target = "Ljava/util/TreeSet;add(Ljava/lang/Object;)Z", remap = false))
-    public boolean redirectAdd(TreeSet<NextTickListEntry> instance, Object o, Operation<Boolean> original) {
-        cubeTicks.add((NextTickListEntry) o);
-        return original.call(instance, o);
+    private boolean redirectTreeAdd(TreeSet<NextTickListEntry> instance, Object o) {
+        return true;
+    }
+
+    /// Same as vanilla, except the updates come from cubeTicks.
+    @Inject(method = "tickUpdates", at = @At("HEAD"), cancellable = true)
+    private void tickCubeUpdates(boolean runAll, CallbackInfoReturnable<Boolean> cir) {
+        this.theProfiler.startSection("cleaning");
+        cubeTicks.pollDue(this.worldInfo.getWorldTotalTime(), runAll, 1000, this.pendingTickListEntriesThisTick);
+        this.theProfiler.endSection();
+
+        this.theProfiler.startSection("ticking");
+        Iterator<NextTickListEntry> iterator = this.pendingTickListEntriesThisTick.iterator();
+
+        while (iterator.hasNext()) {
+            NextTickListEntry entry = iterator.next();
+            iterator.remove();
+
+            int x = entry.xCoord, y = entry.yCoord, z = entry.zCoord;
+
+            if (this.checkChunksExist(x, y, z, x, y, z)) {
+                Block block = this.getBlock(x, y, z);
+
+                if (block.getMaterial() != Material.air && Block.isEqualTo(block, entry.func_151351_a())) {
+                    try {
+                        block.updateTick((World) (Object) this, x, y, z, this.rand);
+                    } catch (Throwable t) {
+                        CrashReport report = CrashReport.makeCrashReport(t, "Exception while ticking a block");
+                        CrashReportCategory category = report.makeCategory("Block being ticked");
+                        int meta = ((World) (Object) this).getBlockMetadata(x, y, z);
+                        CrashReportCategory.func_147153_a(category, x, y, z, block, meta);
+                        throw new ReportedException(report);
+                    }
+                }
+            } else {
+                ((World) (Object) this).scheduleBlockUpdate(x, y, z, entry.func_151351_a(), 0);
+            }
+        }
+
+        this.theProfiler.endSection();
+        this.pendingTickListEntriesThisTick.clear();
+
+        cir.setReturnValue(!cubeTicks.isEmpty());
     }
 
-    @WrapOperation(
-        method = "tickUpdates",
-        at = @At(value = "INVOKE", target = "Ljava/util/TreeSet;remove(Ljava/lang/Object;)Z", remap = false))
-    public boolean redirectRemove(TreeSet<NextTickListEntry> instance, Object o, Operation<Boolean> original) {
-        cubeTicks.remove((NextTickListEntry) o);
-        return original.call(instance, o);
+    @Inject(method = "getPendingBlockUpdates", at = @At("HEAD"), cancellable = true)
+    private void getPendingCubeUpdates(Chunk chunk, boolean remove,
+        CallbackInfoReturnable<List<NextTickListEntry>> cir) {
+        int minX = (chunk.xPosition << 4) - 2;
+        int maxX = minX + 16 + 2;
+        int minZ = (chunk.zPosition << 4) - 2;
+        int maxZ = minZ + 16 + 2;
+
+        List<NextTickListEntry> out = new ArrayList<>();
+
+        cubeTicks.collect(minX, maxX, minZ, maxZ, remove, out);
+
+        for (NextTickListEntry entry : this.pendingTickListEntriesThisTick) {
+            if (entry.xCoord >= minX && entry.xCoord < maxX && entry.zCoord >= minZ && entry.zCoord < maxZ) {
+                out.add(entry);
+            }
+        }
+
+        if (remove) {
+            this.pendingTickListEntriesThisTick.removeIf(
+                entry -> entry.xCoord >= minX && entry.xCoord < maxX && entry.zCoord >= minZ && entry.zCoord < maxZ);
+        }
+
+        cir.setReturnValue(out.isEmpty() ? null : out);
     }
 
     @Override
@@ -207,10 +291,25 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     }
 
     @Override
-    public CubeSplitTicks getScheduledTicks() {
+    public CubeTickScheduler getScheduledTicks() {
         return cubeTicks;
     }
 
+    @Override
+    public EntityCategoryCounts getEntityCategoryCounts() {
+        return entityCategoryCounts;
+    }
+
+    @Inject(method = "onEntityAdded", at = @At("HEAD"))
+    private void countAddedEntity(Entity entity, CallbackInfo ci) {
+        entityCategoryCounts.onEntityAdded(entity);
+    }
+
+    @Inject(method = "onEntityRemoved", at = @At("HEAD"))
+    private void countRemovedEntity(Entity entity, CallbackInfo ci) {
+        entityCategoryCounts.onEntityRemoved(entity);
+    }
+
     @Override
     public void tickCubicWorld() {
         getLightingManager().onTick();
@@ -329,9 +428,8 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 
         long worldTime = worldInfo.getWorldTotalTime();
 
-        for (Cube cube : ((CubeProviderServer) this.theChunkProviderServer).getTickableCubes()) {
-            tickCube(cube, worldTime);
-        }
+        // only the cubes with randomly ticking blocks, most watched cubes are all stone or air
+        ((CubicPlayerManager) this.thePlayerManager).forEachRandomTickingCube(cube -> tickCube(cube, worldTime));
 
         this.theProfiler.endSection();
     }
@@ -2,7 +2,7 @@ package com.cardinalstar.cubicchunks.network;
 
 public enum CCPacketEntry {
 
-    Cubes(new PacketEncoderCubes()),
+    Cubes(new PacketEncoderCubes(CubeWireFormat.RAW)),
     Column(new PacketEncoderColumn()),
     UnloadColumn(new PacketEncoderUnloadColumn()),
     UnloadCube(new PacketEncoderUnloadCube()),
@@ -10,6 +10,7 @@ public enum CCPacketEntry {
     HeightMapUpdate(new PacketEncoderHeightMapUpdate()),
     CubeSkyLightUpdates(new PacketEncoderCubeSkyLightUpdates()),
     WorldHeight(new PacketEncoderWorldHeight()),
+    CubesPalette(new PacketEncoderCubes(CubeWireFormat.PALETTE)),
     //
     ;
 
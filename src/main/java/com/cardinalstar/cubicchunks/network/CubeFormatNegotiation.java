@@ -0,0 +1,71 @@
+package com.cardinalstar.cubicchunks.network;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.INetHandler;
+
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.network.FMLEventChannel;
+import cpw.mods.fml.common.network.FMLNetworkEvent;
+import cpw.mods.fml.common.network.NetworkRegistry;
+import cpw.mods.fml.common.network.internal.FMLProxyPacket;
+import cpw.mods.fml.relauncher.Side;
+import cpw.mods.fml.relauncher.SideOnly;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Agrees on the {@link CubeWireFormat} used for each connection.
+ * <p>
+ * Right after joining, the client announces the newest format it can read. This happens on a separate channel, so that
+ * servers which don't know about it simply drop the announcement instead of failing to decode an unknown packet id on
+ * {@link NetworkChannel}. Until a server received the announcement, it sends {@link CubeWireFormat#RAW} cubes, which
+ * keeps older clients working.
+ */
+public class CubeFormatNegotiation {
+
+    private static final String CHANNEL_NAME = "cubicchunks:fmt";
+
+    /** Formats announced by clients, by connection. */
+    private static final Map<INetHandler, CubeWireFormat> FORMATS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static FMLEventChannel channel;
+
+    public static void init() {
+        channel = NetworkRegistry.INSTANCE.newEventDrivenChannel(CHANNEL_NAME);
+        channel.register(new CubeFormatNegotiation());
+    }
+
+    @SideOnly(Side.CLIENT)
+    public static void announce() {
+        ByteBuf payload = Unpooled.buffer(1);
+        payload.writeByte(CubeWireFormat.LATEST.id);
+
+        channel.sendToServer(new FMLProxyPacket(payload, CHANNEL_NAME));
+    }
+
+    @SubscribeEvent
+    public void onAnnouncement(FMLNetworkEvent.ServerCustomPacketEvent event) {
+        ByteBuf payload = event.packet.payload();
+
+        if (payload.isReadable()) {
+            FORMATS.put(event.handler, CubeWireFormat.byId(payload.readUnsignedByte()));
+        }
+    }
+
+    /**
+     * @return the format cubes should be sent to the given player in
+     */
+    public static CubeWireFormat getFormat(EntityPlayerMP player) {
+        if (!CubicChunksConfig.optimizations.compactCubePackets) return CubeWireFormat.RAW;
+
+        CubeWireFormat format = FORMATS.get(player.playerNetServerHandler);
+
+        return format == null ? CubeWireFormat.RAW : format;
+    }
+}
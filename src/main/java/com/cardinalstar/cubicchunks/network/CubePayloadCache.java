@@ -0,0 +1,217 @@
+package com.cardinalstar.cubicchunks.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+
+import com.cardinalstar.cubicchunks.util.CubePos;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+/**
+ * Encoded cube payloads, shared between every player a cube is sent to.
+ * <p>
+ * When many players watch the same cubes, each cube is only encoded once, and every player's
+ * {@link PacketEncoderCubes.PacketCubes} references the same payload. A payload is reused as long as:
+ * <ul>
+ * <li>the cube wasn't marked dirty since it was encoded ({@link Cube#getChangeCount()}). Every block and light change
+ * marks the cube it's in, so light spreading in from a neighbour is caught as well</li>
+ * <li>the cube's blocks didn't change ({@link #invalidate(int, int, int)})</li>
+ * <li>its column's heightmap didn't change ({@link #invalidateColumn(int, int)}), since it's part of the payload</li>
+ * <li>it's younger than {@link #MAX_AGE} ticks, which bounds how stale data that isn't tracked (biomes, data added by
+ * other mods) can get, and how long payloads are kept</li>
+ * </ul>
+ * Tile entities can change without any of the above, so their NBT is written again once per tick.
+ * <p>
+ * Only used from the server thread.
+ */
+@ParametersAreNonnullByDefault
+public class CubePayloadCache {
+
+    private static final int MAX_AGE = 20 * 5;
+
+    private final World world;
+
+    private final Object2ObjectOpenHashMap<CubePos, CubePayload> payloads = new Object2ObjectOpenHashMap<>();
+    /**
+     * The value of {@link #columnChanges} when each column's heightmap last changed. Payloads encoded before that are
+     * stale. Entries older than every payload are dropped, they can't make any payload stale anymore.
+     */
+    private final Long2LongOpenHashMap columnStamps = new Long2LongOpenHashMap();
+    /** Counts heightmap changes. */
+    private long columnChanges;
+
+    private final ByteBuf scratch = Unpooled.buffer(16384);
+
+    private long nextSweep;
+
+    public CubePayloadCache(World world) {
+        this.world = world;
+    }
+
+    public CubePayload get(Cube cube, CubeWireFormat format) {
+        long tick = world.getTotalWorldTime();
+
+        if (tick >= nextSweep) {
+            sweep(tick);
+            nextSweep = tick + MAX_AGE;
+        }
+
+        CubePayload payload = payloads.get(cube.getCoords());
+
+        if (payload == null || !payload.isValid(cube, tick, getColumnStamp(cube))) {
+            payload = new CubePayload(cube, cube.getChangeCount(), tick, columnChanges);
+            payloads.put(cube.getCoords(), payload);
+        }
+
+        if (payload.tileEntityTick != tick) {
+            payload.tileEntities = writeTileEntities(cube);
+            payload.tileEntityTick = tick;
+        }
+
+        if (payload.data[format.ordinal()] == null) {
+            payload.data[format.ordinal()] = encode(cube, format);
+        }
+
+        return payload;
+    }
+
+    private long getColumnStamp(Cube cube) {
+        return columnStamps.getOrDefault(ChunkCoordIntPair.chunkXZ2Int(cube.getX(), cube.getZ()), -1L);
+    }
+
+    /**
+     * Called when blocks in a cube change.
+     */
+    public void invalidate(int cubeX, int cubeY, int cubeZ) {
+        if (!payloads.isEmpty()) {
+            payloads.remove(new CubePos(cubeX, cubeY, cubeZ));
+        }
+    }
+
+    /**
+     * Called when a column's heightmap changes, which invalidates every cube in it.
+     */
+    public void invalidateColumn(int cubeX, int cubeZ) {
+        if (!payloads.isEmpty()) {
+            columnStamps.put(ChunkCoordIntPair.chunkXZ2Int(cubeX, cubeZ), columnChanges++);
+        }
+    }
+
+    public void clear() {
+        payloads.clear();
+        columnStamps.clear();
+    }
+
+    /**
+     * Drops payloads that are too old to be reused, and the column stamps that no payload is older than.
+     */
+    private void sweep(long tick) {
+        long oldest = columnChanges;
+
+        var iter = payloads.values()
+            .iterator();
+
+        while (iter.hasNext()) {
+            CubePayload payload = iter.next();
+
+            if (tick - payload.encodedTick >= MAX_AGE) {
+                iter.remove();
+            } else {
+                oldest = Math.min(oldest, payload.columnChanges);
+            }
+        }
+
+        var stamps = columnStamps.long2LongEntrySet()
+            .fastIterator();
+
+        while (stamps.hasNext()) {
+            if (stamps.next()
+                .getLongValue() < oldest) {
+                stamps.remove();
+            }
+        }
+    }
+
+    private byte[] encode(Cube cube, CubeWireFormat format) {
+        scratch.clear();
+
+        WorldEncoder.encodeCubes(new CCPacketBuffer(scratch), Collections.singletonList(cube), format);
+
+        byte[] data = new byte[scratch.writerIndex()];
+        scratch.readBytes(data);
+
+        return data;
+    }
+
+    private static List<NBTTagCompound> writeTileEntities(Cube cube) {
+        if (cube.getTileEntityMap()
+            .isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<NBTTagCompound> tileEntities = new ArrayList<>();
+
+        for (TileEntity tileEntity : cube.getTileEntityMap()
+            .values()) {
+            NBTTagCompound tag = new NBTTagCompound();
+            tileEntity.writeToNBT(tag);
+            tileEntities.add(tag);
+        }
+
+        return tileEntities;
+    }
+
+    /**
+     * The encoded data of a single cube. Shared between packets, so it must never be modified.
+     */
+    public static class CubePayload {
+
+        private final Cube cube;
+        /** Encoded data by {@link CubeWireFormat}, only encoded once a player needs that format. */
+        private final byte[][] data = new byte[CubeWireFormat.values().length][];
+        /** Replaced (never modified) once per tick. */
+        List<NBTTagCompound> tileEntities;
+        private long tileEntityTick = Long.MIN_VALUE;
+
+        private final int changeCount;
+        private final long encodedTick;
+        /** The value of {@link #columnChanges} when this was encoded. */
+        private final long columnChanges;
+
+        private CubePayload(Cube cube, int changeCount, long encodedTick, long columnChanges) {
+            this.cube = cube;
+            this.changeCount = changeCount;
+            this.encodedTick = encodedTick;
+            this.columnChanges = columnChanges;
+        }
+
+        private boolean isValid(Cube cube, long tick, long columnStamp) {
+            return this.cube == cube && this.changeCount == cube.getChangeCount()
+                && tick - this.encodedTick < MAX_AGE
+                && columnStamp < this.columnChanges;
+        }
+
+        byte[] getData(CubeWireFormat format) {
+            return data[format.ordinal()];
+        }
+
+        /**
+         * @return the encoded size in bytes, before any packet compression
+         */
+        public int getSize(CubeWireFormat format) {
+            return data[format.ordinal()].length;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.cardinalstar.cubicchunks.network;
+
+/**
+ * Encodings of the cube data in {@link PacketEncoderCubes.PacketCubes}. Servers only use a format other than
+ * {@link #RAW} once the client announced that it can read it, see {@link CubeFormatNegotiation}.
+ */
+public enum CubeWireFormat {
+
+    /** Raw block, metadata and light arrays. Understood by every client. */
+    RAW,
+    /**
+     * Block palettes with a variable bit width, single values for uniform light arrays and optionally deflate for the
+     * whole batch.
+     */
+    PALETTE;
+
+    public static final CubeWireFormat LATEST = PALETTE;
+
+    private static final CubeWireFormat[] VALUES = values();
+
+    public final byte id = (byte) ordinal();
+
+    /**
+     * @return the format with the given id, or the newest one this side knows if it's newer than that
+     */
+    public static CubeWireFormat byId(int id) {
+        if (id < 0) return RAW;
+
+        return VALUES[Math.min(id, VALUES.length - 1)];
+    }
+}
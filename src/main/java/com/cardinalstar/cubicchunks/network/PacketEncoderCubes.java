@@ -21,19 +21,25 @@
 package com.cardinalstar.cubicchunks.network;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.world.World;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.client.CubeProviderClient;
 import com.cardinalstar.cubicchunks.modcompat.angelica.AngelicaInterop;
+import com.cardinalstar.cubicchunks.network.CubePayloadCache.CubePayload;
 import com.cardinalstar.cubicchunks.util.CubePos;
 import com.cardinalstar.cubicchunks.util.CubeStatusVisualizer;
 import com.cardinalstar.cubicchunks.util.CubeStatusVisualizer.CubeStatus;
@@ -42,79 +48,106 @@ import com.github.bsideup.jabel.Desugar;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
 
 @ParametersAreNonnullByDefault
 public class PacketEncoderCubes extends CCPacketEncoder<PacketEncoderCubes.PacketCubes> {
 
+    /** Batches smaller than this aren't worth deflating. */
+    private static final int DEFLATE_THRESHOLD = 256;
+    private static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+    /** Packets are written on the server thread, so the fastest level is used. */
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal
+        .withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    /** The tick {@link #deflatedThisTick} belongs to. */
+    private static int deflateTick = -1;
+    /** How much was deflated this tick, see {@link CubicChunksConfig.Optimizations#maxDeflateBytesPerTick}. */
+    private static long deflatedThisTick;
+
+    /**
+     * @param data the encoded cubes, in the same order as {@link #cubePos}. Sent as one array, the payloads are
+     *             only kept separate so they can be shared between packets.
+     */
     @Desugar
-    public record PacketCubes(CubePos[] cubePos, byte[] data, List<List<NBTTagCompound>> tileEntityTags)
-        implements CCPacket {
+    public record PacketCubes(CubeWireFormat format, CubePos[] cubePos, byte[][] data,
+        List<List<NBTTagCompound>> tileEntityTags) implements CCPacket {
 
         @Override
         public byte getPacketID() {
-            return CCPacketEntry.Cubes.id;
+            return getPacketID(format);
         }
     }
 
-    public PacketEncoderCubes() {}
+    private final CubeWireFormat format;
+
+    public PacketEncoderCubes(CubeWireFormat format) {
+        this.format = format;
+    }
+
+    private static byte getPacketID(CubeWireFormat format) {
+        return format == CubeWireFormat.RAW ? CCPacketEntry.Cubes.id : CCPacketEntry.CubesPalette.id;
+    }
 
-    public static PacketCubes createPacket(List<Cube> cubes) {
+    public static PacketCubes createPacket(List<Cube> cubes, CubeWireFormat format, CubePayloadCache cache) {
         cubes.sort(
             Comparator.comparingInt(Cube::getY)
                 .thenComparingInt(Cube::getX)
                 .thenComparingInt(Cube::getZ));
 
         CubePos[] cubePos = new CubePos[cubes.size()];
-        for (int i = 0; i < cubes.size(); i++) {
-            cubePos[i] = cubes.get(i)
-                .getCoords();
-            CubeStatusVisualizer.put(
-                cubes.get(i)
-                    .getCoords(),
-                CubeStatus.Synced);
-        }
-
-        ByteBuf cubeData = Unpooled.buffer();
-
-        WorldEncoder.encodeCubes(new CCPacketBuffer(cubeData), cubes);
-
-        byte[] data = new byte[cubeData.writerIndex()];
+        byte[][] data = new byte[cubes.size()][];
+        List<List<NBTTagCompound>> tileEntityTags = new ArrayList<>(cubes.size());
 
-        cubeData.readBytes(data);
-
-        List<List<NBTTagCompound>> tileEntityTags = new ArrayList<>();
+        for (int i = 0; i < cubes.size(); i++) {
+            Cube cube = cubes.get(i);
 
-        for (Cube cube : cubes) {
-            if (cube.getTileEntityMap()
-                .isEmpty()) {
-                tileEntityTags.add(Collections.emptyList());
-            } else {
-                List<NBTTagCompound> list = new ArrayList<>();
+            cubePos[i] = cube.getCoords();
+            CubeStatusVisualizer.put(cube.getCoords(), CubeStatus.Synced);
 
-                for (TileEntity tileEntity : cube.getTileEntityMap()
-                    .values()) {
-                    NBTTagCompound tag = new NBTTagCompound();
-                    tileEntity.writeToNBT(tag);
-                    list.add(tag);
-                }
+            CubePayload payload = cache.get(cube, format);
 
-                tileEntityTags.add(list);
-            }
+            data[i] = payload.getData(format);
+            tileEntityTags.add(payload.tileEntities);
         }
 
-        return new PacketCubes(cubePos, data, tileEntityTags);
+        return new PacketCubes(format, cubePos, data, tileEntityTags);
     }
 
     @Override
     public byte getPacketID() {
-        return CCPacketEntry.Cubes.id;
+        return getPacketID(format);
     }
 
     @Override
     public void writePacket(CCPacketBuffer buffer, PacketCubes packet) {
         buffer.writeArray(packet.cubePos, CCPacketBuffer::writeCubePos);
 
-        buffer.writeByteArray(packet.data);
+        int length = 0;
+
+        for (byte[] payload : packet.data) {
+            length += payload.length;
+        }
+
+        boolean deflate = format != CubeWireFormat.RAW && CubicChunksConfig.optimizations.deflateCubePackets
+            && length >= DEFLATE_THRESHOLD
+            && takeDeflateBudget(length);
+
+        if (format != CubeWireFormat.RAW) {
+            buffer.writeBoolean(deflate);
+        }
+
+        if (deflate) {
+            buffer.writeVarIntToBuffer(length);
+            buffer.writeByteArray(deflate(packet.data, length));
+        } else {
+            buffer.writeVarIntToBuffer(length);
+
+            for (byte[] payload : packet.data) {
+                buffer.writeBytes(payload);
+            }
+        }
 
         buffer.writeList(packet.tileEntityTags, (buf2, list) -> buf2.writeList(list, CCPacketBuffer::writeCompoundTag));
     }
@@ -123,12 +156,96 @@ public class PacketEncoderCubes extends CCPacketEncoder<PacketEncoderCubes.Packe
     public PacketCubes readPacket(CCPacketBuffer buf) {
         CubePos[] cubePos = buf.readArray(new CubePos[0], CCPacketBuffer::readCubePos);
 
-        byte[] data = buf.readByteArray();
+        byte[] data;
+
+        if (format != CubeWireFormat.RAW && buf.readBoolean()) {
+            int length = buf.readVarIntFromBuffer();
+
+            if (length < 0 || length > MAX_INFLATED_SIZE) {
+                throw new DecoderException("Invalid cube batch size: " + length);
+            }
+
+            data = inflate(buf.readByteArray(), length);
+        } else {
+            data = buf.readByteArray();
+        }
 
         List<List<NBTTagCompound>> tileEntityTags = buf
             .readList(buf2 -> buf2.readList(CCPacketBuffer::readCompoundTag));
 
-        return new PacketCubes(cubePos, data, tileEntityTags);
+        return new PacketCubes(format, cubePos, new byte[][] { data }, tileEntityTags);
+    }
+
+    /**
+     * The FML channel encodes packets as they're sent, which is on the server thread, so deflating is limited per
+     * tick. Once the budget is used up, packets are sent as they are.
+     */
+    private static boolean takeDeflateBudget(int length) {
+        MinecraftServer server = MinecraftServer.getServer();
+        int tick = server == null ? 0 : server.getTickCounter();
+
+        if (tick != deflateTick) {
+            deflateTick = tick;
+            deflatedThisTick = 0;
+        }
+
+        if (deflatedThisTick + length > CubicChunksConfig.optimizations.maxDeflateBytesPerTick) return false;
+
+        deflatedThisTick += length;
+        return true;
+    }
+
+    private static byte[] deflate(byte[][] payloads, int length) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+
+        byte[] out = new byte[Math.max(length / 2, 64)];
+        int written = 0;
+
+        for (int i = 0; i <= payloads.length; i++) {
+            if (i < payloads.length) {
+                deflater.setInput(payloads[i]);
+            } else {
+                deflater.finish();
+            }
+
+            while (i == payloads.length ? !deflater.finished() : !deflater.needsInput()) {
+                if (written == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+
+                written += deflater.deflate(out, written, out.length - written);
+            }
+        }
+
+        return Arrays.copyOf(out, written);
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(compressed);
+
+            byte[] data = new byte[length];
+            int read = 0;
+
+            while (read < length) {
+                int n = inflater.inflate(data, read, length - read);
+
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DecoderException("Truncated cube batch, expected " + length + " bytes but got " + read);
+                }
+
+                read += n;
+            }
+
+            return data;
+        } catch (DataFormatException e) {
+            throw new DecoderException("Corrupt cube batch", e);
+        } finally {
+            inflater.end();
+        }
     }
 
     @Override
@@ -146,7 +263,7 @@ public class PacketEncoderCubes extends CCPacketEncoder<PacketEncoderCubes.Packe
         }
 
         ByteBuf buf = Unpooled.wrappedBuffer(packet.data);
-        WorldEncoder.decodeCube(new CCPacketBuffer(buf), cubes);
+        WorldEncoder.decodeCube(new CCPacketBuffer(buf), cubes, packet.format);
 
         for (Cube cube : cubes) {
             if (cube != null) {
@@ -20,6 +20,7 @@
  */
 package com.cardinalstar.cubicchunks.network;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -42,11 +43,25 @@ import com.cardinalstar.cubicchunks.world.core.IColumnInternal;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
 import com.falsepattern.chunk.internal.DataRegistryImpl;
 
+import io.netty.handler.codec.DecoderException;
+
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
     private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<>();
 
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
+    /** Palettes bigger than this are sent as raw arrays, they wouldn't be any smaller. */
+    private static final int MAX_PALETTE_SIZE = 256;
+    /** Nibble array marker for raw data, values below this are the value of every entry. */
+    private static final int NIBBLES_RAW = 16;
+
+    // palette lookup by block state (id << 4 | meta), holding index + 1. Reset after every cube.
+    private static final ThreadLocal<int[]> PALETTE_LOOKUP = ThreadLocal.withInitial(() -> new int[1 << 16]);
+    private static final ThreadLocal<int[]> PALETTE = ThreadLocal.withInitial(() -> new int[BLOCKS]);
+    private static final ThreadLocal<int[]> INDICES = ThreadLocal.withInitial(() -> new int[BLOCKS]);
+
     static void encodeColumn(CCPacketBuffer out, Chunk column) {
         if (!Mods.ChunkAPI.isModLoaded()) {
             // 1. biomes
@@ -78,6 +93,10 @@ class WorldEncoder {
     }
 
     static void encodeCubes(CCPacketBuffer out, Collection<Cube> cubes) {
+        encodeCubes(out, cubes, CubeWireFormat.RAW);
+    }
+
+    static void encodeCubes(CCPacketBuffer out, Collection<Cube> cubes, CubeWireFormat format) {
         final boolean capi = Mods.ChunkAPI.isModLoaded();
 
         byte[] buffer;
@@ -97,7 +116,18 @@ class WorldEncoder {
             // 1. emptiness
             out.writeByte(flags);
 
-            if (!empty && !capi) {
+            if (!empty && !capi && format == CubeWireFormat.PALETTE) {
+                // 2. block IDs and metadata
+                writeBlockPalette(out, storage);
+
+                // 3. block light
+                writeNibbles(out, storage.getBlocklightArray().data);
+
+                // 4. sky light
+                if (!cube.getWorld().provider.hasNoSky) {
+                    writeNibbles(out, storage.getSkylightArray().data);
+                }
+            } else if (!empty && !capi) {
                 // 2. block IDs and metadata
                 out.writeBytes(storage.getBlockLSBArray());
                 NibbleArray msb = storage.getBlockMSBArray();
@@ -147,6 +177,10 @@ class WorldEncoder {
     }
 
     static void decodeCube(CCPacketBuffer in, List<Cube> cubes) {
+        decodeCube(in, cubes, CubeWireFormat.RAW);
+    }
+
+    static void decodeCube(CCPacketBuffer in, List<Cube> cubes, CubeWireFormat format) {
         final boolean capi = Mods.ChunkAPI.isModLoaded();
 
         int[] oldHeights = new int[Cube.SIZE * Cube.SIZE];
@@ -179,7 +213,18 @@ class WorldEncoder {
 
             cube.setStorageFromSave(storage);
 
-            if (!empty && !capi) {
+            if (!empty && !capi && format == CubeWireFormat.PALETTE) {
+                // 2. Block IDs and metadata
+                readBlockPalette(in, storage);
+
+                // 3. block light
+                readNibbles(in, storage.getBlocklightArray().data);
+
+                // 4. sky light
+                if (!cube.getWorld().provider.hasNoSky) {
+                    readNibbles(in, storage.getSkylightArray().data);
+                }
+            } else if (!empty && !capi) {
                 // 2. Block IDs and metadata
                 byte[] lsbData = storage.getBlockLSBArray();
                 in.readBytes(lsbData);
@@ -247,4 +292,199 @@ class WorldEncoder {
             }
         }
     }
+
+    /**
+     * Writes the block IDs and metadata as a palette of block states (id << 4 | meta) followed by the palette index of
+     * every block, packed with as many bits as the palette needs. A cube made of a single block state is only its
+     * palette. A palette size of 0 means the raw arrays follow instead.
+     */
+    private static void writeBlockPalette(CCPacketBuffer out, ExtendedBlockStorage storage) {
+        byte[] lsb = storage.getBlockLSBArray();
+        NibbleArray msb = storage.getBlockMSBArray();
+        byte[] meta = storage.getMetadataArray().data;
+
+        int[] lookup = PALETTE_LOOKUP.get();
+        int[] palette = PALETTE.get();
+        int[] indices = INDICES.get();
+
+        int size = 0;
+
+        for (int i = 0; i < BLOCKS; i++) {
+            int id = lsb[i] & 0xFF;
+
+            if (msb != null) {
+                id |= getNibble(msb.data, i) << 8;
+            }
+
+            int state = id << 4 | getNibble(meta, i);
+            int index = lookup[state];
+
+            if (index == 0) {
+                palette[size] = state;
+                index = ++size;
+                lookup[state] = index;
+            }
+
+            indices[i] = index - 1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            lookup[palette[i]] = 0;
+        }
+
+        if (size > MAX_PALETTE_SIZE) {
+            out.writeVarIntToBuffer(0);
+
+            out.writeBytes(lsb);
+
+            out.writeBoolean(msb != null);
+            if (msb != null) {
+                out.writeBytes(msb.data);
+            }
+
+            out.writeBytes(meta);
+            return;
+        }
+
+        out.writeVarIntToBuffer(size);
+
+        for (int i = 0; i < size; i++) {
+            out.writeVarIntToBuffer(palette[i]);
+        }
+
+        if (size == 1) return;
+
+        int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+
+        // 4096 entries always fill whole bytes
+        long packed = 0;
+        int packedBits = 0;
+
+        for (int i = 0; i < BLOCKS; i++) {
+            packed |= (long) indices[i] << packedBits;
+            packedBits += bits;
+
+            while (packedBits >= 8) {
+                out.writeByte((int) packed);
+                packed >>>= 8;
+                packedBits -= 8;
+            }
+        }
+    }
+
+    private static void readBlockPalette(CCPacketBuffer in, ExtendedBlockStorage storage) {
+        int size = in.readVarIntFromBuffer();
+
+        byte[] lsb = storage.getBlockLSBArray();
+        byte[] meta = storage.getMetadataArray().data;
+
+        if (size == 0) {
+            in.readBytes(lsb);
+
+            if (in.readBoolean()) {
+                if (storage.getBlockMSBArray() == null) {
+                    storage.createBlockMSBArray();
+                }
+
+                in.readBytes(storage.getBlockMSBArray().data);
+            }
+
+            in.readBytes(meta);
+            return;
+        }
+
+        if (size > MAX_PALETTE_SIZE) {
+            throw new DecoderException("Invalid cube palette size: " + size);
+        }
+
+        int[] palette = new int[size];
+        boolean needsMsb = false;
+
+        for (int i = 0; i < size; i++) {
+            palette[i] = in.readVarIntFromBuffer() & 0xFFFF;
+            needsMsb |= palette[i] >>> 12 != 0;
+        }
+
+        if (needsMsb && storage.getBlockMSBArray() == null) {
+            storage.createBlockMSBArray();
+        }
+
+        byte[] msb = storage.getBlockMSBArray() == null ? null : storage.getBlockMSBArray().data;
+
+        if (size == 1) {
+            int state = palette[0];
+
+            Arrays.fill(lsb, (byte) (state >>> 4));
+            Arrays.fill(meta, (byte) ((state & 0xF) * 0x11));
+            if (msb != null) Arrays.fill(msb, (byte) ((state >>> 12) * 0x11));
+            return;
+        }
+
+        int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        int mask = (1 << bits) - 1;
+
+        long packed = 0;
+        int packedBits = 0;
+
+        for (int i = 0; i < BLOCKS; i++) {
+            while (packedBits < bits) {
+                packed |= (long) in.readUnsignedByte() << packedBits;
+                packedBits += 8;
+            }
+
+            int index = (int) (packed & mask);
+            packed >>>= bits;
+            packedBits -= bits;
+
+            if (index >= size) {
+                throw new DecoderException("Invalid cube palette index: " + index + " for palette size " + size);
+            }
+
+            int state = palette[index];
+
+            lsb[i] = (byte) (state >>> 4);
+            setNibble(meta, i, state & 0xF);
+            if (msb != null) setNibble(msb, i, state >>> 12);
+        }
+    }
+
+    /**
+     * Writes a nibble array as a single value if all of its entries are the same (ie full sky light or no block light),
+     * or raw otherwise.
+     */
+    private static void writeNibbles(CCPacketBuffer out, byte[] data) {
+        byte first = data[0];
+        boolean uniform = (first & 0xF) == (first >>> 4 & 0xF);
+
+        for (int i = 1; uniform && i < data.length; i++) {
+            uniform = data[i] == first;
+        }
+
+        if (uniform) {
+            out.writeByte(first & 0xF);
+        } else {
+            out.writeByte(NIBBLES_RAW);
+            out.writeBytes(data);
+        }
+    }
+
+    private static void readNibbles(CCPacketBuffer in, byte[] data) {
+        int value = in.readUnsignedByte();
+
+        if (value == NIBBLES_RAW) {
+            in.readBytes(data);
+        } else {
+            Arrays.fill(data, (byte) ((value & 0xF) * 0x11));
+        }
+    }
+
+    // same layout as NibbleArray, indexed by y << 8 | z << 4 | x
+    private static int getNibble(byte[] data, int index) {
+        return data[index >> 1] >> ((index & 1) << 2) & 0xF;
+    }
+
+    private static void setNibble(byte[] data, int index, int value) {
+        int shift = (index & 1) << 2;
+        data[index >> 1] = (byte) (data[index >> 1] & ~(0xF << shift) | (value & 0xF) << shift);
+    }
 }
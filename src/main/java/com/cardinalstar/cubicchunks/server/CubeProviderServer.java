@@ -31,6 +31,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Future;
 import java.util.function.BooleanSupplier;
 
 import javax.annotation.Detainted;
@@ -50,10 +51,12 @@ import net.minecraft.world.chunk.storage.IChunkLoader;
 import net.minecraft.world.gen.ChunkProviderServer;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.api.IColumn;
 import com.cardinalstar.cubicchunks.api.ICube;
 import com.cardinalstar.cubicchunks.api.XYZAddressable;
 import com.cardinalstar.cubicchunks.api.worldgen.IWorldGenerator;
+import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
 import com.cardinalstar.cubicchunks.server.chunkio.CubeInitLevel;
 import com.cardinalstar.cubicchunks.server.chunkio.CubeLoaderCallback;
 import com.cardinalstar.cubicchunks.server.chunkio.CubeLoaderServer;
@@ -183,16 +186,30 @@ public class CubeProviderServer extends ChunkProviderServer
 
         @Override
         public void onCubeGenerated(Cube cube, CubeInitLevel newLevel) {
+            if (newLevel == CubeInitLevel.Populated) {
+                ((ICubicWorldInternal) worldServer).getLightingManager()
+                    .onCubePopulated(cube);
+            }
+
             callbacks.forEach(c -> c.onCubeGenerated(cube, newLevel));
         }
 
         @Override
         public void onCubeUnloaded(Cube cube) {
+            // they were saved with the cube, and are read back when it's loaded again
+            ((ICubicWorldInternal.Server) worldServer).getScheduledTicks()
+                .removeCube(cube.getX(), cube.getY(), cube.getZ());
+
             callbacks.forEach(c -> c.onCubeUnloaded(cube));
         }
     }
 
     private int getChunkDistanceSquared(ChunkCoordIntPair coord) {
+        // noinspection ConstantValue
+        if (worldServer != null && worldServer.getPlayerManager() instanceof CubicPlayerManager playerManager) {
+            return playerManager.getNearestPlayerDistanceSquared(coord.chunkXPos, coord.chunkZPos);
+        }
+
         int min = Integer.MAX_VALUE;
 
         List<EntityPlayerMP> players = getPlayers();
@@ -282,7 +299,13 @@ public class CubeProviderServer extends ChunkProviderServer
 
     @Override
     public boolean saveChunks(boolean ignored, IProgressUpdate progressUpdater) {
-        cubeLoader.save(true);
+        // autosaves are spread over the following ticks, everything else (/save-all, unloading) saves right away
+        if (CubicChunksConfig.optimizations.autosaveMicrosPerTick > 0
+            && ((ICubicChunksServer) worldServer.func_73046_m()).isAutosaving()) {
+            cubeLoader.queueSave();
+        } else {
+            cubeLoader.save(true);
+        }
 
         return true;
     }
@@ -319,6 +342,16 @@ public class CubeProviderServer extends ChunkProviderServer
         getCubeLoader().setNow(worldObj.getTotalWorldTime());
 
         doEagerLoading();
+
+        profiler.startSection("Submit first light jobs");
+        ((ICubicWorldInternal) worldServer).getLightingManager()
+            .submitFirstLightJobs();
+
+        profiler.endStartSection("Autosave");
+        cubeLoader.saveQueued(
+            CubicChunksConfig.optimizations.autosaveMicrosPerTick * 1000L,
+            CubicChunksConfig.optimizations.autosaveBytesPerTick);
+        profiler.endSection();
     }
 
     private void doEagerLoading() {
@@ -336,14 +369,14 @@ public class CubeProviderServer extends ChunkProviderServer
         int processed = 0;
         int startCols = eagerLoadOrder.size();
 
-        while ((System.nanoTime() - start) < MAX_NS_SPENT_LOADING && !eagerLoadOrder.isEmpty()) {
-            ChunkCoordIntPair coord = eagerLoadOrder.get(eagerLoadOrder.size() - 1);
+        // requests whose data is still being read are skipped, finishing them now would read it on the server thread
+        for (int i = eagerLoadOrder.size() - 1; i >= 0 && (System.nanoTime() - start) < MAX_NS_SPENT_LOADING; i--) {
+            ChunkCoordIntPair coord = eagerLoadOrder.get(i);
 
             EagerCubeLoadContainer container = eagerLoads.get(coord);
 
             if (container == null) {
-                eagerLoads.remove(coord);
-                eagerLoadOrder.remove(eagerLoadOrder.size() - 1);
+                eagerLoadOrder.remove(i);
                 continue;
             }
 
@@ -353,12 +386,16 @@ public class CubeProviderServer extends ChunkProviderServer
             while ((System.nanoTime() - start) < MAX_NS_SPENT_LOADING && cubeIter.hasNext()) {
                 EagerCubeLoadRequest request = cubeIter.next();
 
-                cubeIter.remove();
-                request.completed = true;
+                if (request.isCancelled()) {
+                    cubeIter.remove();
+                    request.completed = true;
+                    continue;
+                }
 
-                processed++;
+                if (!request.isPreloaded()) continue;
 
-                if (request.isCancelled()) continue;
+                cubeIter.remove();
+                processed++;
 
                 cubeLoader.pauseLoadCalls();
 
@@ -370,7 +407,10 @@ public class CubeProviderServer extends ChunkProviderServer
                 CubeInitLevel actual = cube == null ? CubeInitLevel.None : cube.getInitLevel();
                 CubeInitLevel wanted = CubeInitLevel.fromRequirement(request.effort);
 
-                if (actual.ordinal() < wanted.ordinal()) {
+                request.succeeded = actual.ordinal() >= wanted.ordinal();
+                request.completed = true;
+
+                if (!request.succeeded) {
                     CubicChunks.LOGGER.error(
                         "Could not init cube {},{},{} for eager request (wanted {}, returned {})",
                         request.pos.getX(),
@@ -383,9 +423,7 @@ public class CubeProviderServer extends ChunkProviderServer
 
             if (container.cubes.isEmpty()) {
                 eagerLoads.remove(coord);
-                eagerLoadOrder.remove(eagerLoadOrder.size() - 1);
-            } else {
-                break;
+                eagerLoadOrder.remove(i);
             }
         }
 
@@ -396,7 +434,7 @@ public class CubeProviderServer extends ChunkProviderServer
         }
 
         if (processed > 0) {
-            CubicChunks.LOGGER.info(
+            CubicChunks.LOGGER.debug(
                 "Processed {} eager load requests this tick ({} -> {} columns)",
                 processed,
                 startCols,
@@ -490,8 +528,15 @@ public class CubeProviderServer extends ChunkProviderServer
         @Setter
         @Getter
         private Requirement effort;
+        /** Set once the request was finished or dropped, after which it won't be processed again. */
         @Getter
         private boolean completed, cancelled;
+        /** Whether the cube reached the requested init level. Only meaningful once the request is completed. */
+        @Getter
+        private boolean succeeded;
+        /** The read of the cube's data, which has to finish before the request is processed. */
+        @Nullable
+        private Future<?> preload;
 
         public EagerCubeLoadRequest(CubePos pos, Requirement effort) {
             this.pos = pos;
@@ -502,6 +547,10 @@ public class CubeProviderServer extends ChunkProviderServer
             this.cancelled = true;
         }
 
+        public boolean isPreloaded() {
+            return preload == null || preload.isDone();
+        }
+
         @Override
         public final boolean equals(Object o) {
             if (!(o instanceof EagerCubeLoadRequest that)) return false;
@@ -536,6 +585,13 @@ public class CubeProviderServer extends ChunkProviderServer
     }
 
     public EagerCubeLoadRequest loadCubeEagerly(int x, int y, int z, Requirement effort) {
+        return loadCubeEagerly(x, y, z, effort, false);
+    }
+
+    /**
+     * @param urgent whether a player is waiting for the cube, in which case its data is read before any other preloads
+     */
+    public EagerCubeLoadRequest loadCubeEagerly(int x, int y, int z, Requirement effort, boolean urgent) {
         CubePos pos = new CubePos(x, y, z);
 
         ChunkCoordIntPair coord = new ChunkCoordIntPair(x, z);
@@ -548,11 +604,20 @@ public class CubeProviderServer extends ChunkProviderServer
             eagerLoadOrder.add(coord);
         }
 
-        EagerCubeLoadRequest request = new EagerCubeLoadRequest(pos, effort);
+        EagerCubeLoadRequest request = container.cubes.get(y);
 
-        container.add(request);
+        // share the pending request, replacing it would leave whoever made it waiting forever
+        if (request != null && !request.isCancelled()) {
+            if (request.effort.ordinal() < effort.ordinal()) {
+                request.effort = effort;
+            }
+        } else {
+            request = new EagerCubeLoadRequest(pos, effort);
+            container.add(request);
+        }
 
-        cubeLoader.preloadCube(pos, CubeInitLevel.fromRequirement(effort));
+        // a shared request waits for the latest preload, which is the one that knows the highest wanted level
+        request.preload = cubeLoader.preloadCube(pos, CubeInitLevel.fromRequirement(effort), urgent);
 
         return request;
     }
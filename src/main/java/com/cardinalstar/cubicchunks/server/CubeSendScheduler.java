@@ -0,0 +1,215 @@
+package com.cardinalstar.cubicchunks.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
+import com.cardinalstar.cubicchunks.entity.ICubicEntityTracker;
+import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
+import com.cardinalstar.cubicchunks.network.CubeFormatNegotiation;
+import com.cardinalstar.cubicchunks.network.CubePayloadCache;
+import com.cardinalstar.cubicchunks.network.CubeWireFormat;
+import com.cardinalstar.cubicchunks.network.PacketEncoderCubes;
+import com.cardinalstar.cubicchunks.util.Coords;
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+
+import io.netty.channel.Channel;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+
+/**
+ * Cubes waiting to be sent to a single player.
+ * <p>
+ * Cubes are sent nearest first, and only as many bytes per tick as the player's connection keeps up with. The budget
+ * grows while the connection drains everything it's given, and is halved whenever data starts piling up in its
+ * outbound buffer. Cubes the player stops watching before they were sent are dropped.
+ * <p>
+ * Until a cube is sent the player isn't considered to watch it, so entities in it are only tracked and its light only
+ * processed once the player receives it.
+ */
+class CubeSendScheduler {
+
+    private static final int MAX_CUBES_PER_PACKET = 20;
+
+    private static final int MIN_BUDGET = 16 * 1024;
+    private static final int INITIAL_BUDGET = 128 * 1024;
+    private static final int BUDGET_STEP = 16 * 1024;
+    /** Minimum number of ticks between two budget cuts, so that one backlog doesn't cut it repeatedly. */
+    private static final int BACKOFF_TICKS = 10;
+
+    private final EntityPlayerMP player;
+    private final CubePayloadCache payloadCache;
+
+    private final ReferenceOpenHashSet<Cube> pending = new ReferenceOpenHashSet<>();
+    /** The pending cubes the player doesn't have yet, as opposed to cubes that are sent again. */
+    private final ReferenceOpenHashSet<Cube> unsent = new ReferenceOpenHashSet<>();
+    /** Send order. May still contain cubes that were removed from {@link #pending}, those are skipped. */
+    private final ArrayList<Cube> order = new ArrayList<>();
+    private final ArrayList<Cube> batch = new ArrayList<>(MAX_CUBES_PER_PACKET);
+    /** The cubes of the batch the player didn't have before. */
+    private final ArrayList<Cube> received = new ArrayList<>(MAX_CUBES_PER_PACKET);
+
+    private boolean sorted = true;
+    private int sortX, sortY, sortZ;
+
+    private int budget;
+    private long lastBackoff = Long.MIN_VALUE;
+
+    CubeSendScheduler(EntityPlayerMP player, CubePayloadCache payloadCache) {
+        this.player = player;
+        this.payloadCache = payloadCache;
+        this.budget = Math.min(INITIAL_BUDGET, CubicChunksConfig.optimizations.maxCubeSendBytesPerTick);
+    }
+
+    /**
+     * Queues a cube the player doesn't have.
+     */
+    public void add(Cube cube) {
+        unsent.add(cube);
+        queue(cube);
+    }
+
+    /**
+     * Queues a cube the player already has, to replace it with its current contents.
+     * <p>
+     * The whole cube is sent again, not just what changed. Resends mostly happen once more blocks changed than Forge's
+     * clumping threshold, past which the changed positions aren't tracked, and light changes never are.
+     */
+    public void resend(Cube cube) {
+        queue(cube);
+    }
+
+    private void queue(Cube cube) {
+        if (pending.add(cube)) {
+            order.add(cube);
+            sorted = false;
+        }
+    }
+
+    /**
+     * @return true if the cube was never sent, in which case the player never received it
+     */
+    public boolean remove(Cube cube) {
+        pending.remove(cube);
+        boolean removed = unsent.remove(cube);
+
+        if (pending.isEmpty()) {
+            order.clear();
+        }
+
+        return removed;
+    }
+
+    public boolean isPending(Cube cube) {
+        return pending.contains(cube);
+    }
+
+    /**
+     * @return true if the player doesn't have the cube yet
+     */
+    public boolean isUnsent(Cube cube) {
+        return unsent.contains(cube);
+    }
+
+    /**
+     * Sends as many of the nearest cubes as this tick's budget allows.
+     */
+    public void send() {
+        if (pending.isEmpty()) return;
+
+        long tick = player.worldObj.getTotalWorldTime();
+
+        Channel channel = player.playerNetServerHandler.netManager.channel();
+
+        if (!channel.isWritable()) {
+            // the connection isn't keeping up, wait for it to drain before queueing more
+            if (tick - lastBackoff >= BACKOFF_TICKS) {
+                budget = Math.max(MIN_BUDGET, budget / 2);
+                lastBackoff = tick;
+            }
+
+            return;
+        }
+
+        // light updates change the cubes' contents, they have to be done before the payloads are encoded
+        ((ICubicWorldInternal) player.worldObj).getLightingManager()
+            .onSendCubes(pending);
+
+        sortByDistance();
+
+        CubeWireFormat format = CubeFormatNegotiation.getFormat(player);
+
+        int sent = 0;
+        int next = 0;
+
+        while (next < order.size() && sent < budget) {
+            Cube cube = order.get(next++);
+
+            if (!pending.remove(cube)) continue;
+
+            // the payload is cached, so the packet doesn't encode the cube again
+            sent += payloadCache.get(cube, format)
+                .getSize(format);
+
+            batch.add(cube);
+
+            if (unsent.remove(cube)) {
+                received.add(cube);
+            }
+
+            if (batch.size() == MAX_CUBES_PER_PACKET) {
+                sendBatch(format);
+            }
+        }
+
+        sendBatch(format);
+
+        order.subList(0, next)
+            .clear();
+
+        if (sent >= budget) {
+            // the whole budget was used and the connection kept up with the previous one
+            budget = Math.min(CubicChunksConfig.optimizations.maxCubeSendBytesPerTick, budget + BUDGET_STEP);
+        }
+    }
+
+    private void sendBatch(CubeWireFormat format) {
+        if (batch.isEmpty()) return;
+
+        PacketEncoderCubes.createPacket(batch, format, payloadCache)
+            .sendToPlayer(player);
+
+        // the player watches the cubes now, start tracking their entities after the client has the cubes
+        ICubicEntityTracker tracker = (ICubicEntityTracker) player.getServerForPlayer()
+            .getEntityTracker();
+
+        for (Cube cube : received) {
+            tracker.sendLeashedEntitiesInCube(player, cube);
+        }
+
+        batch.clear();
+        received.clear();
+    }
+
+    private void sortByDistance() {
+        int x = Coords.getCubeXForEntity(player);
+        int y = Coords.getCubeYForEntity(player);
+        int z = Coords.getCubeZForEntity(player);
+
+        if (sorted && x == sortX && y == sortY && z == sortZ) return;
+
+        order.sort(Comparator.comparingInt(cube -> {
+            int dx = cube.getX() - x;
+            int dy = cube.getY() - y;
+            int dz = cube.getZ() - z;
+
+            return dx * dx + dy * dy + dz * dz;
+        }));
+
+        sorted = true;
+        sortX = x;
+        sortY = y;
+        sortZ = z;
+    }
+}
@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -48,14 +49,15 @@ import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3ic;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.api.ICube;
 import com.cardinalstar.cubicchunks.api.XYZMap;
 import com.cardinalstar.cubicchunks.api.XZMap;
 import com.cardinalstar.cubicchunks.api.util.Box;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal.Server;
+import com.cardinalstar.cubicchunks.network.CubePayloadCache;
 import com.cardinalstar.cubicchunks.network.PacketEncoderColumn;
 import com.cardinalstar.cubicchunks.network.PacketEncoderCubeBlockChange;
-import com.cardinalstar.cubicchunks.network.PacketEncoderCubes;
 import com.cardinalstar.cubicchunks.network.PacketEncoderHeightMapUpdate;
 import com.cardinalstar.cubicchunks.network.PacketEncoderUnloadColumn;
 import com.cardinalstar.cubicchunks.network.PacketEncoderUnloadColumn.PacketUnloadColumn;
@@ -71,6 +73,7 @@ import com.cardinalstar.cubicchunks.util.CubePos;
 import com.cardinalstar.cubicchunks.util.CubeStatusVisualizer;
 import com.cardinalstar.cubicchunks.util.CubeStatusVisualizer.CubeStatus;
 import com.cardinalstar.cubicchunks.util.XZAddressable;
+import com.cardinalstar.cubicchunks.visibility.CubeSelector;
 import com.cardinalstar.cubicchunks.visibility.CuboidalCubeSelector;
 import com.cardinalstar.cubicchunks.world.api.ICubeProviderServer.Requirement;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
@@ -78,6 +81,7 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
@@ -105,6 +109,18 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
     private final XZMap<WatchedColumn> watchedColumns = new XZMap<>();
     private final Set<WatchedColumn> dirtyColumns = new ObjectOpenHashSet<>();
 
+    private final PlayerSpatialIndex playerIndex = new PlayerSpatialIndex();
+
+    private final RandomTickIndex randomTickIndex = new RandomTickIndex();
+
+    private final CubePayloadCache payloadCache;
+
+    // scratch lists for view changes, cleared before every use
+    private final LongArrayList cubesToRemove = new LongArrayList();
+    private final LongArrayList cubesToLoad = new LongArrayList();
+    private final LongArrayList columnsToRemove = new LongArrayList();
+    private final LongArrayList columnsToLoad = new LongArrayList();
+
     private int horizontalViewDistance;
     private int verticalViewDistance;
 
@@ -128,6 +144,8 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         this.provider = ((Server) worldServer).getCubeCache();
         this.provider.registerCallback(this);
+
+        this.payloadCache = new CubePayloadCache(worldServer);
     }
 
     public Collection<Chunk> getColumns() {
@@ -161,6 +179,25 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         };
     }
 
+    /**
+     * Calls the consumer for every watched cube that contains randomly ticking blocks.
+     */
+    public void forEachRandomTickingCube(Consumer<Cube> consumer) {
+        randomTickIndex.forEachTicking(consumer);
+    }
+
+    /**
+     * Called when a randomly ticking block is placed, so that its cube starts getting random ticks if it didn't have
+     * any before.
+     */
+    public void onRandomTickingBlockPlaced(ICube cube) {
+        WatchedCube watcher = watchedCubes.get(cube.getX(), cube.getY(), cube.getZ());
+
+        if (watcher != null && watcher.cube == cube) {
+            randomTickIndex.add(watcher.cube);
+        }
+    }
+
     public Collection<Cube> getCubes() {
         return new AbstractCollection<>() {
 
@@ -264,8 +301,12 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
     }
 
     private void syncCubes() {
+        // the send schedulers process the light of fully synced cubes once they are actually sent
         ((ICubicWorldInternal) getWorldServer()).getLightingManager()
-            .onSendCubes(() -> Iterators.transform(dirtyCubes.iterator(), c -> c.cube));
+            .onSendCubes(
+                () -> Iterators.transform(
+                    Iterators.filter(dirtyCubes.iterator(), c -> c.dirty == Dirtiness.Partial),
+                    c -> c.cube));
 
         List<WatchedCube> fullSync = new ObjectArrayList<>();
 
@@ -302,9 +343,14 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         for (WatchedCube cube : fullSync) {
             for (WatchingPlayer player : cube.watchingPlayers) {
-                player.queueCube(cube.cube);
+                if (cube.sent) {
+                    player.resendCube(cube.cube);
+                } else {
+                    player.queueCube(cube.cube);
+                }
             }
 
+            cube.sent = true;
             cube.clean();
         }
 
@@ -366,13 +412,19 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
     @Override
     public void onCubeUnloaded(Cube cube) {
+        payloadCache.invalidate(cube.getX(), cube.getY(), cube.getZ());
+        randomTickIndex.remove(cube);
+
         WatchedCube watcher = this.watchedCubes.remove(cube);
 
         if (watcher != null && watcher.cube != null) {
             PacketUnloadCube packet = PacketEncoderUnloadCube.createPacket(cube.getCoords());
 
             for (WatchingPlayer player : watcher.watchingPlayers) {
-                packet.sendToPlayer(player.player);
+                // the player never received a cube that was still queued
+                if (!player.dequeueCube(watcher.cube)) {
+                    packet.sendToPlayer(player.player);
+                }
             }
         }
 
@@ -398,10 +450,14 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
      * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients
      */
     private WatchedCube getOrCreateCubeWatcher(CubePos cubePos) {
-        WatchedCube cubeWatcher = this.watchedCubes.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+        return getOrCreateCubeWatcher(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+    }
+
+    private WatchedCube getOrCreateCubeWatcher(int cubeX, int cubeY, int cubeZ) {
+        WatchedCube cubeWatcher = this.watchedCubes.get(cubeX, cubeY, cubeZ);
 
         if (cubeWatcher == null) {
-            this.watchedCubes.put(cubeWatcher = new WatchedCube(cubePos.getX(), cubePos.getY(), cubePos.getZ()));
+            this.watchedCubes.put(cubeWatcher = new WatchedCube(cubeX, cubeY, cubeZ));
         }
 
         return cubeWatcher;
@@ -412,10 +468,14 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
      * Always creates the Column.
      */
     private WatchedColumn getOrCreateWatchedColumn(ChunkCoordIntPair chunkPos) {
-        WatchedColumn watchedColumn = this.watchedColumns.get(chunkPos.chunkXPos, chunkPos.chunkZPos);
+        return getOrCreateWatchedColumn(chunkPos.chunkXPos, chunkPos.chunkZPos);
+    }
+
+    private WatchedColumn getOrCreateWatchedColumn(int columnX, int columnZ) {
+        WatchedColumn watchedColumn = this.watchedColumns.get(columnX, columnZ);
 
         if (watchedColumn == null) {
-            this.watchedColumns.put(watchedColumn = new WatchedColumn(chunkPos.chunkXPos, chunkPos.chunkZPos));
+            this.watchedColumns.put(watchedColumn = new WatchedColumn(columnX, columnZ));
         }
 
         return watchedColumn;
@@ -424,6 +484,8 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public void markBlockForUpdate(int x, int y, int z) {
+        payloadCache.invalidate(x >> 4, y >> 4, z >> 4);
+
         WatchedCube cube = watchedCubes.get(x >> 4, y >> 4, z >> 4);
 
         if (cube != null) {
@@ -433,6 +495,8 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
     // Note these arguments are in global block coordinates
     public void heightUpdated(int x, int z) {
+        payloadCache.invalidateColumn(x >> 4, z >> 4);
+
         WatchedColumn column = watchedColumns.get(x >> 4, z >> 4);
 
         if (column != null) {
@@ -457,7 +521,7 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
             return;
         }
 
-        WatchingPlayer watchingPlayer = new WatchingPlayer(player);
+        WatchingPlayer watchingPlayer = new WatchingPlayer(player, payloadCache);
         watchingPlayer.updateManagedPos();
 
         CubePos playerCubePos = CubePos.fromEntity(player);
@@ -474,6 +538,7 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         watchingPlayer.flushCubes();
 
         this.players.put(player.getEntityId(), watchingPlayer);
+        this.playerIndex.add(player, playerCubePos.getX(), playerCubePos.getY(), playerCubePos.getZ());
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -485,6 +550,8 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
             return;
         }
 
+        this.playerIndex.remove(player);
+
         // Minecraft does something evil there: this method is called *after* changing the player's position
         // so we need to use managedPosition there
         CubePos playerCubePos = CubePos
@@ -542,6 +609,12 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         watchingPlayer.updateManagedPos();
 
+        this.playerIndex.move(
+            player,
+            watchingPlayer.getManagedCubePosX(),
+            watchingPlayer.getManagedCubePosY(),
+            watchingPlayer.getManagedCubePosZ());
+
         // With ChunkGc being separate from PlayerCubeMap, there are 2 issues:
         // Problem 0: Sometimes, a chunk can be generated after CubeWatcher's chunk load callback returns with a null
         // but before ChunkGC call. This means that the cube will get unloaded, even when ChunkWatcher is waiting for
@@ -566,10 +639,15 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
     private void updatePlayer(WatchingPlayer player, CubePos oldPos, CubePos newPos) {
         getWorldServer().theProfiler.startSection("updateMovedPlayer");
 
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkCoordIntPair> columnsToRemove = new HashSet<>();
-        Set<ChunkCoordIntPair> columnsToLoad = new HashSet<>();
+        LongArrayList cubesToRemove = this.cubesToRemove;
+        LongArrayList cubesToLoad = this.cubesToLoad;
+        LongArrayList columnsToRemove = this.columnsToRemove;
+        LongArrayList columnsToLoad = this.columnsToLoad;
+
+        cubesToRemove.clear();
+        cubesToLoad.clear();
+        columnsToRemove.clear();
+        columnsToLoad.clear();
 
         getWorldServer().theProfiler.startSection("findChanges");
 
@@ -587,36 +665,26 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         // order is important, columns first
 
         getWorldServer().theProfiler.endStartSection("createColumns");
-        columnsToLoad.forEach(
-            pos -> {
-                this.getOrCreateWatchedColumn(pos)
-                    .addPlayer(player);
-            });
+        for (int i = 0; i < columnsToLoad.size(); i++) {
+            long pos = columnsToLoad.getLong(i);
+
+            this.getOrCreateWatchedColumn(CubeSelector.columnX(pos), CubeSelector.columnZ(pos))
+                .addPlayer(player);
+        }
 
         getWorldServer().theProfiler.endStartSection("createCubes");
-        cubesToLoad.forEach(
-            pos -> {
-                this.getOrCreateCubeWatcher(pos)
-                    .addPlayer(player);
-            });
+        for (int i = 0; i < cubesToLoad.size(); i++) {
+            long pos = cubesToLoad.getLong(i);
 
-        getWorldServer().theProfiler.endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            WatchedCube cube = watchedCubes.get(pos);
+            this.getOrCreateCubeWatcher(Coords.x(pos), Coords.y(pos), Coords.z(pos))
+                .addPlayer(player);
+        }
 
-            if (cube != null) {
-                cube.removePlayer(player);
-            }
-        });
+        getWorldServer().theProfiler.endStartSection("removeCubes");
+        removeCubes(player, cubesToRemove);
 
         getWorldServer().theProfiler.endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            WatchedColumn column = watchedColumns.get(pos.chunkXPos, pos.chunkZPos);
-
-            if (column != null) {
-                column.removePlayer(player);
-            }
-        });
+        removeColumns(player, columnsToRemove);
 
         getWorldServer().theProfiler.endStartSection("Immediate nearby cube loading");
 
@@ -631,6 +699,38 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         getWorldServer().theProfiler.endSection();// updateMovedPlayer
     }
 
+    private void removeCubes(WatchingPlayer player, LongArrayList cubes) {
+        for (int i = 0; i < cubes.size(); i++) {
+            long pos = cubes.getLong(i);
+
+            WatchedCube cube = watchedCubes.get(Coords.x(pos), Coords.y(pos), Coords.z(pos));
+
+            if (cube != null) {
+                cube.removePlayer(player);
+            }
+        }
+    }
+
+    private void removeColumns(WatchingPlayer player, LongArrayList columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            long pos = columns.getLong(i);
+
+            WatchedColumn column = watchedColumns.get(CubeSelector.columnX(pos), CubeSelector.columnZ(pos));
+
+            if (column != null) {
+                column.removePlayer(player);
+            }
+        }
+    }
+
+    /**
+     * @return the squared horizontal distance in cubes from the given column to the nearest player, or
+     *         {@link Integer#MAX_VALUE} if there are no players
+     */
+    public int getNearestPlayerDistanceSquared(int columnX, int columnZ) {
+        return playerIndex.getNearestDistanceSquared(columnX, columnZ);
+    }
+
     public boolean isColumnWatched(int columnX, int columnZ) {
         WatchedColumn column = watchedColumns.get(columnX, columnZ);
 
@@ -656,11 +756,9 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         if (column == null || column.column == null) return false;
 
-        for (WatchingPlayer watchingPlayer : column.watchingPlayers) {
-            if (watchingPlayer.player == player) return true;
-        }
+        WatchingPlayer watchingPlayer = getWatchingPlayer(player);
 
-        return false;
+        return watchingPlayer != null && column.watchingPlayers.contains(watchingPlayer);
     }
 
     public boolean isPlayerWatchingCube(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
@@ -668,11 +766,19 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         if (cube == null || cube.cube == null) return false;
 
-        for (WatchingPlayer watchingPlayer : cube.watchingPlayers) {
-            if (watchingPlayer.player == player) return true;
-        }
+        WatchingPlayer watchingPlayer = getWatchingPlayer(player);
+
+        // entities in a cube that is still queued would be spawned into a cube the client doesn't have
+        return watchingPlayer != null && cube.watchingPlayers.contains(watchingPlayer)
+            && !watchingPlayer.isCubeUnsent(cube.cube);
+    }
+
+    @Nullable
+    private WatchingPlayer getWatchingPlayer(EntityPlayerMP player) {
+        WatchingPlayer watchingPlayer = players.get(player.getEntityId());
 
-        return false;
+        // a respawned player keeps its entity id
+        return watchingPlayer != null && watchingPlayer.player == player ? watchingPlayer : null;
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -725,27 +831,20 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
                     });
             } else {
                 // either both got smaller or only one of them changed
-                Set<CubePos> cubesToUnload = new HashSet<>();
-                Set<ChunkCoordIntPair> columnsToUnload = new HashSet<>();
+                cubesToRemove.clear();
+                columnsToRemove.clear();
+
                 CuboidalCubeSelector.INSTANCE.findAllUnloadedOnViewDistanceDecrease(
                     playerPos,
                     oldHorizontalViewDistance,
                     newHorizontalViewDistance,
                     oldVerticalViewDistance,
                     newVerticalViewDistance,
-                    cubesToUnload,
-                    columnsToUnload);
+                    cubesToRemove,
+                    columnsToRemove);
 
-                cubesToUnload.forEach(pos -> {
-                    WatchedCube cube = watchedCubes.get(pos);
-
-                    if (cube != null) cube.removePlayer(watchingPlayer);
-                });
-                columnsToUnload.forEach(pos -> {
-                    WatchedColumn column = watchedColumns.get(pos.chunkXPos, pos.chunkZPos);
-
-                    if (column != null) column.removePlayer(watchingPlayer);
-                });
+                removeCubes(watchingPlayer, cubesToRemove);
+                removeColumns(watchingPlayer, columnsToRemove);
             }
         }
 
@@ -757,26 +856,38 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
         public final EntityPlayerMP player;
         private double managedPosY;
-        private final ArrayList<Cube> cubeSendQueue = new ArrayList<>(20);
+        private final CubeSendScheduler sendScheduler;
 
-        WatchingPlayer(EntityPlayerMP player) {
+        WatchingPlayer(EntityPlayerMP player, CubePayloadCache payloadCache) {
             this.player = player;
+            this.sendScheduler = new CubeSendScheduler(player, payloadCache);
         }
 
         public void queueCube(Cube cube) {
-            cubeSendQueue.add(cube);
+            sendScheduler.add(cube);
+        }
 
-            if (cubeSendQueue.size() >= 20) {
-                flushCubes();
-            }
+        public void resendCube(Cube cube) {
+            sendScheduler.resend(cube);
+        }
+
+        /**
+         * @return true if the cube was never sent to this player
+         */
+        public boolean dequeueCube(Cube cube) {
+            return sendScheduler.remove(cube);
+        }
+
+        public boolean isCubeQueued(Cube cube) {
+            return sendScheduler.isPending(cube);
+        }
+
+        public boolean isCubeUnsent(Cube cube) {
+            return sendScheduler.isUnsent(cube);
         }
 
         public void flushCubes() {
-            if (!cubeSendQueue.isEmpty()) {
-                PacketEncoderCubes.createPacket(cubeSendQueue)
-                    .sendToPlayer(player);
-                cubeSendQueue.clear();
-            }
+            sendScheduler.send();
         }
 
         void updateManagedPos() {
@@ -920,7 +1031,9 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         public EagerCubeLoadRequest request;
         public Cube cube;
         public final ShortArrayList dirtyBlocks = new ShortArrayList(8);
-        public final ArrayList<WatchingPlayer> watchingPlayers = new ArrayList<>(1);
+        public final ReferenceOpenHashSet<WatchingPlayer> watchingPlayers = new ReferenceOpenHashSet<>(4);
+        /** Whether the cube was queued for its players, later full syncs replace the cube they already have. */
+        private boolean sent;
 
         private Dirtiness dirty = Dirtiness.None;
 
@@ -933,6 +1046,9 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
         public void setCube(@Nullable Cube cube) {
             if (cube != null && cube.getInitLevel() == CubeInitLevel.Lit) {
                 this.cube = cube;
+                this.sent = false;
+
+                randomTickIndex.addIfTicking(cube);
 
                 requestFullSync();
 
@@ -977,7 +1093,7 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
                 player.queueCube(cube);
             } else {
                 if (request == null || request.isCompleted()) {
-                    request = provider.loadCubeEagerly(getX(), getY(), getZ(), Requirement.LIGHT);
+                    request = provider.loadCubeEagerly(getX(), getY(), getZ(), Requirement.LIGHT, true);
                 }
             }
         }
@@ -987,7 +1103,7 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
 
             watchingPlayers.remove(player);
 
-            if (cube != null) {
+            if (cube != null && !player.dequeueCube(cube)) {
                 PacketEncoderUnloadCube.createPacket(cube.getCoords())
                     .sendToPlayer(player.player);
             }
@@ -1027,6 +1143,9 @@ public class CubicPlayerManager extends PlayerManager implements CubeLoaderCallb
             }
 
             for (WatchingPlayer player : this.watchingPlayers) {
+                // the queued full cube will already contain these changes
+                if (player.isCubeQueued(this.cube)) continue;
+
                 cubePacket.sendToPlayer(player.player);
 
                 for (Packet tilePacket : tiles) {
@@ -5,4 +5,9 @@ public interface ICubicChunksServer {
     void setBuildMinimum(int minBuildHeight);
 
     int getBuildMinimum();
+
+    /**
+     * Whether the worlds are being saved by the periodic autosave, as opposed to /save-all or the server stopping.
+     */
+    boolean isAutosaving();
 }
@@ -0,0 +1,154 @@
+package com.cardinalstar.cubicchunks.server;
+
+import java.util.ArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.ChunkCoordIntPair;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Uniform grid over the cube positions of the players in a world, so that proximity queries only look at the players
+ * in nearby cells instead of every player in the world.
+ * <p>
+ * Cells are columns of {@link #CELL_SIZE}x{@link #CELL_SIZE} cubes, unbounded vertically. Positions are the players'
+ * managed cube positions, so they're updated whenever a player crosses a cube border. Only used from the server
+ * thread.
+ */
+@ParametersAreNonnullByDefault
+class PlayerSpatialIndex {
+
+    private static final int CELL_BITS = 4;
+    private static final int CELL_SIZE = 1 << CELL_BITS;
+    /** Rings of cells searched for the nearest player before falling back to checking every player. */
+    private static final int MAX_SEARCH_RING = 8;
+
+    private final Long2ObjectOpenHashMap<ArrayList<Entry>> cells = new Long2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<Entry> players = new Int2ObjectOpenHashMap<>();
+
+    public void add(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
+        Entry entry = new Entry(player);
+        players.put(player.getEntityId(), entry);
+        insert(entry, cubeX, cubeY, cubeZ);
+    }
+
+    public void move(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
+        Entry entry = players.get(player.getEntityId());
+
+        if (entry == null) return;
+
+        if (cellKey(cubeX, cubeZ) == entry.cell) {
+            entry.x = cubeX;
+            entry.y = cubeY;
+            entry.z = cubeZ;
+            return;
+        }
+
+        detach(entry);
+        insert(entry, cubeX, cubeY, cubeZ);
+    }
+
+    public void remove(EntityPlayerMP player) {
+        Entry entry = players.remove(player.getEntityId());
+
+        if (entry != null) {
+            detach(entry);
+        }
+    }
+
+    /**
+     * @return the squared horizontal distance in cubes between the given column and the nearest player, or
+     *         {@link Integer#MAX_VALUE} if there are no players
+     */
+    public int getNearestDistanceSquared(int columnX, int columnZ) {
+        if (players.isEmpty()) return Integer.MAX_VALUE;
+
+        int cellX = columnX >> CELL_BITS;
+        int cellZ = columnZ >> CELL_BITS;
+
+        int nearest = Integer.MAX_VALUE;
+
+        for (int ring = 0; ring <= MAX_SEARCH_RING; ring++) {
+            // every cube in this ring is at least this far away on one of the axes
+            int minDistance = Math.max(0, (ring - 1) * CELL_SIZE + 1);
+
+            if ((long) minDistance * minDistance > nearest) return nearest;
+
+            for (int dx = -ring; dx <= ring; dx++) {
+                // only the border of the ring, the inside was searched already
+                int step = dx == -ring || dx == ring ? 1 : ring * 2;
+
+                for (int dz = -ring; dz <= ring; dz += step) {
+                    ArrayList<Entry> cell = cells.get(ChunkCoordIntPair.chunkXZ2Int(cellX + dx, cellZ + dz));
+
+                    if (cell == null) continue;
+
+                    for (int i = 0, size = cell.size(); i < size; i++) {
+                        nearest = Math.min(nearest, cell.get(i).distanceSquared(columnX, columnZ));
+                    }
+                }
+            }
+        }
+
+        if (nearest != Integer.MAX_VALUE) return nearest;
+
+        // everyone is far away, at that point the grid doesn't help anymore
+        for (Entry entry : players.values()) {
+            nearest = Math.min(nearest, entry.distanceSquared(columnX, columnZ));
+        }
+
+        return nearest;
+    }
+
+    private void insert(Entry entry, int cubeX, int cubeY, int cubeZ) {
+        entry.x = cubeX;
+        entry.y = cubeY;
+        entry.z = cubeZ;
+        entry.cell = cellKey(cubeX, cubeZ);
+
+        ArrayList<Entry> cell = cells.get(entry.cell);
+
+        if (cell == null) {
+            cells.put(entry.cell, cell = new ArrayList<>(2));
+        }
+
+        cell.add(entry);
+    }
+
+    private void detach(Entry entry) {
+        ArrayList<Entry> cell = cells.get(entry.cell);
+
+        if (cell == null) return;
+
+        cell.remove(entry);
+
+        if (cell.isEmpty()) {
+            cells.remove(entry.cell);
+        }
+    }
+
+    private static long cellKey(int cubeX, int cubeZ) {
+        return ChunkCoordIntPair.chunkXZ2Int(cubeX >> CELL_BITS, cubeZ >> CELL_BITS);
+    }
+
+    private static class Entry {
+
+        private final EntityPlayerMP player;
+        private int x, y, z;
+        private long cell;
+
+        private Entry(EntityPlayerMP player) {
+            this.player = player;
+        }
+
+        private int distanceSquared(int columnX, int columnZ) {
+            int dx = x - columnX;
+            int dz = z - columnZ;
+
+            return dx * dx + dz * dz;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.cardinalstar.cubicchunks.server;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.cardinalstar.cubicchunks.world.cube.Cube;
+
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+
+/**
+ * The watched cubes that may contain randomly ticking blocks, so that random ticks don't have to visit every watched
+ * cube when most of them are all stone or air.
+ * <p>
+ * Cubes are added when they start being watched with randomly ticking blocks in them, and whenever a randomly ticking
+ * block is placed in them. They're removed when they're unloaded, or when they turn out to have none left while being
+ * ticked. The index may briefly contain cubes that don't need random ticks, but never misses one. Only used from the
+ * server thread.
+ */
+@ParametersAreNonnullByDefault
+class RandomTickIndex {
+
+    private final ReferenceOpenHashSet<Cube> cubes = new ReferenceOpenHashSet<>();
+
+    /** Copy of the cubes being ticked, since ticking blocks may place or remove others. */
+    private Cube[] ticking = new Cube[0];
+
+    public void add(Cube cube) {
+        cubes.add(cube);
+    }
+
+    public void addIfTicking(Cube cube) {
+        if (needsRandomTick(cube)) {
+            cubes.add(cube);
+        }
+    }
+
+    public void remove(Cube cube) {
+        cubes.remove(cube);
+    }
+
+    public int size() {
+        return cubes.size();
+    }
+
+    /**
+     * Calls the consumer for every cube in the index that still contains randomly ticking blocks, and removes the
+     * others. Cubes added while this runs are ticked starting with the next call.
+     */
+    public void forEachTicking(Consumer<Cube> consumer) {
+        int size = cubes.size();
+
+        ticking = cubes.toArray(ticking);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                Cube cube = ticking[i];
+
+                // removed by an earlier cube's ticks
+                if (!cubes.contains(cube)) continue;
+
+                if (!needsRandomTick(cube)) {
+                    cubes.remove(cube);
+                    continue;
+                }
+
+                consumer.accept(cube);
+            }
+        } finally {
+            // don't keep unloaded cubes around
+            Arrays.fill(ticking, 0, size, null);
+        }
+    }
+
+    private static boolean needsRandomTick(Cube cube) {
+        ExtendedBlockStorage storage = cube.getStorage();
+
+        return storage != null && storage.getNeedsRandomTick();
+    }
+}
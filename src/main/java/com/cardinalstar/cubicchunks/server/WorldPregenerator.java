@@ -0,0 +1,392 @@
+package com.cardinalstar.cubicchunks.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.world.WorldServer;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
+import com.cardinalstar.cubicchunks.server.CubeProviderServer.EagerCubeLoadRequest;
+import com.cardinalstar.cubicchunks.world.api.ICubeProviderServer.Requirement;
+import com.cardinalstar.cubicchunks.world.savedata.PregenSavedData;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Generates, populates and lights every cube of an area ahead of time.
+ * <p>
+ * The area is split into tiles of {@link #TILE_SIZE}x{@link #TILE_SIZE} columns, which are walked in a square spiral
+ * from the center so that neighbouring cubes (which population needs) and region files are reused while they're still
+ * cached. The cubes of a tile are handed to {@link CubeProviderServer#loadCubeEagerly}, with at most
+ * {@link CubicChunksConfig#pregenCubesInFlight} cubes waiting at once. Only reading the cubes' saved data happens on
+ * background workers. Generation, population and lighting run on the server thread, within the few milliseconds per
+ * tick that eager loading gets, so the server keeps ticking but pregeneration is limited by, and takes, server thread
+ * time. Finished cubes are unloaded by running the cube GC every few seconds, so memory use stays flat.
+ * <p>
+ * A tile only counts as done once all of its cubes reached the lit state. Cubes that failed or whose request was
+ * cancelled are requested again a few times, after which the pregeneration is paused until the world is loaded again,
+ * instead of skipping them.
+ * <p>
+ * Progress is stored in {@link PregenSavedData}, and a pregeneration continues when its world is loaded again.
+ */
+@ParametersAreNonnullByDefault
+public class WorldPregenerator {
+
+    private static final int TILE_SIZE = 4;
+    private static final int GC_INTERVAL = 20 * 10;
+    private static final long REPORT_INTERVAL = 30_000_000_000L;
+    /** How many times the cubes of a tile are requested before the pregeneration gives up. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final Int2ObjectOpenHashMap<WorldPregenerator> running = new Int2ObjectOpenHashMap<>();
+
+    private final WorldServer world;
+    private final PregenSavedData data;
+
+    private final int tileRadius;
+    private final int tileCount;
+    private final long cubesPerColumn;
+
+    /** The next tile to submit. */
+    private int nextTile;
+    /** Submitted tiles, in spiral order. */
+    private final ArrayDeque<Tile> inFlight = new ArrayDeque<>();
+    private int cubesInFlight;
+
+    private int ticks;
+    private final long startTime = System.nanoTime();
+    private final int startTile;
+    private long cubesDone;
+    private long lastReport = startTime;
+
+    private WorldPregenerator(WorldServer world, PregenSavedData data) {
+        this.world = world;
+        this.data = data;
+
+        // enough tiles around the center tile to cover the radius
+        this.tileRadius = (data.radius + TILE_SIZE / 2) / TILE_SIZE + 1;
+        this.tileCount = (tileRadius * 2 + 1) * (tileRadius * 2 + 1);
+        this.cubesPerColumn = data.maxY - data.minY + 1;
+
+        this.nextTile = data.getCompletedTiles();
+        this.startTile = nextTile;
+    }
+
+    /**
+     * Starts pregenerating the area, replacing any pregeneration that was running in the world.
+     *
+     * @param radius the horizontal radius, in columns
+     * @param minY   the lowest cube to generate
+     * @param maxY   the highest cube to generate
+     */
+    public static void start(WorldServer world, int centerX, int centerZ, int radius, int minY, int maxY) {
+        stop(world);
+
+        PregenSavedData data = PregenSavedData.get(world);
+        data.start(centerX, centerZ, radius, minY, maxY);
+
+        CubicChunks.LOGGER.info(
+            "Pregenerating {} around column {},{} with a radius of {} columns, cubes {} to {}",
+            world.provider.getDimensionName(),
+            centerX,
+            centerZ,
+            radius,
+            minY,
+            maxY);
+
+        running.put(world.provider.dimensionId, new WorldPregenerator(world, data));
+    }
+
+    /**
+     * @return whether a pregeneration was running
+     */
+    public static boolean stop(WorldServer world) {
+        WorldPregenerator pregenerator = running.remove(world.provider.dimensionId);
+
+        if (pregenerator == null) return false;
+
+        pregenerator.cancel();
+        pregenerator.data.stop();
+
+        return true;
+    }
+
+    /**
+     * Continues the world's pregeneration, if it has one that didn't finish.
+     */
+    public static void resume(WorldServer world) {
+        PregenSavedData data = PregenSavedData.get(world);
+
+        if (!data.active || running.containsKey(world.provider.dimensionId)) return;
+
+        WorldPregenerator pregenerator = new WorldPregenerator(world, data);
+
+        CubicChunks.LOGGER.info(
+            "Resuming pregeneration of {} at {}%",
+            world.provider.getDimensionName(),
+            pregenerator.getProgress());
+
+        running.put(world.provider.dimensionId, pregenerator);
+    }
+
+    /**
+     * Forgets the world's pregeneration without stopping it, it continues when the world is loaded again.
+     */
+    public static void onWorldUnloaded(WorldServer world) {
+        WorldPregenerator pregenerator = running.get(world.provider.dimensionId);
+
+        if (pregenerator != null && pregenerator.world == world) {
+            running.remove(world.provider.dimensionId);
+        }
+    }
+
+    public static void tick(WorldServer world) {
+        WorldPregenerator pregenerator = running.get(world.provider.dimensionId);
+
+        if (pregenerator == null || pregenerator.world != world) return;
+
+        if (pregenerator.tick()) {
+            running.remove(world.provider.dimensionId);
+        }
+    }
+
+    @Nullable
+    public static WorldPregenerator get(int dimension) {
+        return running.get(dimension);
+    }
+
+    public static Collection<WorldPregenerator> getRunning() {
+        return running.values();
+    }
+
+    public WorldServer getWorld() {
+        return world;
+    }
+
+    /**
+     * @return whether the pregeneration finished or gave up
+     */
+    private boolean tick() {
+        CubeProviderServer provider = (CubeProviderServer) world.getChunkProvider();
+
+        world.theProfiler.startSection("cubicchunks_pregen");
+
+        try {
+            while (!inFlight.isEmpty() && inFlight.peekFirst()
+                .isDone()) {
+                Tile tile = inFlight.peekFirst();
+
+                if (tile.retryFailed(provider)) continue;
+
+                if (tile.attempts > MAX_ATTEMPTS) {
+                    CubicChunks.LOGGER.error(
+                        "Could not pregenerate tile {} of {} after {} attempts, pausing until the world loads again",
+                        tile.index,
+                        world.provider.getDimensionName(),
+                        MAX_ATTEMPTS);
+
+                    // the saved data stays active, so the pregeneration continues from this tile after a restart
+                    cancel();
+                    return true;
+                }
+
+                inFlight.pollFirst();
+
+                cubesInFlight -= tile.requests.size();
+                cubesDone += tile.requests.size();
+
+                // tiles are only counted once all tiles before them are done, so the saved progress never skips any
+                data.setCompletedTiles(tile.index + 1);
+            }
+
+            while (cubesInFlight < CubicChunksConfig.pregenCubesInFlight && nextTile < tileCount) {
+                submit(provider, nextTile++);
+            }
+
+            if (++ticks % GC_INTERVAL == 0) {
+                provider.getCubeLoader()
+                    .doGC();
+            }
+
+            long now = System.nanoTime();
+
+            if (now - lastReport >= REPORT_INTERVAL) {
+                lastReport = now;
+                CubicChunks.LOGGER.info(getStatus());
+            }
+
+            if (nextTile >= tileCount && inFlight.isEmpty()) {
+                data.setCompletedTiles(tileCount);
+                data.stop();
+
+                CubicChunks.LOGGER.info(
+                    "Finished pregenerating {}: {} cubes in {}",
+                    world.provider.getDimensionName(),
+                    cubesDone,
+                    formatDuration((now - startTime) / 1_000_000_000L));
+
+                return true;
+            }
+
+            return false;
+        } finally {
+            world.theProfiler.endSection();
+        }
+    }
+
+    private void submit(CubeProviderServer provider, int index) {
+        long pos = spiral(index);
+        int tileX = (int) (pos >> 32);
+        int tileZ = (int) pos;
+
+        int minX = tileX * TILE_SIZE - TILE_SIZE / 2;
+        int minZ = tileZ * TILE_SIZE - TILE_SIZE / 2;
+
+        List<EagerCubeLoadRequest> requests = new ArrayList<>();
+
+        for (int dx = minX; dx < minX + TILE_SIZE; dx++) {
+            if (Math.abs(dx) > data.radius) continue;
+
+            for (int dz = minZ; dz < minZ + TILE_SIZE; dz++) {
+                if (Math.abs(dz) > data.radius) continue;
+
+                for (int y = data.maxY; y >= data.minY; y--) {
+                    requests.add(
+                        provider.loadCubeEagerly(data.centerX + dx, y, data.centerZ + dz, Requirement.LIGHT));
+                }
+            }
+        }
+
+        inFlight.addLast(new Tile(index, requests));
+        cubesInFlight += requests.size();
+    }
+
+    private void cancel() {
+        for (Tile tile : inFlight) {
+            for (EagerCubeLoadRequest request : tile.requests) {
+                request.cancel();
+            }
+        }
+
+        inFlight.clear();
+        cubesInFlight = 0;
+    }
+
+    /**
+     * @return the tile at the given index of a square spiral starting at 0,0, packed into a long as x << 32 | z
+     */
+    static long spiral(int index) {
+        if (index == 0) return 0;
+
+        int ring = (int) Math.ceil((Math.sqrt(index + 1) - 1) / 2);
+        int side = ring * 2;
+        // the last index of the ring, plus one
+        int end = (side + 1) * (side + 1);
+        int position = index + 1;
+
+        int x, z;
+
+        if (position >= end - side) {
+            x = ring - (end - position);
+            z = -ring;
+        } else if (position >= end - side * 2) {
+            x = -ring;
+            z = -ring + (end - side - position);
+        } else if (position >= end - side * 3) {
+            x = -ring + (end - side * 2 - position);
+            z = ring;
+        } else {
+            x = ring;
+            z = ring - (end - side * 3 - position);
+        }
+
+        return (long) x << 32 | (z & 0xFFFFFFFFL);
+    }
+
+    public int getProgress() {
+        return (int) ((long) data.getCompletedTiles() * 100 / tileCount);
+    }
+
+    public String getStatus() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        int tilesDone = data.getCompletedTiles() - startTile;
+
+        String eta;
+
+        if (tilesDone > 0) {
+            eta = formatDuration((long) (seconds / tilesDone * (tileCount - data.getCompletedTiles())));
+        } else {
+            eta = "unknown";
+        }
+
+        long totalCubes = (long) (data.radius * 2 + 1) * (data.radius * 2 + 1) * cubesPerColumn;
+
+        return String.format(
+            "Pregenerating %s: %d%% of %d cubes, %.1f cubes/s, %d cubes in flight, ETA %s",
+            world.provider.getDimensionName(),
+            getProgress(),
+            totalCubes,
+            seconds > 0 ? cubesDone / seconds : 0,
+            cubesInFlight,
+            eta);
+    }
+
+    private static String formatDuration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static class Tile {
+
+        private final int index;
+        private final List<EagerCubeLoadRequest> requests;
+        private int attempts = 1;
+
+        private Tile(int index, List<EagerCubeLoadRequest> requests) {
+            this.index = index;
+            this.requests = requests;
+        }
+
+        /**
+         * Requests the cubes of a done tile again if any of them didn't reach the lit state. Cubes whose request was
+         * cancelled (a player may have shared and dropped it) are requested again too, and count as an attempt so that
+         * a tile can't be retried forever.
+         *
+         * @return whether any cubes were requested again
+         */
+        public boolean retryFailed(CubeProviderServer provider) {
+            boolean failed = false;
+
+            for (EagerCubeLoadRequest request : requests) {
+                failed |= !request.isSucceeded();
+            }
+
+            if (!failed || ++attempts > MAX_ATTEMPTS) return false;
+
+            for (int i = 0; i < requests.size(); i++) {
+                EagerCubeLoadRequest request = requests.get(i);
+
+                if (request.isSucceeded()) continue;
+
+                requests.set(
+                    i,
+                    provider.loadCubeEagerly(request.getX(), request.getY(), request.getZ(), Requirement.LIGHT));
+            }
+
+            return true;
+        }
+
+        public boolean isDone() {
+            for (EagerCubeLoadRequest request : requests) {
+                if (!request.isCompleted()) return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
+/**
+ * Compact binary encoding for cube entries.
+ * <p>
+ * The block, metadata and light arrays of the cube's section are written raw, so they never go through the NBT
+ * serializer. Everything else (entities, tile entities, scheduled ticks, lighting info and any data added by other
+ * mods) is kept as a trailing NBT compound. The payload is laid out as:
+ *
+ * <pre>
+ * [MAGIC] [VERSION] [flags] [raw section arrays...] [remaining NBT]
+ * </pre>
+ *
+ * Compression is left to the storage's {@link EntryCodec}. Version 1 payloads deflated the part after the version
+ * themselves, and can still be read.
+ * <p>
+ * The decoder rebuilds the exact same {@link NBTTagCompound} that {@link IONbtWriter} produced, so
+ * {@link IONbtReader} doesn't need to know which format a cube was stored in.
+ */
+public class BinaryCubeCodec {
+
+    /**
+     * First byte of every binary payload. Neither a GZIP header (0x1f), an NBT compound tag id (0x0a) nor an
+     * {@link EntryCodec} id can start with this value, so entries in the other formats are never mistaken for binary
+     * ones.
+     */
+    public static final byte MAGIC = (byte) 0xCC;
+    public static final byte VERSION = 2;
+
+    private static final byte VERSION_DEFLATED = 1;
+
+    private static final String[] SECTION_ARRAYS = { "Blocks", "Add", "Data", "BlockLight", "SkyLight" };
+    private static final int[] SECTION_ARRAY_LENGTHS = { 4096, 2048, 2048, 2048, 2048 };
+
+    public static void encode(NBTTagCompound cubeNbt, ByteBuf out) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+
+        writeBody(cubeNbt, out);
+    }
+
+    /**
+     * Reads a binary cube payload. The stream must be positioned after the {@link #MAGIC} byte.
+     */
+    public static NBTTagCompound decode(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+
+        if (version == VERSION_DEFLATED) {
+            Inflater inflater = new Inflater();
+
+            try {
+                return readBody(new DataInputStream(new InflaterInputStream(in, inflater, 4096)));
+            } finally {
+                inflater.end();
+            }
+        }
+
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported binary cube version: %d", version));
+        }
+
+        return readBody(in);
+    }
+
+    private static NBTTagCompound readBody(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+
+        byte[][] arrays = new byte[SECTION_ARRAYS.length][];
+
+        for (int i = 0; i < SECTION_ARRAYS.length; i++) {
+            if ((flags & (1 << i)) != 0) {
+                arrays[i] = new byte[SECTION_ARRAY_LENGTHS[i]];
+                in.readFully(arrays[i]);
+            }
+        }
+
+        NBTTagCompound cubeNbt = CompressedStreamTools.func_152456_a(in, NBTSizeTracker.field_152451_a);
+
+        if (flags != 0) {
+            NBTTagCompound section = cubeNbt.getCompoundTag("Level")
+                .getTagList("Sections", Constants.NBT.TAG_COMPOUND)
+                .getCompoundTagAt(0);
+
+            for (int i = 0; i < SECTION_ARRAYS.length; i++) {
+                if (arrays[i] != null) {
+                    section.setByteArray(SECTION_ARRAYS[i], arrays[i]);
+                }
+            }
+        }
+
+        return cubeNbt;
+    }
+
+    private static void writeBody(NBTTagCompound cubeNbt, ByteBuf out) throws IOException {
+        NBTTagCompound level = cubeNbt.getCompoundTag("Level");
+        NBTTagList sections = level.getTagList("Sections", Constants.NBT.TAG_COMPOUND);
+
+        int flagsIndex = out.writerIndex();
+        out.writeByte(0);
+
+        if (sections.tagCount() != 1) {
+            // nothing to extract, the whole tag is written as NBT
+            CompressedStreamTools.write(cubeNbt, new ByteBufOutputStream(out));
+            return;
+        }
+
+        NBTTagCompound section = sections.getCompoundTagAt(0);
+        // the section keeps whatever we can't write raw (ie data added by ChunkAPI)
+        NBTTagCompound residual = shallowCopy(section);
+
+        int flags = 0;
+
+        for (int i = 0; i < SECTION_ARRAYS.length; i++) {
+            NBTBase tag = section.getTag(SECTION_ARRAYS[i]);
+
+            if (tag instanceof NBTTagByteArray array && array.func_150292_c().length == SECTION_ARRAY_LENGTHS[i]) {
+                out.writeBytes(array.func_150292_c());
+                residual.removeTag(SECTION_ARRAYS[i]);
+                flags |= 1 << i;
+            }
+        }
+
+        out.setByte(flagsIndex, flags);
+
+        // the cube tag is shared with the IO cache, so build a shallow copy instead of stripping the arrays from it
+        NBTTagList residualSections = new NBTTagList();
+        residualSections.appendTag(residual);
+
+        NBTTagCompound residualLevel = shallowCopy(level);
+        residualLevel.setTag("Sections", residualSections);
+
+        NBTTagCompound residualCube = shallowCopy(cubeNbt);
+        residualCube.setTag("Level", residualLevel);
+
+        CompressedStreamTools.write(residualCube, new ByteBufOutputStream(out));
+    }
+
+    private static NBTTagCompound shallowCopy(NBTTagCompound tag) {
+        NBTTagCompound copy = new NBTTagCompound();
+
+        for (Object key : tag.func_150296_c()) {
+            copy.setTag((String) key, tag.getTag((String) key));
+        }
+
+        return copy;
+    }
+}
@@ -1,15 +1,12 @@
 package com.cardinalstar.cubicchunks.server.chunkio;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.GZIPOutputStream;
 
 import net.minecraft.nbt.CompressedStreamTools;
-import net.minecraft.nbt.NBTSizeTracker;
 import net.minecraft.nbt.NBTTagCompound;
 
 import org.apache.commons.io.IOUtils;
@@ -17,14 +14,7 @@ import org.apache.commons.io.IOUtils;
 public class CCNBTUtils {
 
     public static NBTTagCompound loadTag(byte[] data) throws IOException {
-        if (data[0] == (byte) 0x1f && data[1] == (byte) 0x8b) {
-            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data));) {
-                data = IOUtils.toByteArray(gzip);
-            }
-        }
-
-        return CompressedStreamTools
-            .func_152456_a(new DataInputStream(new ByteArrayInputStream(data)), NBTSizeTracker.field_152451_a);
+        return EntryCodecs.STATELESS.decode(ByteBuffer.wrap(data));
     }
 
     public static byte[] saveTag(NBTTagCompound tag, boolean compress) throws IOException {
@@ -1,12 +1,14 @@
 package com.cardinalstar.cubicchunks.server.chunkio;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.ChunkCoordIntPair;
@@ -21,6 +23,7 @@ import com.cardinalstar.cubicchunks.api.world.storage.ICubicStorage.PosBatch;
 import com.cardinalstar.cubicchunks.async.TaskPool;
 import com.cardinalstar.cubicchunks.async.TaskPool.ITaskExecutor;
 import com.cardinalstar.cubicchunks.async.TaskPool.ITaskFuture;
+import com.cardinalstar.cubicchunks.async.TaskPool.Priority;
 import com.cardinalstar.cubicchunks.event.events.CubeEvent;
 import com.cardinalstar.cubicchunks.util.CubePos;
 import com.cardinalstar.cubicchunks.util.DataUtils;
@@ -47,6 +50,9 @@ public class CubeIO implements ICubeIO {
 
     private final Object2ObjectLinkedOpenHashMap<CubePos, SaveData> cubeCache = new Object2ObjectLinkedOpenHashMap<>();
 
+    /** Saves that were submitted but haven't been written yet. Notified when it drops to zero. */
+    private final AtomicInteger pendingSaves = new AtomicInteger();
+
     interface Savable {
     }
 
@@ -109,6 +115,14 @@ public class CubeIO implements ICubeIO {
 
             @Override
             public void execute(List<ITaskFuture<Savable, Void>> tasks) {
+                try {
+                    write(tasks);
+                } finally {
+                    onSavesWritten(tasks.size());
+                }
+            }
+
+            private void write(List<ITaskFuture<Savable, Void>> tasks) {
                 Map<ChunkCoordIntPair, NBTTagCompound> columns = new Object2ObjectOpenHashMap<>();
                 Map<CubePos, NBTTagCompound> cubes = new Object2ObjectOpenHashMap<>();
 
@@ -246,7 +260,7 @@ public class CubeIO implements ICubeIO {
 
         column.isModified = false;
 
-        Future<?> task = TaskPool.submit(saveExecutor, new SaveColumn(pos, tag));
+        Future<?> task = submitSave(new SaveColumn(pos, tag));
 
         long now = System.currentTimeMillis();
 
@@ -276,10 +290,11 @@ public class CubeIO implements ICubeIO {
         }
     }
 
-    public void saveCube(CubePos pos, Cube cube) {
+    @Override
+    public void saveCube(CubePos pos, Cube cube, boolean unloading) {
         cube.markSaved();
 
-        NBTTagCompound tag = IONbtWriter.write(cube);
+        NBTTagCompound tag = IONbtWriter.write(cube, unloading);
 
         CubeEvent.SaveNBT event = new CubeEvent.SaveNBT(cube.getWorld(), cube.getCoords(), tag);
 
@@ -287,7 +302,7 @@ public class CubeIO implements ICubeIO {
 
         tag = event.tag;
 
-        Future<?> task = TaskPool.submit(saveExecutor, new SaveCube(pos, tag));
+        Future<?> task = submitSave(new SaveCube(pos, tag));
 
         long now = System.currentTimeMillis();
 
@@ -317,38 +332,56 @@ public class CubeIO implements ICubeIO {
         }
     }
 
+    private Future<?> submitSave(Savable savable) {
+        pendingSaves.incrementAndGet();
+
+        return TaskPool.submit(saveExecutor, savable, Priority.SAVE, null);
+    }
+
+    private void onSavesWritten(int count) {
+        if (pendingSaves.addAndGet(-count) == 0) {
+            synchronized (pendingSaves) {
+                pendingSaves.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until every save submitted so far was written (or failed to be). Loads, preloads and any other background
+     * work aren't waited on, only saves are.
+     */
+    private void awaitSaves() throws IOException {
+        synchronized (pendingSaves) {
+            while (pendingSaves.get() > 0) {
+                try {
+                    pendingSaves.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread()
+                        .interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for saves to be written");
+                }
+            }
+        }
+    }
+
     // only used by "/save-all flush" command
     @Override
     public void flush() throws IOException {
-        TaskPool.flush();
+        awaitSaves();
 
         this.storage.flush();
     }
 
     @Override
     public void close() throws IOException {
-        TaskPool.flush();
-
-        while (true) {
-            synchronized (columnCache) {
-                if (columnCache.isEmpty()) break;
-
-                columnCache.object2ObjectEntrySet()
-                    .removeIf(e -> e.getValue().task == null || e.getValue().task.isDone());
-            }
+        awaitSaves();
 
-            Thread.yield();
+        synchronized (columnCache) {
+            columnCache.clear();
         }
 
-        while (true) {
-            synchronized (cubeCache) {
-                if (cubeCache.isEmpty()) break;
-
-                cubeCache.object2ObjectEntrySet()
-                    .removeIf(e -> e.getValue().task == null || e.getValue().task.isDone());
-            }
-
-            Thread.yield();
+        synchronized (cubeCache) {
+            cubeCache.clear();
         }
 
         this.storage.close();
@@ -356,7 +389,7 @@ public class CubeIO implements ICubeIO {
 
     @Override
     public void preloadColumn(ChunkCoordIntPair pos) {
-        TaskPool.submit(columnLoadExecutor, pos, tag -> {
+        TaskPool.submit(columnLoadExecutor, pos, Priority.BACKGROUND, tag -> {
             if (!tag.isPresent()) {
                 if (preloadFailures != null) preloadFailures.onColumnPreloadFailed(pos);
             } else {
@@ -368,8 +401,8 @@ public class CubeIO implements ICubeIO {
     }
 
     @Override
-    public void preloadCube(CubePos pos, CubeInitLevel wanted) {
-        TaskPool.submit(cubeLoadExecutor, pos, tag -> {
+    public Future<?> preloadCube(CubePos pos, CubeInitLevel wanted, boolean urgent) {
+        return TaskPool.submit(cubeLoadExecutor, pos, urgent ? Priority.URGENT : Priority.BACKGROUND, tag -> {
             CubeInitLevel actual = !tag.isPresent() ? CubeInitLevel.None : IONbtReader.getCubeInitLevel(tag.get());
 
             if (actual.ordinal() < wanted.ordinal()) {
@@ -3,8 +3,12 @@ package com.cardinalstar.cubicchunks.server.chunkio;
 import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 
@@ -24,6 +28,7 @@ import com.cardinalstar.cubicchunks.api.XZMap;
 import com.cardinalstar.cubicchunks.api.world.storage.ICubicStorage;
 import com.cardinalstar.cubicchunks.api.worldgen.GenerationResult;
 import com.cardinalstar.cubicchunks.api.worldgen.IWorldGenerator;
+import com.cardinalstar.cubicchunks.async.TaskPool;
 import com.cardinalstar.cubicchunks.event.events.ColumnEvent;
 import com.cardinalstar.cubicchunks.event.events.CubeEvent;
 import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
@@ -39,6 +44,7 @@ import com.cardinalstar.cubicchunks.world.cube.BlankCube;
 import com.cardinalstar.cubicchunks.world.cube.BoundaryCube;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
 
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import lombok.Setter;
 
@@ -59,6 +65,20 @@ public class CubeLoaderServer implements ICubeLoader {
     private final List<Chunk> pendingColumnLoads = new ArrayList<>();
 
     private Array3D<Cube> cache;
+
+    /** Cubes and columns left to save in the current incremental save. */
+    private final ArrayDeque<CubeInfo> cubeSaveQueue = new ArrayDeque<>();
+    private final ArrayDeque<ColumnInfo> columnSaveQueue = new ArrayDeque<>();
+    /**
+     * Columns that may have something to save: they or one of their cubes were loaded or modified since they were
+     * last found clean, or one of their cubes has entities. Incremental saves only look at these.
+     */
+    private final ObjectLinkedOpenHashSet<ColumnInfo> saveCandidates = new ObjectLinkedOpenHashSet<>();
+    /** Columns marked for saving by background workers (parallel lighting), added to the candidates later. */
+    private final ConcurrentLinkedQueue<ChunkCoordIntPair> workerSaveMarks = new ConcurrentLinkedQueue<>();
+    private int saveRoundSize;
+    private long saveRoundStart;
+
     @Setter
     private long now;
 
@@ -126,6 +146,7 @@ public class CubeLoaderServer implements ICubeLoader {
         }
 
         columns.remove(column);
+        saveCandidates.remove(column);
 
         column.onColumnUnloaded();
     }
@@ -270,8 +291,8 @@ public class CubeLoaderServer implements ICubeLoader {
         cubeIO.preloadColumn(pos);
     }
 
-    public void preloadCube(CubePos pos, CubeInitLevel level) {
-        cubeIO.preloadCube(pos, level);
+    public Future<?> preloadCube(CubePos pos, CubeInitLevel level, boolean urgent) {
+        return cubeIO.preloadCube(pos, level, urgent);
     }
 
     @Override
@@ -304,6 +325,152 @@ public class CubeLoaderServer implements ICubeLoader {
                 cubeIO.saveColumn(column.pos, column.column);
             }
         }
+
+        // everything queued was just saved
+        cubeSaveQueue.clear();
+        columnSaveQueue.clear();
+    }
+
+    @Override
+    public void queueSave() {
+        int backlog = getSaveBacklog();
+
+        if (backlog > 0) {
+            CubicChunks.LOGGER.warn(
+                "Autosave of {} started before the last one finished ({} of {} cubes and columns left after {} ticks). "
+                    + "Consider raising the autosave budget.",
+                world.provider.getDimensionName(),
+                backlog,
+                saveRoundSize,
+                now - saveRoundStart);
+        }
+
+        cubeSaveQueue.clear();
+        columnSaveQueue.clear();
+
+        ChunkCoordIntPair marked;
+
+        while ((marked = workerSaveMarks.poll()) != null) {
+            markForSave(marked.chunkXPos, marked.chunkZPos);
+        }
+
+        Iterator<ColumnInfo> iter = saveCandidates.iterator();
+
+        while (iter.hasNext()) {
+            ColumnInfo column = iter.next();
+            // cubes with entities need saving again later, even once they were saved
+            boolean keep = false;
+
+            for (CubeInfo cube : column.containedCubes) {
+                if (cube.cube == null) continue;
+
+                if (cube.cube.needsSaving(false)) {
+                    cubeSaveQueue.add(cube);
+                    keep = true;
+                }
+
+                keep |= cube.cube.hasEntities;
+            }
+
+            if (column.column != null && column.column.needsSaving(false)) {
+                columnSaveQueue.add(column);
+                keep = true;
+            }
+
+            if (!keep) iter.remove();
+        }
+
+        saveRoundSize = getSaveBacklog();
+        saveRoundStart = now;
+    }
+
+    @Override
+    public void markForSave(int cubeX, int cubeZ) {
+        if (TaskPool.isWorkerThread()) {
+            workerSaveMarks.add(new ChunkCoordIntPair(cubeX, cubeZ));
+            return;
+        }
+
+        ColumnInfo column = columns.get(cubeX, cubeZ);
+
+        if (column != null) saveCandidates.add(column);
+    }
+
+    @Override
+    public void saveQueued(long maxNanos, long maxBytes) {
+        if (cubeSaveQueue.isEmpty() && columnSaveQueue.isEmpty()) return;
+
+        // saving was turned off with /save-off, the queue is picked up again once it's turned back on
+        if (world.levelSaving) return;
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        boolean processedLighting = false;
+
+        while (!cubeSaveQueue.isEmpty()) {
+            if (bytes >= maxBytes || System.nanoTime() - start >= maxNanos) return;
+
+            CubeInfo info = cubeSaveQueue.poll();
+            Cube cube = info.cube;
+
+            // unloaded (which saves it) or saved some other way since it was queued
+            if (cube == null || cubes.get(info.getX(), info.getY(), info.getZ()) != info || !cube.needsSaving(false)) {
+                continue;
+            }
+
+            if (!processedLighting) {
+                // make sure all light updates are processed
+                ((ICubicWorldInternal) world).getLightingManager()
+                    .processUpdates();
+
+                processedLighting = true;
+            }
+
+            cubeIO.saveCube(info.pos, cube);
+            bytes += estimateSaveSize(cube);
+        }
+
+        while (!columnSaveQueue.isEmpty()) {
+            if (bytes >= maxBytes || System.nanoTime() - start >= maxNanos) return;
+
+            ColumnInfo info = columnSaveQueue.poll();
+            Chunk column = info.column;
+
+            if (column == null || columns.get(info.getX(), info.getZ()) != info || !column.needsSaving(false)) {
+                continue;
+            }
+
+            cubeIO.saveColumn(info.pos, column);
+            bytes += COLUMN_SAVE_SIZE;
+        }
+
+        CubicChunks.LOGGER.debug(
+            "Autosave of {} finished: {} cubes and columns in {} ticks",
+            world.provider.getDimensionName(),
+            saveRoundSize,
+            now - saveRoundStart);
+    }
+
+    @Override
+    public int getSaveBacklog() {
+        return cubeSaveQueue.size() + columnSaveQueue.size();
+    }
+
+    @Override
+    public int getSaveRoundSize() {
+        return saveRoundSize;
+    }
+
+    private static final long COLUMN_SAVE_SIZE = 2 * 1024;
+
+    /** A rough guess of how big a cube's NBT is: its block, metadata and light arrays, plus its entities. */
+    private static long estimateSaveSize(Cube cube) {
+        long size = cube.getStorage() == null ? 256 : 12 * 1024;
+
+        return size + 512L * (cube.getEntitySet()
+            .size()
+            + cube.getTileEntityMap()
+                .size());
     }
 
     @Override
@@ -569,6 +736,8 @@ public class CubeLoaderServer implements ICubeLoader {
         public void onColumnLoaded() {
             column.lastSaveTime = world.getTotalWorldTime();
 
+            saveCandidates.add(this);
+
             ((IColumnInternal) column).setColumn(true);
 
             column.onChunkLoad();
@@ -822,6 +991,7 @@ public class CubeLoaderServer implements ICubeLoader {
 
             ((IColumn) column.column).addCube(cube);
             column.containedCubes.add(this);
+            saveCandidates.add(column);
 
             cube.onCubeLoad();
 
@@ -842,7 +1012,7 @@ public class CubeLoaderServer implements ICubeLoader {
 
         public void onCubeUnloaded() {
             if (this.isInitedTo(CubeInitLevel.Generated)) {
-                cubeIO.saveCube(pos, cube);
+                cubeIO.saveCube(pos, cube, true);
             }
 
             ((IColumn) column.column).removeCube(getY());
@@ -0,0 +1,80 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+/**
+ * Builds a preset deflate dictionary out of sample payloads.
+ * <p>
+ * Every sample is cut into overlapping segments, and segments are ranked by the number of samples they show up in.
+ * The most common segments are concatenated into the dictionary, with the most common ones at the end, since deflate
+ * encodes short back-references more cheaply.
+ */
+public class DictionaryTrainer {
+
+    /** Deflate can't reference anything further back than 32 KiB, so a bigger dictionary is useless. */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int SEGMENT_LENGTH = 32;
+    private static final int SEGMENT_STEP = 8;
+
+    private final int wantedSamples;
+    private final List<byte[]> samples = new ArrayList<>();
+
+    public DictionaryTrainer(int wantedSamples) {
+        this.wantedSamples = wantedSamples;
+    }
+
+    /**
+     * @return true once enough samples were collected to call {@link #train()}
+     */
+    public synchronized boolean addSample(byte[] data, int offset, int length) {
+        if (samples.size() < wantedSamples) {
+            samples.add(Arrays.copyOfRange(data, offset, offset + length));
+        }
+
+        return samples.size() >= wantedSamples;
+    }
+
+    public synchronized byte[] train() {
+        Object2IntOpenHashMap<ByteArrayList> occurrences = new Object2IntOpenHashMap<>();
+        ObjectOpenHashSet<ByteArrayList> seen = new ObjectOpenHashSet<>();
+
+        for (byte[] sample : samples) {
+            seen.clear();
+
+            for (int i = 0; i + SEGMENT_LENGTH <= sample.length; i += SEGMENT_STEP) {
+                ByteArrayList segment = ByteArrayList.wrap(Arrays.copyOfRange(sample, i, i + SEGMENT_LENGTH));
+
+                // count samples containing the segment, not occurrences: long runs of zeroes would win otherwise
+                if (seen.add(segment)) {
+                    occurrences.addTo(segment, 1);
+                }
+            }
+        }
+
+        List<Object2IntMap.Entry<ByteArrayList>> ranked = new ArrayList<>(occurrences.object2IntEntrySet());
+        ranked.removeIf(e -> e.getIntValue() < 2);
+        ranked.sort((a, b) -> Integer.compare(b.getIntValue(), a.getIntValue()));
+
+        int count = Math.min(ranked.size(), MAX_DICTIONARY_SIZE / SEGMENT_LENGTH);
+        byte[] dictionary = new byte[count * SEGMENT_LENGTH];
+
+        // most common segments go last
+        for (int i = 0; i < count; i++) {
+            ranked.get(i)
+                .getKey()
+                .getElements(0, dictionary, (count - 1 - i) * SEGMENT_LENGTH, SEGMENT_LENGTH);
+        }
+
+        samples.clear();
+
+        return dictionary;
+    }
+}
@@ -0,0 +1,216 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
+/**
+ * A compression codec for region entries. Every entry written through a codec starts with the codec's one-byte
+ * {@link #id}, which is used to pick the right codec when the entry is read back.
+ * <p>
+ * Ids are chosen so that entries written before codecs existed are still recognized: GZIP'd entries start with the
+ * GZIP magic (0x1f), which is the id of {@link Gzip}, while uncompressed NBT (0x0a) and binary cubes
+ * ({@link BinaryCubeCodec#MAGIC}) don't collide with any codec id.
+ * <p>
+ * Codecs must be thread-safe, they are used from the IO worker threads concurrently.
+ */
+public abstract class EntryCodec {
+
+    public static final byte ID_NONE = 0x01;
+    public static final byte ID_DEFLATE_FAST = 0x02;
+    public static final byte ID_DEFLATE_DICT = 0x03;
+    public static final byte ID_GZIP = 0x1f;
+
+    public final byte id;
+    public final String name;
+
+    protected EntryCodec(byte id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Compresses the readable bytes of {@code src} into {@code out}, including the codec id.
+     *
+     * @param src a heap buffer containing the uncompressed payload
+     */
+    public abstract void compress(ByteBuf src, ByteBuf out) throws IOException;
+
+    /**
+     * Wraps a stream of compressed data. The stream is positioned after the codec id, unless {@link #isSelfDescribing()}
+     * returns true.
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return true if the codec id is the first byte of the compressed stream itself, and must not be skipped when
+     *         decompressing
+     */
+    public boolean isSelfDescribing() {
+        return false;
+    }
+
+    protected static void deflate(Deflater deflater, ByteBuf src, ByteBuf out) {
+        deflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), src.readableBytes());
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            out.ensureWritable(4096);
+
+            int written = deflater
+                .deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+
+            out.writerIndex(out.writerIndex() + written);
+        }
+    }
+
+    /**
+     * Stores the payload as-is. Useful on fast disks where CPU time matters more than space.
+     */
+    public static class None extends EntryCodec {
+
+        public None() {
+            super(ID_NONE, "none");
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf out) {
+            out.writeByte(id);
+            out.writeBytes(src, src.readerIndex(), src.readableBytes());
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    }
+
+    /**
+     * Raw deflate at {@link Deflater#BEST_SPEED}, without the GZIP header and CRC. Decompresses noticeably faster than
+     * GZIP at a slightly worse ratio.
+     */
+    public static class DeflateFast extends EntryCodec {
+
+        private final ThreadLocal<Deflater> deflater = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+        private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        public DeflateFast() {
+            super(ID_DEFLATE_FAST, "deflate_fast");
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf out) {
+            Deflater deflater = this.deflater.get();
+            deflater.reset();
+
+            out.writeByte(id);
+            deflate(deflater, src, out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            Inflater inflater = this.inflater.get();
+            inflater.reset();
+
+            return new InflaterInputStream(in, inflater, 4096);
+        }
+    }
+
+    /**
+     * Raw deflate with a preset dictionary trained from the world's own entries (see {@link DictionaryTrainer}). Small
+     * entries compress much better because the recurring NBT keys and common block patterns are already known to the
+     * compressor. The entry stores the Adler-32 of the dictionary as its id, which is used to pick the dictionary when
+     * it's read back.
+     */
+    public static class DeflateDictionary extends EntryCodec {
+
+        private final byte[] dictionary;
+        private final int dictionaryId;
+
+        private final ThreadLocal<Deflater> deflater = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        public DeflateDictionary(byte[] dictionary) {
+            super(ID_DEFLATE_DICT, "deflate_dict");
+            this.dictionary = dictionary;
+
+            Adler32 adler = new Adler32();
+            adler.update(dictionary, 0, dictionary.length);
+            this.dictionaryId = (int) adler.getValue();
+        }
+
+        public byte[] getDictionary() {
+            return dictionary;
+        }
+
+        public int getDictionaryId() {
+            return dictionaryId;
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf out) {
+            Deflater deflater = this.deflater.get();
+            deflater.reset();
+            deflater.setDictionary(dictionary);
+
+            out.writeByte(id);
+            out.writeInt(dictionaryId);
+            deflate(deflater, src, out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            int id = new DataInputStream(in).readInt();
+
+            if (id != dictionaryId) {
+                throw new IOException(
+                    String.format("Entry was compressed with dictionary %08x, but %08x is loaded", id, dictionaryId));
+            }
+
+            Inflater inflater = this.inflater.get();
+            inflater.reset();
+            inflater.setDictionary(dictionary);
+
+            return new InflaterInputStream(in, inflater, 4096);
+        }
+    }
+
+    /**
+     * Plain GZIP, the format used before codecs were introduced. Entries written with it are byte-for-byte the same as
+     * old entries.
+     */
+    public static class Gzip extends EntryCodec {
+
+        public Gzip() {
+            super(ID_GZIP, "gzip");
+        }
+
+        @Override
+        public void compress(ByteBuf src, ByteBuf out) throws IOException {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(out))) {
+                gzip.write(src.array(), src.arrayOffset() + src.readerIndex(), src.readableBytes());
+            }
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+
+        @Override
+        public boolean isSelfDescribing() {
+            return true;
+        }
+    }
+}
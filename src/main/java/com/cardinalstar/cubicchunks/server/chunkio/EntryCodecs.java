@@ -0,0 +1,295 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * The set of {@link EntryCodec}s known to one storage, and the codec it writes new entries with.
+ * <p>
+ * Reading always goes through the codec id stored in the entry, so a world can switch codecs (or be written by an older
+ * version) without having to convert existing entries. Dictionaries are kept as {@code entries-<id>.dict} beside the
+ * regions, and entries compressed with one store its id, so a dictionary is never replaced and a missing one is
+ * reported by name.
+ */
+public class EntryCodecs {
+
+    public static final String NONE = "none";
+    public static final String DEFLATE_FAST = "deflate_fast";
+    public static final String DEFLATE_DICT = "deflate_dict";
+    public static final String GZIP = "gzip";
+
+    public static final String DEFAULT = DEFLATE_FAST;
+
+    /** Codecs without any per-world state, used for reading entries outside of a storage. */
+    public static final EntryCodecs STATELESS = new EntryCodecs(GZIP, null);
+
+    private static final byte NBT_COMPOUND_ID = 10;
+    private static final String DICTIONARY_PREFIX = "entries-";
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final int DICTIONARY_SAMPLES = 256;
+
+    /** The codecs that don't need a dictionary, by id. Only filled in by the constructor. */
+    private final EntryCodec[] byId = new EntryCodec[256];
+
+    /** The world's dictionaries by their id. Replaced as a whole when a dictionary is trained, never changed. */
+    private volatile Int2ObjectMap<EntryCodec.DeflateDictionary> dictionaries = Int2ObjectMaps.emptyMap();
+
+    @Nullable
+    private final Path directory;
+    @Nullable
+    private volatile DictionaryTrainer trainer;
+
+    private volatile EntryCodec writeCodec;
+
+    /**
+     * @param codec     the name of the codec new entries are written with
+     * @param directory the directory the world's dictionary is kept in, if there is one
+     */
+    public EntryCodecs(String codec, @Nullable Path directory) {
+        register(new EntryCodec.None());
+        register(new EntryCodec.DeflateFast());
+        register(new EntryCodec.Gzip());
+
+        this.directory = directory;
+
+        EntryCodec.DeflateDictionary newest = directory == null ? null : loadDictionaries(directory);
+
+        EntryCodec selected = DEFLATE_DICT.equals(codec) ? newest : byName(codec);
+
+        if (selected == null && DEFLATE_DICT.equals(codec) && directory != null) {
+            // there is no dictionary yet: write with the fast codec until enough entries were seen to train one
+            trainer = new DictionaryTrainer(DICTIONARY_SAMPLES);
+            selected = byId[EntryCodec.ID_DEFLATE_FAST];
+        }
+
+        if (selected == null) {
+            CubicChunks.LOGGER.error("Unknown entry compression codec '{}', falling back to {}", codec, DEFAULT);
+            selected = byName(DEFAULT);
+        }
+
+        this.writeCodec = selected;
+    }
+
+    public static boolean isKnownCodec(String name) {
+        return NONE.equals(name) || DEFLATE_FAST.equals(name) || DEFLATE_DICT.equals(name) || GZIP.equals(name);
+    }
+
+    private void register(EntryCodec codec) {
+        byId[codec.id & 0xFF] = codec;
+    }
+
+    /**
+     * Loads every dictionary in the directory.
+     *
+     * @return the most recently trained dictionary, or null if there is none
+     */
+    @Nullable
+    private EntryCodec.DeflateDictionary loadDictionaries(Path directory) {
+        Int2ObjectOpenHashMap<EntryCodec.DeflateDictionary> loaded = new Int2ObjectOpenHashMap<>();
+        EntryCodec.DeflateDictionary newest = null;
+        long newestTime = 0;
+
+        try (DirectoryStream<Path> files = Files
+            .newDirectoryStream(directory, DICTIONARY_PREFIX + "*" + DICTIONARY_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    byte[] bytes = Files.readAllBytes(file);
+                    EntryCodec.DeflateDictionary dictionary = new EntryCodec.DeflateDictionary(bytes);
+
+                    if (!file.equals(getDictionaryPath(dictionary.getDictionaryId()))) {
+                        CubicChunks.LOGGER.error("Compression dictionary {} doesn't match its name, ignoring it", file);
+                        continue;
+                    }
+
+                    loaded.put(dictionary.getDictionaryId(), dictionary);
+
+                    long time = Files.getLastModifiedTime(file)
+                        .toMillis();
+
+                    if (newest == null || time > newestTime) {
+                        newest = dictionary;
+                        newestTime = time;
+                    }
+                } catch (IOException e) {
+                    CubicChunks.LOGGER.error("Could not read compression dictionary {}", file, e);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing was saved yet
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Could not list the compression dictionaries in {}", directory, e);
+        }
+
+        dictionaries = loaded;
+
+        return newest;
+    }
+
+    private Path getDictionaryPath(int dictionaryId) {
+        return directory.resolve(String.format("%s%08x%s", DICTIONARY_PREFIX, dictionaryId, DICTIONARY_SUFFIX));
+    }
+
+    @Nullable
+    private EntryCodec byName(String name) {
+        for (EntryCodec codec : byId) {
+            if (codec != null && codec.name.equals(name)) return codec;
+        }
+
+        return null;
+    }
+
+    public EntryCodec getWriteCodec() {
+        return writeCodec;
+    }
+
+    /**
+     * Compresses a payload with the current write codec.
+     *
+     * @param payload a heap buffer containing the uncompressed payload, its reader index is left unchanged
+     */
+    public byte[] encode(ByteBuf payload) throws IOException {
+        if (trainer != null) {
+            sample(payload);
+        }
+
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.heapBuffer(Math.max(payload.readableBytes() / 2, 256));
+
+        try {
+            writeCodec.compress(payload, out);
+
+            byte[] data = new byte[out.readableBytes()];
+            out.readBytes(data);
+            return data;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Decodes an entry written by any codec, or by any version of the mod before codecs existed.
+     */
+    public NBTTagCompound decode(ByteBuffer data) throws IOException {
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+
+        byte id = buf.getByte(buf.readerIndex());
+        EntryCodec codec = id == EntryCodec.ID_DEFLATE_DICT ? getDictionary(buf) : byId[id & 0xFF];
+
+        InputStream in = new ByteBufInputStream(buf);
+
+        if (codec != null) {
+            if (!codec.isSelfDescribing()) {
+                buf.skipBytes(1);
+            }
+
+            in = codec.decompress(in);
+        } else if (id != NBT_COMPOUND_ID && id != BinaryCubeCodec.MAGIC) {
+            throw new IOException(String.format("Unknown entry codec: %02x", id & 0xFF));
+        }
+
+        return readPayload(in);
+    }
+
+    /**
+     * @param buf an entry compressed with a dictionary, positioned at the codec id
+     */
+    private EntryCodec getDictionary(ByteBuf buf) throws IOException {
+        if (buf.readableBytes() < 1 + Integer.BYTES) {
+            throw new IOException("Entry compressed with a dictionary is truncated");
+        }
+
+        int dictionaryId = buf.getInt(buf.readerIndex() + 1);
+        EntryCodec codec = dictionaries.get(dictionaryId);
+
+        if (codec == null) {
+            // without the dictionary the entry can't be decoded at all, don't let it pass as a missing entry
+            throw new IOException(
+                String.format(
+                    "Entry was compressed with dictionary %08x, but %s is missing. Restore it from a backup to read "
+                        + "this entry",
+                    dictionaryId,
+                    directory == null ? "the dictionary" : getDictionaryPath(dictionaryId)));
+        }
+
+        return codec;
+    }
+
+    private static NBTTagCompound readPayload(InputStream stream) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(stream, 1);
+        int first = in.read();
+
+        if (first == (BinaryCubeCodec.MAGIC & 0xFF)) {
+            return BinaryCubeCodec.decode(new DataInputStream(in));
+        }
+
+        in.unread(first);
+        return CompressedStreamTools.func_152456_a(new DataInputStream(in), NBTSizeTracker.field_152451_a);
+    }
+
+    private void sample(ByteBuf payload) {
+        DictionaryTrainer trainer = this.trainer;
+
+        if (trainer == null || !trainer.addSample(
+            payload.array(),
+            payload.arrayOffset() + payload.readerIndex(),
+            payload.readableBytes())) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.trainer != trainer) return;
+            this.trainer = null;
+        }
+
+        byte[] dictionary = trainer.train();
+
+        if (dictionary.length == 0) {
+            CubicChunks.LOGGER.warn("Could not train a compression dictionary, staying on {}", writeCodec.name);
+            return;
+        }
+
+        EntryCodec.DeflateDictionary codec = new EntryCodec.DeflateDictionary(dictionary);
+        Path file = getDictionaryPath(codec.getDictionaryId());
+
+        try {
+            // the dictionary must be on disk before the first entry uses it
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, dictionary);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CubicChunks.LOGGER.error("Could not save compression dictionary {}", file, e);
+            return;
+        }
+
+        Int2ObjectOpenHashMap<EntryCodec.DeflateDictionary> updated = new Int2ObjectOpenHashMap<>(dictionaries);
+        updated.put(codec.getDictionaryId(), codec);
+        dictionaries = updated;
+
+        writeCodec = codec;
+
+        CubicChunks.LOGGER.info("Trained a {} byte compression dictionary {}", dictionary.length, file);
+    }
+}
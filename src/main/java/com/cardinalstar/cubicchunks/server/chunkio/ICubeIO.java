@@ -2,6 +2,7 @@ package com.cardinalstar.cubicchunks.server.chunkio;
 
 import java.io.Closeable;
 import java.io.Flushable;
+import java.util.concurrent.Future;
 
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.ChunkCoordIntPair;
@@ -18,7 +19,14 @@ public interface ICubeIO extends Flushable, Closeable {
 
     void saveColumn(ChunkCoordIntPair pos, Chunk column);
 
-    void saveCube(CubePos pos, Cube cube);
+    default void saveCube(CubePos pos, Cube cube) {
+        saveCube(pos, cube, false);
+    }
+
+    /**
+     * @param unloading whether the cube is being unloaded, and won't be changed after this
+     */
+    void saveCube(CubePos pos, Cube cube, boolean unloading);
 
     NBTTagCompound loadColumn(ChunkCoordIntPair pos) throws LoadFailureException;
 
@@ -26,5 +34,9 @@ public interface ICubeIO extends Flushable, Closeable {
 
     void preloadColumn(ChunkCoordIntPair pos);
 
-    void preloadCube(CubePos pos, CubeInitLevel level);
+    /**
+     * @param urgent whether a player is waiting for the cube
+     * @return a future that is done once the cube's data was read and cached (or failed to be read)
+     */
+    Future<?> preloadCube(CubePos pos, CubeInitLevel level, boolean urgent);
 }
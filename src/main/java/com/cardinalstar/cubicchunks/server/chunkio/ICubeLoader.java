@@ -50,6 +50,29 @@ public interface ICubeLoader extends Flushable, Closeable {
 
     void save(boolean saveAll);
 
+    /// Starts an incremental save of everything that currently needs saving, which is then done a slice at a time by
+    /// [#saveQueued(long, long)]. Anything still queued from the previous incremental save is queued again if it still
+    /// needs saving.
+    void queueSave();
+
+    /// Tells the loader that something in the column, or in one of its loaded cubes, may need saving. Incremental saves
+    /// only look at the columns they were told about (and their cubes), instead of at everything that is loaded.
+    /// May be called from background workers.
+    void markForSave(int cubeX, int cubeZ);
+
+    /// Saves queued cubes and columns until either budget runs out or nothing is left. Does nothing while saving is
+    /// turned off with `/save-off`.
+    ///
+    /// @param maxNanos how long to spend saving
+    /// @param maxBytes roughly how much data to save
+    void saveQueued(long maxNanos, long maxBytes);
+
+    /// The number of cubes and columns left in the current incremental save.
+    int getSaveBacklog();
+
+    /// The number of cubes and columns the current (or last) incremental save started with.
+    int getSaveRoundSize();
+
     void saveColumn(Chunk column);
 
     void saveCube(Cube cube);
@@ -56,7 +56,6 @@ import com.falsepattern.chunk.internal.DataRegistryImpl;
 import cpw.mods.fml.common.FMLLog;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 @ParametersAreNonnullByDefault
 class IONbtWriter {
@@ -81,7 +80,14 @@ class IONbtWriter {
         return columnNbt;
     }
 
-    static NBTTagCompound write(final Cube cube) {
+    /**
+     * Writes everything that has to be read on the server thread. The tag is encoded and written on the save workers
+     * while the cube keeps changing, so the block and light arrays are copied, unless the cube is being unloaded and
+     * nothing writes to them anymore.
+     *
+     * @param unloading whether the cube is saved because it's unloaded
+     */
+    static NBTTagCompound write(final Cube cube, boolean unloading) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         // Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
@@ -96,7 +102,7 @@ class IONbtWriter {
             sections.appendTag(section);
 
             if (!Mods.ChunkAPI.isModLoaded()) {
-                writeBlocks(cube, section);
+                writeBlocks(cube, section, !unloading);
             } else {
                 DataRegistryImpl.writeSubChunkToNBT(cube.getColumn(), cube.getStorage(), section);
             }
@@ -148,24 +154,28 @@ class IONbtWriter {
         cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
     }
 
-    private static void writeBlocks(Cube cube, NBTTagCompound section) {
+    private static void writeBlocks(Cube cube, NBTTagCompound section, boolean copy) {
         ExtendedBlockStorage ebs = cube.getStorage();
         assert ebs != null;
 
-        section.setByteArray("Blocks", ebs.getBlockLSBArray());
+        section.setByteArray("Blocks", snapshot(ebs.getBlockLSBArray(), copy));
 
         if (ebs.getBlockMSBArray() != null) {
-            section.setByteArray("Add", ebs.getBlockMSBArray().data);
+            section.setByteArray("Add", snapshot(ebs.getBlockMSBArray().data, copy));
         }
-        section.setByteArray("Data", ebs.getMetadataArray().data);
+        section.setByteArray("Data", snapshot(ebs.getMetadataArray().data, copy));
 
-        section.setByteArray("BlockLight", ebs.getBlocklightArray().data);
+        section.setByteArray("BlockLight", snapshot(ebs.getBlocklightArray().data, copy));
 
         if (!cube.getWorld().provider.hasNoSky) {
-            section.setByteArray("SkyLight", ebs.getSkylightArray().data);
+            section.setByteArray("SkyLight", snapshot(ebs.getSkylightArray().data, copy));
         }
     }
 
+    private static byte[] snapshot(byte[] array, boolean copy) {
+        return copy ? array.clone() : array;
+    }
+
     private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
         cube.hasEntities = false;
         NBTTagList entityTagList = new NBTTagList();
@@ -263,20 +273,13 @@ class IONbtWriter {
     }
 
     private static List<NextTickListEntry> getScheduledTicks(Cube cube) {
-        ArrayList<NextTickListEntry> out = new ArrayList<>();
-
         // make sure this is a server, otherwise don't save these, writing to client cache
         if (!(cube.getWorld() instanceof WorldServer)) {
-            return out;
+            return new ArrayList<>();
         }
         WorldServer worldServer = cube.getWorld();
 
-        ObjectOpenHashSet<NextTickListEntry> ticks = ((ICubicWorldInternal.Server) worldServer).getScheduledTicks()
-            .getForCube(cube.getCoords());
-        if (ticks != null) {
-            out.addAll(ticks);
-        }
-
-        return out;
+        return ((ICubicWorldInternal.Server) worldServer).getScheduledTicks()
+            .getForCube(cube.getX(), cube.getY(), cube.getZ());
     }
 }
@@ -25,26 +25,36 @@ import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.ChunkCoordIntPair;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.cardinalstar.cubicchunks.CubicChunks;
 import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.api.world.storage.ICubicStorage;
+import com.cardinalstar.cubicchunks.server.chunkio.region.RegionCompactor;
 import com.cardinalstar.cubicchunks.server.chunkio.region.ShadowPagingRegion;
 import com.cardinalstar.cubicchunks.util.CubePos;
 import com.cardinalstar.cubicchunks.util.DataUtils;
 
+import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -56,7 +66,7 @@ import cubicchunks.regionlib.lib.provider.SharedCachedRegionProvider;
 import cubicchunks.regionlib.util.Utils;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import it.unimi.dsi.fastutil.Pair;
 
 /**
@@ -64,7 +74,9 @@ import it.unimi.dsi.fastutil.Pair;
  */
 public class RegionCubeStorage implements ICubicStorage {
 
-    private static SaveCubeColumns saveForPath(Path path) throws IOException {
+    private static final String JOURNAL_FILE = "journal.wal";
+
+    private static SaveCubeColumns saveForPath(Path path, boolean sync) throws IOException {
         if (CubicChunksConfig.useShadowPagingIO) {
             Utils.createDirectories(path);
 
@@ -80,12 +92,14 @@ public class RegionCubeStorage implements ICubicStorage {
                     new SimpleRegionFactory<>(
                         new EntryLocation2D.Provider(),
                         part2d,
-                        (keyProv, r) -> ShadowPagingRegion.<EntryLocation2D>builder()
-                            .setDirectory(part2d)
-                            .setRegionKey(r)
-                            .setKeyProvider(keyProv)
-                            .setSectorSize(512)
-                            .build(),
+                        (keyProv, r) -> register(
+                            ShadowPagingRegion.<EntryLocation2D>builder()
+                                .setDirectory(part2d)
+                                .setRegionKey(r)
+                                .setKeyProvider(keyProv)
+                                .setSectorSize(512)
+                                .setSync(sync)
+                                .build()),
                         (dir, key) -> Files.exists(part2d.resolve(key.getName())))),
                 new SharedCachedRegionProvider<>(
                     new SimpleRegionFactory<>(
@@ -100,12 +114,14 @@ public class RegionCubeStorage implements ICubicStorage {
                     new SimpleRegionFactory<>(
                         new EntryLocation3D.Provider(),
                         part3d,
-                        (keyProv, r) -> ShadowPagingRegion.<EntryLocation3D>builder()
-                            .setDirectory(part3d)
-                            .setRegionKey(r)
-                            .setKeyProvider(keyProv)
-                            .setSectorSize(512)
-                            .build(),
+                        (keyProv, r) -> register(
+                            ShadowPagingRegion.<EntryLocation3D>builder()
+                                .setDirectory(part3d)
+                                .setRegionKey(r)
+                                .setKeyProvider(keyProv)
+                                .setSectorSize(512)
+                                .setSync(sync)
+                                .build()),
                         (dir, key) -> Files.exists(part3d.resolve(key.getName())))),
                 new SharedCachedRegionProvider<>(
                     new SimpleRegionFactory<>(
@@ -121,56 +137,158 @@ public class RegionCubeStorage implements ICubicStorage {
         }
     }
 
+    private static <K extends IKey<K>> ShadowPagingRegion<K> register(ShadowPagingRegion<K> region) {
+        RegionCompactor.register(region);
+        return region;
+    }
+
     private final Path path;
+    private final boolean binaryCubes;
+    private final EntryCodecs codecs;
     private SaveCubeColumns save;
 
+    /** Null if batches are written straight to the regions. */
+    @Nullable
+    private final WriteAheadJournal journal;
+    /** Held for reading while a batch is written, and for writing while checkpointing the journal. */
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    /** Null if the presence index is disabled. */
+    @Nullable
+    private final RegionPresenceIndex<EntryLocation2D> columnIndex;
+    @Nullable
+    private final RegionPresenceIndex<EntryLocation3D> cubeIndex;
+
     public RegionCubeStorage(Path path) throws IOException {
+        this(path, false, EntryCodecs.GZIP);
+    }
+
+    /**
+     * @param binaryCubes whether cubes should be written with {@link BinaryCubeCodec} instead of NBT. Cubes in either
+     *                    format can always be read.
+     * @param compression the name of the {@link EntryCodec} new entries are compressed with
+     */
+    public RegionCubeStorage(Path path, boolean binaryCubes, String compression) throws IOException {
         this.path = Objects.requireNonNull(path, "path");
-        this.save = saveForPath(path);
+        this.binaryCubes = binaryCubes;
+        this.codecs = new EntryCodecs(compression, path);
+
+        // the journal only makes sense if the regions would otherwise force every write to disk
+        boolean useJournal = CubicChunksConfig.useShadowPagingIO
+            && CubicChunksConfig.optimizations.writeAheadJournal;
+
+        this.save = saveForPath(path, !useJournal);
+
+        if (CubicChunksConfig.optimizations.regionPresenceIndex) {
+            this.columnIndex = new RegionPresenceIndex<>(
+                path.resolve("region2d"),
+                new EntryLocation2D.Provider(),
+                this.save.getSaveSection2D()::hasEntry);
+            this.cubeIndex = new RegionPresenceIndex<>(
+                path.resolve("region3d"),
+                new EntryLocation3D.Provider(),
+                this.save.getSaveSection3D()::hasEntry);
+        } else {
+            this.columnIndex = null;
+            this.cubeIndex = null;
+        }
+
+        replayJournal();
+
+        if (useJournal) {
+            this.journal = new WriteAheadJournal(path.resolve(JOURNAL_FILE));
+        } else {
+            this.journal = null;
+            Files.deleteIfExists(path.resolve(JOURNAL_FILE));
+        }
+    }
+
+    /**
+     * Writes any batches left in the journal by a crash to the regions. This is done even if the journal is disabled
+     * now, otherwise those batches would be lost.
+     */
+    private void replayJournal() throws IOException {
+        Path journalPath = path.resolve(JOURNAL_FILE);
+
+        if (!Files.exists(journalPath)) return;
+
+        try (WriteAheadJournal journal = new WriteAheadJournal(journalPath)) {
+            if (journal.isEmpty()) return;
+
+            int records = journal.replay((columns, cubes) -> {
+                markPresent(columns.keySet(), cubes.keySet());
+
+                if (!columns.isEmpty()) this.save.save2d(columns);
+                if (!cubes.isEmpty()) this.save.save3d(cubes);
+            });
+
+            this.save.flush();
+            saveIndexes();
+            journal.truncate();
+
+            CubicChunks.LOGGER.info("Replayed {} save batches from {}", records, journalPath);
+        }
     }
 
     @Override
     public boolean columnExists(ChunkCoordIntPair pos) throws IOException {
+        EntryLocation2D key = new EntryLocation2D(pos.chunkXPos, pos.chunkZPos);
+
+        if (columnIndex != null && !columnIndex.mayContain(key)) return false;
+
         return this.save.getSaveSection2D()
-            .hasEntry(new EntryLocation2D(pos.chunkXPos, pos.chunkZPos));
+            .hasEntry(key);
     }
 
     @Override
     public boolean cubeExists(CubePos pos) throws IOException {
+        EntryLocation3D key = new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ());
+
+        if (cubeIndex != null && !cubeIndex.mayContain(key)) return false;
+
         return this.save.getSaveSection3D()
-            .hasEntry(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()));
+            .hasEntry(key);
     }
 
     @Override
     public NBTTagCompound readColumn(ChunkCoordIntPair pos) throws IOException {
-        // we use a true here in order to force creation and caching of the new region, thus avoiding an expensive
-        // Files.exists() check for every cube/column (which
-        // is really expensive on windows)
-        Optional<ByteBuffer> data = this.save.load(new EntryLocation2D(pos.chunkXPos, pos.chunkZPos), true);
+        EntryLocation2D key = new EntryLocation2D(pos.chunkXPos, pos.chunkZPos);
+
+        // the presence index answers for keys that were never saved, so only keys that may exist get here. Those create
+        // and cache their region (the true below), which avoids an expensive Files.exists() check for every read (which
+        // is really expensive on windows). Without the index, every read creates its region.
+        if (columnIndex != null && !columnIndex.mayContain(key)) return null;
+
+        Optional<ByteBuffer> data = this.save.load(key, true);
         if (!data.isPresent()) return null;
 
-        return CCNBTUtils.loadTag(
-            data.get()
-                .array());
+        return codecs.decode(data.get());
     }
 
     @Override
     public NBTTagCompound readCube(CubePos pos) throws IOException {
         // see comment in readColumn
-        Optional<ByteBuffer> data = this.save.load(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), true);
+        EntryLocation3D key = new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ());
+
+        if (cubeIndex != null && !cubeIndex.mayContain(key)) return null;
+
+        Optional<ByteBuffer> data = this.save.load(key, true);
         if (!data.isPresent()) return null;
 
-        return CCNBTUtils.loadTag(
-            data.get()
-                .array());
+        return codecs.decode(data.get());
     }
 
     @Override
     public @NotNull NBTBatch readBatch(PosBatch positions) throws IOException {
-        var columns = this.save
-            .load2D(DataUtils.mapToList(positions.columns, c -> new EntryLocation2D(c.chunkXPos, c.chunkZPos)), false);
+        var columns = this.save.load2D(
+            filterPresent(
+                DataUtils.mapToList(positions.columns, c -> new EntryLocation2D(c.chunkXPos, c.chunkZPos)),
+                columnIndex),
+            false);
         var cubes = this.save.load3D(
-            DataUtils.mapToList(positions.cubes, c -> new EntryLocation3D(c.getX(), c.getY(), c.getZ())),
+            filterPresent(
+                DataUtils.mapToList(positions.cubes, c -> new EntryLocation3D(c.getX(), c.getY(), c.getZ())),
+                cubeIndex),
             false);
 
         var columnTags = columns.read.entrySet()
@@ -183,9 +301,7 @@ public class RegionCubeStorage implements ICubicStorage {
                                 .getEntryX(),
                             e.getKey()
                                 .getEntryZ()),
-                        CCNBTUtils.loadTag(
-                            e.getValue()
-                                .array()));
+                        codecs.decode(e.getValue()));
                 } catch (IOException ex) {
                     throw new UncheckedIOException(ex);
                 }
@@ -204,9 +320,7 @@ public class RegionCubeStorage implements ICubicStorage {
                                 .getEntryY(),
                             e.getKey()
                                 .getEntryZ()),
-                        CCNBTUtils.loadTag(
-                            e.getValue()
-                                .array()));
+                        codecs.decode(e.getValue()));
                 } catch (IOException ex) {
                     throw new UncheckedIOException(ex);
                 }
@@ -218,29 +332,55 @@ public class RegionCubeStorage implements ICubicStorage {
 
     @Override
     public void writeColumn(ChunkCoordIntPair pos, NBTTagCompound nbt) throws IOException {
-        ByteBuf compressedBuf = UnpooledByteBufAllocator.DEFAULT.ioBuffer();
+        if (journal != null) {
+            writeBatch(new NBTBatch(Collections.singletonMap(pos, nbt), Collections.emptyMap()));
+            return;
+        }
+
+        EntryLocation2D key = new EntryLocation2D(pos.chunkXPos, pos.chunkZPos);
+
+        if (columnIndex != null) columnIndex.markPresent(key);
+
+        this.save.save2d(key, ByteBuffer.wrap(encodeColumn(nbt)));
+    }
+
+    @Override
+    public void writeCube(CubePos pos, NBTTagCompound nbt) throws IOException {
+        if (journal != null) {
+            writeBatch(new NBTBatch(Collections.emptyMap(), Collections.singletonMap(pos, nbt)));
+            return;
+        }
+
+        EntryLocation3D key = new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ());
+
+        if (cubeIndex != null) cubeIndex.markPresent(key);
+
+        this.save.save3d(key, ByteBuffer.wrap(encodeCube(nbt)));
+    }
+
+    private byte[] encodeColumn(NBTTagCompound nbt) throws IOException {
+        ByteBuf payload = PooledByteBufAllocator.DEFAULT.heapBuffer(4096);
         try {
-            // compress NBT data
-            CompressedStreamTools.writeCompressed(nbt, new ByteBufOutputStream(compressedBuf));
+            CompressedStreamTools.write(nbt, new ByteBufOutputStream(payload));
 
-            // write compressed data to disk
-            this.save.save2d(new EntryLocation2D(pos.chunkXPos, pos.chunkZPos), compressedBuf.nioBuffer());
+            return codecs.encode(payload);
         } finally {
-            compressedBuf.release();
+            payload.release();
         }
     }
 
-    @Override
-    public void writeCube(CubePos pos, NBTTagCompound nbt) throws IOException {
-        ByteBuf compressedBuf = UnpooledByteBufAllocator.DEFAULT.ioBuffer();
+    private byte[] encodeCube(NBTTagCompound nbt) throws IOException {
+        ByteBuf payload = PooledByteBufAllocator.DEFAULT.heapBuffer(16384);
         try {
-            // compress NBT data
-            CompressedStreamTools.writeCompressed(nbt, new ByteBufOutputStream(compressedBuf));
+            if (binaryCubes) {
+                BinaryCubeCodec.encode(nbt, payload);
+            } else {
+                CompressedStreamTools.write(nbt, new ByteBufOutputStream(payload));
+            }
 
-            // write compressed data to disk
-            this.save.save3d(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), compressedBuf.nioBuffer());
+            return codecs.encode(payload);
         } finally {
-            compressedBuf.release();
+            payload.release();
         }
     }
 
@@ -249,10 +389,42 @@ public class RegionCubeStorage implements ICubicStorage {
         Map<EntryLocation2D, byte[]> compressedColumns = Collections.emptyMap();
         Map<EntryLocation3D, byte[]> compressedCubes = Collections.emptyMap();
         // compress NBT data
-        compressedColumns = this
-            .compressNBTForBatchWrite(batch.columns, pos -> new EntryLocation2D(pos.chunkXPos, pos.chunkZPos));
-        compressedCubes = this
-            .compressNBTForBatchWrite(batch.cubes, pos -> new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()));
+        compressedColumns = this.compressNBTForBatchWrite(
+            batch.columns,
+            pos -> new EntryLocation2D(pos.chunkXPos, pos.chunkZPos),
+            this::encodeColumn);
+        compressedCubes = this.compressNBTForBatchWrite(
+            batch.cubes,
+            pos -> new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()),
+            this::encodeCube);
+
+        if (journal == null) {
+            writeToRegions(compressedColumns, compressedCubes);
+            return;
+        }
+
+        if (compressedColumns.isEmpty() && compressedCubes.isEmpty()) return;
+
+        checkpointLock.readLock()
+            .lock();
+        try {
+            // the batch is durable once it's in the journal, the regions are only forced to disk when checkpointing
+            journal.append(compressedColumns, compressedCubes);
+
+            writeToRegions(compressedColumns, compressedCubes);
+        } finally {
+            checkpointLock.readLock()
+                .unlock();
+        }
+
+        if (journal.needsCheckpoint()) {
+            checkpoint();
+        }
+    }
+
+    private void writeToRegions(Map<EntryLocation2D, byte[]> compressedColumns,
+        Map<EntryLocation3D, byte[]> compressedCubes) throws IOException {
+        markPresent(compressedColumns.keySet(), compressedCubes.keySet());
 
         // write compressed data to disk
         if (!compressedColumns.isEmpty()) {
@@ -269,8 +441,35 @@ public class RegionCubeStorage implements ICubicStorage {
         }
     }
 
+    /**
+     * Adds the entries to the presence index. Must be done before they're written, so the index never misses an entry.
+     */
+    private void markPresent(Collection<EntryLocation2D> columns, Collection<EntryLocation3D> cubes)
+        throws IOException {
+        if (columnIndex != null) columnIndex.markPresent(columns);
+        if (cubeIndex != null) cubeIndex.markPresent(cubes);
+    }
+
+    private static <K extends IKey<K>> List<K> filterPresent(List<K> keys, @Nullable RegionPresenceIndex<K> index)
+        throws IOException {
+        if (index == null) return keys;
+
+        List<K> present = new ArrayList<>(keys.size());
+
+        for (K key : keys) {
+            if (index.mayContain(key)) present.add(key);
+        }
+
+        return present;
+    }
+
+    private void saveIndexes() {
+        if (columnIndex != null) columnIndex.save();
+        if (cubeIndex != null) cubeIndex.save();
+    }
+
     private <KI, KO> Map<KO, byte[]> compressNBTForBatchWrite(Map<KI, NBTTagCompound> nbt,
-        Function<KI, KO> keyMappingFunction) throws IOException {
+        Function<KI, KO> keyMappingFunction, TagEncoder encoder) throws IOException {
         if (nbt.isEmpty()) { // avoid somewhat expensive stream creation if there are no entries
             return Collections.emptyMap();
         }
@@ -284,7 +483,7 @@ public class RegionCubeStorage implements ICubicStorage {
                 .parallelStream()
                 .collect(Collectors.toMap(entry -> keyMappingFunction.apply(entry.getKey()), entry -> {
                     try {
-                        return CCNBTUtils.saveTag(entry.getValue(), true);
+                        return encoder.encode(entry.getValue());
                     } catch (IOException e) {
                         // wrap exception so that we can throw it from inside the lambda
                         throw new UncheckedIOException(e);
@@ -296,6 +495,12 @@ public class RegionCubeStorage implements ICubicStorage {
         }
     }
 
+    @FunctionalInterface
+    private interface TagEncoder {
+
+        byte[] encode(NBTTagCompound tag) throws IOException;
+    }
+
     @Override
     public void forEachColumn(Consumer<ChunkCoordIntPair> callback) throws IOException {
         this.save.getSaveSection2D()
@@ -308,14 +513,44 @@ public class RegionCubeStorage implements ICubicStorage {
             .forAllKeys(pos -> callback.accept(new CubePos(pos.getEntryX(), pos.getEntryY(), pos.getEntryZ())));
     }
 
+    /**
+     * Forces all regions to disk, after which the journal isn't needed anymore. Only the open regions are flushed here,
+     * the ones the region cache closed since the last checkpoint were forced when they were closed.
+     */
+    private void checkpoint() throws IOException {
+        checkpointLock.writeLock()
+            .lock();
+        try {
+            if (journal.isEmpty()) return;
+
+            this.save.flush();
+            saveIndexes();
+            journal.truncate();
+        } finally {
+            checkpointLock.writeLock()
+                .unlock();
+        }
+    }
+
     @Override
     public void flush() throws IOException {
-        this.save.flush();
+        if (journal != null) {
+            checkpoint();
+        } else {
+            this.save.flush();
+            saveIndexes();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if (journal != null) {
+            checkpoint();
+            journal.close();
+        }
+
         this.save.close();
+        saveIndexes();
         this.save = null;
     }
 }
@@ -0,0 +1,264 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.IKeyProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+
+/**
+ * Which keys each region file of a directory contains, one bit per key, so that existence checks for areas that were
+ * never saved (ie far above or below the world) don't have to open region files.
+ * <p>
+ * The bitmaps are kept in memory and written beside their region as {@code <region>.present} when the storage is
+ * flushed. A written bitmap is deleted before anything is added to its region, and it's only trusted if the region
+ * file still has the size and modification time it had when the bitmap was written. A crash or an outside edit of the
+ * region files can only make the bitmap get rebuilt from the region, never make an entry look missing. Removed entries
+ * aren't tracked, nothing removes them.
+ */
+class RegionPresenceIndex<K extends IKey<K>> {
+
+    private static final String SUFFIX = ".present";
+    private static final int MAGIC = 0x43435052;
+
+    /** Bitmaps that don't need to be written are dropped once there are more than this. */
+    private static final int MAX_BITMAPS = 16384;
+
+    private final Path directory;
+    private final IKeyProvider<K> keyProvider;
+    private final EntryCheck<K> regionCheck;
+
+    private final ConcurrentHashMap<String, Bitmap> bitmaps = new ConcurrentHashMap<>();
+
+    /**
+     * @param regionCheck checks whether the region contains a key, used to rebuild bitmaps
+     */
+    RegionPresenceIndex(Path directory, IKeyProvider<K> keyProvider, EntryCheck<K> regionCheck) {
+        this.directory = directory;
+        this.keyProvider = keyProvider;
+        this.regionCheck = regionCheck;
+    }
+
+    /**
+     * @return false if the key definitely doesn't exist, true if it may
+     */
+    public boolean mayContain(K key) throws IOException {
+        return getBitmap(key.getRegionKey()).get(key.getId());
+    }
+
+    /**
+     * Must be called before the key is written to its region.
+     */
+    public void markPresent(K key) throws IOException {
+        RegionKey region = key.getRegionKey();
+
+        while (true) {
+            Bitmap bitmap = getBitmap(region);
+
+            if (bitmap.set(key.getId())) return;
+
+            // evicted between the lookup and the set, the next lookup loads it again from its file
+            bitmaps.remove(region.getName(), bitmap);
+        }
+    }
+
+    public void markPresent(Collection<K> keys) throws IOException {
+        for (K key : keys) {
+            markPresent(key);
+        }
+    }
+
+    /**
+     * Writes the bitmaps that changed. Must be called after the regions were flushed, since the bitmaps record the
+     * region files' size.
+     */
+    public void save() {
+        for (Bitmap bitmap : bitmaps.values()) {
+            try {
+                bitmap.save();
+            } catch (IOException e) {
+                // the old bitmap was deleted, so the region is just checked again next time
+                CubicChunks.LOGGER.error("Could not save presence bitmap for region {}", bitmap.region.getName(), e);
+            }
+        }
+
+        if (bitmaps.size() > MAX_BITMAPS) {
+            bitmaps.values()
+                .removeIf(Bitmap::evictIfClean);
+        }
+    }
+
+    private Bitmap getBitmap(RegionKey region) throws IOException {
+        Bitmap bitmap = bitmaps.get(region.getName());
+
+        if (bitmap != null) return bitmap;
+
+        // loaded outside of the map, a rebuild checks every key of the region and would block the other regions of the
+        // map's bin. Two threads may load the same region, the first one to finish wins.
+        Bitmap loaded = load(region);
+        Bitmap existing = bitmaps.putIfAbsent(region.getName(), loaded);
+
+        return existing != null ? existing : loaded;
+    }
+
+    private Bitmap load(RegionKey region) throws IOException {
+        Bitmap bitmap = new Bitmap(region, keyProvider.getKeyCount(region));
+
+        if (!Files.exists(bitmap.regionPath)) {
+            // left over from a region that was deleted
+            Files.deleteIfExists(bitmap.path);
+            return bitmap;
+        }
+
+        if (bitmap.read()) return bitmap;
+
+        for (int id = 0; id < bitmap.keyCount; id++) {
+            if (regionCheck.hasEntry(keyProvider.fromRegionAndId(region, id))) {
+                bitmap.words[id >>> 6] |= 1L << id;
+            }
+        }
+
+        bitmap.dirty = true;
+
+        return bitmap;
+    }
+
+    @FunctionalInterface
+    interface EntryCheck<K> {
+
+        boolean hasEntry(K key) throws IOException;
+    }
+
+    private class Bitmap {
+
+        private final RegionKey region;
+        private final Path regionPath;
+        private final Path path;
+        private final int keyCount;
+        private final long[] words;
+
+        /** Whether the bitmap changed since it was written. */
+        private boolean dirty;
+        /** Whether the bitmap file on disk matches this bitmap. */
+        private boolean saved;
+        /** Whether the bitmap was dropped from the index. It can't be changed anymore, since nothing would save it. */
+        private boolean evicted;
+        /** The region file's size and modification time the bitmap file was written with. */
+        private long savedRegionSize, savedRegionTime;
+
+        private Bitmap(RegionKey region, int keyCount) {
+            this.region = region;
+            this.regionPath = directory.resolve(region.getName());
+            this.path = directory.resolve(region.getName() + SUFFIX);
+            this.keyCount = keyCount;
+            this.words = new long[(keyCount + 63) >>> 6];
+        }
+
+        public synchronized boolean get(int id) {
+            return (words[id >>> 6] & 1L << id) != 0;
+        }
+
+        /**
+         * @return false if the bitmap was evicted, in which case nothing was changed
+         */
+        public synchronized boolean set(int id) throws IOException {
+            if (evicted) return false;
+            if (get(id)) return true;
+
+            if (saved) {
+                Files.deleteIfExists(path);
+                saved = false;
+            }
+
+            words[id >>> 6] |= 1L << id;
+            dirty = true;
+
+            return true;
+        }
+
+        /**
+         * Marks the bitmap as evicted if it doesn't need to be written, under the same lock as {@link #set}, so that a
+         * key can't be added to a bitmap that's being dropped.
+         */
+        public synchronized boolean evictIfClean() {
+            if (dirty) return false;
+
+            evicted = true;
+
+            return true;
+        }
+
+        private boolean read() throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != MAGIC || in.readInt() != keyCount) return false;
+
+                savedRegionSize = in.readLong();
+                savedRegionTime = in.readLong();
+
+                if (savedRegionSize != Files.size(regionPath)) return false;
+                if (savedRegionTime != Files.getLastModifiedTime(regionPath)
+                    .toMillis()) return false;
+
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                CubicChunks.LOGGER.warn("Could not read presence bitmap {}, rebuilding it", path, e);
+                return false;
+            }
+
+            saved = true;
+
+            return true;
+        }
+
+        public synchronized void save() throws IOException {
+            if (!dirty && !saved) return;
+
+            // nothing was written to the region after all
+            if (!Files.exists(regionPath)) return;
+
+            long regionSize = Files.size(regionPath);
+            long regionTime = Files.getLastModifiedTime(regionPath)
+                .toMillis();
+
+            // entries that were already present were rewritten, the bitmap is still right but has to be written again
+            // or it won't match the region file next time
+            if (!dirty && regionSize == savedRegionSize && regionTime == savedRegionTime) return;
+
+            Path temp = directory.resolve(region.getName() + SUFFIX + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(keyCount);
+                out.writeLong(regionSize);
+                out.writeLong(regionTime);
+
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            dirty = false;
+            saved = true;
+            savedRegionSize = regionSize;
+            savedRegionTime = regionTime;
+        }
+    }
+}
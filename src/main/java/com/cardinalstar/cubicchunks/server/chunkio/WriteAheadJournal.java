@@ -0,0 +1,280 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.util.Utils;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+/**
+ * Append-only log of compressed region entries, used to make save batches durable with a single fsync.
+ * <p>
+ * Every batch is appended as one record and forced to disk before the batch is considered saved. Batches appended by
+ * several threads at once share fsyncs: a thread whose record was already covered by another thread's force returns
+ * without forcing again (group commit). The region files are
+ * then written without forcing them, and are only made durable by a checkpoint, after which the journal is truncated.
+ * If the server crashes before a checkpoint, {@link #replay(Sink)} writes all journaled batches to the regions again.
+ * <p>
+ * Record layout:
+ *
+ * <pre>
+ * [int payload length] [int CRC32 of payload]
+ * payload: [int column count] [int cube count] ([int x] [int z] [int size] [data])... ([int x] [int y] [int z] [int size] [data])...
+ * </pre>
+ *
+ * A record with a bad length or checksum marks the end of the journal, it can only be a batch that was being written
+ * when the server stopped, and that batch was never reported as saved.
+ */
+public class WriteAheadJournal implements Closeable {
+
+    private static final long CHECKPOINT_SIZE = 64L * 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toNanos(5);
+
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 2;
+
+    private final Path path;
+    private final FileChannel file;
+    private long size;
+    /** How much of the journal is known to be on disk, only changed while holding {@link #forceLock}. */
+    private volatile long forcedSize;
+    private final Object forceLock = new Object();
+    private long lastCheckpoint = System.nanoTime();
+
+    public WriteAheadJournal(Path path) throws IOException {
+        this.path = path;
+        this.file = FileChannel.open(path, CREATE, READ, WRITE);
+        this.size = file.size();
+        this.forcedSize = size;
+    }
+
+    /**
+     * Appends a batch to the journal. Once this method returns, the batch is on disk.
+     */
+    public void append(Map<EntryLocation2D, byte[]> columns, Map<EntryLocation3D, byte[]> cubes) throws IOException {
+        force(write(columns, cubes));
+    }
+
+    /**
+     * @return the end of the written record
+     */
+    private synchronized long write(Map<EntryLocation2D, byte[]> columns, Map<EntryLocation3D, byte[]> cubes)
+        throws IOException {
+        int payloadSize = Integer.BYTES * 2;
+
+        for (byte[] data : columns.values()) {
+            payloadSize += Integer.BYTES * 3 + data.length;
+        }
+
+        for (byte[] data : cubes.values()) {
+            payloadSize += Integer.BYTES * 4 + data.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadSize);
+        record.position(RECORD_HEADER_BYTES);
+
+        record.putInt(columns.size());
+        record.putInt(cubes.size());
+
+        for (Map.Entry<EntryLocation2D, byte[]> e : columns.entrySet()) {
+            record.putInt(
+                e.getKey()
+                    .getEntryX());
+            record.putInt(
+                e.getKey()
+                    .getEntryZ());
+            record.putInt(e.getValue().length);
+            record.put(e.getValue());
+        }
+
+        for (Map.Entry<EntryLocation3D, byte[]> e : cubes.entrySet()) {
+            record.putInt(
+                e.getKey()
+                    .getEntryX());
+            record.putInt(
+                e.getKey()
+                    .getEntryY());
+            record.putInt(
+                e.getKey()
+                    .getEntryZ());
+            record.putInt(e.getValue().length);
+            record.put(e.getValue());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_BYTES, payloadSize);
+
+        record.putInt(0, payloadSize);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+
+        Utils.writeFully(file.position(size), record);
+
+        size += record.limit();
+
+        return size;
+    }
+
+    /**
+     * Makes sure the journal is on disk up to the given position. Threads that wait here while another thread forces
+     * usually find their record was covered by it.
+     */
+    private void force(long end) throws IOException {
+        if (forcedSize >= end) return;
+
+        synchronized (forceLock) {
+            if (forcedSize >= end) return;
+
+            // everything written before the force starts is covered by it
+            long written;
+            synchronized (this) {
+                written = size;
+            }
+
+            file.force(false);
+            forcedSize = written;
+        }
+    }
+
+    public synchronized boolean needsCheckpoint() {
+        return size >= CHECKPOINT_SIZE || (size > 0 && System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL);
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Discards all records. Must only be called once everything in the journal is durable in the region files, and
+     * while no batches are being appended.
+     */
+    public synchronized void truncate() throws IOException {
+        file.truncate(0);
+        file.force(true);
+
+        size = 0;
+        lastCheckpoint = System.nanoTime();
+
+        synchronized (forceLock) {
+            forcedSize = 0;
+        }
+    }
+
+    /**
+     * Passes every complete record in the journal to the given sink, in the order they were written.
+     *
+     * @return the number of replayed records
+     */
+    public synchronized int replay(Sink sink) throws IOException {
+        long position = 0;
+        int records = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+        while (position + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+
+            int payloadSize = header.getInt(0);
+            int checksum = header.getInt(Integer.BYTES);
+
+            if (payloadSize < Integer.BYTES * 2 || position + RECORD_HEADER_BYTES + payloadSize > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+            readFully(payload, position + RECORD_HEADER_BYTES);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, payloadSize);
+
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            payload.flip();
+
+            int columnCount = payload.getInt();
+            int cubeCount = payload.getInt();
+
+            Map<EntryLocation2D, ByteBuffer> columns = readColumns(payload, columnCount);
+            Map<EntryLocation3D, ByteBuffer> cubes = readCubes(payload, cubeCount);
+
+            sink.accept(columns, cubes);
+
+            position += RECORD_HEADER_BYTES + payloadSize;
+            records++;
+        }
+
+        return records;
+    }
+
+    private void readFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            if (file.read(data, position + data.position()) < 0) {
+                throw new EOFException("Unexpected end of journal " + path);
+            }
+        }
+    }
+
+    private static Map<EntryLocation2D, ByteBuffer> readColumns(ByteBuffer payload, int count) {
+        Map<EntryLocation2D, ByteBuffer> columns = new Object2ObjectOpenHashMap<>(count);
+
+        for (int i = 0; i < count; i++) {
+            int x = payload.getInt();
+            int z = payload.getInt();
+            columns.put(new EntryLocation2D(x, z), slice(payload));
+        }
+
+        return columns;
+    }
+
+    private static Map<EntryLocation3D, ByteBuffer> readCubes(ByteBuffer payload, int count) {
+        Map<EntryLocation3D, ByteBuffer> cubes = new Object2ObjectOpenHashMap<>(count);
+
+        for (int i = 0; i < count; i++) {
+            int x = payload.getInt();
+            int y = payload.getInt();
+            int z = payload.getInt();
+            cubes.put(new EntryLocation3D(x, y, z), slice(payload));
+        }
+
+        return cubes;
+    }
+
+    private static ByteBuffer slice(ByteBuffer payload) {
+        int length = payload.getInt();
+
+        ByteBuffer data = payload.duplicate();
+        data.limit(data.position() + length);
+        payload.position(payload.position() + length);
+
+        return data.slice();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    @FunctionalInterface
+    public interface Sink {
+
+        void accept(Map<EntryLocation2D, ByteBuffer> columns, Map<EntryLocation3D, ByteBuffer> cubes)
+            throws IOException;
+    }
+}
@@ -0,0 +1,190 @@
+package com.cardinalstar.cubicchunks.server.chunkio.region;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.IKeyProvider;
+import cubicchunks.regionlib.api.region.key.RegionKey;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+
+/**
+ * Compacts {@link ShadowPagingRegion}s that have collected a lot of unused space.
+ * <p>
+ * Open regions are compacted in the background once they haven't been read from or written to for a while, so that
+ * compaction doesn't hold up loading or saving. {@link #main(String[])} compacts the regions of worlds that aren't
+ * loaded.
+ */
+public class RegionCompactor {
+
+    private static final long CHECK_INTERVAL_SECONDS = 30;
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /** Regions with less unused space than this aren't worth rewriting, no matter how big the ratio. */
+    private static final long MIN_WASTED_BYTES = 1024 * 1024;
+
+    private static final Set<ShadowPagingRegion<?>> regions = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private static ScheduledExecutorService executor;
+
+    /**
+     * Makes the region a candidate for background compaction until it's closed.
+     */
+    public static void register(ShadowPagingRegion<?> region) {
+        regions.add(region);
+
+        synchronized (RegionCompactor.class) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "CC Region Compactor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+
+                executor.scheduleWithFixedDelay(
+                    RegionCompactor::compactIdleRegions,
+                    CHECK_INTERVAL_SECONDS,
+                    CHECK_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes background compaction reclaimed since the game started
+     */
+    public static long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    private static void compactIdleRegions() {
+        // closed regions are dropped even while compaction is disabled, since the cache closes them all the time
+        regions.removeIf(ShadowPagingRegion::isClosed);
+
+        if (!CubicChunksConfig.optimizations.regionCompaction) return;
+
+        for (ShadowPagingRegion<?> region : regions) {
+            if (region.getIdleNanos() < IDLE_NANOS) continue;
+
+            try {
+                if (!isWorthCompacting(region)) continue;
+
+                long before = region.getFileSize();
+                long reclaimed = region.compact();
+
+                if (reclaimed > 0) {
+                    reclaimedBytes.addAndGet(reclaimed);
+
+                    CubicChunks.LOGGER.debug(
+                        "Compacted region {} from {} KiB to {} KiB",
+                        region.getRegionKey()
+                            .getName(),
+                        before / 1024,
+                        (before - reclaimed) / 1024);
+                }
+            } catch (IOException | RuntimeException e) {
+                // whatever made it fail likely still does, so it's only tried again once the region is reopened
+                regions.remove(region);
+
+                CubicChunks.LOGGER.error(
+                    "Could not compact region {}, not trying again until it's reopened",
+                    region.getRegionKey()
+                        .getName(),
+                    e);
+            }
+        }
+    }
+
+    private static boolean isWorthCompacting(ShadowPagingRegion<?> region) throws IOException {
+        long size = region.getFileSize();
+        long wasted = size - region.getLiveSize();
+
+        return wasted >= MIN_WASTED_BYTES
+            && wasted * 100 >= size * CubicChunksConfig.optimizations.regionCompactionMinWastedPercent;
+    }
+
+    /**
+     * Compacts every region in the directory with the given extension.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public static <K extends IKey<K>> long compactDirectory(Path directory, String extension,
+        IKeyProvider<K> keyProvider) throws IOException {
+        if (!Files.isDirectory(directory)) return 0;
+
+        List<Path> files = new ArrayList<>();
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(
+                path -> path.getFileName()
+                    .toString()
+                    .endsWith(extension))
+                .forEach(files::add);
+        }
+
+        long reclaimed = 0;
+
+        for (Path file : files) {
+            ShadowPagingRegion<K> region = ShadowPagingRegion.<K>builder()
+                .setDirectory(directory)
+                .setRegionKey(
+                    new RegionKey(
+                        file.getFileName()
+                            .toString()))
+                .setKeyProvider(keyProvider)
+                .setSectorSize(512)
+                .build();
+
+            try {
+                reclaimed += region.compact();
+            } finally {
+                region.close();
+            }
+        }
+
+        return reclaimed;
+    }
+
+    /**
+     * Compacts the regions of the given dimension directories (the ones containing {@code region2d} and
+     * {@code region3d}). The worlds must not be loaded while this runs.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: RegionCompactor <dimension directory>...");
+            System.exit(1);
+        }
+
+        long total = 0;
+
+        for (String arg : args) {
+            Path dimension = Paths.get(arg);
+
+            long reclaimed = compactDirectory(dimension.resolve("region2d"), ".2dr", new EntryLocation2D.Provider())
+                + compactDirectory(dimension.resolve("region3d"), ".3dr", new EntryLocation3D.Provider());
+
+            System.out.printf("%s: reclaimed %d KiB%n", dimension, reclaimed / 1024);
+
+            total += reclaimed;
+        }
+
+        System.out.printf("Reclaimed %d KiB in total%n", total / 1024);
+    }
+}
@@ -22,12 +22,15 @@ package com.cardinalstar.cubicchunks.server.chunkio.region;
 
 import static java.nio.file.StandardOpenOption.*;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
@@ -42,6 +45,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 import com.cardinalstar.cubicchunks.CubicChunks;
+import com.cardinalstar.cubicchunks.server.chunkio.WriteAheadJournal;
 import com.cardinalstar.cubicchunks.util.Tuple;
 
 import cubicchunks.regionlib.MultiUnsupportedDataException;
@@ -107,20 +111,36 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         }
     }
 
-    private final FileChannel file;
+    /** Suffix of the file a region is compacted into before it replaces the region file. */
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private static final int REOPEN_ATTEMPTS = 5;
+    private static final long REOPEN_RETRY_MILLIS = 100;
+
+    private final Path path;
+    /** Replaced when the region is compacted, only while holding both write locks. */
+    private FileChannel file;
     private final IHeaderDataEntryProvider<?, K> headerEntryProvider;
     private final RegionKey regionKey;
     private final IKeyProvider<K> keyProvider;
     private final int sectorSize;
-    private final SectorTracker<K> sectorTracker;
+    private final int headerSectors;
+    private SectorTracker<K> sectorTracker;
+    private final boolean sync;
+
+    private volatile long lastAccess = System.nanoTime();
+    private volatile boolean closed;
 
     private final ReadWriteLock dataLock = new ReentrantReadWriteLock();
     private final ReadWriteLock reserveSectorsLock = new ReentrantReadWriteLock();
 
-    private ShadowPagingRegion(FileChannel file, SectorTracker<K> sectorTracker,
+    private ShadowPagingRegion(Path path, FileChannel file, SectorTracker<K> sectorTracker,
         IHeaderDataEntryProvider<?, K> headerEntryProvider, RegionKey regionKey, IKeyProvider<K> keyProvider,
-        int sectorSize) {
+        int sectorSize, int headerSectors, boolean sync) {
+        this.path = path;
         this.file = file;
+        this.headerSectors = headerSectors;
+        this.sync = sync;
         this.headerEntryProvider = headerEntryProvider;
         this.regionKey = regionKey;
         this.keyProvider = keyProvider;
@@ -139,6 +159,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         if (entries.isEmpty()) { // fast-path if there isn't anything to be written
             return;
         }
+        lastAccess = System.nanoTime();
         // calling file.force() is slow, so we want to minimize the number of times it needs to be called. the solution
         // is simple: we write the data for ALL
         // entries at once, and don't update the headers until it's all been written to disk.
@@ -162,7 +183,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
             boolean shouldFlush = writeDataPass(entries, exceptions, entryLocationsToUse);
 
             // flush the file's contents if any of the entries modified the region data
-            if (shouldFlush) {
+            if (shouldFlush && sync) {
                 this.file.force(true);
             }
 
@@ -291,12 +312,15 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
             }
 
             // ensure all header modifications are present on disk before another batch runs
-            this.file.force(true);
+            if (sync) {
+                this.file.force(true);
+            }
         }
     }
 
     @Override
     public void writeSpecial(K key, Object marker) throws IOException {
+        lastAccess = System.nanoTime();
         Lock sectorLock = reserveSectorsLock.writeLock();
         Lock mainLock = dataLock.writeLock();
         sectorLock.lock();
@@ -304,7 +328,9 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         try {
             this.sectorTracker.setSpecial(key, marker);
             updateHeaders(key);
-            file.force(false);
+            if (sync) {
+                file.force(false);
+            }
         } finally {
             mainLock.unlock();
             sectorLock.unlock();
@@ -312,16 +338,21 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
     }
 
     private void updateHeaders(K key) throws IOException {
+        writeHeader(file, key);
+    }
+
+    private void writeHeader(FileChannel target, K key) throws IOException {
         int entryByteCount = headerEntryProvider.getEntryByteCount();
         ByteBuffer buf = ByteBuffer.allocate(entryByteCount);
         headerEntryProvider.apply(key)
             .write(buf);
         buf.flip();
-        Utils.writeFully(file.position((long) key.getId() * entryByteCount), buf);
+        Utils.writeFully(target.position((long) key.getId() * entryByteCount), buf);
     }
 
     @Override
     public Optional<ByteBuffer> readValue(K key) throws IOException {
+        lastAccess = System.nanoTime();
 
         Lock sectorLock = reserveSectorsLock.readLock();
         Lock mainLock = dataLock.readLock();
@@ -466,10 +497,26 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         dataLock.writeLock()
             .lock();
 
+        // compaction couldn't reopen the file, there's nothing left to write
+        if (closed) {
+            dataLock.writeLock()
+                .unlock();
+            reserveSectorsLock.writeLock()
+                .unlock();
+            return;
+        }
+
+        closed = true;
+
         // try-with-resources on file to ensure that the file gets closed, even if the other code throws an exception
         try (FileChannel file = this.file) {
             this.ensureSectorSizeAligned();
             this.erasePendingSectors();
+
+            // the writes were never forced, and once the cache closed the region a checkpoint can't flush it anymore
+            if (!sync) {
+                file.force(true);
+            }
         } finally {
             dataLock.writeLock()
                 .unlock();
@@ -478,6 +525,204 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         }
     }
 
+    public RegionKey getRegionKey() {
+        return regionKey;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return how long ago an entry was last read or written, in nanoseconds
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastAccess;
+    }
+
+    public long getFileSize() throws IOException {
+        reserveSectorsLock.readLock()
+            .lock();
+        try {
+            return closed ? 0 : file.size();
+        } finally {
+            reserveSectorsLock.readLock()
+                .unlock();
+        }
+    }
+
+    /**
+     * @return how many bytes of the file are in use by the header and the entries
+     */
+    public long getLiveSize() {
+        reserveSectorsLock.readLock()
+            .lock();
+        try {
+            return (long) sectorTracker.getUsedSectorCount() * sectorSize;
+        } finally {
+            reserveSectorsLock.readLock()
+                .unlock();
+        }
+    }
+
+    /**
+     * Rewrites all entries back to back, in key order, into a new file which then replaces the region file. Since
+     * entries are never overwritten in place, the file otherwise only ever grows to fit the biggest set of entries
+     * it held at once, and freed sectors end up scattered between live ones.
+     * <p>
+     * Reads and writes wait until it's done. The new file is forced to disk before it atomically replaces the old one,
+     * so a crash leaves either the old or the new file, plus a leftover temporary file that's deleted the next time
+     * the region is opened.
+     *
+     * @return how many bytes the file shrank by
+     */
+    public long compact() throws IOException {
+        Lock sectorLock = reserveSectorsLock.writeLock();
+        Lock mainLock = dataLock.writeLock();
+        sectorLock.lock();
+        mainLock.lock();
+        try {
+            if (closed) return 0;
+
+            long oldSize = this.file.size();
+            Path tempPath = compactPath(path);
+            List<Tuple<K, RegionEntryLocation>> moved = new ArrayList<>();
+
+            try (FileChannel temp = FileChannel.open(tempPath, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+                // headers of removed keys and special values stay as they are, the others are rewritten below
+                long headerBytes = (long) headerSectors * sectorSize;
+                long copied = Math.min(headerBytes, oldSize);
+                transferFully(this.file, 0, copied, temp, 0);
+                if (copied < headerBytes) {
+                    Utils.writeFully(temp.position(copied), zeroes((int) (headerBytes - copied)));
+                }
+
+                int nextSector = headerSectors;
+                int keyCount = this.keyProvider.getKeyCount(regionKey);
+
+                for (int id = 0; id < keyCount; id++) {
+                    RegionEntryLocation loc = sectorTracker.getEntryLocation(id)
+                        .orElse(null);
+                    if (loc == null || loc.getSize() == 0 || sectorTracker.isSpecial(loc)) {
+                        continue;
+                    }
+
+                    K key = keyProvider.fromRegionAndId(this.regionKey, id);
+
+                    // entries are copied with their length prefix and padding, so they don't have to be decoded
+                    transferFully(
+                        this.file,
+                        (long) loc.getOffset() * sectorSize,
+                        (long) loc.getSize() * sectorSize,
+                        temp,
+                        (long) nextSector * sectorSize);
+
+                    moved.add(new Tuple<>(key, loc));
+                    sectorTracker.setEntryLocation(key, new RegionEntryLocation(nextSector, loc.getSize()));
+                    writeHeader(temp, key);
+
+                    nextSector += loc.getSize();
+                }
+
+                temp.force(true);
+            } catch (IOException | RuntimeException e) {
+                restoreLocations(moved);
+                Files.deleteIfExists(tempPath);
+                throw e;
+            }
+
+            // the file can't be replaced while it's open on some platforms
+            this.file.close();
+
+            try {
+                Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                restoreLocations(moved);
+                Files.deleteIfExists(tempPath);
+                reopen(e);
+                throw e;
+            }
+
+            reopen(null);
+
+            // the old file's free and delayed sectors went away with it
+            this.sectorTracker = SectorTracker
+                .fromFile(this.file, sectorTracker.sectorMap, headerSectors, sectorSize);
+
+            return oldSize - this.file.size();
+        } finally {
+            mainLock.unlock();
+            sectorLock.unlock();
+        }
+    }
+
+    /**
+     * Opens the region file again after {@link #compact()} closed it. Other programs (ie virus scanners) may briefly
+     * hold a file that was just replaced, so this is retried. If the file still can't be opened, the region is marked
+     * as closed, so that the compactor drops it and closing it doesn't try to write to the channel that was closed for
+     * the move.
+     *
+     * @param cause the exception that's being thrown already, if any
+     */
+    private void reopen(IOException cause) throws IOException {
+        IOException failure = null;
+
+        for (int attempt = 0; attempt < REOPEN_ATTEMPTS; attempt++) {
+            try {
+                this.file = FileChannel.open(path, READ, WRITE);
+                return;
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+
+            try {
+                Thread.sleep(REOPEN_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+                break;
+            }
+        }
+
+        closed = true;
+
+        CubicChunks.LOGGER.error("Could not reopen region {} after compacting it, closing it", path, failure);
+
+        if (cause != null) {
+            cause.addSuppressed(failure);
+            return;
+        }
+
+        throw new IOException("Could not reopen region " + path + " after compacting it", failure);
+    }
+
+    private void restoreLocations(List<Tuple<K, RegionEntryLocation>> moved) throws IOException {
+        for (Tuple<K, RegionEntryLocation> entry : moved) {
+            sectorTracker.setEntryLocation(entry.getFirst(), entry.getSecond());
+        }
+    }
+
+    private static void transferFully(FileChannel src, long position, long count, FileChannel dst, long dstPosition)
+        throws IOException {
+        dst.position(dstPosition);
+
+        while (count > 0) {
+            long transferred = src.transferTo(position, count, dst);
+
+            if (transferred <= 0) {
+                throw new EOFException("Region file ended at " + position + " while copying " + count + " more bytes");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static Path compactPath(Path path) {
+        return path.resolveSibling(path.getFileName() + COMPACT_SUFFIX);
+    }
+
     /**
      * @return {@code true} if the file's length was changed as a result of this operation, {@code false} otherwise
      */
@@ -517,6 +762,7 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         assert expectedFileSize <= actualFileSize : "region file is too short???";
         if (actualFileSize > expectedFileSize) { // the file has unused sectors at the end, truncate it to save space
             this.file.truncate(expectedFileSize);
+
             return true; // the file's length changed
         }
         return false;
@@ -542,6 +788,8 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
         private int sectorSize = 512;
         private RegionKey regionKey;
         private IKeyProvider<K> keyProvider;
+        private boolean sync = true;
+        private final List<IntPackedSectorMap.SpecialSectorMapEntry<K>> specialEntries = new ArrayList<>();
 
         public Builder<K> setDirectory(Path path) {
             this.directory = path;
@@ -563,22 +811,50 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
             return this;
         }
 
+        /**
+         * Whether every write should be forced to disk before it returns. Only disable this if the writes are made
+         * durable some other way (ie a {@link WriteAheadJournal}); the region is only guaranteed to be consistent on
+         * disk after {@link ShadowPagingRegion#flush()}.
+         */
+        public Builder<K> setSync(boolean sync) {
+            this.sync = sync;
+            return this;
+        }
+
+        /**
+         * Adds a marker that can be stored with {@link ShadowPagingRegion#writeSpecial} in place of an entry. It's
+         * stored as the given location in the header, and read as what the reader returns.
+         */
+        public Builder<K> addSpecialEntry(Object marker, RegionEntryLocation location, Function<K, ByteBuffer> reader) {
+            this.specialEntries.add(new IntPackedSectorMap.SpecialSectorMapEntry<>(marker, location, reader));
+            return this;
+        }
+
         public ShadowPagingRegion<K> build() throws IOException {
-            FileChannel file = FileChannel.open(directory.resolve(regionKey.getName()), CREATE, READ, WRITE);
+            Path path = directory.resolve(regionKey.getName());
+
+            // left behind by a compaction that was interrupted before it replaced the region file
+            Files.deleteIfExists(compactPath(path));
+
+            FileChannel file = FileChannel.open(path, CREATE, READ, WRITE);
 
             int entryMapBytes = Integer.BYTES;
             int entryMapSectors = ceilDiv(keyProvider.getKeyCount(regionKey) * entryMapBytes, sectorSize);
 
             IntPackedSectorMap<K> sectorMap = IntPackedSectorMap
-                .readOrCreate(file, keyProvider.getKeyCount(regionKey), new ArrayList<>());
-            SectorTracker<K> regionSectorTracker = SectorTracker.fromFile(file, sectorMap, entryMapSectors, sectorSize);
+                .readOrCreate(file, keyProvider.getKeyCount(regionKey), specialEntries);
+            SectorTracker<K> regionSectorTracker = SectorTracker
+                .fromFile(file, sectorMap, entryMapSectors, sectorSize);
             return new ShadowPagingRegion<>(
+                path,
                 file,
                 regionSectorTracker,
                 sectorMap.headerEntryProvider(),
                 this.regionKey,
                 keyProvider,
-                this.sectorSize);
+                this.sectorSize,
+                entryMapSectors,
+                this.sync);
         }
     }
 
@@ -597,6 +873,14 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
             this.sectorMap = sectorMap;
         }
 
+        private void releaseSectors(RegionEntryLocation location) {
+            int offset = location.getOffset();
+            usedSectors.set(offset, offset + location.getSize(), false);
+
+            // the sectors are no longer used, we can mark them as free in order to zero them out later
+            this.sectorsPendingErasure.set(offset, offset + location.getSize(), true);
+        }
+
         public Optional<RegionEntryLocation> getEntryLocation(int id) {
             return sectorMap.getEntryLocation(id);
         }
@@ -605,6 +889,22 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
             return sectorMap.getEntryLocation(key);
         }
 
+        /**
+         * Points the key at another location without touching the used sectors, for when the entry was moved to another
+         * file.
+         */
+        public void setEntryLocation(K key, RegionEntryLocation location) throws IOException {
+            sectorMap.setOffsetAndSize(key, location);
+        }
+
+        public boolean isSpecial(RegionEntryLocation location) {
+            return sectorMap.isSpecial(location);
+        }
+
+        public int getUsedSectorCount() {
+            return usedSectors.cardinality();
+        }
+
         public void setSpecial(K key, Object obj) throws IOException {
             removeKey(key);
             sectorMap.setSpecial(key, obj);
@@ -651,12 +951,8 @@ public class ShadowPagingRegion<K extends IKey<K>> implements IRegion<K> {
 
         private void updateUsedSectorsFor(RegionEntryLocation oldSectorLocation,
             RegionEntryLocation newSectorLocation) {
-            if (oldSectorLocation != null) {
-                int oldOffset = oldSectorLocation.getOffset();
-                usedSectors.set(oldOffset, oldOffset + oldSectorLocation.getSize(), false);
-
-                // the sectors are no longer used, we can mark them as free in order to zero them out later
-                this.sectorsPendingErasure.set(oldOffset, oldOffset + oldSectorLocation.getSize(), true);
+            if (oldSectorLocation != null && oldSectorLocation.getSize() > 0) {
+                releaseSectors(oldSectorLocation);
             }
             if (newSectorLocation != null) {
                 int newOffset = newSectorLocation.getOffset();
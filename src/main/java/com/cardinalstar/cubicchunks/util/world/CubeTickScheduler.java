@@ -0,0 +1,443 @@
+package com.cardinalstar.cubicchunks.util.world;
+
+import static com.cardinalstar.cubicchunks.util.Coords.blockToCube;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.block.Block;
+import net.minecraft.world.NextTickListEntry;
+
+import com.cardinalstar.cubicchunks.util.Coords;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * The scheduled block updates of a world, replacing vanilla's tree set and hash set.
+ * <p>
+ * Updates are kept in a two level timing wheel: one slot per tick for the current 256 ticks, one slot per 256 ticks for
+ * the current 16384, and a single list for anything later. Slots are moved down a level when the wheel reaches them, so
+ * scheduling and removing an update is constant time no matter how many are pending. Updates are also indexed by cube
+ * and by their position in the cube, which is used to find duplicates and to save or drop a cube's updates without
+ * looking at the others.
+ * <p>
+ * Updates run in the same order as in vanilla: by time, then priority, then the order they were scheduled in. Only
+ * used from the server thread.
+ */
+@ParametersAreNonnullByDefault
+public class CubeTickScheduler {
+
+    private static final int LEVEL0_BITS = 8;
+    private static final int LEVEL1_BITS = 6;
+    private static final int LEVEL0_SIZE = 1 << LEVEL0_BITS;
+    private static final int LEVEL1_SIZE = 1 << LEVEL1_BITS;
+    private static final int LEVEL1_SHIFT = LEVEL0_BITS;
+    private static final int OVERFLOW_SHIFT = LEVEL0_BITS + LEVEL1_BITS;
+
+    /** Where a tick is: in the due list, in a slot of one of the wheels, or nowhere. */
+    private static final byte DUE = 0, LEVEL0 = 1, LEVEL1 = 2, OVERFLOW = 3, REMOVED = 4;
+
+    private static final Comparator<Tick> ORDER = (a, b) -> {
+        if (a.time != b.time) return a.time < b.time ? -1 : 1;
+        if (a.priority != b.priority) return a.priority < b.priority ? -1 : 1;
+        return Long.compare(a.sequence, b.sequence);
+    };
+
+    private final Tick[] level0 = new Tick[LEVEL0_SIZE];
+    private final Tick[] level1 = new Tick[LEVEL1_SIZE];
+    private final Tick[] overflow = new Tick[1];
+
+    /** Every tick scheduled before this time has been moved to {@link #due}. */
+    private long cursor;
+    private int wheelSize;
+
+    /** Ticks the wheel has passed. May contain removed ticks, they're skipped when reached. */
+    private final ObjectArrayList<Tick> due = new ObjectArrayList<>();
+    private boolean dueSorted = true;
+
+    private final Long2ObjectOpenHashMap<CubeTicks> byCube = new Long2ObjectOpenHashMap<>();
+    private int size;
+    private long nextSequence;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(NextTickListEntry entry) {
+        CubeTicks cube = byCube.get(cubeKey(entry.xCoord, entry.yCoord, entry.zCoord));
+
+        return cube != null
+            && cube.find(localIndex(entry.xCoord, entry.yCoord, entry.zCoord), entry.func_151351_a()) != null;
+    }
+
+    /**
+     * Schedules the update, unless there already is one for the same block at that position.
+     *
+     * @param now the world's current total time
+     * @return whether it was added
+     */
+    public boolean add(NextTickListEntry entry, long now) {
+        int x = entry.xCoord, y = entry.yCoord, z = entry.zCoord;
+        long key = cubeKey(x, y, z);
+
+        CubeTicks cube = byCube.get(key);
+
+        if (cube == null) {
+            cube = new CubeTicks(key);
+            byCube.put(key, cube);
+        }
+
+        int local = localIndex(x, y, z);
+        Block block = entry.func_151351_a();
+
+        if (cube.find(local, block) != null) return false;
+
+        Tick tick = new Tick(x, y, z, block, entry.scheduledTime, entry.priority, nextSequence++, cube);
+
+        tick.nextAtPosition = cube.byPosition.put(local, tick);
+        size++;
+
+        // nothing depends on where the wheel is when it's empty, so it can skip ahead
+        if (wheelSize == 0 && cursor < now) {
+            cursor = now;
+        }
+
+        schedule(tick);
+
+        return true;
+    }
+
+    /**
+     * Removes the updates that should run this tick, in the order they should run in, and adds them to {@code out}.
+     *
+     * @param now the world's current total time
+     * @param runAll whether to also take updates that aren't due yet, like vanilla's {@code tickUpdates(true)}
+     * @param limit how many updates to take at most
+     */
+    public void pollDue(long now, boolean runAll, int limit, List<NextTickListEntry> out) {
+        advance(now);
+
+        if (runAll) {
+            while (due.size() < limit && wheelSize > 0) {
+                advance(cursor);
+            }
+        }
+
+        if (!dueSorted) {
+            due.sort(ORDER);
+            dueSorted = true;
+        }
+
+        int taken = 0, i = 0;
+
+        for (int dueSize = due.size(); i < dueSize && taken < limit; i++) {
+            Tick tick = due.get(i);
+
+            if (tick.level == REMOVED) continue;
+
+            // runAll can move the wheel past now
+            if (!runAll && tick.time > now) break;
+
+            unindex(tick);
+            tick.level = REMOVED;
+
+            out.add(tick.toEntry());
+            taken++;
+        }
+
+        due.removeElements(0, i);
+    }
+
+    /**
+     * Returns a copy of the updates scheduled in this cube.
+     */
+    public List<NextTickListEntry> getForCube(int cubeX, int cubeY, int cubeZ) {
+        CubeTicks cube = byCube.get(Coords.key(cubeX, cubeY, cubeZ));
+
+        if (cube == null) return new ArrayList<>();
+
+        List<NextTickListEntry> out = new ArrayList<>(cube.byPosition.size());
+
+        for (Tick first : cube.byPosition.values()) {
+            for (Tick tick = first; tick != null; tick = tick.nextAtPosition) {
+                out.add(tick.toEntry());
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Drops the updates scheduled in this cube, once it's unloaded and they've been saved with it.
+     */
+    public void removeCube(int cubeX, int cubeY, int cubeZ) {
+        CubeTicks cube = byCube.remove(Coords.key(cubeX, cubeY, cubeZ));
+
+        if (cube == null) return;
+
+        for (Tick first : cube.byPosition.values()) {
+            for (Tick tick = first; tick != null; tick = tick.nextAtPosition) {
+                if (tick.level != DUE) {
+                    unlink(tick);
+                }
+
+                tick.level = REMOVED;
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Adds the updates with a block x in [minX, maxX) and z in [minZ, maxZ) to {@code out}, for vanilla's
+     * {@code getPendingBlockUpdates}.
+     *
+     * @param remove whether to also remove them
+     */
+    public void collect(int minX, int maxX, int minZ, int maxZ, boolean remove, List<NextTickListEntry> out) {
+        int minCubeX = blockToCube(minX), maxCubeX = blockToCube(maxX - 1);
+        int minCubeZ = blockToCube(minZ), maxCubeZ = blockToCube(maxZ - 1);
+
+        List<Tick> found = new ArrayList<>();
+
+        for (CubeTicks cube : byCube.values()) {
+            int cubeX = Coords.x(cube.key), cubeZ = Coords.z(cube.key);
+
+            if (cubeX < minCubeX || cubeX > maxCubeX || cubeZ < minCubeZ || cubeZ > maxCubeZ) continue;
+
+            for (Tick first : cube.byPosition.values()) {
+                for (Tick tick = first; tick != null; tick = tick.nextAtPosition) {
+                    if (tick.x >= minX && tick.x < maxX && tick.z >= minZ && tick.z < maxZ) {
+                        found.add(tick);
+                    }
+                }
+            }
+        }
+
+        for (Tick tick : found) {
+            out.add(tick.toEntry());
+
+            if (remove) {
+                unindex(tick);
+
+                if (tick.level != DUE) {
+                    unlink(tick);
+                }
+
+                tick.level = REMOVED;
+            }
+        }
+    }
+
+    /** Puts the tick in the wheel slot its time belongs to, or the due list if the wheel already passed it. */
+    private void schedule(Tick tick) {
+        long time = tick.time;
+
+        if (time < cursor) {
+            tick.level = DUE;
+            due.add(tick);
+            dueSorted = false;
+        } else if (time >> LEVEL1_SHIFT == cursor >> LEVEL1_SHIFT) {
+            link(tick, LEVEL0, (int) time & (LEVEL0_SIZE - 1));
+        } else if (time >> OVERFLOW_SHIFT == cursor >> OVERFLOW_SHIFT) {
+            link(tick, LEVEL1, (int) (time >> LEVEL1_SHIFT) & (LEVEL1_SIZE - 1));
+        } else {
+            link(tick, OVERFLOW, 0);
+        }
+    }
+
+    /** Moves the wheel past {@code until}, moving every tick scheduled up to then to the due list. */
+    private void advance(long until) {
+        while (cursor <= until && wheelSize > 0) {
+            if ((cursor & (LEVEL0_SIZE - 1)) == 0) {
+                if ((cursor & ((1L << OVERFLOW_SHIFT) - 1)) == 0) {
+                    cascade(OVERFLOW, 0);
+                }
+
+                cascade(LEVEL1, (int) (cursor >> LEVEL1_SHIFT) & (LEVEL1_SIZE - 1));
+            }
+
+            Tick[] slots = level0;
+            int slot = (int) cursor & (LEVEL0_SIZE - 1);
+
+            Tick tick = slots[slot];
+            slots[slot] = null;
+
+            while (tick != null) {
+                Tick next = tick.next;
+
+                tick.prev = tick.next = null;
+                tick.level = DUE;
+                due.add(tick);
+                dueSorted = false;
+                wheelSize--;
+
+                tick = next;
+            }
+
+            cursor++;
+        }
+
+        if (wheelSize == 0 && cursor <= until) {
+            cursor = until + 1;
+        }
+    }
+
+    /** Re-schedules the ticks in a slot of a higher level, now that the wheel reached it. */
+    private void cascade(byte level, int slot) {
+        Tick[] slots = slots(level);
+
+        Tick tick = slots[slot];
+        slots[slot] = null;
+
+        while (tick != null) {
+            Tick next = tick.next;
+
+            tick.prev = tick.next = null;
+            wheelSize--;
+            schedule(tick);
+
+            tick = next;
+        }
+    }
+
+    private void link(Tick tick, byte level, int slot) {
+        Tick[] slots = slots(level);
+
+        tick.level = level;
+        tick.slot = slot;
+        tick.next = slots[slot];
+
+        if (tick.next != null) {
+            tick.next.prev = tick;
+        }
+
+        slots[slot] = tick;
+        wheelSize++;
+    }
+
+    private void unlink(Tick tick) {
+        if (tick.prev != null) {
+            tick.prev.next = tick.next;
+        } else {
+            slots(tick.level)[tick.slot] = tick.next;
+        }
+
+        if (tick.next != null) {
+            tick.next.prev = tick.prev;
+        }
+
+        tick.prev = tick.next = null;
+        wheelSize--;
+    }
+
+    /** Removes the tick from the cube index. */
+    private void unindex(Tick tick) {
+        CubeTicks cube = tick.cube;
+        int local = localIndex(tick.x, tick.y, tick.z);
+
+        Tick first = cube.byPosition.get(local);
+
+        if (first == tick) {
+            if (tick.nextAtPosition == null) {
+                cube.byPosition.remove(local);
+            } else {
+                cube.byPosition.put(local, tick.nextAtPosition);
+            }
+        } else {
+            Tick prev = first;
+
+            while (prev.nextAtPosition != tick) {
+                prev = prev.nextAtPosition;
+            }
+
+            prev.nextAtPosition = tick.nextAtPosition;
+        }
+
+        tick.nextAtPosition = null;
+        size--;
+
+        if (cube.byPosition.isEmpty()) {
+            byCube.remove(cube.key);
+        }
+    }
+
+    private Tick[] slots(byte level) {
+        return switch (level) {
+            case LEVEL0 -> level0;
+            case LEVEL1 -> level1;
+            case OVERFLOW -> overflow;
+            default -> throw new IllegalStateException("Tick is not in the wheel: " + level);
+        };
+    }
+
+    private static long cubeKey(int blockX, int blockY, int blockZ) {
+        return Coords.key(blockToCube(blockX), blockToCube(blockY), blockToCube(blockZ));
+    }
+
+    private static int localIndex(int blockX, int blockY, int blockZ) {
+        return (blockY & 15) << 8 | (blockZ & 15) << 4 | (blockX & 15);
+    }
+
+    private static final class CubeTicks {
+
+        final long key;
+        /** The ticks at each position in the cube, chained through {@link Tick#nextAtPosition}. */
+        final Int2ObjectOpenHashMap<Tick> byPosition = new Int2ObjectOpenHashMap<>();
+
+        CubeTicks(long key) {
+            this.key = key;
+        }
+
+        Tick find(int local, Block block) {
+            for (Tick tick = byPosition.get(local); tick != null; tick = tick.nextAtPosition) {
+                if (Block.isEqualTo(tick.block, block)) return tick;
+            }
+
+            return null;
+        }
+    }
+
+    private static final class Tick {
+
+        final int x, y, z;
+        final Block block;
+        final long time;
+        final int priority;
+        final long sequence;
+        final CubeTicks cube;
+
+        Tick nextAtPosition;
+
+        /** The neighbours in the wheel slot. */
+        Tick prev, next;
+        byte level;
+        int slot;
+
+        Tick(int x, int y, int z, Block block, long time, int priority, long sequence, CubeTicks cube) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.block = block;
+            this.time = time;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.cube = cube;
+        }
+
+        NextTickListEntry toEntry() {
+            NextTickListEntry entry = new NextTickListEntry(x, y, z, block);
+            entry.setScheduledTime(time);
+            entry.setPriority(priority);
+            return entry;
+        }
+    }
+}
@@ -20,15 +20,23 @@
  */
 package com.cardinalstar.cubicchunks.visibility;
 
-import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import net.minecraft.world.ChunkCoordIntPair;
 
+import com.cardinalstar.cubicchunks.util.Coords;
 import com.cardinalstar.cubicchunks.util.CubePos;
 
+import it.unimi.dsi.fastutil.longs.LongList;
+
+/**
+ * Selects the cubes and columns a player can see.
+ * <p>
+ * Change queries add packed positions to the given lists: cubes are packed with {@link Coords#key}, columns with
+ * {@link ChunkCoordIntPair#chunkXZ2Int}. The lists aren't cleared, so they can be reused between calls.
+ */
 @ParametersAreNonnullByDefault
 public abstract class CubeSelector {
 
@@ -36,10 +44,18 @@ public abstract class CubeSelector {
         Consumer<CubePos> consumer);
 
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance,
-        int verticalViewDistance, Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-        Set<ChunkCoordIntPair> columnsToRemove, Set<ChunkCoordIntPair> columnsToLoad);
+        int verticalViewDistance, LongList cubesToRemove, LongList cubesToLoad, LongList columnsToRemove,
+        LongList columnsToLoad);
 
     public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance,
         int newHorizontalViewDistance, int oldVerticalViewDistance, int newVerticalViewDistance,
-        Set<CubePos> cubesToUnload, Set<ChunkCoordIntPair> columnsToUnload);
+        LongList cubesToUnload, LongList columnsToUnload);
+
+    public static int columnX(long column) {
+        return (int) column;
+    }
+
+    public static int columnZ(long column) {
+        return (int) (column >>> 32);
+    }
 }
@@ -20,15 +20,17 @@
  */
 package com.cardinalstar.cubicchunks.visibility;
 
-import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import net.minecraft.world.ChunkCoordIntPair;
 
+import com.cardinalstar.cubicchunks.util.Coords;
 import com.cardinalstar.cubicchunks.util.CubePos;
 
+import it.unimi.dsi.fastutil.longs.LongList;
+
 @ParametersAreNonnullByDefault
 public class CuboidalCubeSelector extends CubeSelector {
 
@@ -53,131 +55,121 @@ public class CuboidalCubeSelector extends CubeSelector {
 
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos, int horizontalViewDistance, int verticalViewDistance,
-        Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkCoordIntPair> columnsToRemove,
-        Set<ChunkCoordIntPair> columnsToLoad) {
+        LongList cubesToRemove, LongList cubesToLoad, LongList columnsToRemove, LongList columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
-
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                // first handle columns
-                // is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(
-                    oldX,
-                    0,
-                    oldZ,
-                    currentX,
-                    0,
-                    currentZ,
-                    horizontalViewDistance,
-                    verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkCoordIntPair(currentX, currentZ));
-                }
 
-                // if we moved the current point to where it would be previously,
-                // would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(
-                    newX,
-                    0,
-                    newZ,
-                    currentX - dx,
-                    0,
-                    currentZ - dz,
-                    horizontalViewDistance,
-                    verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkCoordIntPair(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    // now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(
-                        oldX,
-                        oldY,
-                        oldZ,
-                        currentX,
-                        currentY,
-                        currentZ,
-                        horizontalViewDistance,
-                        verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(
-                        newX,
-                        newY,
-                        newZ,
-                        currentX - dx,
-                        currentY - dy,
-                        currentZ - dz,
-                        horizontalViewDistance,
-                        verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
-                    }
-                }
-            }
-        }
+        // only the slabs where the two volumes don't overlap are visited, so moving by one cube costs a single slab
+        addColumnsOutside(newX, newZ, horizontalViewDistance, oldX, oldZ, horizontalViewDistance, columnsToLoad);
+        addColumnsOutside(oldX, oldZ, horizontalViewDistance, newX, newZ, horizontalViewDistance, columnsToRemove);
 
-        assert cubesToLoad.stream()
-            .allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream()
-            .allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
+        addCubesOutside(
+            newX,
+            newY,
+            newZ,
+            horizontalViewDistance,
+            verticalViewDistance,
+            oldX,
+            oldY,
+            oldZ,
+            horizontalViewDistance,
+            verticalViewDistance,
+            cubesToLoad);
+        addCubesOutside(
+            oldX,
+            oldY,
+            oldZ,
+            horizontalViewDistance,
+            verticalViewDistance,
+            newX,
+            newY,
+            newZ,
+            horizontalViewDistance,
+            verticalViewDistance,
+            cubesToRemove);
     }
 
     @Override
     public void findAllUnloadedOnViewDistanceDecrease(CubePos playerPos, int oldHorizontalViewDistance,
         int newHorizontalViewDistance, int oldVerticalViewDistance, int newVerticalViewDistance,
-        Set<CubePos> cubesToUnload, Set<ChunkCoordIntPair> columnsToUnload) {
+        LongList cubesToUnload, LongList columnsToUnload) {
         int playerCubeX = playerPos.getX();
         int playerCubeY = playerPos.getY();
         int playerCubeZ = playerPos.getZ();
 
-        for (int cubeX = playerCubeX - oldHorizontalViewDistance; cubeX
-            <= playerCubeX + oldHorizontalViewDistance; cubeX++) {
-            for (int cubeZ = playerCubeZ - oldHorizontalViewDistance; cubeZ
-                <= playerCubeZ + oldHorizontalViewDistance; cubeZ++) {
-                if (!isPointWithinCubeVolume(
-                    playerCubeX,
-                    0,
-                    playerCubeZ,
-                    cubeX,
-                    0,
-                    cubeZ,
-                    newHorizontalViewDistance,
-                    newVerticalViewDistance)) {
-                    columnsToUnload.add(new ChunkCoordIntPair(cubeX, cubeZ));
-                }
-                for (int cubeY = playerCubeY - oldVerticalViewDistance; cubeY
-                    <= playerCubeY + oldVerticalViewDistance; cubeY++) {
-                    if (!isPointWithinCubeVolume(
-                        playerCubeX,
-                        playerCubeY,
-                        playerCubeZ,
-                        cubeX,
-                        cubeY,
-                        cubeZ,
-                        newHorizontalViewDistance,
-                        newVerticalViewDistance)) {
-                        cubesToUnload.add(new CubePos(cubeX, cubeY, cubeZ));
-                    }
-                }
+        addColumnsOutside(
+            playerCubeX,
+            playerCubeZ,
+            oldHorizontalViewDistance,
+            playerCubeX,
+            playerCubeZ,
+            newHorizontalViewDistance,
+            columnsToUnload);
+
+        addCubesOutside(
+            playerCubeX,
+            playerCubeY,
+            playerCubeZ,
+            oldHorizontalViewDistance,
+            oldVerticalViewDistance,
+            playerCubeX,
+            playerCubeY,
+            playerCubeZ,
+            newHorizontalViewDistance,
+            newVerticalViewDistance,
+            cubesToUnload);
+    }
+
+    /**
+     * Adds every column within {@code horizontalA} of A that isn't within {@code horizontalB} of B.
+     */
+    private static void addColumnsOutside(int aX, int aZ, int horizontalA, int bX, int bZ, int horizontalB,
+        LongList out) {
+        for (int x = aX - horizontalA; x <= aX + horizontalA; x++) {
+            boolean insideX = x >= bX - horizontalB && x <= bX + horizontalB;
+
+            for (int z = aZ - horizontalA; z <= aZ + horizontalA; z++) {
+                if (insideX && z >= bZ - horizontalB && z <= bZ + horizontalB) continue;
+
+                out.add(ChunkCoordIntPair.chunkXZ2Int(x, z));
             }
         }
     }
 
-    private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ,
-        int horizontal, int vertical) {
-        int dx = cubeX - pointX;
-        int dy = cubeY - pointY;
-        int dz = cubeZ - pointZ;
-        return dx >= -horizontal && dx <= horizontal
-            && dy >= -vertical
-            && dy <= vertical
-            && dz >= -horizontal
-            && dz <= horizontal;
+    /**
+     * Adds every cube within the view volume around A that isn't within the view volume around B.
+     */
+    private static void addCubesOutside(int aX, int aY, int aZ, int horizontalA, int verticalA, int bX, int bY, int bZ,
+        int horizontalB, int verticalB, LongList out) {
+        int minY = aY - verticalA;
+        int maxY = aY + verticalA;
+
+        for (int x = aX - horizontalA; x <= aX + horizontalA; x++) {
+            boolean insideX = x >= bX - horizontalB && x <= bX + horizontalB;
+
+            for (int z = aZ - horizontalA; z <= aZ + horizontalA; z++) {
+                if (insideX && z >= bZ - horizontalB && z <= bZ + horizontalB) {
+                    // this column overlaps B, only the parts of it below and above B are outside
+                    int belowB = Math.min(maxY, bY - verticalB - 1);
+                    int aboveB = Math.max(minY, bY + verticalB + 1);
+
+                    for (int y = minY; y <= belowB; y++) {
+                        out.add(Coords.key(x, y, z));
+                    }
+
+                    for (int y = aboveB; y <= maxY; y++) {
+                        out.add(Coords.key(x, y, z));
+                    }
+                } else {
+                    for (int y = minY; y <= maxY; y++) {
+                        out.add(Coords.key(x, y, z));
+                    }
+                }
+            }
+        }
     }
 }
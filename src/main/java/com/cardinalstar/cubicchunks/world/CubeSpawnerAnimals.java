@@ -23,9 +23,7 @@ package com.cardinalstar.cubicchunks.world;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,8 +44,10 @@ import net.minecraftforge.event.ForgeEventFactory;
 import org.joml.Vector3ic;
 
 import com.cardinalstar.cubicchunks.api.util.Box;
+import com.cardinalstar.cubicchunks.mixin.api.ICubicWorldInternal;
 import com.cardinalstar.cubicchunks.server.CubicPlayerManager;
 import com.cardinalstar.cubicchunks.util.BlockPosSet;
+import com.cardinalstar.cubicchunks.util.Coords;
 import com.cardinalstar.cubicchunks.util.CubePos;
 import com.cardinalstar.cubicchunks.util.MathUtil;
 import com.cardinalstar.cubicchunks.world.cube.Cube;
@@ -55,8 +55,6 @@ import com.gtnewhorizon.gtnhlib.blockpos.BlockPos;
 
 import cpw.mods.fml.common.eventhandler.Event;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
-import it.unimi.dsi.fastutil.longs.LongList;
-import it.unimi.dsi.fastutil.longs.LongLists;
 
 @ParametersAreNonnullByDefault
 public class CubeSpawnerAnimals implements ISpawnerAnimals {
@@ -65,8 +63,13 @@ public class CubeSpawnerAnimals implements ISpawnerAnimals {
     private static final int MOB_COUNT_DIV = (int) Math.pow(17.0D, 2.0D) * CUBES_PER_CHUNK;
     private static final int SPAWN_RADIUS = 8;
 
+    private static final int CUBES_PER_TYPE = 2 * (2 * SPAWN_RADIUS + 1);
+
+    @Nonnull
+    private final BlockPosSet checkedCubes = new BlockPosSet();
+    /** The watched cubes in range of a player, sampled from in place for each creature type. */
     @Nonnull
-    private final BlockPosSet cubesForSpawn = new BlockPosSet();
+    private final LongArrayList cubesForSpawn = new LongArrayList();
 
     @Override
     public int findChunksForSpawning(WorldServer world, boolean hostileEnable, boolean peacefulEnable,
@@ -79,36 +82,53 @@ public class CubeSpawnerAnimals implements ISpawnerAnimals {
         int cubeCount = addEligibleCubes(world, this.cubesForSpawn);
         int totalSpawnCount = 0;
 
+        EntityCategoryCounts entityCounts = ((ICubicWorldInternal.Server) world).getEntityCategoryCounts();
+
         for (EnumCreatureType mobType : EnumCreatureType.values()) {
             if (!shouldSpawnType(mobType, hostileEnable, peacefulEnable, spawnOnSetTickRate)) {
                 continue;
             }
 
-            int worldEntityCount = world.countEntities(mobType, true);
+            int worldEntityCount = entityCounts.getCount(world, mobType);
             int maxEntityCount = mobType.getMaxNumberOfCreature() * cubeCount / MOB_COUNT_DIV;
 
             if (worldEntityCount > maxEntityCount) {
                 continue;
             }
 
-            LongList shuffled = new LongArrayList(cubesForSpawn);
-            LongLists.shuffle(shuffled, world.rand);
-            shuffled = shuffled.subList(0, Math.min(this.cubesForSpawn.size(), 2 * (2 * SPAWN_RADIUS + 1)));
-
-            List<CubePos> cubes = shuffled.longStream()
-                .mapToObj(CubePos::unpack)
-                .collect(Collectors.toList());
+            int sampled = sampleCubes(world.rand);
 
-            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, cubes);
+            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, cubesForSpawn.elements(), sampled);
         }
 
         return totalSpawnCount;
     }
 
-    private int addEligibleCubes(WorldServer world, BlockPosSet possibleCubes) {
+    /**
+     * Moves a random selection of the eligible cubes to the start of {@link #cubesForSpawn}, with a partial shuffle.
+     *
+     * @return how many were selected
+     */
+    private int sampleCubes(Random rand) {
+        long[] cubes = cubesForSpawn.elements();
+        int size = cubesForSpawn.size();
+        int sampled = Math.min(size, CUBES_PER_TYPE);
+
+        for (int i = 0; i < sampled; i++) {
+            int j = i + rand.nextInt(size - i);
+
+            long cube = cubes[i];
+            cubes[i] = cubes[j];
+            cubes[j] = cube;
+        }
+
+        return sampled;
+    }
+
+    private int addEligibleCubes(WorldServer world, LongArrayList possibleCubes) {
         int cubeCount = 0;
 
-        BlockPosSet checkedCubes = new BlockPosSet();
+        checkedCubes.clear();
 
         for (EntityPlayer player : world.playerEntities) {
             CubePos center = CubePos.fromEntity(player);
@@ -116,14 +136,13 @@ public class CubeSpawnerAnimals implements ISpawnerAnimals {
             for (Vector3ic v : new Box(center.getX(), center.getY(), center.getZ(), SPAWN_RADIUS - 1)) {
                 if (!checkedCubes.add(v.x(), v.y(), v.z())) continue;
 
-                assert !possibleCubes.contains(v.x(), v.y(), v.z());
                 cubeCount++;
 
                 boolean valid = ((CubicPlayerManager) world.getPlayerManager())
                     .isCubeWatchedAndPresent(v.x(), v.y(), v.z());
 
                 if (valid) {
-                    possibleCubes.add(v.x(), v.y(), v.z());
+                    possibleCubes.add(Coords.key(v.x(), v.y(), v.z()));
                 }
             }
         }
@@ -131,14 +150,16 @@ public class CubeSpawnerAnimals implements ISpawnerAnimals {
         return cubeCount;
     }
 
-    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, WorldServer world, List<CubePos> cubeList) {
+    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, WorldServer world, long[] cubes,
+        int cubeCount) {
         ChunkCoordinates spawnPoint = world.getSpawnPoint();
         int posX, posY, posZ;
 
         int totalSpawned = 0;
 
-        nextChunk: for (CubePos currentCubePos : cubeList) {
-            BlockPos blockpos = getRandomCubePosition(world, currentCubePos);
+        nextChunk: for (int cubeIndex = 0; cubeIndex < cubeCount; cubeIndex++) {
+            long cube = cubes[cubeIndex];
+            BlockPos blockpos = getRandomCubePosition(world, Coords.x(cube), Coords.y(cube), Coords.z(cube));
             if (blockpos == null) {
                 continue;
             }
@@ -239,15 +260,15 @@ public class CubeSpawnerAnimals implements ISpawnerAnimals {
     }
 
     @Nullable
-    private static BlockPos getRandomCubePosition(WorldServer world, CubePos pos) {
-        int blockX = pos.getMinBlockX() + world.rand.nextInt(Cube.SIZE);
-        int blockZ = pos.getMinBlockZ() + world.rand.nextInt(Cube.SIZE);
+    private static BlockPos getRandomCubePosition(WorldServer world, int cubeX, int cubeY, int cubeZ) {
+        int blockX = Coords.cubeToMinBlock(cubeX) + world.rand.nextInt(Cube.SIZE);
+        int blockZ = Coords.cubeToMinBlock(cubeZ) + world.rand.nextInt(Cube.SIZE);
 
         int height = world.getHeightValue(blockX, blockZ);
-        if (pos.getMinBlockY() > height) {
+        if (Coords.cubeToMinBlock(cubeY) > height) {
             return null;
         }
-        int blockY = pos.getMinBlockY() + world.rand.nextInt(Cube.SIZE);
+        int blockY = Coords.cubeToMinBlock(cubeY) + world.rand.nextInt(Cube.SIZE);
         return new BlockPos(blockX, blockY, blockZ);
     }
 }
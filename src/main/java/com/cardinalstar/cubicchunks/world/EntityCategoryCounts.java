@@ -0,0 +1,102 @@
+package com.cardinalstar.cubicchunks.world;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EnumCreatureType;
+import net.minecraft.world.World;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+/**
+ * The number of loaded entities of each creature type, as counted by {@code World.countEntities(type, true)} for the
+ * spawn caps, kept up to date as entities are added to and removed from the world instead of going through every loaded
+ * entity each spawn tick.
+ * <p>
+ * An entity is removed with the types it was added with, so the counts can't drift. The one thing that isn't tracked
+ * is a living entity becoming persistent while loaded (named, or picking up an item), which takes it out of vanilla's
+ * count. That's corrected by recounting everything every {@link #RECOUNT_TICKS}.
+ */
+@ParametersAreNonnullByDefault
+public class EntityCategoryCounts {
+
+    private static final int RECOUNT_TICKS = 20 * 10;
+
+    private final EnumCreatureType[] types = EnumCreatureType.values();
+    private final int[] counts = new int[types.length];
+
+    /** The types each entity was counted as, as a bit mask of their ordinals. */
+    private final Reference2IntOpenHashMap<Entity> counted = new Reference2IntOpenHashMap<>();
+
+    private long nextRecount;
+
+    public void onEntityAdded(Entity entity) {
+        int mask = getTypes(entity);
+
+        if (mask == 0) return;
+
+        // added twice without being removed, only count it once
+        uncount(counted.put(entity, mask));
+        count(mask);
+    }
+
+    public void onEntityRemoved(Entity entity) {
+        uncount(counted.removeInt(entity));
+    }
+
+    /**
+     * Same as {@code world.countEntities(type, true)}.
+     */
+    public int getCount(World world, EnumCreatureType type) {
+        long now = world.getTotalWorldTime();
+
+        // the second check catches the world time going backwards
+        if (now >= nextRecount || nextRecount - now > RECOUNT_TICKS) {
+            nextRecount = now + RECOUNT_TICKS;
+            recount(world.loadedEntityList);
+        }
+
+        // types registered after this was created aren't tracked
+        if (type.ordinal() >= counts.length || type.ordinal() >= Integer.SIZE) {
+            return world.countEntities(type, true);
+        }
+
+        return counts[type.ordinal()];
+    }
+
+    private void recount(List<Entity> entities) {
+        counted.clear();
+        Arrays.fill(counts, 0);
+
+        for (int i = 0, size = entities.size(); i < size; i++) {
+            onEntityAdded(entities.get(i));
+        }
+    }
+
+    private int getTypes(Entity entity) {
+        int mask = 0;
+
+        for (int i = 0; i < types.length && i < Integer.SIZE; i++) {
+            if (entity.isCreatureType(types[i], true)) {
+                mask |= 1 << i;
+            }
+        }
+
+        return mask;
+    }
+
+    private void count(int mask) {
+        for (int i = 0; mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) != 0) counts[i]++;
+        }
+    }
+
+    private void uncount(int mask) {
+        for (int i = 0; mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) != 0) counts[i]--;
+        }
+    }
+}
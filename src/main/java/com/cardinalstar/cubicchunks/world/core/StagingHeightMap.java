@@ -21,11 +21,11 @@
 
 package com.cardinalstar.cubicchunks.world.core;
 
-import java.util.ArrayList;
+import static com.cardinalstar.cubicchunks.util.Coords.blockToCube;
+import static com.cardinalstar.cubicchunks.util.Coords.blockToLocal;
+
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
-import java.util.List;
 
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
@@ -33,10 +33,28 @@ import com.cardinalstar.cubicchunks.api.ICube;
 import com.cardinalstar.cubicchunks.api.IHeightMap;
 import com.cardinalstar.cubicchunks.util.Coords;
 
+/**
+ * The heightmap of the loaded cubes in a column whose surface isn't tracked yet.
+ * <p>
+ * Each staged cube keeps the local y of the top opaque block in each of its columns, computed when it's staged and
+ * updated as blocks change. Staging a cube only raises the columns it's above, and unstaging one only recomputes the
+ * columns whose top block was in it, from the other cubes' summaries rather than their blocks.
+ */
 public class StagingHeightMap implements IHeightMap {
 
-    private final List<ICube> stagedCubes = new ArrayList<>();
-    private final int[] heightmap = new int[ICube.SIZE * ICube.SIZE];
+    private static final int COLUMNS = ICube.SIZE * ICube.SIZE;
+
+    /** A column with no opaque blocks in the cube. */
+    private static final byte NO_TOP = -1;
+
+    /** The staged cubes, from the top down. */
+    private ICube[] cubes = new ICube[4];
+    private int[] cubeYs = new int[4];
+    /** The local y of the top opaque block in each column of each staged cube. */
+    private byte[][] tops = new byte[4][];
+    private int size;
+
+    private final int[] heightmap = new int[COLUMNS];
     private final BitSet dirtyFlag = new BitSet(heightmap.length);
 
     public StagingHeightMap() {
@@ -44,35 +62,102 @@ public class StagingHeightMap implements IHeightMap {
     }
 
     public void addStagedCube(ICube cube) {
-        stagedCubes.add(cube);
-        // top-to-bottom order
-        stagedCubes.sort(
-            Comparator.comparingInt(
-                c -> -c.getCoords()
-                    .getY()));
-        // TODO: optimize
-        if (!cube.isEmpty()) {
-            dirtyFlag.set(0, heightmap.length);
+        int cubeY = cube.getY();
+        int index = find(cubeY);
+
+        if (index >= 0) {
+            if (cubes[index] == cube) return;
+
+            // a cube that was never unstaged, replace it
+            removeStagedCube(cubes[index]);
+            index = find(cubeY);
+        }
+
+        index = -index - 1;
+
+        if (size == cubes.length) {
+            int newLength = size * 2;
+
+            cubes = Arrays.copyOf(cubes, newLength);
+            cubeYs = Arrays.copyOf(cubeYs, newLength);
+            tops = Arrays.copyOf(tops, newLength);
+        }
+
+        System.arraycopy(cubes, index, cubes, index + 1, size - index);
+        System.arraycopy(cubeYs, index, cubeYs, index + 1, size - index);
+        System.arraycopy(tops, index, tops, index + 1, size - index);
+
+        byte[] cubeTops = computeTops(cube);
+
+        cubes[index] = cube;
+        cubeYs[index] = cubeY;
+        tops[index] = cubeTops;
+        size++;
+
+        for (int i = 0; i < COLUMNS; i++) {
+            // dirty columns will see the new cube when they're recomputed
+            if (cubeTops[i] == NO_TOP || dirtyFlag.get(i)) continue;
+
+            int blockY = Coords.localToBlock(cubeY, cubeTops[i]);
+
+            if (blockY > heightmap[i]) {
+                heightmap[i] = blockY;
+            }
         }
     }
 
     public void removeStagedCube(ICube cube) {
-        if (stagedCubes.remove(cube)) {
-            // TODO: optimize
-            if (!cube.isEmpty()) {
-                dirtyFlag.set(0, heightmap.length);
+        int cubeY = cube.getY();
+        int index = find(cubeY);
+
+        if (index < 0 || cubes[index] != cube) return;
+
+        byte[] cubeTops = tops[index];
+
+        size--;
+
+        System.arraycopy(cubes, index + 1, cubes, index, size - index);
+        System.arraycopy(cubeYs, index + 1, cubeYs, index, size - index);
+        System.arraycopy(tops, index + 1, tops, index, size - index);
+
+        cubes[size] = null;
+        tops[size] = null;
+
+        for (int i = 0; i < COLUMNS; i++) {
+            // only the columns whose top block was in this cube change
+            if (cubeTops[i] != NO_TOP && blockToCube(heightmap[i]) == cubeY) {
+                dirtyFlag.set(i);
             }
         }
     }
 
     @Override
     public void onOpacityChange(int localX, int blockY, int localZ, int opacity) {
+        int index = find(blockToCube(blockY));
+
+        // not staged, the cube is summarized when it is
+        if (index < 0) return;
+
+        int idx = index(localX, localZ);
+        byte[] cubeTops = tops[index];
+        int localY = blockToLocal(blockY);
+
         if (opacity > 0) {
+            if (localY > cubeTops[idx]) {
+                cubeTops[idx] = (byte) localY;
+            }
+
             if (blockY > getTopBlockY(localX, localZ)) {
-                heightmap[index(localX, localZ)] = blockY;
+                heightmap[idx] = blockY;
+            }
+        } else {
+            if (localY == cubeTops[idx]) {
+                cubeTops[idx] = computeTop(cubes[index].getStorage(), localX, localZ, localY - 1);
+            }
+
+            if (blockY == getTopBlockY(localX, localZ)) {
+                dirtyFlag.set(idx);
             }
-        } else if (blockY == getTopBlockY(localX, localZ)) {
-            dirtyFlag.set(index(localX, localZ));
         }
     }
 
@@ -80,14 +165,22 @@ public class StagingHeightMap implements IHeightMap {
         return (localZ << 4) | localX;
     }
 
+    /**
+     * Recomputes everything from the blocks, for when they were changed without going through
+     * {@link #onOpacityChange}.
+     */
     public void recalculate() {
         dirtyFlag.clear();
 
+        for (int i = 0; i < size; i++) {
+            tops[i] = computeTops(cubes[i]);
+        }
+
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
                 int idx = index(x, z);
 
-                heightmap[idx] = computeHeightMap(x, z);
+                heightmap[idx] = computeHeightMap(idx);
             }
         }
     }
@@ -99,26 +192,76 @@ public class StagingHeightMap implements IHeightMap {
             return heightmap[idx];
         }
         dirtyFlag.clear(idx);
-        return heightmap[idx] = computeHeightMap(localX, localZ);
+        return heightmap[idx] = computeHeightMap(idx);
     }
 
-    private int computeHeightMap(int localX, int localZ) {
-        for (int j = 0, stagedCubesSize = stagedCubes.size(); j < stagedCubesSize; j++) {
-            ICube stagedCube = stagedCubes.get(j);
-            ExtendedBlockStorage ebs = stagedCube.getStorage();
-            if (ebs == null || ebs.isEmpty()) {
-                continue;
-            }
-            for (int i = 15; i >= 0; i--) {
-                if (ebs.getBlockByExtId(localX, i, localZ)
-                    .getLightOpacity() > 0) {
-                    return Coords.localToBlock(stagedCube.getY(), i);
-                }
+    private int computeHeightMap(int idx) {
+        for (int i = 0; i < size; i++) {
+            byte top = tops[i][idx];
+
+            if (top != NO_TOP) {
+                return Coords.localToBlock(cubeYs[i], top);
             }
         }
         return Coords.NO_HEIGHT;
     }
 
+    /**
+     * Binary search for a staged cube by its y.
+     *
+     * @return its index, or {@code -(insertion point) - 1} if there's none
+     */
+    private int find(int cubeY) {
+        int low = 0, high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midY = cubeYs[mid];
+
+            // sorted from the top down
+            if (midY > cubeY) {
+                low = mid + 1;
+            } else if (midY < cubeY) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private static byte[] computeTops(ICube cube) {
+        byte[] cubeTops = new byte[COLUMNS];
+        ExtendedBlockStorage ebs = cube.getStorage();
+
+        if (ebs == null || ebs.isEmpty()) {
+            Arrays.fill(cubeTops, NO_TOP);
+            return cubeTops;
+        }
+
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                cubeTops[(z << 4) | x] = computeTop(ebs, x, z, 15);
+            }
+        }
+
+        return cubeTops;
+    }
+
+    private static byte computeTop(ExtendedBlockStorage ebs, int localX, int localZ, int fromLocalY) {
+        if (ebs == null) return NO_TOP;
+
+        for (int y = fromLocalY; y >= 0; y--) {
+            if (ebs.getBlockByExtId(localX, y, localZ)
+                .getLightOpacity() > 0) {
+                return (byte) y;
+            }
+        }
+
+        return NO_TOP;
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public int getTopBlockYBelow(int localX, int localZ, int blockY) {
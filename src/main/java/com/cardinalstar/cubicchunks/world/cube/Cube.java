@@ -105,6 +105,11 @@ public class Cube implements ICube {
      * Has anything within the cube changed since it was loaded from disk?
      */
     private boolean isModified = false;
+    /**
+     * Incremented every time the cube is marked dirty, which every block and light change does, whether or not it was
+     * already. Lets caches of the cube's data tell whether it changed.
+     */
+    private int changeCount;
 
     public static final short POP_000 = 0b1;
     // public static final short POP_100 = 0b10;
@@ -581,7 +586,7 @@ public class Cube implements ICube {
 
     @Nullable
     public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
-        this.isModified = true;
+        setModified();
         this.storage = ebs;
         if (ebs != null) {
             ((ICubicWorldInternal) world).getLightingManager()
@@ -628,7 +633,12 @@ public class Cube implements ICube {
 
     @Override
     public void addEntity(Entity entity) {
-        this.hasEntities = true;
+        if (!this.hasEntities) {
+            this.hasEntities = true;
+            // cubes with entities are saved periodically
+            markForSave();
+        }
+
         this.entities.add(entity);
     }
 
@@ -751,12 +761,38 @@ public class Cube implements ICube {
      */
     public void markSaved() {
         this.isModified = false;
+        this.lastSaveTime = this.world.getTotalWorldTime();
         this.cubeLightData.markSaved(this);
     }
 
     @Override
     public void markDirty() {
+        setModified();
+    }
+
+    private void setModified() {
+        this.changeCount++;
+
+        if (this.isModified) return;
+
         this.isModified = true;
+        markForSave();
+    }
+
+    /**
+     * Tells the server's cube loader that this cube has something to save, so that autosaves only have to look at
+     * the cubes that were marked. Cubes that aren't loaded yet are looked at when they're loaded.
+     */
+    private void markForSave() {
+        if (!this.isCubeLoaded || this.world.isRemote) return;
+
+        ((ICubicWorldInternal.Server) this.world).getCubeCache()
+            .getCubeLoader()
+            .markForSave(getX(), getZ());
+    }
+
+    public int getChangeCount() {
+        return this.changeCount;
     }
 
     /**
@@ -803,7 +839,7 @@ public class Cube implements ICube {
 
     public void markPopulated(@MagicConstant(flagsFromClass = Cube.class) short flag) {
         this.populationStatus |= flag;
-        this.isModified = true;
+        setModified();
     }
 
     @Override
@@ -842,7 +878,7 @@ public class Cube implements ICube {
      */
     public void setInitialLightingDone(boolean initialLightingDone) {
         this.isInitialLightingDone = initialLightingDone;
-        this.isModified = true;
+        setModified();
     }
 
     public void setCubeLoaded() {
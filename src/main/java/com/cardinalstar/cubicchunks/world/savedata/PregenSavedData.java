@@ -0,0 +1,111 @@
+package com.cardinalstar.cubicchunks.world.savedata;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+
+/**
+ * The pregeneration running in a dimension, so that it continues after a restart.
+ * <p>
+ * What's written is the progress as of the previous save, since the cubes generated after it are only saved by this
+ * save (or the incremental autosave that follows it). A crash can't make cubes that were never saved count as
+ * pregenerated.
+ */
+public class PregenSavedData extends WorldSavedData {
+
+    private static final String NAME = "cubicchunks.pregen";
+
+    /** Whether a pregeneration was ever started in this world, finished and stopped ones included. */
+    public boolean started;
+    public boolean active;
+
+    /** The center column of the pregenerated area. */
+    public int centerX, centerZ;
+    /** The horizontal radius, in columns. */
+    public int radius;
+    /** The cube range, inclusive. */
+    public int minY, maxY;
+
+    /** The number of tiles of the spiral that were generated. */
+    private int completedTiles;
+    /** The value of {@link #completedTiles} when the data was last written. */
+    private int savedTiles;
+
+    public PregenSavedData(String name) {
+        super(name);
+    }
+
+    public void start(int centerX, int centerZ, int radius, int minY, int maxY) {
+        this.started = true;
+        this.active = true;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.completedTiles = 0;
+        this.savedTiles = 0;
+        markDirty();
+    }
+
+    public void stop() {
+        this.active = false;
+        markDirty();
+    }
+
+    /**
+     * @return whether this is (or was) a pregeneration of the given area
+     */
+    public boolean isArea(int centerX, int centerZ, int radius, int minY, int maxY) {
+        return this.centerX == centerX && this.centerZ == centerZ
+            && this.radius == radius
+            && this.minY == minY
+            && this.maxY == maxY;
+    }
+
+    public int getCompletedTiles() {
+        return completedTiles;
+    }
+
+    public void setCompletedTiles(int completedTiles) {
+        this.completedTiles = completedTiles;
+        markDirty();
+    }
+
+    @Override
+    public void readFromNBT(NBTTagCompound tag) {
+        // the data is only written once a pregeneration was started
+        started = true;
+        active = tag.getBoolean("active");
+        centerX = tag.getInteger("centerX");
+        centerZ = tag.getInteger("centerZ");
+        radius = tag.getInteger("radius");
+        minY = tag.getInteger("minY");
+        maxY = tag.getInteger("maxY");
+        completedTiles = savedTiles = tag.getInteger("completedTiles");
+    }
+
+    @Override
+    public void writeToNBT(NBTTagCompound tag) {
+        tag.setBoolean("active", active);
+        tag.setInteger("centerX", centerX);
+        tag.setInteger("centerZ", centerZ);
+        tag.setInteger("radius", radius);
+        tag.setInteger("minY", minY);
+        tag.setInteger("maxY", maxY);
+        tag.setInteger("completedTiles", savedTiles);
+
+        savedTiles = completedTiles;
+    }
+
+    public static PregenSavedData get(World world) {
+        PregenSavedData data = (PregenSavedData) world.perWorldStorage.loadData(PregenSavedData.class, NAME);
+
+        if (data == null) {
+            data = new PregenSavedData(NAME);
+            world.perWorldStorage.setData(NAME, data);
+        }
+
+        return data;
+    }
+}
@@ -4,14 +4,18 @@ import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldSavedData;
 
+import com.cardinalstar.cubicchunks.CubicChunks;
 import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.api.world.storage.StorageFormatFactory;
+import com.cardinalstar.cubicchunks.server.chunkio.EntryCodec;
+import com.cardinalstar.cubicchunks.server.chunkio.EntryCodecs;
 
 import cpw.mods.fml.common.registry.GameRegistry.UniqueIdentifier;
 
 public class WorldFormatSavedData extends WorldSavedData {
 
     private StorageFormatFactory format;
+    private String compression;
 
     public WorldFormatSavedData(String name) {
         super(name);
@@ -21,6 +25,13 @@ public class WorldFormatSavedData extends WorldSavedData {
         return format;
     }
 
+    /**
+     * @return the name of the {@link EntryCodec} new region entries are compressed with
+     */
+    public String getCompression() {
+        return compression;
+    }
+
     @Override
     public void readFromNBT(NBTTagCompound tag) {
         format = StorageFormatFactory.REGISTRY.get(new UniqueIdentifier(tag.getString("format")));
@@ -29,11 +40,15 @@ public class WorldFormatSavedData extends WorldSavedData {
             throw new IllegalStateException(
                 "Could not load world: save format was not registered: " + tag.getString("format"));
         }
+
+        // worlds created before compression was configurable were always GZIP'd
+        compression = tag.hasKey("compression") ? tag.getString("compression") : EntryCodecs.GZIP;
     }
 
     @Override
     public void writeToNBT(NBTTagCompound tag) {
         tag.setString("format", format.registryName.toString());
+        tag.setString("compression", compression);
     }
 
     public static WorldFormatSavedData get(World world) {
@@ -53,6 +68,16 @@ public class WorldFormatSavedData extends WorldSavedData {
 
             data.format = StorageFormatFactory.REGISTRY.get(id);
 
+            if (EntryCodecs.isKnownCodec(CubicChunksConfig.storageCompression)) {
+                data.compression = CubicChunksConfig.storageCompression;
+            } else {
+                CubicChunks.LOGGER.error(
+                    "Unknown storage compression '{}', using {}",
+                    CubicChunksConfig.storageCompression,
+                    EntryCodecs.DEFAULT);
+                data.compression = EntryCodecs.DEFAULT;
+            }
+
             data.markDirty();
             world.mapStorage.setData(data.mapName, data);
             world.mapStorage.saveAllData();
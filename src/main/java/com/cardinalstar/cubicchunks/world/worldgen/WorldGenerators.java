@@ -67,6 +67,9 @@ public class WorldGenerators {
     public static final DoubleInterval NOODLE_CAVES = new DoubleInterval(0.7, 1);
     public static final DoubleInterval PILLAR_CAVES = new DoubleInterval(0, 0.3);
 
+    /** The chooser varies slowly enough to be interpolated over a coarse lattice. */
+    public static final int CAVE_CHOOSER_LATTICE_SPACING = 4;
+
     public static ScaledNoise caveChooser(Random rng) {
         return new ScaledNoise(new OctavesSampler(rng, 2), CHOOSER_SCALE);
     }
@@ -22,13 +22,18 @@ public class NoodleCaveGenerator implements ICubeGenerator {
     private static final double CARVE_THRESHOLD = 0.25;
     private static final double SCALE = 0.04;
 
-    private enum Layers implements SamplerFactory {
+    enum Layers implements SamplerFactory {
         Chooser {
 
             @Override
             public NoiseSampler createSampler(Random rng) {
                 return WorldGenerators.caveChooser(rng);
             }
+
+            @Override
+            public int getLatticeSpacing() {
+                return WorldGenerators.CAVE_CHOOSER_LATTICE_SPACING;
+            }
         },
         A {
 
@@ -20,14 +20,21 @@ public class SpaghettiCaveGenerator implements ICubeGenerator {
 
     private static final double CARVE_THRESHOLD = 0.01;
     private static final double SCALE = 0.01;
+    /** The tunnels are thin, so they only tolerate a fine lattice. */
+    private static final int LATTICE_SPACING = 2;
 
-    private enum Layers implements SamplerFactory {
+    enum Layers implements SamplerFactory {
         A {
 
             @Override
             public NoiseSampler createSampler(Random rng) {
                 return new ScaledNoise(new OctavesSampler(rng, 3), SCALE);
             }
+
+            @Override
+            public int getLatticeSpacing() {
+                return LATTICE_SPACING;
+            }
         },
         B {
 
@@ -35,6 +42,11 @@ public class SpaghettiCaveGenerator implements ICubeGenerator {
             public NoiseSampler createSampler(Random rng) {
                 return new ScaledNoise(new OctavesSampler(rng, 3), SCALE);
             }
+
+            @Override
+            public int getLatticeSpacing() {
+                return LATTICE_SPACING;
+            }
         };
     }
 
@@ -8,6 +8,7 @@ import net.minecraft.world.World;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.cardinalstar.cubicchunks.CubicChunksConfig;
 import com.cardinalstar.cubicchunks.async.TaskPool;
 import com.cardinalstar.cubicchunks.async.TaskPool.ITaskExecutor;
 import com.cardinalstar.cubicchunks.async.TaskPool.ITaskFuture;
@@ -101,7 +102,8 @@ public class NoisePrecalculator<TLayer extends Enum<TLayer> & SamplerFactory> {
         }
     }
 
-    private @NotNull EnumMap<TLayer, NoiseSampler> getSamplers(World world) {
+    // called from the workers' preload callbacks
+    private synchronized @NotNull EnumMap<TLayer, NoiseSampler> getSamplers(World world) {
         int worldId = world.provider.dimensionId;
 
         EnumMap<TLayer, NoiseSampler> samplers = this.samplers.get(worldId);
@@ -136,17 +138,76 @@ public class NoisePrecalculator<TLayer extends Enum<TLayer> & SamplerFactory> {
     }
 
     private void compute3d(EnumMap<TLayer, NoiseSampler> samplers, int wx, int wy, int wz, NoiseData data) {
-        samplers.forEach((layer, sampler) -> {
-            for (int z = 0; z < 16; z++) {
-                for (int y = 0; y < 16; y++) {
-                    for (int x = 0; x < 16; x++) {
-                        double value = sampler.sample(wx + x, wy + y, wz + z);
-
-                        data.put(layer, x, y, z, value);
-                    }
+        // interpolated noise differs slightly from the exact noise existing cubes were generated with
+        boolean interpolate = CubicChunksConfig.optimizations.interpolateWorldgenNoise;
+
+        samplers.forEach(
+            (layer, sampler) -> sampleCube(
+                sampler,
+                interpolate ? layer.getLatticeSpacing() : 1,
+                wx,
+                wy,
+                wz,
+                data.data,
+                NoiseData.index(layer, 0, 0, 0)));
+    }
+
+    /**
+     * Samples a 16x16x16 area into {@code out}, at {@code offset + (x | y << 4 | z << 8)}.
+     *
+     * @param spacing the distance between the sampled points, see {@link SamplerFactory#getLatticeSpacing()}
+     */
+    public static void sampleCube(NoiseSampler sampler, int spacing, int wx, int wy, int wz, double[] out, int offset) {
+        if (spacing <= 1) {
+            sampler.sampleRegion(out, offset, wx, wy, wz, 1, 1, 1, 16, 16, 16);
+            return;
+        }
+
+        if (spacing > 16 || Integer.bitCount(spacing) != 1) {
+            throw new IllegalArgumentException("Lattice spacing must be a power of two up to 16: " + spacing);
+        }
+
+        // the lattice includes the first row of the next cube, so that neighbouring cubes interpolate between the same
+        // points and their borders line up
+        int points = 16 / spacing + 1;
+        double[] lattice = new double[points * points * points];
+
+        sampler.sampleRegion(lattice, 0, wx, wy, wz, spacing, spacing, spacing, points, points, points);
+
+        int shift = Integer.numberOfTrailingZeros(spacing);
+        int mask = spacing - 1;
+        double step = 1d / spacing;
+
+        for (int z = 0; z < 16; z++) {
+            int lz = z >> shift;
+            double fz = (z & mask) * step;
+
+            for (int y = 0; y < 16; y++) {
+                int ly = y >> shift;
+                double fy = (y & mask) * step;
+
+                int row0 = (lz * points + ly) * points;
+                int row1 = row0 + points;
+                int row2 = row0 + points * points;
+                int row3 = row2 + points;
+
+                for (int x = 0; x < 16; x++) {
+                    int lx = x >> shift;
+                    double fx = (x & mask) * step;
+
+                    double x00 = lerp(fx, lattice[row0 + lx], lattice[row0 + lx + 1]);
+                    double x10 = lerp(fx, lattice[row1 + lx], lattice[row1 + lx + 1]);
+                    double x01 = lerp(fx, lattice[row2 + lx], lattice[row2 + lx + 1]);
+                    double x11 = lerp(fx, lattice[row3 + lx], lattice[row3 + lx + 1]);
+
+                    out[offset | x | (y << 4) | (z << 8)] = lerp(fz, lerp(fy, x00, x10), lerp(fy, x01, x11));
                 }
             }
-        });
+        }
+    }
+
+    private static double lerp(double f, double a, double b) {
+        return a + f * (b - a);
     }
 
     @Data
@@ -162,7 +223,7 @@ public class NoisePrecalculator<TLayer extends Enum<TLayer> & SamplerFactory> {
 
     public class NoiseData {
 
-        private final double[] data = new double[16 * 16 * 16 * layerCount];
+        final double[] data = new double[16 * 16 * 16 * layerCount];
 
         final void put(TLayer layer, int x, int y, double value) {
             data[index(layer, x, y, 0)] = value;
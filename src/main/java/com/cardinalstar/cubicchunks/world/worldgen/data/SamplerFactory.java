@@ -7,4 +7,15 @@ import com.cardinalstar.cubicchunks.world.worldgen.noise.NoiseSampler;
 public interface SamplerFactory {
 
     NoiseSampler createSampler(Random rng);
+
+    /**
+     * The distance in blocks between the points this layer's sampler is evaluated at, if worldgen noise interpolation
+     * is enabled. The values between them are trilinearly interpolated, which is only accurate for noise that is
+     * smooth at this scale.
+     *
+     * @return 1 to sample every block, or a power of two up to 16
+     */
+    default int getLatticeSpacing() {
+        return 1;
+    }
 }
@@ -6,4 +6,37 @@ public interface NoiseSampler {
 
     double sample(double x, double y, double z);
 
+    /**
+     * Samples a regular grid of points into {@code out}. The point {@code (x, y, z)} of the grid is sampled at
+     * {@code origin + index * stride} on each axis and stored at {@code offset + x + y * sizeX + z * sizeX * sizeY}.
+     */
+    default void sampleRegion(double[] out, int offset, double originX, double originY, double originZ,
+        double strideX, double strideY, double strideZ, int sizeX, int sizeY, int sizeZ) {
+        double[] xs = new double[sizeX];
+        double[] ys = new double[sizeY];
+        double[] zs = new double[sizeZ];
+
+        for (int i = 0; i < sizeX; i++) xs[i] = originX + i * strideX;
+        for (int i = 0; i < sizeY; i++) ys[i] = originY + i * strideY;
+        for (int i = 0; i < sizeZ; i++) zs[i] = originZ + i * strideZ;
+
+        sampleGrid(xs, ys, zs, out, offset);
+    }
+
+    /**
+     * Samples every combination of the given coordinates into {@code out}, at
+     * {@code offset + x + y * xs.length + z * xs.length * ys.length}. Implementations must return exactly what
+     * {@link #sample(double, double, double)} would for each point, only faster.
+     */
+    default void sampleGrid(double[] xs, double[] ys, double[] zs, double[] out, int offset) {
+        int i = offset;
+
+        for (double z : zs) {
+            for (double y : ys) {
+                for (double x : xs) {
+                    out[i++] = sample(x, y, z);
+                }
+            }
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.cardinalstar.cubicchunks.world.worldgen.noise;
 
+import java.util.Arrays;
 import java.util.Random;
 import java.util.function.Supplier;
 
@@ -51,4 +52,31 @@ public class OctavesSampler implements NoiseSampler {
 
         return value;
     }
+
+    @Override
+    public void sampleGrid(double[] xs, double[] ys, double[] zs, double[] out, int offset) {
+        for (NoiseSampler octave : octaves) {
+            if (!(octave instanceof SimplexNoiseSampler)) {
+                NoiseSampler.super.sampleGrid(xs, ys, zs, out, offset);
+                return;
+            }
+        }
+
+        double[] sx = new double[xs.length];
+        double[] sy = new double[ys.length];
+        double[] sz = new double[zs.length];
+
+        // the octaves are added up in the same order as in sample(), so that the sums are exactly the same
+        Arrays.fill(out, offset, offset + sx.length * sy.length * sz.length, 0);
+
+        for (int i = 0, octavesLength = octaves.length; i < octavesLength; i++) {
+            double scale = scales[i];
+
+            for (int j = 0; j < sx.length; j++) sx[j] = xs[j] * scale;
+            for (int j = 0; j < sy.length; j++) sy[j] = ys[j] * scale;
+            for (int j = 0; j < sz.length; j++) sz[j] = zs[j] * scale;
+
+            ((SimplexNoiseSampler) octaves[i]).addGrid(sx, sy, sz, amplitudes[i], out, offset);
+        }
+    }
 }
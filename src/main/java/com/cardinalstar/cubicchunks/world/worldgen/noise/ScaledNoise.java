@@ -27,4 +27,19 @@ public class ScaledNoise implements NoiseSampler {
     public double sample(double x, double y, double z) {
         return base.sample(x * scaleX, y * scaleY, z * scaleZ);
     }
+
+    @Override
+    public void sampleGrid(double[] xs, double[] ys, double[] zs, double[] out, int offset) {
+        base.sampleGrid(scale(xs, scaleX), scale(ys, scaleY), scale(zs, scaleZ), out, offset);
+    }
+
+    private static double[] scale(double[] coords, double scale) {
+        double[] scaled = new double[coords.length];
+
+        for (int i = 0; i < coords.length; i++) {
+            scaled[i] = coords[i] * scale;
+        }
+
+        return scaled;
+    }
 }
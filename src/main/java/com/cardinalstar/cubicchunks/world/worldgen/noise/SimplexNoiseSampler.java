@@ -12,7 +12,12 @@ public class SimplexNoiseSampler implements NoiseSampler {
     private static final double SQRT_3 = Math.sqrt(3.0D);
     private static final double SKEW_FACTOR_2D;
     private static final double UNSKEW_FACTOR_2D;
+    private static final double[] GRADIENT_X = new double[12];
+    private static final double[] GRADIENT_Y = new double[12];
+    private static final double[] GRADIENT_Z = new double[12];
     private final int[] permutations = new int[512];
+    /** The index of the 3d gradient for each permutation, ie {@code permutations[i] % 12}. */
+    private final int[] gradients = new int[256];
     public final double originX;
     public final double originY;
     public final double originZ;
@@ -32,6 +37,10 @@ public class SimplexNoiseSampler implements NoiseSampler {
             this.permutations[i] = this.permutations[k + i];
             this.permutations[k + i] = l;
         }
+
+        for (int i = 0; i < 256; i++) {
+            this.gradients[i] = this.permutations[i] % 12;
+        }
     }
 
     private int getGradient(int hash) {
@@ -92,94 +101,142 @@ public class SimplexNoiseSampler implements NoiseSampler {
 
     @Override
     public double sample(double x, double y, double z) {
-        double e = (x + y + z) * 0.3333333333333333D;
-        int i = MathHelper.floor_double(x + e);
-        int j = MathHelper.floor_double(y + e);
-        int k = MathHelper.floor_double(z + e);
-        double g = (double) (i + j + k) * 0.16666666666666666D;
-        double h = (double) i - g;
-        double l = (double) j - g;
-        double m = (double) k - g;
-        double n = x - h;
-        double o = y - l;
-        double p = z - m;
-        byte w;
-        byte aa;
-        byte ab;
-        byte ac;
-        byte ad;
-        byte bc;
-        if (n >= o) {
-            if (o >= p) {
-                w = 1;
-                aa = 0;
-                ab = 0;
-                ac = 1;
-                ad = 1;
-                bc = 0;
-            } else if (n >= p) {
-                w = 1;
-                aa = 0;
-                ab = 0;
-                ac = 1;
-                ad = 0;
-                bc = 1;
+        return sample3d(this.permutations, this.gradients, x, y, z);
+    }
+
+    @Override
+    public void sampleGrid(double[] xs, double[] ys, double[] zs, double[] out, int offset) {
+        int[] permutations = this.permutations;
+        int[] gradients = this.gradients;
+        int i = offset;
+
+        for (double z : zs) {
+            for (double y : ys) {
+                for (double x : xs) {
+                    out[i++] = sample3d(permutations, gradients, x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds {@code amplitude} times every sample to {@code out}, in the layout of
+     * {@link #sampleGrid(double[], double[], double[], double[], int)}.
+     */
+    void addGrid(double[] xs, double[] ys, double[] zs, double amplitude, double[] out, int offset) {
+        int[] permutations = this.permutations;
+        int[] gradients = this.gradients;
+        int i = offset;
+
+        for (double z : zs) {
+            for (double y : ys) {
+                for (double x : xs) {
+                    out[i++] += sample3d(permutations, gradients, x, y, z) * amplitude;
+                }
+            }
+        }
+    }
+
+    private static double sample3d(int[] permutations, int[] gradients, double x, double y, double z) {
+        double skew = (x + y + z) * 0.3333333333333333D;
+        int i = MathHelper.floor_double(x + skew);
+        int j = MathHelper.floor_double(y + skew);
+        int k = MathHelper.floor_double(z + skew);
+        double unskew = (double) (i + j + k) * 0.16666666666666666D;
+        double x0 = x - ((double) i - unskew);
+        double y0 = y - ((double) j - unskew);
+        double z0 = z - ((double) k - unskew);
+
+        // offsets of the second and third corner of the simplex the point is in
+        int i1, j1, k1, i2, j2, k2;
+
+        if (x0 >= y0) {
+            if (y0 >= z0) {
+                i1 = 1;
+                j1 = 0;
+                k1 = 0;
+                i2 = 1;
+                j2 = 1;
+                k2 = 0;
+            } else if (x0 >= z0) {
+                i1 = 1;
+                j1 = 0;
+                k1 = 0;
+                i2 = 1;
+                j2 = 0;
+                k2 = 1;
             } else {
-                w = 0;
-                aa = 0;
-                ab = 1;
-                ac = 1;
-                ad = 0;
-                bc = 1;
+                i1 = 0;
+                j1 = 0;
+                k1 = 1;
+                i2 = 1;
+                j2 = 0;
+                k2 = 1;
             }
-        } else if (o < p) {
-            w = 0;
-            aa = 0;
-            ab = 1;
-            ac = 0;
-            ad = 1;
-            bc = 1;
-        } else if (n < p) {
-            w = 0;
-            aa = 1;
-            ab = 0;
-            ac = 0;
-            ad = 1;
-            bc = 1;
+        } else if (y0 < z0) {
+            i1 = 0;
+            j1 = 0;
+            k1 = 1;
+            i2 = 0;
+            j2 = 1;
+            k2 = 1;
+        } else if (x0 < z0) {
+            i1 = 0;
+            j1 = 1;
+            k1 = 0;
+            i2 = 0;
+            j2 = 1;
+            k2 = 1;
         } else {
-            w = 0;
-            aa = 1;
-            ab = 0;
-            ac = 1;
-            ad = 1;
-            bc = 0;
+            i1 = 0;
+            j1 = 1;
+            k1 = 0;
+            i2 = 1;
+            j2 = 1;
+            k2 = 0;
         }
 
-        double bd = n - (double) w + 0.16666666666666666D;
-        double be = o - (double) aa + 0.16666666666666666D;
-        double bf = p - (double) ab + 0.16666666666666666D;
-        double bg = n - (double) ac + 0.3333333333333333D;
-        double bh = o - (double) ad + 0.3333333333333333D;
-        double bi = p - (double) bc + 0.3333333333333333D;
-        double bj = n - 1.0D + 0.5D;
-        double bk = o - 1.0D + 0.5D;
-        double bl = p - 1.0D + 0.5D;
-        int bm = i & 255;
-        int bn = j & 255;
-        int bo = k & 255;
-        int bp = this.getGradient(bm + this.getGradient(bn + this.getGradient(bo))) % 12;
-        int bq = this.getGradient(bm + w + this.getGradient(bn + aa + this.getGradient(bo + ab))) % 12;
-        int br = this.getGradient(bm + ac + this.getGradient(bn + ad + this.getGradient(bo + bc))) % 12;
-        int bs = this.getGradient(bm + 1 + this.getGradient(bn + 1 + this.getGradient(bo + 1))) % 12;
-        double bt = this.grad(bp, n, o, p, 0.6D);
-        double bu = this.grad(bq, bd, be, bf, 0.6D);
-        double bv = this.grad(br, bg, bh, bi, 0.6D);
-        double bw = this.grad(bs, bj, bk, bl, 0.6D);
-        return 32.0D * (bt + bu + bv + bw);
+        double x1 = x0 - (double) i1 + 0.16666666666666666D;
+        double y1 = y0 - (double) j1 + 0.16666666666666666D;
+        double z1 = z0 - (double) k1 + 0.16666666666666666D;
+        double x2 = x0 - (double) i2 + 0.3333333333333333D;
+        double y2 = y0 - (double) j2 + 0.3333333333333333D;
+        double z2 = z0 - (double) k2 + 0.3333333333333333D;
+        double x3 = x0 - 1.0D + 0.5D;
+        double y3 = y0 - 1.0D + 0.5D;
+        double z3 = z0 - 1.0D + 0.5D;
+
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+
+        int g0 = gradients[(ii + permutations[(jj + permutations[kk]) & 255]) & 255];
+        int g1 = gradients[(ii + i1 + permutations[(jj + j1 + permutations[(kk + k1) & 255]) & 255]) & 255];
+        int g2 = gradients[(ii + i2 + permutations[(jj + j2 + permutations[(kk + k2) & 255]) & 255]) & 255];
+        int g3 = gradients[(ii + 1 + permutations[(jj + 1 + permutations[(kk + 1) & 255]) & 255]) & 255];
+
+        return 32.0D * (corner(g0, x0, y0, z0) + corner(g1, x1, y1, z1)
+            + corner(g2, x2, y2, z2)
+            + corner(g3, x3, y3, z3));
+    }
+
+    private static double corner(int gradient, double x, double y, double z) {
+        double d = 0.6D - x * x - y * y - z * z;
+
+        if (d < 0.0D) return 0.0D;
+
+        d *= d;
+        return d * d * (GRADIENT_X[gradient] * x + GRADIENT_Y[gradient] * y + GRADIENT_Z[gradient] * z);
     }
 
     static {
         SKEW_FACTOR_2D = 0.5D * (SQRT_3 - 1.0D);
         UNSKEW_FACTOR_2D = (3.0D - SQRT_3) / 6.0D;
+
+        for (int i = 0; i < 12; i++) {
+            GRADIENT_X[i] = GRADIENTS[i][0];
+            GRADIENT_Y[i] = GRADIENTS[i][1];
+            GRADIENT_Z[i] = GRADIENTS[i][2];
+        }
     }
 }
@@ -0,0 +1,133 @@
+package com.cardinalstar.cubicchunks.lighting;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.minecraft.util.EnumFacing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FirstLightSnapshotTests {
+
+    private static final int BLOCKS = 16 * 16 * 16;
+
+    @Test
+    public void lightFadesWithDistance() {
+        byte[] light = new byte[BLOCKS];
+        byte[] opacity = filled((byte) 1);
+
+        light[FirstLightSnapshot.index(8, 8, 8)] = 14;
+
+        FirstLightSnapshot.propagate(light, opacity);
+
+        Assertions.assertEquals(13, light[FirstLightSnapshot.index(9, 8, 8)]);
+        Assertions.assertEquals(10, light[FirstLightSnapshot.index(10, 10, 8)]);
+        Assertions.assertEquals(7, light[FirstLightSnapshot.index(15, 8, 8)]);
+        Assertions.assertEquals(1, light[FirstLightSnapshot.index(15, 8, 2)]);
+        Assertions.assertEquals(0, light[FirstLightSnapshot.index(0, 0, 0)]);
+    }
+
+    @Test
+    public void opaqueBlocksStopLight() {
+        byte[] light = new byte[BLOCKS];
+        byte[] opacity = filled((byte) 1);
+
+        // a wall at x = 4
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                opacity[FirstLightSnapshot.index(4, y, z)] = 15;
+            }
+        }
+
+        light[FirstLightSnapshot.index(0, 8, 8)] = 15;
+
+        FirstLightSnapshot.propagate(light, opacity);
+
+        for (int i = 0; i < BLOCKS; i++) {
+            if ((i & 15) >= 4) {
+                Assertions.assertEquals(0, light[i]);
+            }
+        }
+    }
+
+    @Test
+    public void matchesFixedPoint() {
+        Random random = new Random(1234);
+
+        for (int round = 0; round < 10; round++) {
+            byte[] light = new byte[BLOCKS];
+            byte[] opacity = new byte[BLOCKS];
+
+            for (int i = 0; i < BLOCKS; i++) {
+                opacity[i] = (byte) (random.nextInt(4) == 0 ? 1 + random.nextInt(15) : 1);
+                light[i] = (byte) (random.nextInt(100) == 0 ? random.nextInt(16) : 0);
+            }
+
+            byte[] expected = naivePropagate(light.clone(), opacity);
+
+            FirstLightSnapshot.propagate(light, opacity);
+
+            Assertions.assertArrayEquals(expected, light);
+        }
+    }
+
+    @Test
+    public void facesCoverTheirSide() {
+        for (EnumFacing face : EnumFacing.values()) {
+            boolean[] seen = new boolean[BLOCKS];
+
+            for (int i = 0; i < 256; i++) {
+                int index = FirstLightSnapshot.facePosition(face, i);
+
+                Assertions.assertFalse(seen[index]);
+                seen[index] = true;
+
+                int x = index & 15, y = index >> 8, z = (index >> 4) & 15;
+
+                // stepping out of the face leaves the cube
+                int outX = x + face.getFrontOffsetX();
+                int outY = y + face.getFrontOffsetY();
+                int outZ = z + face.getFrontOffsetZ();
+
+                Assertions.assertTrue(outX < 0 || outX > 15 || outY < 0 || outY > 15 || outZ < 0 || outZ > 15);
+            }
+        }
+    }
+
+    private static byte[] filled(byte value) {
+        byte[] array = new byte[BLOCKS];
+        Arrays.fill(array, value);
+        return array;
+    }
+
+    /** Applies the light engine's rule to every block until nothing changes. */
+    private static byte[] naivePropagate(byte[] light, byte[] opacity) {
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int i = 0; i < BLOCKS; i++) {
+                int x = i & 15, y = i >> 8, z = (i >> 4) & 15;
+                int brightest = 0;
+
+                if (x > 0) brightest = Math.max(brightest, light[i - 1]);
+                if (x < 15) brightest = Math.max(brightest, light[i + 1]);
+                if (z > 0) brightest = Math.max(brightest, light[i - 16]);
+                if (z < 15) brightest = Math.max(brightest, light[i + 16]);
+                if (y > 0) brightest = Math.max(brightest, light[i - 256]);
+                if (y < 15) brightest = Math.max(brightest, light[i + 256]);
+
+                int newLight = brightest - opacity[i];
+
+                if (newLight > light[i]) {
+                    light[i] = (byte) newLight;
+                    changed = true;
+                }
+            }
+        }
+
+        return light;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cardinalstar.cubicchunks.lighting.phosphor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LightUpdatePartitionerTests {
+
+    /** Columns this far apart can touch the same cube. */
+    private static final int MAX_SHARED_DISTANCE = LightUpdatePartitioner.REACH * 2;
+
+    @Test
+    public void duplicateColumns() {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+
+        int a = partitioner.addColumn(3, -7);
+        int b = partitioner.addColumn(3, -7);
+
+        Assertions.assertEquals(a, b);
+        Assertions.assertEquals(1, partitioner.getColumnCount());
+    }
+
+    @Test
+    public void nearbyColumnsShareAGroup() {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+
+        int origin = partitioner.addColumn(0, 0);
+        int straight = partitioner.addColumn(MAX_SHARED_DISTANCE, 0);
+        int diagonal = partitioner.addColumn(-MAX_SHARED_DISTANCE, -MAX_SHARED_DISTANCE);
+
+        int[] groups = partitioner.partition();
+
+        Assertions.assertEquals(groups[origin], groups[straight]);
+        Assertions.assertEquals(groups[origin], groups[diagonal]);
+    }
+
+    @Test
+    public void distantColumnsAreSeparate() {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+
+        int origin = partitioner.addColumn(0, 0);
+        int x = partitioner.addColumn(MAX_SHARED_DISTANCE + 1, 0);
+        int z = partitioner.addColumn(0, -MAX_SHARED_DISTANCE - 1);
+
+        int[] groups = partitioner.partition();
+
+        Assertions.assertNotEquals(groups[origin], groups[x]);
+        Assertions.assertNotEquals(groups[origin], groups[z]);
+        Assertions.assertNotEquals(groups[x], groups[z]);
+    }
+
+    @Test
+    public void chainsAreMerged() {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+
+        // added out of order, so that the chain is only connected through later columns
+        int first = partitioner.addColumn(0, 0);
+        int last = partitioner.addColumn(MAX_SHARED_DISTANCE * 3, 0);
+        int separate = partitioner.addColumn(MAX_SHARED_DISTANCE * 4 + 1, 0);
+        partitioner.addColumn(MAX_SHARED_DISTANCE * 2, 0);
+        partitioner.addColumn(MAX_SHARED_DISTANCE, 0);
+
+        int[] groups = partitioner.partition();
+
+        for (int i = 0; i < groups.length; i++) {
+            if (i != separate) {
+                Assertions.assertEquals(groups[first], groups[i]);
+            }
+        }
+
+        Assertions.assertEquals(groups[first], groups[last]);
+        Assertions.assertNotEquals(groups[first], groups[separate]);
+    }
+
+    @Test
+    public void groupsAreNumberedByFirstColumn() {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+
+        partitioner.addColumn(100, 100);
+        partitioner.addColumn(-100, 0);
+        partitioner.addColumn(0, 0);
+        partitioner.addColumn(-101, 1);
+        partitioner.addColumn(101, 100);
+
+        Assertions.assertArrayEquals(new int[] { 0, 1, 2, 1, 0 }, partitioner.partition());
+    }
+
+    @Test
+    public void balanceSpreadsUpdatesEvenly() {
+        int[] sizes = { 10, 50, 20, 20, 10, 30 };
+
+        int[] bins = LightUpdatePartitioner.balance(sizes, 3);
+
+        int[] binSizes = new int[3];
+
+        for (int group = 0; group < sizes.length; group++) {
+            binSizes[bins[group]] += sizes[group];
+        }
+
+        // the biggest group goes first, into its own bin
+        Assertions.assertEquals(0, bins[1]);
+        Assertions.assertArrayEquals(new int[] { 50, 50, 40 }, binSizes);
+    }
+}
@@ -0,0 +1,432 @@
+package com.cardinalstar.cubicchunks.lighting.phosphor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.cardinalstar.cubicchunks.util.Coords;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/**
+ * Processes batches of block light updates once in queue order, and once split into the groups of a parallel pass,
+ * and compares the results.
+ * <p>
+ * {@link PhosphorLightEngine} needs a world with cubes and columns, so the light is propagated by {@link Engine}
+ * instead, which follows {@code PhosphorLightEngine.processLightUpdatesForTypeInner} step by step on a grid of blocks.
+ * Like {@link LightRegion}, a group may only touch the cubes within {@link LightUpdatePartitioner#REACH} of its
+ * updates.
+ */
+public class ParallelLightingTests {
+
+    private static final int MAX_LIGHT = 15;
+
+    /** The grid's size in cubes. Everything outside of it is treated like unloaded cubes. */
+    private static final int CUBES_XZ = 20;
+    private static final int CUBES_Y = 3;
+
+    private static final int SIZE_XZ = CUBES_XZ * 16;
+    private static final int SIZE_Y = CUBES_Y * 16;
+
+    /** The cube columns the changes are made around. The last two are close enough to end up in one group. */
+    private static final int[][] AREAS = { { 2, 2 }, { 2, 10 }, { 10, 2 }, { 10, 10 }, { 16, 16 }, { 17, 12 } };
+
+    @Test
+    public void groupsMatchSerialProcessing() {
+        for (int seed = 0; seed < 4; seed++) {
+            Random random = new Random(seed);
+            Grid grid = new Grid(random);
+
+            IntArrayList updates = grid.change(random);
+
+            Grid serial = grid.copy();
+            new Engine(serial, null).process(updates);
+
+            Grid parallel = grid.copy();
+            List<IntArrayList> groups = partition(updates);
+
+            Assertions.assertTrue(groups.size() > 1, "nothing to split up");
+
+            // groups are independent, so the order they're processed in doesn't matter
+            for (int i = groups.size() - 1; i >= 0; i--) {
+                IntArrayList group = groups.get(i);
+                new Engine(parallel, reachableCubes(group)).process(group);
+            }
+
+            Assertions.assertFalse(Arrays.equals(grid.light, serial.light), "nothing changed");
+            assertSameLight(serial, parallel, seed);
+        }
+    }
+
+    /**
+     * Groups the updates the same way {@link ParallelLightProcessor} does, keeping each group's updates in queue order.
+     */
+    private static List<IntArrayList> partition(IntArrayList updates) {
+        LightUpdatePartitioner partitioner = new LightUpdatePartitioner();
+        IntArrayList columns = new IntArrayList();
+
+        for (int i = 0; i < updates.size(); i++) {
+            int index = updates.getInt(i);
+            columns.add(partitioner.addColumn(Coords.blockToCube(x(index)), Coords.blockToCube(z(index))));
+        }
+
+        int[] groupOfColumn = partitioner.partition();
+        List<IntArrayList> groups = new ArrayList<>();
+
+        for (int i = 0; i < updates.size(); i++) {
+            int group = groupOfColumn[columns.getInt(i)];
+
+            while (groups.size() <= group) {
+                groups.add(new IntArrayList());
+            }
+
+            groups.get(group)
+                .add(updates.getInt(i));
+        }
+
+        return groups;
+    }
+
+    /**
+     * @return the cubes a region with the given updates would look up
+     */
+    private static LongOpenHashSet reachableCubes(IntArrayList updates) {
+        LongOpenHashSet cubes = new LongOpenHashSet();
+        int reach = LightUpdatePartitioner.REACH;
+
+        for (int i = 0; i < updates.size(); i++) {
+            int index = updates.getInt(i);
+            int cubeX = Coords.blockToCube(x(index));
+            int cubeY = Coords.blockToCube(y(index));
+            int cubeZ = Coords.blockToCube(z(index));
+
+            for (int dx = -reach; dx <= reach; dx++) {
+                for (int dy = -reach; dy <= reach; dy++) {
+                    for (int dz = -reach; dz <= reach; dz++) {
+                        cubes.add(Coords.key(cubeX + dx, cubeY + dy, cubeZ + dz));
+                    }
+                }
+            }
+        }
+
+        return cubes;
+    }
+
+    private static void assertSameLight(Grid expected, Grid actual, int seed) {
+        for (int i = 0; i < expected.light.length; i++) {
+            if (expected.light[i] != actual.light[i]) {
+                Assertions.fail(
+                    "seed " + seed
+                        + ": light at "
+                        + x(i)
+                        + ", "
+                        + y(i)
+                        + ", "
+                        + z(i)
+                        + " is "
+                        + actual.light[i]
+                        + ", expected "
+                        + expected.light[i]);
+            }
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y * SIZE_XZ + z) * SIZE_XZ + x;
+    }
+
+    private static int x(int index) {
+        return index % SIZE_XZ;
+    }
+
+    private static int y(int index) {
+        return index / (SIZE_XZ * SIZE_XZ);
+    }
+
+    private static int z(int index) {
+        return index / SIZE_XZ % SIZE_XZ;
+    }
+
+    private static boolean inGrid(int x, int y, int z) {
+        return x >= 0 && x < SIZE_XZ && y >= 0 && y < SIZE_Y && z >= 0 && z < SIZE_XZ;
+    }
+
+    private static final class Grid {
+
+        private final byte[] light;
+        private final byte[] luminosity;
+        private final byte[] opacity;
+
+        /**
+         * Fills the grid with air, stone, some translucent blocks and light sources, and lights it.
+         */
+        Grid(Random random) {
+            int blocks = SIZE_XZ * SIZE_XZ * SIZE_Y;
+
+            light = new byte[blocks];
+            luminosity = new byte[blocks];
+            opacity = new byte[blocks];
+
+            IntArrayList sources = new IntArrayList();
+
+            for (int i = 0; i < blocks; i++) {
+                int block = random.nextInt(100);
+
+                if (block < 15) {
+                    opacity[i] = MAX_LIGHT;
+                } else if (block < 20) {
+                    opacity[i] = (byte) (2 + random.nextInt(4));
+                } else {
+                    opacity[i] = 1;
+
+                    if (block == 20 && random.nextInt(20) == 0) {
+                        luminosity[i] = (byte) (random.nextBoolean() ? MAX_LIGHT : 14);
+                        sources.add(i);
+                    }
+                }
+            }
+
+            new Engine(this, null).process(sources);
+        }
+
+        private Grid(Grid grid) {
+            light = grid.light.clone();
+            luminosity = grid.luminosity.clone();
+            opacity = grid.opacity.clone();
+        }
+
+        Grid copy() {
+            return new Grid(this);
+        }
+
+        /**
+         * Places and removes blocks and light sources around {@link #AREAS}, without updating the light.
+         *
+         * @return the changed positions, in the order the world would have queued them
+         */
+        IntArrayList change(Random random) {
+            IntArrayList changed = new IntArrayList();
+
+            for (int i = 0; i < 600; i++) {
+                int[] area = AREAS[random.nextInt(AREAS.length)];
+
+                // around the area's column, so that the changes reach into the neighbouring columns
+                int x = area[0] * 16 + random.nextInt(24) - 4;
+                int y = random.nextInt(SIZE_Y);
+                int z = area[1] * 16 + random.nextInt(24) - 4;
+
+                int index = index(x, y, z);
+
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        luminosity[index] = MAX_LIGHT;
+                        opacity[index] = 1;
+                    }
+                    case 1 -> luminosity[index] = 0;
+                    case 2 -> {
+                        luminosity[index] = 0;
+                        opacity[index] = MAX_LIGHT;
+                    }
+                    default -> opacity[index] = 1;
+                }
+
+                changed.add(index);
+            }
+
+            return changed;
+        }
+    }
+
+    /**
+     * The block light part of {@link PhosphorLightEngine}, on a {@link Grid}.
+     */
+    private static final class Engine {
+
+        private static final int[][] NEIGHBORS = { { 0, -1, 0 }, { 0, 1, 0 }, { 0, 0, -1 }, { 0, 0, 1 }, { -1, 0, 0 },
+            { 1, 0, 0 } };
+
+        private final Grid grid;
+        /** The cubes this engine may touch, or null for every cube. */
+        private final LongOpenHashSet cubes;
+
+        private final IntArrayList[] queuedBrightenings = new IntArrayList[MAX_LIGHT + 1];
+        private final IntArrayList[] queuedDarkenings = new IntArrayList[MAX_LIGHT + 1];
+
+        Engine(Grid grid, LongOpenHashSet cubes) {
+            this.grid = grid;
+            this.cubes = cubes;
+
+            for (int i = 0; i <= MAX_LIGHT; i++) {
+                queuedBrightenings[i] = new IntArrayList();
+                queuedDarkenings[i] = new IntArrayList();
+            }
+        }
+
+        void process(IntArrayList queue) {
+            IntArrayList initialBrightenings = new IntArrayList();
+            IntArrayList initialDarkenings = new IntArrayList();
+
+            for (int i = 0; i < queue.size(); i++) {
+                int pos = queue.getInt(i);
+
+                if (!isLoaded(pos)) continue;
+
+                int oldLight = grid.light[pos];
+                int newLight = calculateNewLight(pos);
+
+                if (oldLight < newLight) {
+                    initialBrightenings.add(pos);
+                    initialBrightenings.add(newLight);
+                } else if (oldLight > newLight) {
+                    initialDarkenings.add(pos);
+                }
+            }
+
+            for (int i = 0; i < initialBrightenings.size(); i += 2) {
+                int pos = initialBrightenings.getInt(i);
+                int newLight = initialBrightenings.getInt(i + 1);
+
+                if (newLight > grid.light[pos]) {
+                    enqueueBrightening(pos, newLight);
+                }
+            }
+
+            for (int i = 0; i < initialDarkenings.size(); i++) {
+                int pos = initialDarkenings.getInt(i);
+                int oldLight = grid.light[pos];
+
+                if (oldLight != 0) {
+                    enqueueDarkening(pos, oldLight);
+                }
+            }
+
+            for (int curLight = MAX_LIGHT; curLight >= 0; curLight--) {
+                IntArrayList darkenings = queuedDarkenings[curLight];
+
+                for (int i = 0; i < darkenings.size(); i++) {
+                    darken(darkenings.getInt(i), curLight);
+                }
+
+                darkenings.clear();
+
+                IntArrayList brightenings = queuedBrightenings[curLight];
+
+                for (int i = 0; i < brightenings.size(); i++) {
+                    int pos = brightenings.getInt(i);
+
+                    if (grid.light[pos] == curLight && curLight > 1) {
+                        spreadLight(pos, curLight);
+                    }
+                }
+
+                brightenings.clear();
+            }
+        }
+
+        private void darken(int pos, int curLight) {
+            if (grid.light[pos] >= curLight) return;
+
+            int luminosity = grid.luminosity[pos];
+            int opacity = luminosity >= MAX_LIGHT - 1 ? 1 : grid.opacity[pos];
+
+            if (calculateNewLight(pos, luminosity, opacity) >= curLight) {
+                enqueueBrightening(pos, curLight);
+                return;
+            }
+
+            int newLight = luminosity;
+
+            for (int[] offset : NEIGHBORS) {
+                int neighbor = neighbor(pos, offset);
+
+                if (neighbor == -1) continue;
+
+                int neighborLight = grid.light[neighbor];
+
+                if (neighborLight == 0) continue;
+
+                if (curLight - grid.opacity[neighbor] >= neighborLight) {
+                    enqueueDarkening(neighbor, neighborLight);
+                } else {
+                    newLight = Math.max(newLight, neighborLight - opacity);
+                }
+            }
+
+            enqueueBrightening(pos, newLight);
+        }
+
+        private void spreadLight(int pos, int curLight) {
+            for (int[] offset : NEIGHBORS) {
+                int neighbor = neighbor(pos, offset);
+
+                if (neighbor == -1) continue;
+
+                int newLight = curLight - grid.opacity[neighbor];
+
+                if (newLight > grid.light[neighbor]) {
+                    enqueueBrightening(neighbor, newLight);
+                }
+            }
+        }
+
+        private int calculateNewLight(int pos) {
+            int luminosity = grid.luminosity[pos];
+            int opacity = luminosity >= MAX_LIGHT - 1 ? 1 : grid.opacity[pos];
+
+            return calculateNewLight(pos, luminosity, opacity);
+        }
+
+        private int calculateNewLight(int pos, int luminosity, int opacity) {
+            if (luminosity >= MAX_LIGHT - opacity) return luminosity;
+
+            int newLight = luminosity;
+
+            for (int[] offset : NEIGHBORS) {
+                int neighbor = neighbor(pos, offset);
+
+                if (neighbor == -1) continue;
+
+                newLight = Math.max(grid.light[neighbor] - opacity, newLight);
+            }
+
+            return newLight;
+        }
+
+        private void enqueueBrightening(int pos, int newLight) {
+            queuedBrightenings[newLight].add(pos);
+            grid.light[pos] = (byte) newLight;
+        }
+
+        private void enqueueDarkening(int pos, int oldLight) {
+            queuedDarkenings[oldLight].add(pos);
+            grid.light[pos] = 0;
+        }
+
+        /**
+         * @return the neighbor's index, or -1 if it's not loaded
+         */
+        private int neighbor(int pos, int[] offset) {
+            int x = x(pos) + offset[0];
+            int y = y(pos) + offset[1];
+            int z = z(pos) + offset[2];
+
+            if (cubes != null && !cubes
+                .contains(Coords.key(Coords.blockToCube(x), Coords.blockToCube(y), Coords.blockToCube(z)))) {
+                throw new IllegalStateException(
+                    "Light update reached " + x + ", " + y + ", " + z + " outside of its group");
+            }
+
+            return inGrid(x, y, z) ? index(x, y, z) : -1;
+        }
+
+        private boolean isLoaded(int pos) {
+            return cubes == null || cubes.contains(
+                Coords.key(Coords.blockToCube(x(pos)), Coords.blockToCube(y(pos)), Coords.blockToCube(z(pos))));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.cardinalstar.cubicchunks.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WorldPregeneratorTests {
+
+    @Test
+    public void spiralStartsAtTheCenter() {
+        Assertions.assertEquals(0L, WorldPregenerator.spiral(0));
+    }
+
+    @Test
+    public void spiralCoversEachRingOnce() {
+        Set<Long> seen = new HashSet<>();
+
+        for (int ring = 0; ring <= 20; ring++) {
+            int first = ring == 0 ? 0 : (ring * 2 - 1) * (ring * 2 - 1);
+            int end = (ring * 2 + 1) * (ring * 2 + 1);
+
+            for (int index = first; index < end; index++) {
+                long pos = WorldPregenerator.spiral(index);
+
+                Assertions.assertEquals(ring, Math.max(Math.abs(x(pos)), Math.abs(z(pos))), "ring of index " + index);
+                Assertions.assertTrue(seen.add(pos), "index " + index + " repeats a tile");
+            }
+        }
+
+        Assertions.assertEquals(41 * 41, seen.size());
+        Assertions.assertTrue(seen.contains(-20L << 32 | (-20 & 0xFFFFFFFFL)), "the corner -20,-20 is missing");
+    }
+
+    @Test
+    public void spiralStepsToNeighbours() {
+        long previous = WorldPregenerator.spiral(0);
+
+        for (int index = 1; index < 10_000; index++) {
+            long pos = WorldPregenerator.spiral(index);
+
+            int distance = Math.abs(x(pos) - x(previous)) + Math.abs(z(pos) - z(previous));
+
+            Assertions.assertEquals(1, distance, "step to index " + index);
+
+            previous = pos;
+        }
+    }
+
+    private static int x(long pos) {
+        return (int) (pos >> 32);
+    }
+
+    private static int z(long pos) {
+        return (int) pos;
+    }
+}
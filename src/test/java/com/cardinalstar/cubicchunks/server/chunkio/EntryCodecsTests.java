@@ -0,0 +1,171 @@
+package com.cardinalstar.cubicchunks.server.chunkio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+
+public class EntryCodecsTests {
+
+    /** Enough entries to train a dictionary. */
+    private static final int TRAINING_ENTRIES = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void codecsRoundTrip() throws IOException {
+        for (String name : new String[] { EntryCodecs.NONE, EntryCodecs.DEFLATE_FAST, EntryCodecs.GZIP }) {
+            EntryCodecs codecs = new EntryCodecs(name, null);
+
+            Assertions.assertEquals(name, codecs.getWriteCodec().name);
+
+            NBTTagCompound tag = entry(7);
+
+            Assertions.assertEquals(tag, decode(codecs, encode(codecs, tag)), name);
+        }
+    }
+
+    @Test
+    public void entriesStartWithTheCodecId() throws IOException {
+        byte[] none = encode(new EntryCodecs(EntryCodecs.NONE, null), entry(0));
+        byte[] deflate = encode(new EntryCodecs(EntryCodecs.DEFLATE_FAST, null), entry(0));
+        byte[] gzip = encode(new EntryCodecs(EntryCodecs.GZIP, null), entry(0));
+
+        Assertions.assertEquals(EntryCodec.ID_NONE, none[0]);
+        Assertions.assertEquals(EntryCodec.ID_DEFLATE_FAST, deflate[0]);
+        Assertions.assertEquals(EntryCodec.ID_GZIP, gzip[0]);
+    }
+
+    @Test
+    public void unknownCodecFallsBackToTheDefault() {
+        Assertions.assertEquals(EntryCodecs.DEFAULT, new EntryCodecs("lz4", null).getWriteCodec().name);
+    }
+
+    @Test
+    public void anyCodecReadsEntriesOfAnother() throws IOException {
+        byte[] data = encode(new EntryCodecs(EntryCodecs.NONE, null), entry(3));
+
+        Assertions.assertEquals(entry(3), decode(new EntryCodecs(EntryCodecs.GZIP, null), data));
+        Assertions.assertEquals(entry(3), EntryCodecs.STATELESS.decode(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void readsEntriesWrittenBeforeCodecs() throws IOException {
+        NBTTagCompound tag = entry(5);
+
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        CompressedStreamTools.write(tag, new DataOutputStream(uncompressed));
+
+        byte[] gzip = CompressedStreamTools.compress(tag);
+
+        Assertions.assertEquals(tag, EntryCodecs.STATELESS.decode(ByteBuffer.wrap(uncompressed.toByteArray())));
+        Assertions.assertEquals(tag, EntryCodecs.STATELESS.decode(ByteBuffer.wrap(gzip)));
+    }
+
+    @Test
+    public void dictionaryIsTrainedFromTheFirstEntries() throws IOException {
+        EntryCodecs codecs = new EntryCodecs(EntryCodecs.DEFLATE_DICT, directory);
+
+        Assertions.assertEquals(EntryCodecs.DEFLATE_FAST, codecs.getWriteCodec().name);
+
+        List<byte[]> entries = new ArrayList<>();
+
+        for (int i = 0; i < TRAINING_ENTRIES; i++) {
+            entries.add(encode(codecs, entry(i)));
+        }
+
+        Assertions.assertEquals(EntryCodecs.DEFLATE_DICT, codecs.getWriteCodec().name);
+        Assertions.assertEquals(1, dictionaryFiles().size());
+
+        byte[] compressed = encode(codecs, entry(TRAINING_ENTRIES));
+
+        Assertions.assertEquals(EntryCodec.ID_DEFLATE_DICT, compressed[0]);
+        entries.add(compressed);
+
+        // entries from before and after the dictionary, read by the same world after a restart
+        EntryCodecs reopened = new EntryCodecs(EntryCodecs.DEFLATE_DICT, directory);
+
+        Assertions.assertEquals(EntryCodecs.DEFLATE_DICT, reopened.getWriteCodec().name);
+
+        for (int i = 0; i < entries.size(); i++) {
+            Assertions.assertEquals(entry(i), decode(codecs, entries.get(i)), "entry " + i);
+            Assertions.assertEquals(entry(i), decode(reopened, entries.get(i)), "reopened entry " + i);
+        }
+    }
+
+    @Test
+    public void missingDictionaryIsReported() throws IOException {
+        EntryCodecs codecs = new EntryCodecs(EntryCodecs.DEFLATE_DICT, directory);
+
+        for (int i = 0; i < TRAINING_ENTRIES; i++) {
+            encode(codecs, entry(i));
+        }
+
+        byte[] compressed = encode(codecs, entry(0));
+
+        for (Path file : dictionaryFiles()) {
+            Files.delete(file);
+        }
+
+        EntryCodecs reopened = new EntryCodecs(EntryCodecs.DEFLATE_DICT, directory);
+
+        IOException e = Assertions.assertThrows(IOException.class, () -> decode(reopened, compressed));
+
+        Assertions.assertTrue(e.getMessage().contains("entries-"), e.getMessage());
+    }
+
+    private List<Path> dictionaryFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(
+                path -> path.getFileName()
+                    .toString()
+                    .endsWith(".dict"))
+                .forEach(files::add);
+        }
+
+        return files;
+    }
+
+    /**
+     * @return a tag resembling a saved column, mostly the same between entries like the real ones
+     */
+    private static NBTTagCompound entry(int index) {
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.setInteger("x", index);
+        tag.setInteger("z", -index);
+        tag.setString("Biome", "plains");
+        tag.setByteArray("Blocks", new byte[1024]);
+        tag.setBoolean("TerrainPopulated", true);
+        return tag;
+    }
+
+    private static byte[] encode(EntryCodecs codecs, NBTTagCompound tag) throws IOException {
+        ByteBuf payload = Unpooled.buffer();
+        CompressedStreamTools.write(tag, new ByteBufOutputStream(payload));
+
+        return codecs.encode(payload);
+    }
+
+    private static NBTTagCompound decode(EntryCodecs codecs, byte[] data) throws IOException {
+        return codecs.decode(ByteBuffer.wrap(data));
+    }
+}
@@ -0,0 +1,168 @@
+package com.cardinalstar.cubicchunks.server.chunkio.region;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.lib.RegionEntryLocation;
+
+public class ShadowPagingRegionTests {
+
+    private static final Object MARKER = new Object();
+    private static final byte[] MARKER_DATA = { 1, 2, 3 };
+
+    /** Stored in the header in place of a location. No entry is ever stored there, it's inside the header. */
+    private static final RegionEntryLocation MARKER_LOCATION = new RegionEntryLocation(1, 0xFF);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void compactKeepsEntries() throws IOException {
+        Map<EntryLocation2D, byte[]> expected = new HashMap<>();
+
+        try (ShadowPagingRegion<EntryLocation2D> region = open()) {
+            fill(region, expected);
+
+            long live = region.getLiveSize();
+            long reclaimed = region.compact();
+
+            Assertions.assertTrue(reclaimed > 0, "nothing was reclaimed");
+            Assertions.assertEquals(live, region.getFileSize());
+            Assertions.assertEquals(live, region.getLiveSize());
+
+            assertEntries(region, expected);
+        }
+    }
+
+    @Test
+    public void compactRewritesTheHeader() throws IOException {
+        Map<EntryLocation2D, byte[]> expected = new HashMap<>();
+
+        try (ShadowPagingRegion<EntryLocation2D> region = open()) {
+            fill(region, expected);
+            region.compact();
+        }
+
+        Assertions.assertFalse(Files.exists(directory.resolve(regionName() + ".compact")), "temporary file left over");
+
+        try (ShadowPagingRegion<EntryLocation2D> region = open()) {
+            assertEntries(region, expected);
+
+            Assertions.assertEquals(0, region.compact(), "the compacted file was compacted again");
+        }
+    }
+
+    @Test
+    public void writesAfterCompactUseTheNewFile() throws IOException {
+        Map<EntryLocation2D, byte[]> expected = new HashMap<>();
+
+        try (ShadowPagingRegion<EntryLocation2D> region = open()) {
+            fill(region, expected);
+            region.compact();
+
+            write(region, expected, new EntryLocation2D(5, 5), new byte[3000]);
+            write(region, expected, new EntryLocation2D(6, 5), new byte[100]);
+
+            assertEntries(region, expected);
+        }
+
+        try (ShadowPagingRegion<EntryLocation2D> region = open()) {
+            assertEntries(region, expected);
+        }
+    }
+
+    private ShadowPagingRegion<EntryLocation2D> open() throws IOException {
+        return ShadowPagingRegion.<EntryLocation2D>builder()
+            .setDirectory(directory)
+            .setRegionKey(new EntryLocation2D(0, 0).getRegionKey())
+            .setKeyProvider(new EntryLocation2D.Provider())
+            .setSectorSize(512)
+            .setSync(false)
+            .addSpecialEntry(MARKER, MARKER_LOCATION, key -> ByteBuffer.wrap(MARKER_DATA))
+            .build();
+    }
+
+    private static String regionName() {
+        return new EntryLocation2D(0, 0).getRegionKey()
+            .getName();
+    }
+
+    /**
+     * Writes big entries, then overwrites them with small ones so that most of the file is unused, and removes one
+     * entry and replaces another with the marker.
+     */
+    private static void fill(ShadowPagingRegion<EntryLocation2D> region, Map<EntryLocation2D, byte[]> expected)
+        throws IOException {
+        Random random = new Random(42);
+
+        for (int size : new int[] { 6000, 300 }) {
+            Map<EntryLocation2D, ByteBuffer> batch = new HashMap<>();
+
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 4; z++) {
+                    byte[] data = new byte[size + random.nextInt(size)];
+                    random.nextBytes(data);
+
+                    EntryLocation2D key = new EntryLocation2D(x, z);
+                    expected.put(key, data);
+                    batch.put(key, ByteBuffer.wrap(data));
+                }
+            }
+
+            region.writeValues(batch);
+        }
+
+        EntryLocation2D removed = new EntryLocation2D(3, 3);
+        region.writeValues(Collections.singletonMap(removed, null));
+        expected.remove(removed);
+
+        EntryLocation2D marked = new EntryLocation2D(4, 3);
+        region.writeSpecial(marked, MARKER);
+        expected.put(marked, MARKER_DATA);
+    }
+
+    private static void write(ShadowPagingRegion<EntryLocation2D> region, Map<EntryLocation2D, byte[]> expected,
+        EntryLocation2D key, byte[] data) throws IOException {
+        new Random(key.getId()).nextBytes(data);
+
+        region.writeValues(Collections.singletonMap(key, ByteBuffer.wrap(data)));
+        expected.put(key, data);
+    }
+
+    private static void assertEntries(ShadowPagingRegion<EntryLocation2D> region,
+        Map<EntryLocation2D, byte[]> expected) throws IOException {
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                EntryLocation2D key = new EntryLocation2D(x, z);
+                Optional<ByteBuffer> value = region.readValue(key);
+                byte[] data = expected.get(key);
+
+                if (data == null) {
+                    Assertions.assertFalse(value.isPresent(), "unexpected entry " + key);
+                    continue;
+                }
+
+                Assertions.assertTrue(value.isPresent(), "missing entry " + key);
+
+                byte[] actual = new byte[value.get()
+                    .remaining()];
+                value.get()
+                    .get(actual);
+
+                Assertions.assertArrayEquals(data, actual, "entry " + key);
+            }
+        }
+    }
+}
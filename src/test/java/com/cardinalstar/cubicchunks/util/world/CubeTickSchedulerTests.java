@@ -0,0 +1,249 @@
+package com.cardinalstar.cubicchunks.util.world;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.world.NextTickListEntry;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CubeTickSchedulerTests {
+
+    private static final Block STONE = new Block(Material.rock) {};
+    private static final Block SAND = new Block(Material.sand) {};
+
+    /** Not a multiple of the wheel sizes, so that slots and levels are crossed at odd times. */
+    private static final long START = 1000;
+
+    @Test
+    public void ticksRunByTimeThenPriorityThenSchedulingOrder() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        NextTickListEntry late = entry(0, 0, 0, STONE, START + 5, 0);
+        NextTickListEntry urgent = entry(1, 0, 0, STONE, START + 3, -1);
+        NextTickListEntry first = entry(2, 0, 0, STONE, START + 3, 0);
+        NextTickListEntry second = entry(3, 0, 0, STONE, START + 3, 0);
+        NextTickListEntry earliest = entry(4, 0, 0, STONE, START + 1, 5);
+
+        scheduler.add(late, START);
+        scheduler.add(first, START);
+        scheduler.add(second, START);
+        scheduler.add(urgent, START);
+        scheduler.add(earliest, START);
+
+        List<NextTickListEntry> out = poll(scheduler, START + 5);
+
+        Assertions.assertEquals(5, out.size());
+        assertTick(earliest, out.get(0));
+        assertTick(urgent, out.get(1));
+        assertTick(first, out.get(2));
+        assertTick(second, out.get(3));
+        assertTick(late, out.get(4));
+        Assertions.assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void ticksWaitForTheirTime() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        scheduler.add(entry(0, 0, 0, STONE, START + 2, 0), START);
+
+        Assertions.assertTrue(poll(scheduler, START + 1).isEmpty());
+        Assertions.assertEquals(1, poll(scheduler, START + 2).size());
+        Assertions.assertTrue(poll(scheduler, START + 3).isEmpty());
+    }
+
+    @Test
+    public void ticksInThePastRunRightAway() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        scheduler.add(entry(0, 0, 0, STONE, START + 10, 0), START);
+        poll(scheduler, START);
+
+        scheduler.add(entry(1, 0, 0, STONE, START - 20, 0), START);
+
+        Assertions.assertEquals(1, poll(scheduler, START + 1).size());
+    }
+
+    @Test
+    public void duplicatesAreIgnored() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        Assertions.assertTrue(scheduler.add(entry(5, 6, 7, STONE, START + 1, 0), START));
+        Assertions.assertFalse(scheduler.add(entry(5, 6, 7, STONE, START + 8, 0), START));
+        Assertions.assertTrue(scheduler.add(entry(5, 6, 7, SAND, START + 1, 0), START));
+
+        Assertions.assertEquals(2, scheduler.size());
+        Assertions.assertTrue(scheduler.contains(entry(5, 6, 7, STONE, 0, 0)));
+
+        poll(scheduler, START + 1);
+
+        Assertions.assertFalse(scheduler.contains(entry(5, 6, 7, STONE, 0, 0)));
+        Assertions.assertTrue(scheduler.add(entry(5, 6, 7, STONE, START + 2, 0), START + 1));
+    }
+
+    @Test
+    public void farTicksRunOnTime() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        // the current slot, the first level, the second level, and past the wheel, plus each level's borders
+        long[] delays = { 0, 1, 255, 256, 257, 300, 1023, 16383, 16384, 16385, 20000, 40000, 100000 };
+
+        for (int i = 0; i < delays.length; i++) {
+            scheduler.add(entry(i, 0, 0, STONE, START + delays[i], 0), START);
+        }
+
+        int ran = 0;
+
+        for (long now = START; now <= START + 100000; now++) {
+            for (NextTickListEntry tick : poll(scheduler, now)) {
+                Assertions.assertEquals(START + delays[tick.xCoord], now, "tick " + tick.xCoord + " ran at");
+                Assertions.assertEquals(now, tick.scheduledTime);
+                ran++;
+            }
+        }
+
+        Assertions.assertEquals(delays.length, ran);
+        Assertions.assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void ticksScheduledWhileRunningAreRebucketed() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        scheduler.add(entry(0, 0, 0, STONE, START, 0), START);
+
+        // every tick schedules the next one further away, like a block that keeps rescheduling itself
+        long expected = START;
+        long delay = 1;
+
+        for (long now = START; now <= START + 70000; now++) {
+            List<NextTickListEntry> out = poll(scheduler, now);
+
+            if (now != expected) {
+                Assertions.assertTrue(out.isEmpty(), "ran early at " + now);
+                continue;
+            }
+
+            Assertions.assertEquals(1, out.size(), "missed at " + now);
+
+            expected = now + delay;
+            delay *= 2;
+            scheduler.add(entry(0, 0, 0, STONE, expected, 0), now);
+        }
+    }
+
+    @Test
+    public void limitLeavesTheRestForTheNextTick() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        for (int i = 0; i < 10; i++) {
+            scheduler.add(entry(i, 0, 0, STONE, START + 1, 0), START);
+        }
+
+        List<NextTickListEntry> out = new ArrayList<>();
+        scheduler.pollDue(START + 1, false, 4, out);
+
+        Assertions.assertEquals(4, out.size());
+        Assertions.assertEquals(6, scheduler.size());
+
+        out.clear();
+        scheduler.pollDue(START + 2, false, 100, out);
+
+        Assertions.assertEquals(6, out.size());
+        Assertions.assertEquals(4, out.get(0).xCoord);
+    }
+
+    @Test
+    public void runAllTakesTicksThatArentDue() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        scheduler.add(entry(0, 0, 0, STONE, START + 5, 0), START);
+        scheduler.add(entry(1, 0, 0, STONE, START + 50000, 0), START);
+
+        List<NextTickListEntry> out = new ArrayList<>();
+        scheduler.pollDue(START, true, 100, out);
+
+        Assertions.assertEquals(2, out.size());
+        Assertions.assertEquals(0, out.get(0).xCoord);
+        Assertions.assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void unloadedCubesDropTheirTicks() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        // one cube with a due tick, one in the first level and one past the wheel, and a tick in another cube
+        scheduler.add(entry(1, 2, 3, STONE, START, 0), START);
+        scheduler.add(entry(4, 5, 6, STONE, START + 10, 0), START);
+        scheduler.add(entry(7, 8, 9, STONE, START + 50000, 0), START);
+        scheduler.add(entry(17, 2, 3, STONE, START + 10, 0), START);
+
+        // moves the first tick to the due list without running it
+        List<NextTickListEntry> out = new ArrayList<>();
+        scheduler.pollDue(START, false, 0, out);
+
+        Assertions.assertEquals(3, scheduler.getForCube(0, 0, 0).size());
+
+        scheduler.removeCube(0, 0, 0);
+
+        Assertions.assertEquals(1, scheduler.size());
+        Assertions.assertTrue(scheduler.getForCube(0, 0, 0).isEmpty());
+        Assertions.assertFalse(scheduler.contains(entry(4, 5, 6, STONE, 0, 0)));
+
+        out = new ArrayList<>();
+        scheduler.pollDue(START + 60000, true, 100, out);
+
+        Assertions.assertEquals(1, out.size());
+        Assertions.assertEquals(17, out.get(0).xCoord);
+
+        // the cube's ticks are scheduled again when it's loaded again
+        Assertions.assertTrue(scheduler.add(entry(4, 5, 6, STONE, START + 60010, 0), START + 60000));
+        Assertions.assertEquals(1, scheduler.getForCube(0, 0, 0).size());
+    }
+
+    @Test
+    public void collectFindsAndRemovesTicksInTheArea() {
+        CubeTickScheduler scheduler = new CubeTickScheduler();
+
+        scheduler.add(entry(0, 0, 0, STONE, START + 1, 0), START);
+        scheduler.add(entry(15, 64, 15, STONE, START + 1, 0), START);
+        scheduler.add(entry(16, 0, 0, STONE, START + 1, 0), START);
+        scheduler.add(entry(-1, 0, 0, STONE, START + 1, 0), START);
+
+        List<NextTickListEntry> out = new ArrayList<>();
+        scheduler.collect(0, 16, 0, 16, false, out);
+
+        Assertions.assertEquals(2, out.size());
+        Assertions.assertEquals(4, scheduler.size());
+
+        out.clear();
+        scheduler.collect(0, 16, 0, 16, true, out);
+
+        Assertions.assertEquals(2, out.size());
+        Assertions.assertEquals(2, scheduler.size());
+        Assertions.assertEquals(2, poll(scheduler, START + 1).size());
+    }
+
+    private static List<NextTickListEntry> poll(CubeTickScheduler scheduler, long now) {
+        List<NextTickListEntry> out = new ArrayList<>();
+        scheduler.pollDue(now, false, Integer.MAX_VALUE, out);
+        return out;
+    }
+
+    private static void assertTick(NextTickListEntry expected, NextTickListEntry actual) {
+        Assertions.assertEquals(expected.xCoord, actual.xCoord);
+        Assertions.assertEquals(expected.scheduledTime, actual.scheduledTime);
+        Assertions.assertEquals(expected.priority, actual.priority);
+    }
+
+    private static NextTickListEntry entry(int x, int y, int z, Block block, long time, int priority) {
+        NextTickListEntry entry = new NextTickListEntry(x, y, z, block);
+        entry.setScheduledTime(time);
+        entry.setPriority(priority);
+        return entry;
+    }
+}
@@ -0,0 +1,285 @@
+package com.cardinalstar.cubicchunks.world.core;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.cardinalstar.cubicchunks.api.ICube;
+import com.cardinalstar.cubicchunks.util.Coords;
+
+public class StagingHeightMapTests {
+
+    private static final Block AIR = new Block(Material.air) {
+
+        {
+            setLightOpacity(0);
+        }
+    };
+    private static final Block STONE = new Block(Material.rock) {};
+
+    @Test
+    public void emptyColumnsHaveNoHeight() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        Assertions.assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(0, 0));
+
+        TestCube cube = new TestCube(0);
+        cube.set(3, 5, 4, STONE);
+
+        heightMap.addStagedCube(cube.cube);
+        heightMap.addStagedCube(new TestCube(1, false).cube);
+
+        Assertions.assertEquals(5, heightMap.getTopBlockY(3, 4));
+        Assertions.assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(4, 3));
+        Assertions.assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(15, 15));
+    }
+
+    @Test
+    public void insertingRaisesTheTop() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        TestCube middle = new TestCube(0);
+        middle.set(3, 5, 4, STONE);
+
+        TestCube above = new TestCube(2);
+        above.set(3, 1, 4, STONE);
+
+        TestCube below = new TestCube(-1);
+        below.set(3, 15, 4, STONE);
+        below.set(8, 15, 8, STONE);
+
+        heightMap.addStagedCube(middle.cube);
+        Assertions.assertEquals(5, heightMap.getTopBlockY(3, 4));
+
+        heightMap.addStagedCube(above.cube);
+        Assertions.assertEquals(33, heightMap.getTopBlockY(3, 4));
+
+        // a cube below the top doesn't change it, but fills the columns the others don't have blocks in
+        heightMap.addStagedCube(below.cube);
+        Assertions.assertEquals(33, heightMap.getTopBlockY(3, 4));
+        Assertions.assertEquals(-1, heightMap.getTopBlockY(8, 8));
+    }
+
+    @Test
+    public void removingFallsBackToTheCubesBelow() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        TestCube top = new TestCube(3);
+        top.set(0, 7, 0, STONE);
+
+        TestCube middle = new TestCube(1);
+        middle.set(0, 2, 0, STONE);
+        middle.set(0, 14, 0, STONE);
+
+        TestCube bottom = new TestCube(-2);
+        bottom.set(0, 0, 0, STONE);
+
+        heightMap.addStagedCube(bottom.cube);
+        heightMap.addStagedCube(top.cube);
+        heightMap.addStagedCube(middle.cube);
+
+        Assertions.assertEquals(55, heightMap.getTopBlockY(0, 0));
+
+        // removing a cube below the top block changes nothing
+        heightMap.removeStagedCube(bottom.cube);
+        Assertions.assertEquals(55, heightMap.getTopBlockY(0, 0));
+
+        heightMap.addStagedCube(bottom.cube);
+        heightMap.removeStagedCube(top.cube);
+        Assertions.assertEquals(30, heightMap.getTopBlockY(0, 0));
+
+        heightMap.removeStagedCube(middle.cube);
+        Assertions.assertEquals(-32, heightMap.getTopBlockY(0, 0));
+
+        heightMap.removeStagedCube(bottom.cube);
+        Assertions.assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(0, 0));
+    }
+
+    @Test
+    public void removingAnUnstagedCubeDoesNothing() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        TestCube staged = new TestCube(0);
+        staged.set(1, 1, 1, STONE);
+
+        TestCube other = new TestCube(0);
+
+        heightMap.addStagedCube(staged.cube);
+        heightMap.removeStagedCube(other.cube);
+        heightMap.removeStagedCube(new TestCube(5).cube);
+
+        Assertions.assertEquals(1, heightMap.getTopBlockY(1, 1));
+    }
+
+    @Test
+    public void stagingAnotherCubeAtTheSameYReplacesIt() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        TestCube first = new TestCube(0);
+        first.set(2, 9, 2, STONE);
+
+        TestCube second = new TestCube(0);
+        second.set(2, 4, 2, STONE);
+
+        heightMap.addStagedCube(first.cube);
+        heightMap.addStagedCube(second.cube);
+
+        Assertions.assertEquals(4, heightMap.getTopBlockY(2, 2));
+
+        heightMap.removeStagedCube(second.cube);
+
+        Assertions.assertEquals(Coords.NO_HEIGHT, heightMap.getTopBlockY(2, 2));
+    }
+
+    @Test
+    public void opacityChangesMoveTheTop() {
+        StagingHeightMap heightMap = new StagingHeightMap();
+
+        TestCube upper = new TestCube(1);
+        TestCube lower = new TestCube(0);
+        lower.set(5, 3, 5, STONE);
+
+        heightMap.addStagedCube(upper.cube);
+        heightMap.addStagedCube(lower.cube);
+
+        upper.set(5, 6, 5, STONE);
+        heightMap.onOpacityChange(5, 22, 5, 255);
+        Assertions.assertEquals(22, heightMap.getTopBlockY(5, 5));
+
+        upper.set(5, 2, 5, STONE);
+        heightMap.onOpacityChange(5, 18, 5, 255);
+        Assertions.assertEquals(22, heightMap.getTopBlockY(5, 5));
+
+        upper.set(5, 6, 5, AIR);
+        heightMap.onOpacityChange(5, 22, 5, 0);
+        Assertions.assertEquals(18, heightMap.getTopBlockY(5, 5));
+
+        upper.set(5, 2, 5, AIR);
+        heightMap.onOpacityChange(5, 18, 5, 0);
+        Assertions.assertEquals(3, heightMap.getTopBlockY(5, 5));
+
+        // the cube isn't staged, so it's summarized from its blocks once it is
+        TestCube unstaged = new TestCube(4);
+        unstaged.set(5, 0, 5, STONE);
+        heightMap.onOpacityChange(5, 64, 5, 255);
+        Assertions.assertEquals(3, heightMap.getTopBlockY(5, 5));
+    }
+
+    @Test
+    public void matchesTheBlocks() {
+        Random random = new Random(42);
+        StagingHeightMap heightMap = new StagingHeightMap();
+        List<TestCube> staged = new ArrayList<>();
+
+        for (int round = 0; round < 2000; round++) {
+            int action = random.nextInt(10);
+
+            if (action < 3) {
+                TestCube cube = new TestCube(random.nextInt(8) - 4);
+
+                for (int i = random.nextInt(40); i > 0; i--) {
+                    cube.set(random.nextInt(16), random.nextInt(16), random.nextInt(16), STONE);
+                }
+
+                heightMap.addStagedCube(cube.cube);
+
+                staged.removeIf(other -> other.cube.getY() == cube.cube.getY());
+                staged.add(cube);
+            } else if (action < 5 && !staged.isEmpty()) {
+                heightMap.removeStagedCube(staged.remove(random.nextInt(staged.size())).cube);
+            } else if (!staged.isEmpty()) {
+                TestCube cube = staged.get(random.nextInt(staged.size()));
+                int x = random.nextInt(16);
+                int y = random.nextInt(16);
+                int z = random.nextInt(16);
+                boolean opaque = random.nextBoolean();
+
+                cube.set(x, y, z, opaque ? STONE : AIR);
+                heightMap.onOpacityChange(x, Coords.localToBlock(cube.cube.getY(), y), z, opaque ? 255 : 0);
+            }
+
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    Assertions.assertEquals(
+                        expectedTop(staged, x, z),
+                        heightMap.getTopBlockY(x, z),
+                        "round " + round + " at " + x + ", " + z);
+                }
+            }
+        }
+    }
+
+    private static int expectedTop(List<TestCube> cubes, int x, int z) {
+        int top = Coords.NO_HEIGHT;
+
+        for (TestCube cube : cubes) {
+            for (int y = 15; y >= 0; y--) {
+                if (cube.blocks[y << 8 | z << 4 | x] == STONE) {
+                    top = Math.max(top, Coords.localToBlock(cube.cube.getY(), y));
+                    break;
+                }
+            }
+        }
+
+        return top;
+    }
+
+    /**
+     * A cube with just a y and its blocks, which is all the staging heightmap reads.
+     */
+    private static final class TestCube {
+
+        private final Block[] blocks = new Block[4096];
+        private final ICube cube;
+
+        TestCube(int cubeY) {
+            this(cubeY, true);
+        }
+
+        TestCube(int cubeY, boolean hasStorage) {
+            Arrays.fill(blocks, AIR);
+
+            ExtendedBlockStorage storage = !hasStorage ? null
+                : new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), true) {
+
+                    @Override
+                    public Block getBlockByExtId(int x, int y, int z) {
+                        return blocks[y << 8 | z << 4 | x];
+                    }
+
+                    @Override
+                    public boolean isEmpty() {
+                        for (Block block : blocks) {
+                            if (block != AIR) return false;
+                        }
+
+                        return true;
+                    }
+                };
+
+            this.cube = (ICube) Proxy.newProxyInstance(
+                ICube.class.getClassLoader(),
+                new Class<?>[] { ICube.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getY" -> cubeY;
+                    case "getStorage" -> storage;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        }
+
+        void set(int x, int y, int z, Block block) {
+            blocks[y << 8 | z << 4 | x] = block;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.cardinalstar.cubicchunks.world.worldgen.modern;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.cardinalstar.cubicchunks.world.worldgen.data.NoisePrecalculator;
+import com.cardinalstar.cubicchunks.world.worldgen.data.SamplerFactory;
+import com.cardinalstar.cubicchunks.world.worldgen.noise.NoiseSampler;
+
+/**
+ * Compares the cave generators' noise layers at their lattice spacing against sampling every block.
+ */
+public class CaveNoiseLatticeTests {
+
+    private static final int SEEDS = 4;
+    private static final int CUBES_PER_SEED = 32;
+
+    @Test
+    public void noodleCaveError() {
+        for (NoodleCaveGenerator.Layers layer : NoodleCaveGenerator.Layers.values()) {
+            assertError(layer, 0.05, 0.01);
+        }
+    }
+
+    @Test
+    public void spaghettiCaveError() {
+        for (SpaghettiCaveGenerator.Layers layer : SpaghettiCaveGenerator.Layers.values()) {
+            assertError(layer, 0.03, 0.005);
+        }
+    }
+
+    private static void assertError(SamplerFactory layer, double maxError, double rmsError) {
+        int spacing = layer.getLatticeSpacing();
+
+        double[] exact = new double[4096];
+        double[] coarse = new double[4096];
+
+        double max = 0;
+        double squares = 0;
+        long samples = 0;
+
+        for (int seed = 0; seed < SEEDS; seed++) {
+            NoiseSampler sampler = layer.createSampler(new Random(seed));
+            Random positions = new Random(seed * 31L);
+
+            for (int cube = 0; cube < CUBES_PER_SEED; cube++) {
+                int wx = (positions.nextInt(2000) - 1000) << 4;
+                int wy = (positions.nextInt(64) - 32) << 4;
+                int wz = (positions.nextInt(2000) - 1000) << 4;
+
+                NoisePrecalculator.sampleCube(sampler, 1, wx, wy, wz, exact, 0);
+                NoisePrecalculator.sampleCube(sampler, spacing, wx, wy, wz, coarse, 0);
+
+                for (int i = 0; i < 4096; i++) {
+                    double error = Math.abs(exact[i] - coarse[i]);
+
+                    max = Math.max(max, error);
+                    squares += error * error;
+                    samples++;
+                }
+            }
+        }
+
+        double rms = Math.sqrt(squares / samples);
+
+        Assertions.assertTrue(max <= maxError, layer + ": max error " + max + " > " + maxError);
+        Assertions.assertTrue(rms <= rmsError, layer + ": rms error " + rms + " > " + rmsError);
+    }
+}
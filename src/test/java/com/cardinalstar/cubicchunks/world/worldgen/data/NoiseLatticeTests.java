@@ -0,0 +1,66 @@
+package com.cardinalstar.cubicchunks.world.worldgen.data;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.cardinalstar.cubicchunks.world.worldgen.noise.NoiseSampler;
+import com.cardinalstar.cubicchunks.world.worldgen.noise.OctavesSampler;
+import com.cardinalstar.cubicchunks.world.worldgen.noise.ScaledNoise;
+
+/**
+ * Compares lattice-interpolated noise against sampling every block.
+ */
+public class NoiseLatticeTests {
+
+    @Test
+    public void latticePointsAreExact() {
+        NoiseSampler sampler = new ScaledNoise(new OctavesSampler(new Random(1), 3), 0.05);
+
+        double[] exact = new double[4096];
+        double[] coarse = new double[4096];
+
+        for (int spacing = 2; spacing <= 16; spacing <<= 1) {
+            NoisePrecalculator.sampleCube(sampler, 1, 160, -48, 320, exact, 0);
+            NoisePrecalculator.sampleCube(sampler, spacing, 160, -48, 320, coarse, 0);
+
+            for (int z = 0; z < 16; z += spacing) {
+                for (int y = 0; y < 16; y += spacing) {
+                    for (int x = 0; x < 16; x += spacing) {
+                        int i = x | y << 4 | z << 8;
+                        Assertions.assertEquals(exact[i], coarse[i], 0, "spacing " + spacing);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void offsetIsRespected() {
+        NoiseSampler sampler = new ScaledNoise(new OctavesSampler(new Random(2), 2), 0.01);
+
+        double[] alone = new double[4096];
+        double[] layered = new double[4096 * 2];
+
+        NoisePrecalculator.sampleCube(sampler, 4, 0, 0, 0, alone, 0);
+        NoisePrecalculator.sampleCube(sampler, 4, 0, 0, 0, layered, 4096);
+
+        for (int i = 0; i < 4096; i++) {
+            Assertions.assertEquals(0, layered[i]);
+            Assertions.assertEquals(alone[i], layered[4096 + i]);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSpacing() {
+        NoiseSampler sampler = new ScaledNoise(new OctavesSampler(new Random(3), 1), 0.01);
+
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> NoisePrecalculator.sampleCube(sampler, 3, 0, 0, 0, new double[4096], 0));
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> NoisePrecalculator.sampleCube(sampler, 32, 0, 0, 0, new double[4096], 0));
+    }
+}
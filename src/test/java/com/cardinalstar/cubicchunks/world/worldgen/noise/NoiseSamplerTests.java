@@ -0,0 +1,138 @@
+package com.cardinalstar.cubicchunks.world.worldgen.noise;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The batched sampling methods must return exactly what sampling each point does, down to the last bit, so that
+ * terrain doesn't depend on which path generated it.
+ */
+public class NoiseSamplerTests {
+
+    @Test
+    public void simplexGridMatchesPoints() {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 16; round++) {
+            assertGridMatchesPoints(new SimplexNoiseSampler(random), random);
+        }
+    }
+
+    @Test
+    public void octavesGridMatchesPoints() {
+        Random random = new Random(2);
+
+        for (int octaves = 1; octaves <= 8; octaves++) {
+            assertGridMatchesPoints(new OctavesSampler(random, octaves), random);
+        }
+    }
+
+    @Test
+    public void octavesOfOtherSamplersMatchPoints() {
+        Random random = new Random(3);
+
+        // not all simplex octaves, which takes the per point path
+        OctavesSampler sampler = new OctavesSampler(() -> new ScaledNoise(new SimplexNoiseSampler(random), 0.5), 4);
+
+        assertGridMatchesPoints(sampler, random);
+    }
+
+    @Test
+    public void scaledGridMatchesPoints() {
+        Random random = new Random(4);
+
+        assertGridMatchesPoints(new ScaledNoise(new OctavesSampler(random, 4), 0.013, 0.007, 0.021), random);
+    }
+
+    @Test
+    public void regionMatchesPoints() {
+        Random random = new Random(5);
+        NoiseSampler sampler = new ScaledNoise(new OctavesSampler(random, 6), 1 / 171.103);
+
+        int sizeX = 5, sizeY = 17, sizeZ = 5;
+        double originX = -1234.5, originY = -64, originZ = 98765.25;
+        double strideX = 4, strideY = 8, strideZ = 4;
+
+        double[] out = new double[3 + sizeX * sizeY * sizeZ];
+
+        sampler.sampleRegion(out, 3, originX, originY, originZ, strideX, strideY, strideZ, sizeX, sizeY, sizeZ);
+
+        int i = 3;
+
+        for (int z = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    double px = originX + x * strideX;
+                    double py = originY + y * strideY;
+                    double pz = originZ + z * strideZ;
+
+                    assertSame(sampler.sample(px, py, pz), out[i++], px, py, pz);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void gridOnlyWritesItsRange() {
+        NoiseSampler sampler = new OctavesSampler(new Random(6), 3);
+
+        double[] out = new double[2 + 2 * 3 * 4 + 2];
+        Arrays.fill(out, Double.NaN);
+
+        sampler.sampleGrid(new double[] { 0.5, 1.5 }, new double[] { 0, 1, 2 }, new double[] { 3, 4, 5, 6 }, out, 2);
+
+        Assertions.assertTrue(Double.isNaN(out[0]) && Double.isNaN(out[1]));
+        Assertions.assertTrue(Double.isNaN(out[out.length - 2]) && Double.isNaN(out[out.length - 1]));
+
+        for (int i = 2; i < out.length - 2; i++) {
+            Assertions.assertFalse(Double.isNaN(out[i]), "index " + i);
+        }
+    }
+
+    /**
+     * Samples a grid of irregular, unsorted coordinates, from negative to large values and across the simplex
+     * lattice's cell borders, and compares every point against {@link NoiseSampler#sample(double, double, double)}.
+     */
+    private static void assertGridMatchesPoints(NoiseSampler sampler, Random random) {
+        double[] xs = coordinates(random, 7);
+        double[] ys = coordinates(random, 5);
+        double[] zs = coordinates(random, 6);
+
+        double[] out = new double[1 + xs.length * ys.length * zs.length];
+
+        sampler.sampleGrid(xs, ys, zs, out, 1);
+
+        int i = 1;
+
+        for (int z = 0; z < zs.length; z++) {
+            for (int y = 0; y < ys.length; y++) {
+                for (int x = 0; x < xs.length; x++) {
+                    assertSame(sampler.sample(xs[x], ys[y], zs[z]), out[i++], xs[x], ys[y], zs[z]);
+                }
+            }
+        }
+    }
+
+    private static double[] coordinates(Random random, int count) {
+        double[] coords = new double[count];
+
+        coords[0] = 0;
+        coords[1] = -random.nextInt(100);
+
+        for (int i = 2; i < count; i++) {
+            coords[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(7));
+        }
+
+        return coords;
+    }
+
+    private static void assertSame(double expected, double actual, double x, double y, double z) {
+        Assertions.assertEquals(
+            Double.doubleToRawLongBits(expected),
+            Double.doubleToRawLongBits(actual),
+            () -> "at " + x + ", " + y + ", " + z + ": " + actual + ", expected " + expected);
+    }
+}